@@ -20,13 +20,17 @@ package pl.betoncraft.betonquest.editor;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.ResourceBundle;
-import java.util.zip.ZipFile;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 
 import javafx.application.Application;
-import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
@@ -41,9 +45,13 @@ import javafx.stage.Stage;
 import pl.betoncraft.betonquest.editor.controller.ConversationController;
 import pl.betoncraft.betonquest.editor.controller.EcoController;
 import pl.betoncraft.betonquest.editor.controller.ExceptionController;
+import pl.betoncraft.betonquest.editor.controller.LoadingController;
 import pl.betoncraft.betonquest.editor.controller.MainController;
 import pl.betoncraft.betonquest.editor.controller.OtherController;
+import pl.betoncraft.betonquest.editor.controller.RootController;
 import pl.betoncraft.betonquest.editor.controller.TabsController;
+import pl.betoncraft.betonquest.editor.data.PendingReferences;
+import pl.betoncraft.betonquest.editor.data.StringPool;
 import pl.betoncraft.betonquest.editor.model.Condition;
 import pl.betoncraft.betonquest.editor.model.Conversation;
 import pl.betoncraft.betonquest.editor.model.Event;
@@ -52,7 +60,17 @@ import pl.betoncraft.betonquest.editor.model.JournalEntry;
 import pl.betoncraft.betonquest.editor.model.Objective;
 import pl.betoncraft.betonquest.editor.model.PointCategory;
 import pl.betoncraft.betonquest.editor.model.QuestPackage;
+import pl.betoncraft.betonquest.editor.model.SymbolTable;
 import pl.betoncraft.betonquest.editor.model.Tag;
+import pl.betoncraft.betonquest.editor.model.exception.ConversationChangedException;
+import pl.betoncraft.betonquest.editor.persistence.Compression;
+import pl.betoncraft.betonquest.editor.persistence.EditJournal;
+import pl.betoncraft.betonquest.editor.persistence.LoadRecord;
+import pl.betoncraft.betonquest.editor.persistence.LoadTask;
+import pl.betoncraft.betonquest.editor.persistence.PackagePatch;
+import pl.betoncraft.betonquest.editor.persistence.RecoverTask;
+import pl.betoncraft.betonquest.editor.persistence.ReloadTask;
+import pl.betoncraft.betonquest.editor.persistence.SaveTask;
 
 /**
  * Main class for the application.
@@ -65,7 +83,15 @@ public class BetonQuestEditor extends Application {
 	private Stage stage;
 	private ResourceBundle language;
 	
-	private HashMap<String, QuestPackage> loadedPackages = new HashMap<>();
+	private Map<String, QuestPackage> loadedPackages = new ConcurrentHashMap<>();
+	private PendingReferences pendingReferences = new PendingReferences();
+	private SymbolTable symbols = new SymbolTable();
+	private StringPool stringPool = new StringPool();
+	private Map<QuestPackage, LoadRecord> loadRecords = Collections.synchronizedMap(new WeakHashMap<>());
+	private Map<QuestPackage, SaveTask> saves = new HashMap<>();
+	private Map<QuestPackage, File> queuedSaves = new HashMap<>();
+	private EditJournal journal = EditJournal.getDefault();
+	private Compression compression = Compression.DEFAULT;
 	private QuestPackage currentPackage;
 	private static File autoLoadPackage;
 	private static File autoSavePackage;
@@ -108,10 +134,24 @@ public class BetonQuestEditor extends Application {
 			stage.setMinWidth(800);
 			stage.setMaximized(true);
 			stage.show();
+			List<PackagePatch> recovered = journal.recover();
+			try {
+				journal.open();
+			} catch (IOException e) {
+				// editing is still possible, only without recovering changes
+				journal.disable();
+				ExceptionController.display(e);
+			}
+			if (!recovered.isEmpty()) {
+				if (confirm("recover-changes")) {
+					recover(recovered);
+				} else {
+					journal.discardRecovered();
+				}
+			}
 			// load package for debugging
 			if (autoLoadPackage != null) {
-				QuestPackage pack = QuestPackage.loadFromZip(new ZipFile(autoLoadPackage));
-				display(pack);
+				load(autoLoadPackage);
 			}
 			if (autoSelect > 0) {
 				TabsController.selectTab(autoSelect);
@@ -143,11 +183,48 @@ public class BetonQuestEditor extends Application {
 	}
 	
 	/**
-	 * @return the list of loaded packages
+	 * @return the map of loaded packages; it can be used from any thread
 	 */
-	public HashMap<String, QuestPackage> getPackages() {
+	public Map<String, QuestPackage> getPackages() {
 		return loadedPackages;
 	}
+	
+	/**
+	 * @return the table of references to packages which are not loaded yet
+	 */
+	public PendingReferences getPendingReferences() {
+		return pendingReferences;
+	}
+
+	/**
+	 * @return the pool of names and instructions shared by loaded packages
+	 */
+	public StringPool getStringPool() {
+		return stringPool;
+	}
+
+	/**
+	 * @return records of files from which packages were loaded; it can be
+	 *         used from any thread
+	 */
+	public Map<QuestPackage, LoadRecord> getLoadRecords() {
+		return loadRecords;
+	}
+
+	/**
+	 * @return how saved zip files are compressed
+	 */
+	public Compression getCompression() {
+		return compression;
+	}
+
+	/**
+	 * @param compression
+	 *            how saved zip files will be compressed
+	 */
+	public void setCompression(Compression compression) {
+		this.compression = compression;
+	}
 
 	/**
 	 * @return the package currently displayed in the view
@@ -156,6 +233,186 @@ public class BetonQuestEditor extends Application {
 		return currentPackage;
 	}
 	
+	/**
+	 * Loads packages from the .zip file or a directory in the background,
+	 * showing the progress. The packages are added to loaded packages and the
+	 * first one is displayed when they're ready.
+	 * 
+	 * @param file
+	 *            zip file or directory with packages
+	 * @return the task loading the packages
+	 */
+	public LoadTask load(File file) {
+		LoadTask task = new LoadTask(file);
+		task.setOnSucceeded(event -> {
+			task.publish();
+			RootController.setPackages(loadedPackages.values());
+			display(task.getValue().get(0));
+			for (QuestPackage pack : task.getValue()) {
+				LoadRecord record = loadRecords.get(pack);
+				journal.track(pack, record.getLocation(), record.getStamps(), false);
+			}
+			if (!task.getDuplicates().isEmpty()) {
+				showWarning("duplicate-packages", task.getDuplicates());
+			}
+			List<String> missing = pendingReferences.getMissingPackages();
+			if (!missing.isEmpty()) {
+				showWarning("missing-packages", missing);
+			}
+			if (!task.getErrors().isEmpty()) {
+				showWarning("invalid-values", task.getErrors());
+			}
+		});
+		task.setOnFailed(event -> ExceptionController.display(task.getException()));
+		LoadingController.display(task);
+		task.start();
+		return task;
+	}
+	
+	/**
+	 * Loads packages with changes recovered from the journal of the previous
+	 * session, showing the progress. The recovered packages are marked as
+	 * changed, so they can be saved. Changes of the previous session are
+	 * discarded only if the recovery succeeds.
+	 * 
+	 * @param patches
+	 *            changes of packages read from the journal
+	 * @return the task loading the packages
+	 */
+	public RecoverTask recover(List<PackagePatch> patches) {
+		RecoverTask task = new RecoverTask(patches);
+		task.setOnSucceeded(event -> {
+			task.publish();
+			if (!task.getValue().isEmpty()) {
+				RootController.setPackages(loadedPackages.values());
+				display(task.getValue().get(0));
+				for (QuestPackage pack : task.getValue()) {
+					LoadRecord record = loadRecords.get(pack);
+					journal.track(pack, record.getLocation(), record.getStamps(), true);
+				}
+			}
+			journal.discardRecovered();
+			if (!task.getSkipped().isEmpty()) {
+				showWarning("unrecoverable-packages", task.getSkipped());
+			}
+		});
+		task.setOnFailed(event -> ExceptionController.display(task.getException()));
+		LoadingController.display(task);
+		task.start();
+		return task;
+	}
+	
+	/**
+	 * Reloads files of the package which were changed since it was loaded,
+	 * for example by another tool. The package is patched in place and
+	 * refreshed if it's displayed.
+	 * 
+	 * @param pack
+	 *            the package to reload
+	 * @return the task reloading the package or null if the package was not
+	 *         loaded from a file
+	 */
+	public ReloadTask reload(QuestPackage pack) {
+		LoadRecord record = loadRecords.get(pack);
+		if (record == null) {
+			return null;
+		}
+		ReloadTask task = new ReloadTask(pack, record);
+		task.setOnSucceeded(event -> {
+			try {
+				task.apply();
+				journal.track(pack, record.getLocation(), record.getStamps(), true);
+				if (pack.equals(currentPackage)) {
+					refresh();
+				}
+				if (!task.getErrors().isEmpty()) {
+					showWarning("invalid-values", task.getErrors());
+				}
+			} catch (Exception e) {
+				ExceptionController.display(e);
+			}
+		});
+		task.setOnFailed(event -> ExceptionController.display(task.getException()));
+		LoadingController.display(task);
+		task.start();
+		return task;
+	}
+	
+	/**
+	 * Offers to reload the package of a conversation which could not be
+	 * loaded, because its file has changed since the package was loaded.
+	 * 
+	 * @param e
+	 *            the exception thrown when loading the conversation
+	 */
+	public void conversationChanged(ConversationChangedException e) {
+		if (confirm("conversation-changed")) {
+			reload(e.getConversation().getPack());
+		}
+	}
+	
+	/**
+	 * Saves the package to the .zip file or the directory in the background.
+	 * Only one save of a package runs at a time; if the package is being
+	 * saved already, it will be saved again when that finishes. The package
+	 * can be edited while it's being saved.
+	 * 
+	 * @param pack
+	 *            the package to save
+	 * @param target
+	 *            target zip file or directory, in which the package will be
+	 *            saved in its own subdirectory
+	 * @return the task saving the package or null if the save was queued or
+	 *         could not be started
+	 */
+	public SaveTask save(QuestPackage pack, File target) {
+		if (saves.containsKey(pack)) {
+			queuedSaves.put(pack, target);
+			return null;
+		}
+		SaveTask task;
+		try {
+			task = new SaveTask(pack, target, compression);
+		} catch (ConversationChangedException e) {
+			conversationChanged(e);
+			return null;
+		} catch (IOException e) {
+			ExceptionController.display(e);
+			return null;
+		}
+		saves.put(pack, task);
+		task.setOnSucceeded(event -> {
+			rebase(pack, task);
+			saved(pack);
+		});
+		task.setOnFailed(event -> {
+			pack.getChanges().markAll();
+			ExceptionController.display(task.getException());
+			saved(pack);
+		});
+		task.start();
+		return task;
+	}
+	
+	/**
+	 * Sets the new base of the package after it was saved.
+	 */
+	private void rebase(QuestPackage pack, SaveTask task) {
+		pack.setSaveBase(task.getValue());
+		journal.track(pack, task.getLocation(), task.getStamps(), false);
+	}
+	
+	/**
+	 * Starts the queued save of the package, if there is one.
+	 */
+	private void saved(QuestPackage pack) {
+		saves.remove(pack);
+		File next = queuedSaves.remove(pack);
+		if (next != null) {
+			save(pack, next);
+		}
+	}
+	
 	/**
 	 * Displays a package in the view.
 	 */
@@ -196,98 +453,89 @@ public class BetonQuestEditor extends Application {
 	}
 	
 	/**
-	 * @return all conditions from loaded packages, the ones from current package first
+	 * @return live views of objects from all loaded packages, by their types
+	 */
+	public SymbolTable getSymbols() {
+		symbols.setPackages(loadedPackages.values(), currentPackage);
+		return symbols;
+	}
+	
+	/**
+	 * @return all conditions from loaded packages, the ones from current
+	 *         package first; it's a live view which can't be modified
 	 */
 	public ObservableList<Condition> getAllConditions() {
-		ObservableList<Condition> list = FXCollections.observableArrayList();
-		list.addAll(currentPackage.getConditions());
-		loadedPackages.values().forEach(pack -> {
-			if (!pack.equals(currentPackage)) {
-				list.addAll(pack.getConditions());
-			}
-		});
-		return list;
+		return getSymbols().getConditions();
 	}
 	
 	/**
-	 * @return all events from loaded packages, the ones from current package first
+	 * @return all events from loaded packages, the ones from current
+	 *         package first; it's a live view which can't be modified
 	 */
 	public ObservableList<Event> getAllEvents() {
-		ObservableList<Event> list = FXCollections.observableArrayList();
-		list.addAll(currentPackage.getEvents());
-		loadedPackages.values().forEach(pack -> {
-			if (!pack.equals(currentPackage)) {
-				list.addAll(pack.getEvents());
-			}
-		});
-		return list;
+		return getSymbols().getEvents();
 	}
 	
 	/**
-	 * @return all objectives from loaded packages, the ones from current package first
+	 * @return all objectives from loaded packages, the ones from current
+	 *         package first; it's a live view which can't be modified
 	 */
 	public ObservableList<Objective> getAllObjectives() {
-		ObservableList<Objective> list = FXCollections.observableArrayList();
-		list.addAll(currentPackage.getObjectives());
-		loadedPackages.values().forEach(pack -> {
-			if (!pack.equals(currentPackage)) {
-				list.addAll(pack.getObjectives());
-			}
-		});
-		return list;
+		return getSymbols().getObjectives();
 	}
 	
 	/**
-	 * @return all conversations from loaded packages, the ones from current package first
+	 * @return all conversations from loaded packages, the ones from current
+	 *         package first; it's a live view which can't be modified
 	 */
 	public ObservableList<Conversation> getAllConversations() {
-		ObservableList<Conversation> list = FXCollections.observableArrayList();
-		list.addAll(currentPackage.getConversations());
-		loadedPackages.values().forEach(pack -> {
-			if (!pack.equals(currentPackage)) {
-				list.addAll(pack.getConversations());
-			}
-		});
-		return list;
+		return getSymbols().getConversations();
 	}
 	
 	/**
-	 * @return all items from loaded packages, the ones from current package first
+	 * @return all items from loaded packages, the ones from current
+	 *         package first; it's a live view which can't be modified
 	 */
 	public ObservableList<Item> getAllItems() {
-		ObservableList<Item> list = FXCollections.observableArrayList();
-		list.addAll(currentPackage.getItems());
-		loadedPackages.values().forEach(pack -> {
-			if (!pack.equals(currentPackage)) {
-				list.addAll(pack.getItems());
-			}
-		});
-		return list;
+		return getSymbols().getItems();
 	}
 	
+	/**
+	 * @return all journal entries from loaded packages, the ones from current
+	 *         package first; it's a live view which can't be modified
+	 */
 	public ObservableList<JournalEntry> getAllEntries() {
-		ObservableList<JournalEntry> list = FXCollections.observableArrayList();
-		list.addAll(currentPackage.getJournal());
-		loadedPackages.values().forEach(pack -> {
-			if (!pack.equals(currentPackage)) {
-				list.addAll(pack.getJournal());
-			}
-		});
-		return list;
+		return getSymbols().getJournal();
 	}
 
 	/**
-	 * @return all tags from loaded packages, the ones from current package first
+	 * @return all tags from loaded packages, including ones used only by
+	 *         instructions, the ones from current package first; it's a live
+	 *         view which can't be modified
 	 */
 	public ObservableList<Tag> getAllTags() {
-		return FXCollections.observableArrayList(); // TODO extract tags from events, conditions etc.
+		discoverTags();
+		return getSymbols().getTags();
 	}
 
 	/**
-	 * @return all point categories from loaded packages, the ones from current package first
+	 * @return all point categories from loaded packages, including ones used
+	 *         only by instructions, the ones from current package first; it's
+	 *         a live view which can't be modified
 	 */
 	public ObservableList<PointCategory> getAllPoints() {
-		return FXCollections.observableArrayList(); // TODO extract points from events, conditions etc.
+		discoverTags();
+		return getSymbols().getPoints();
+	}
+	
+	/**
+	 * Makes sure tags and point categories used by instructions of all
+	 * packages were found.
+	 */
+	private void discoverTags() {
+		for (QuestPackage pack : loadedPackages.values()) {
+			pack.getTagDiscovery().discover();
+		}
 	}
 	
 	/**
@@ -302,6 +550,21 @@ public class BetonQuestEditor extends Application {
 		alert.showAndWait();
 	}
 	
+	/**
+	 * Shows a warning pop-up window with specified translated message and a
+	 * list of affected things, for example packages.
+	 * 
+	 * @param message ID of message
+	 * @param details lines displayed below the message
+	 */
+	public static void showWarning(String message, List<String> details) {
+		Alert alert = new Alert(AlertType.WARNING);
+		alert.setHeaderText(BetonQuestEditor.getInstance().getLanguage().getString(message));
+		alert.setContentText(String.join("\n", details));
+		alert.getDialogPane().getStylesheets().add(instance.getClass().getResource("resource/style.css").toExternalForm());
+		alert.showAndWait();
+	}
+	
 	public static boolean confirm(String message) {
 		Alert alert = new Alert(AlertType.CONFIRMATION);
 		alert.setHeaderText(BetonQuestEditor.getInstance().getLanguage().getString(message));
@@ -339,12 +602,49 @@ public class BetonQuestEditor extends Application {
 
 	@Override
 	public void stop() throws Exception {
+		for (Map.Entry<QuestPackage, SaveTask> entry : saves.entrySet()) {
+			finish(entry.getKey(), entry.getValue());
+		}
+		saves.clear();
+		for (Map.Entry<QuestPackage, File> entry : queuedSaves.entrySet()) {
+			saveNow(entry.getKey(), entry.getValue());
+		}
+		queuedSaves.clear();
 		if (autoSavePackage != null) try {
 			autoSavePackage.createNewFile();
-			currentPackage.saveToZip(autoSavePackage);
+			saveNow(currentPackage, autoSavePackage);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
+		journal.close();
 		super.stop();
 	}
+	
+	/**
+	 * Saves the package on the current thread.
+	 */
+	private void saveNow(QuestPackage pack, File target) throws InterruptedException {
+		SaveTask task;
+		try {
+			task = new SaveTask(pack, target, compression);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
+		task.run();
+		finish(pack, task);
+	}
+	
+	/**
+	 * Waits for the save of the package to finish and sets its new base.
+	 */
+	private void finish(QuestPackage pack, SaveTask task) throws InterruptedException {
+		try {
+			task.get();
+			rebase(pack, task);
+		} catch (ExecutionException e) {
+			pack.getChanges().markAll();
+			e.getCause().printStackTrace();
+		}
+	}
 }
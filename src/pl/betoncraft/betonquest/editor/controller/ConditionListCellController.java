@@ -31,12 +31,14 @@ import pl.betoncraft.betonquest.editor.data.ConditionWrapper;
 public class ConditionListCellController {
 	
 	private ConditionWrapper condition;
+	private Runnable changed;
 	@FXML private Text text;
 	@FXML private CheckBox box;
 	
 	@FXML private void tick() {
 		try {
 			condition.setNegated(box.isSelected());
+			changed.run();
 		} catch (Exception e) {
 			ExceptionController.display(e);
 		}
@@ -46,9 +48,11 @@ public class ConditionListCellController {
 	 * Displays this condition in the cell.
 	 * 
 	 * @param item ConditionWrapper containing the Condition
+	 * @param changed called after the condition was negated
 	 */
-	public void setCondition(ConditionWrapper item) {
+	public void setCondition(ConditionWrapper item, Runnable changed) {
 		condition = item;
+		this.changed = changed;
 		text.setText(condition.getId().get());
 		box.setSelected(condition.getNegated());
 	}
@@ -18,7 +18,7 @@
 
 package pl.betoncraft.betonquest.editor.controller;
 
-import java.util.Collection;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.SortedSet;
 import java.util.TreeSet;
@@ -43,7 +43,7 @@ import pl.betoncraft.betonquest.editor.custom.AutoCompleteTextField;
 import pl.betoncraft.betonquest.editor.custom.ConditionListCell;
 import pl.betoncraft.betonquest.editor.custom.DraggableListCell;
 import pl.betoncraft.betonquest.editor.data.ConditionWrapper;
-import pl.betoncraft.betonquest.editor.data.ID;
+import pl.betoncraft.betonquest.editor.data.Editable;
 import pl.betoncraft.betonquest.editor.data.IdWrapper;
 import pl.betoncraft.betonquest.editor.model.Condition;
 import pl.betoncraft.betonquest.editor.model.Conversation;
@@ -51,6 +51,7 @@ import pl.betoncraft.betonquest.editor.model.ConversationOption;
 import pl.betoncraft.betonquest.editor.model.Event;
 import pl.betoncraft.betonquest.editor.model.NpcOption;
 import pl.betoncraft.betonquest.editor.model.PlayerOption;
+import pl.betoncraft.betonquest.editor.model.exception.ConversationChangedException;
 
 /**
  * Controls the "Conversation" tab.
@@ -121,6 +122,13 @@ public class ConversationController {
 			return;
 		}
 		clearConversation();
+		try {
+			conversation.load();
+		} catch (ConversationChangedException e) {
+			// the package is displayed again if it's reloaded
+			BetonQuestEditor.getInstance().conversationChanged(e);
+			return;
+		}
 		currentConversation = conversation;
 		String lang = conversation.getPack().getDefLang();
 		npc.textProperty().bindBidirectional(conversation.getNPC().get(lang));
@@ -146,6 +154,26 @@ public class ConversationController {
 		stopPane.setDisable(false);
 	}
 	
+	/**
+	 * Displays the conversation in the tab, if it belongs to the displayed
+	 * package.
+	 * 
+	 * @param conversation Conversation to display
+	 */
+	public static void select(Conversation conversation) {
+		instance.displayConversation(conversation);
+	}
+	
+	/**
+	 * Displays the option and its conversation in the tab, if it belongs to
+	 * the displayed package.
+	 * 
+	 * @param option ConversationOption to display
+	 */
+	public static void select(ConversationOption option) {
+		instance.displayOption(option);
+	}
+	
 	/**
 	 * Displays the first available conversation or clears the view if there are no conversations.
 	 */
@@ -225,11 +253,9 @@ public class ConversationController {
 		}
 		pointsToField.getEntries().addAll(notPointersSet);
 		ObservableList<IdWrapper<ConversationOption>> pointedByOptions = FXCollections.observableArrayList();
-		for (ConversationOption opposite : oppositeOptions) {
-			for (IdWrapper<ConversationOption> pointer : opposite.getPointers()) {
-				if (pointer.get().equals(option)) {
-					pointedByOptions.add(new IdWrapper<>(currentConversation.getPack(), opposite));
-				}
+		for (Editable referrer : currentConversation.getPack().getReferences().get(option)) {
+			if (referrer instanceof ConversationOption && referrer.getClass() != option.getClass()) {
+				pointedByOptions.add(new IdWrapper<>(currentConversation.getPack(), (ConversationOption) referrer));
 			}
 		}
 		pointedByList.setCellFactory(param -> new DraggableListCell<>());
@@ -369,15 +395,9 @@ public class ConversationController {
 			pointsToField.clear();
 			ConversationOption option;
 			if (currentOption instanceof NpcOption) {
-				option = getById(currentConversation.getPack().getAllPlayerOptions(), name);
-				if (option == null) {
-					option = currentConversation.newPlayerOption(name);
-				}
+				option = currentConversation.newPlayerOption(name);
 			} else {
-				option = getById(currentConversation.getPack().getAllNpcOptions(), name);
-				if (option == null) {
-					option = currentConversation.newNpcOption(name);
-				}
+				option = currentConversation.newNpcOption(name);
 			}
 			IdWrapper<ConversationOption> wrapped = new IdWrapper<>(currentConversation.getPack(), option);
 			wrapped.setIndex(pointsToList.getItems().size());
@@ -438,9 +458,7 @@ public class ConversationController {
 					return;
 				}
 				npcList.getItems().remove(option);
-				for (PlayerOption o : currentConversation.getPlayerOptions()) {
-					o.getPointers().remove(option);
-				}
+				removePointers(option);
 				for (Iterator<IdWrapper<NpcOption>> iterator = currentConversation.getStartingOptions().iterator(); iterator.hasNext();) {
 					if (iterator.next().get().equals(option)) {
 						iterator.remove();
@@ -494,9 +512,7 @@ public class ConversationController {
 				} else {
 					clearOption();
 				}
-				for (NpcOption o : currentConversation.getNpcOptions()) {
-					o.getPointers().remove(option);
-				}
+				removePointers(option);
 				BetonQuestEditor.getInstance().refresh();
 			}
 		} catch (Exception e) {
@@ -504,6 +520,17 @@ public class ConversationController {
 		}
 	}
 	
+	/**
+	 * Removes pointers to a deleted option from options which point to it.
+	 */
+	private void removePointers(ConversationOption option) {
+		for (Editable referrer : new ArrayList<>(currentConversation.getPack().getReferences().get(option))) {
+			if (referrer instanceof ConversationOption) {
+				((ConversationOption) referrer).getPointers().removeIf(pointer -> pointer.get().equals(option));
+			}
+		}
+	}
+	
 	@FXML private void addConversation() {
 		try {
 			StringProperty string = new SimpleStringProperty();
@@ -549,15 +576,6 @@ public class ConversationController {
 		}
 	}
 	
-	private <T extends ID> T getById(Collection<T> collection, String id) {
-		for (T object : collection) {
-			if (object.toString().equals(id)) {
-				return object;
-			}
-		}
-		return null;
-	}
-	
 	public static Conversation getDisplayedConversation() {
 		return instance.currentConversation;
 	}
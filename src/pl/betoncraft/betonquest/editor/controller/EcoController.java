@@ -11,6 +11,7 @@ import pl.betoncraft.betonquest.editor.custom.DraggableListCell;
 import pl.betoncraft.betonquest.editor.model.Condition;
 import pl.betoncraft.betonquest.editor.model.Event;
 import pl.betoncraft.betonquest.editor.model.Objective;
+import pl.betoncraft.betonquest.editor.model.ReferenceIndex;
 
 /**
  * Controls "Events, conditions and objectives" tab.
@@ -116,7 +117,7 @@ public class EcoController {
 	@FXML private void delEvent() {
 		try {
 			Event event = eventsList.getSelectionModel().getSelectedItem();
-			if (event != null) {
+			if (event != null && (!ReferenceIndex.isUsed(event) || BetonQuestEditor.confirm("delete-used"))) {
 				eventsList.getItems().remove(event);
 			}
 			BetonQuestEditor.getInstance().refresh();
@@ -128,7 +129,7 @@ public class EcoController {
 	@FXML private void delCondition() {
 		try {
 			Condition condition = conditionsList.getSelectionModel().getSelectedItem();
-			if (condition != null) {
+			if (condition != null && (!ReferenceIndex.isUsed(condition) || BetonQuestEditor.confirm("delete-used"))) {
 				conditionsList.getItems().remove(condition);
 			}
 			BetonQuestEditor.getInstance().refresh();
@@ -140,7 +141,7 @@ public class EcoController {
 	@FXML private void delObjective() {
 		try {
 			Objective objective = objectivesList.getSelectionModel().getSelectedItem();
-			if (objective != null) {
+			if (objective != null && (!ReferenceIndex.isUsed(objective) || BetonQuestEditor.confirm("delete-used"))) {
 				objectivesList.getItems().remove(objective);
 			}
 			BetonQuestEditor.getInstance().refresh();
@@ -66,7 +66,7 @@ public class ExceptionController {
 		stage.close();
 	}
 	
-	public static void display(Exception exception) {
+	public static void display(Throwable exception) {
 		try {
 			ExceptionController controller = (ExceptionController) BetonQuestEditor
 					.createWindow("view/window/ExceptionWindow.fxml", "exception", 700, 500);
@@ -0,0 +1,86 @@
+/**
+ * BetonQuest Editor - advanced quest creating tool for BetonQuest
+ * Copyright (C) 2016  Jakub "Co0sh" Sapalski
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pl.betoncraft.betonquest.editor.controller;
+
+import javafx.concurrent.Task;
+import javafx.fxml.FXML;
+import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.layout.Pane;
+import javafx.stage.Stage;
+import pl.betoncraft.betonquest.editor.BetonQuestEditor;
+
+/**
+ * Controls the window showing progress of a background task.
+ *
+ * @author Jakub Sapalski
+ */
+public class LoadingController {
+	
+	private Stage stage;
+	private Task<?> task;
+	
+	@FXML private Pane root;
+	@FXML private Label file;
+	@FXML private ProgressBar progress;
+	
+	/**
+	 * Cancels the task. The window will close itself when the task stops.
+	 */
+	@FXML private void cancel() {
+		try {
+			task.cancel();
+		} catch (Exception e) {
+			ExceptionController.display(e);
+		}
+	}
+	
+	/**
+	 * Displays a window showing progress of the task. It does not wait for
+	 * the task to finish; the window closes when the task is done, failed or
+	 * was cancelled.
+	 * 
+	 * @param task the task to follow
+	 */
+	public static void display(Task<?> task) {
+		try {
+			LoadingController controller = (LoadingController) BetonQuestEditor
+					.createWindow("view/window/LoadingWindow.fxml", "loading", 400, 150);
+			if (controller == null) {
+				return;
+			}
+			controller.stage = (Stage) controller.root.getScene().getWindow();
+			controller.task = task;
+			controller.file.textProperty().bind(task.messageProperty());
+			controller.progress.progressProperty().bind(task.progressProperty());
+			controller.stage.setOnCloseRequest(event -> task.cancel());
+			task.runningProperty().addListener((observable, oldValue, newValue) -> {
+				if (!newValue) {
+					controller.stage.close();
+				}
+			});
+			if (task.isDone()) {
+				return;
+			}
+			controller.stage.show();
+		} catch (Exception e) {
+			ExceptionController.display(e);
+		}
+	}
+
+}
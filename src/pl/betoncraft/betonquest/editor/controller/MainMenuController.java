@@ -20,13 +20,16 @@ package pl.betoncraft.betonquest.editor.controller;
 import java.awt.Desktop;
 import java.io.File;
 import java.net.URI;
-import java.util.zip.ZipFile;
 
+import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
+import javafx.scene.control.MenuItem;
+import javafx.stage.DirectoryChooser;
 import javafx.stage.FileChooser;
 import javafx.stage.FileChooser.ExtensionFilter;
 import pl.betoncraft.betonquest.editor.BetonQuestEditor;
 import pl.betoncraft.betonquest.editor.model.QuestPackage;
+import pl.betoncraft.betonquest.editor.persistence.Compression;
 
 /**
  * Controls main menu.
@@ -51,14 +54,41 @@ public class MainMenuController {
 		File selectedFile = fc.showOpenDialog(instance.getPrimaryStage());
 		if (selectedFile != null) {
 			try {
-				QuestPackage pack = QuestPackage.loadFromZip(new ZipFile(selectedFile));
-				instance.display(pack);
+				instance.load(selectedFile);
 			} catch (Exception e) {
 				ExceptionController.display(e);
 			}
 		}
 	}
 	
+	@FXML private void loadWorkspace() {
+		try {
+			BetonQuestEditor instance = BetonQuestEditor.getInstance();
+			DirectoryChooser dc = new DirectoryChooser();
+			dc.setTitle(instance.getLanguage().getString("select-directory"));
+			File selectedDirectory = dc.showDialog(instance.getPrimaryStage());
+			if (selectedDirectory != null) {
+				instance.load(selectedDirectory);
+			}
+		} catch (Exception e) {
+			ExceptionController.display(e);
+		}
+	}
+	
+	@FXML private void reload() {
+		try {
+			BetonQuestEditor instance = BetonQuestEditor.getInstance();
+			QuestPackage pack = instance.getDisplayedPackage();
+			if (pack == null) {
+				BetonQuestEditor.showError("no-package");
+				return;
+			}
+			instance.reload(pack);
+		} catch (Exception e) {
+			ExceptionController.display(e);
+		}
+	}
+	
 	@FXML private void save() {
 		try {
 			BetonQuestEditor instance = BetonQuestEditor.getInstance();
@@ -76,7 +106,7 @@ public class MainMenuController {
 					if (pack == null) {
 						return; // TODO show error, no package loaded
 					}
-					pack.saveToZip(selectedFile);
+					instance.save(pack, selectedFile);
 				} catch (Exception e) {
 					ExceptionController.display(e);
 				}
@@ -86,6 +116,38 @@ public class MainMenuController {
 		}
 	}
 	
+	@FXML private void saveDirectory() {
+		try {
+			BetonQuestEditor instance = BetonQuestEditor.getInstance();
+			QuestPackage pack = instance.getDisplayedPackage();
+			if (pack == null) {
+				BetonQuestEditor.showError("no-package");
+				return;
+			}
+			DirectoryChooser dc = new DirectoryChooser();
+			dc.setTitle(instance.getLanguage().getString("select-directory"));
+			File selectedDirectory = dc.showDialog(instance.getPrimaryStage());
+			if (selectedDirectory != null) {
+				instance.save(pack, selectedDirectory);
+			}
+		} catch (Exception e) {
+			ExceptionController.display(e);
+		}
+	}
+	
+	@FXML private void search() {
+		try {
+			SearchController.display();
+		} catch (Exception e) {
+			ExceptionController.display(e);
+		}
+	}
+	
+	@FXML private void setCompression(ActionEvent event) {
+		String name = (String) ((MenuItem) event.getSource()).getUserData();
+		BetonQuestEditor.getInstance().setCompression(Compression.valueOf(name));
+	}
+	
 	@FXML private void export() {
 		// TODO export package to the server
 	}
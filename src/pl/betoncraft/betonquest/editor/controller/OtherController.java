@@ -26,6 +26,7 @@ import pl.betoncraft.betonquest.editor.BetonQuestEditor;
 import pl.betoncraft.betonquest.editor.custom.DraggableListCell;
 import pl.betoncraft.betonquest.editor.model.Item;
 import pl.betoncraft.betonquest.editor.model.JournalEntry;
+import pl.betoncraft.betonquest.editor.model.ReferenceIndex;
 
 /**
  * Controls "Other" tab.
@@ -115,7 +116,7 @@ public class OtherController {
 	@FXML private void delEntry() {
 		try {
 			JournalEntry entry = journalList.getSelectionModel().getSelectedItem();
-			if (entry != null) {
+			if (entry != null && (!ReferenceIndex.isUsed(entry) || BetonQuestEditor.confirm("delete-used"))) {
 				journalList.getItems().remove(entry);
 			}
 		} catch (Exception e) {
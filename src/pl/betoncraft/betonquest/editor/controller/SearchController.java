@@ -0,0 +1,207 @@
+/**
+ * BetonQuest Editor - advanced quest creating tool for BetonQuest
+ * Copyright (C) 2016  Jakub "Co0sh" Sapalski
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pl.betoncraft.betonquest.editor.controller;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ResourceBundle;
+
+import javafx.fxml.FXML;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListView;
+import javafx.scene.control.TextField;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.layout.Pane;
+import javafx.stage.Stage;
+import pl.betoncraft.betonquest.editor.BetonQuestEditor;
+import pl.betoncraft.betonquest.editor.data.ID;
+import pl.betoncraft.betonquest.editor.model.Condition;
+import pl.betoncraft.betonquest.editor.model.Conversation;
+import pl.betoncraft.betonquest.editor.model.ConversationOption;
+import pl.betoncraft.betonquest.editor.model.Event;
+import pl.betoncraft.betonquest.editor.model.GlobalVariable;
+import pl.betoncraft.betonquest.editor.model.Item;
+import pl.betoncraft.betonquest.editor.model.JournalEntry;
+import pl.betoncraft.betonquest.editor.model.MainPageLine;
+import pl.betoncraft.betonquest.editor.model.NpcBinding;
+import pl.betoncraft.betonquest.editor.model.NpcOption;
+import pl.betoncraft.betonquest.editor.model.Objective;
+import pl.betoncraft.betonquest.editor.model.PlayerOption;
+import pl.betoncraft.betonquest.editor.model.QuestCanceler;
+import pl.betoncraft.betonquest.editor.model.QuestPackage;
+import pl.betoncraft.betonquest.editor.model.SearchIndex;
+import pl.betoncraft.betonquest.editor.model.SearchIndex.Result;
+
+/**
+ * Controls the pop-up window for searching texts and instructions in all
+ * loaded packages. Results are updated while the user types, opening a
+ * result displays its package and shows the object.
+ *
+ * @author Jakub Sapalski
+ */
+public class SearchController {
+	
+	private static final int LIMIT = 500;
+	
+	private Stage stage;
+	private List<Result> results = new ArrayList<>();
+	
+	@FXML private Pane root;
+	@FXML private TextField field;
+	@FXML private ListView<String> list;
+	@FXML private Label count;
+	
+	/**
+	 * Searches all packages for the phrase from the field.
+	 */
+	private void search() {
+		String phrase = field.getText() == null ? "" : field.getText().trim();
+		results = SearchIndex.findAll(phrase, LIMIT);
+		ResourceBundle lang = BetonQuestEditor.getInstance().getLanguage();
+		ArrayList<String> lines = new ArrayList<>(results.size());
+		for (Result result : results) {
+			lines.add(describe(result, lang));
+		}
+		list.getItems().setAll(lines);
+		count.setText(lang.getString("found") + " " + results.size() + (results.size() >= LIMIT ? "+" : ""));
+	}
+	
+	@FXML private void click(MouseEvent event) {
+		if (event.getClickCount() == 2) {
+			open();
+		}
+	}
+	
+	/**
+	 * Closes the window and shows the selected object in its package.
+	 */
+	@FXML private void open() {
+		try {
+			int index = list.getSelectionModel().getSelectedIndex();
+			if (index < 0 || index >= results.size()) {
+				return;
+			}
+			ID object = results.get(index).getObject();
+			stage.close();
+			BetonQuestEditor instance = BetonQuestEditor.getInstance();
+			QuestPackage pack = object.getPack();
+			if (pack != instance.getDisplayedPackage()) {
+				instance.display(pack);
+			}
+			if (object instanceof ConversationOption) {
+				TabsController.selectTab(1);
+				ConversationController.select((ConversationOption) object);
+			} else if (object instanceof Conversation) {
+				TabsController.selectTab(1);
+				ConversationController.select((Conversation) object);
+			} else {
+				if (object instanceof Event || object instanceof Condition || object instanceof Objective) {
+					TabsController.selectTab(2);
+				} else if (object instanceof Item || object instanceof JournalEntry) {
+					TabsController.selectTab(3);
+				} else {
+					TabsController.selectTab(0);
+				}
+				if (object.edit()) {
+					instance.refresh();
+				}
+			}
+		} catch (Exception e) {
+			ExceptionController.display(e);
+		}
+	}
+	
+	@FXML private void close() {
+		try {
+			stage.close();
+		} catch (Exception e) {
+			ExceptionController.display(e);
+		}
+	}
+	
+	/**
+	 * Describes where the text was found, for example
+	 * <code>default | NPC option start | Text (en): Hello!</code>.
+	 */
+	private static String describe(Result result, ResourceBundle lang) {
+		ID object = result.getObject();
+		String name = object.getId().get();
+		if (object instanceof ConversationOption) {
+			name = ((ConversationOption) object).getConversation().getId().get() + "." + name;
+		}
+		String location = lang.getString(result.getLocation());
+		if (result.getLanguage() != null) {
+			location += " (" + result.getLanguage() + ")";
+		}
+		return result.getPackage().getName().get() + " | " + lang.getString(type(object)) + " " + name + " | "
+				+ location + ": " + result.getText();
+	}
+	
+	/**
+	 * @return translation key of the type of the object
+	 */
+	private static String type(ID object) {
+		if (object instanceof NpcOption) {
+			return "npc-option";
+		} else if (object instanceof PlayerOption) {
+			return "player-option";
+		} else if (object instanceof Conversation) {
+			return "conversation";
+		} else if (object instanceof Event) {
+			return "event";
+		} else if (object instanceof Condition) {
+			return "condition";
+		} else if (object instanceof Objective) {
+			return "objective";
+		} else if (object instanceof Item) {
+			return "item";
+		} else if (object instanceof GlobalVariable) {
+			return "variable";
+		} else if (object instanceof JournalEntry) {
+			return "journal-entry";
+		} else if (object instanceof QuestCanceler) {
+			return "quest-canceler";
+		} else if (object instanceof MainPageLine) {
+			return "main-page-line";
+		} else if (object instanceof NpcBinding) {
+			return "npc-binding";
+		}
+		return "id";
+	}
+	
+	/**
+	 * Displays a window in which the user can search all loaded packages.
+	 */
+	public static void display() {
+		try {
+			SearchController controller = (SearchController) BetonQuestEditor
+					.createWindow("view/window/SearchWindow.fxml", "search", 700, 500);
+			if (controller == null) {
+				return;
+			}
+			controller.stage = (Stage) controller.root.getScene().getWindow();
+			controller.field.textProperty().addListener((observable, oldValue, newValue) -> controller.search());
+			controller.search();
+			controller.stage.showAndWait();
+		} catch (Exception e) {
+			ExceptionController.display(e);
+		}
+	}
+
+}
@@ -18,7 +18,11 @@
 
 package pl.betoncraft.betonquest.editor.controller;
 
-import javafx.collections.FXCollections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
 import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
 import javafx.scene.control.Label;
@@ -30,6 +34,7 @@ import pl.betoncraft.betonquest.editor.BetonQuestEditor;
 import pl.betoncraft.betonquest.editor.custom.AutoCompleteTextField;
 import pl.betoncraft.betonquest.editor.data.ID;
 import pl.betoncraft.betonquest.editor.data.IdWrapper;
+import pl.betoncraft.betonquest.editor.model.SymbolTable;
 
 /**
  * Controls a pop-up window in which the user can edit a list.
@@ -56,15 +61,35 @@ public class SortedChoiceController<O extends ID, W extends IdWrapper<O>, F exte
 		chosen.sort((ID o1, ID o2) -> o1.getIndex() - o2.getIndex());
 		label.setText(BetonQuestEditor.getInstance().getLanguage().getString(labelText));
 		list.setCellFactory(param -> cellFactory.getListCell());
-		list.getItems().setAll(chosen);
-		ObservableList<ID> toChoose = FXCollections.observableArrayList(available);
+		// cells change the list of the model, so negating and reordering is saved
+		list.setItems(chosen);
+		// available objects can come from the whole workspace, so they are
+		// searched when the user types instead of being copied to the field
+		field.setSearch(this::search);
+	}
+	
+	/**
+	 * Finds names of available objects which start with the text and were
+	 * not chosen yet. Objects from the whole workspace are looked up by their
+	 * names in the symbol table.
+	 */
+	private SortedSet<String> search(String text) {
+		SymbolTable symbols = BetonQuestEditor.getInstance().getSymbols();
+		List<O> candidates = symbols.isView(available) ? symbols.find(available, text) : available;
+		HashSet<ID> chosenSet = new HashSet<>();
 		for (W wrapped : chosen) {
-			toChoose.remove(wrapped.get());
+			chosenSet.add(wrapped.get());
 		}
-		field.getEntries().clear();
-		for (ID id : toChoose) {
-			field.getEntries().add(id.toString());
+		TreeSet<String> found = new TreeSet<>();
+		for (ID id : candidates) {
+			if (!chosenSet.contains(id)) {
+				String name = id.toString();
+				if (name.startsWith(text)) {
+					found.add(name);
+				}
+			}
 		}
+		return found;
 	}
 
 	@FXML private void add() {
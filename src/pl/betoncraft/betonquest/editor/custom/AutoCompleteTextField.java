@@ -4,6 +4,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.function.Function;
 
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
@@ -27,6 +28,8 @@ public class AutoCompleteTextField extends TextField {
 	private final SortedSet<String> entries;
 	/** The popup used to select an entry. */
 	private ContextMenu entriesPopup;
+	/** Finds entries starting with the text, used instead of the entry set. */
+	private Function<String, SortedSet<String>> search;
 
 	/** Construct a new AutoCompleteTextField. */
 	public AutoCompleteTextField() {
@@ -40,8 +43,12 @@ public class AutoCompleteTextField extends TextField {
 					entriesPopup.hide();
 				} else {
 					LinkedList<String> searchResult = new LinkedList<>();
-					searchResult.addAll(entries.subSet(getText(), getText() + Character.MAX_VALUE));
-					if (entries.size() > 0) {
+					if (search != null) {
+						searchResult.addAll(search.apply(getText()));
+					} else {
+						searchResult.addAll(entries.subSet(getText(), getText() + Character.MAX_VALUE));
+					}
+					if (search != null ? !searchResult.isEmpty() : entries.size() > 0) {
 						populatePopup(searchResult);
 						if (!entriesPopup.isShowing()) {
 							entriesPopup.show(AutoCompleteTextField.this, Side.BOTTOM, 0, 0);
@@ -70,6 +77,18 @@ public class AutoCompleteTextField extends TextField {
 		return entries;
 	}
 
+	/**
+	 * Sets the function which finds entries instead of the entry set, so
+	 * large sets of entries don't need to be copied into the field.
+	 * 
+	 * @param search
+	 *            returns sorted entries starting with the passed text, or
+	 *            null to use the entry set again
+	 */
+	public void setSearch(Function<String, SortedSet<String>> search) {
+		this.search = search;
+	}
+
 	/**
 	 * Populate the entry set with the given search results. Display is limited
 	 * to 10 entries, for performance.
@@ -59,7 +59,10 @@ public class ConditionListCell extends DraggableListCell<ConditionWrapper> {
 			setText(null);
 			setGraphic(null);
 		} else {
-			controller.setCondition(item);
+			// the list view shows the list of the model, replacing the item
+			// notifies listeners of that list about negation
+			int index = getIndex();
+			controller.setCondition(item, () -> getListView().getItems().set(index, item));
 			setGraphic(node);
 		}
 	}
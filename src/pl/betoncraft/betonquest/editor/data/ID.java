@@ -31,15 +31,29 @@ import pl.betoncraft.betonquest.editor.model.QuestPackage;
 public interface ID extends Editable {
 	
 	/**
-	 * @return the ID of this object
+	 * @return the ID of this object, as a property which can be bound
 	 */
 	public StringProperty getId();
 	
+	/**
+	 * @return the ID of this object
+	 */
+	public String getIdValue();
+	
 	/**
 	 * @return the QuestPackage in which this object is defined
 	 */
 	public QuestPackage getPack();
 	
+	/**
+	 * Moves this object to another package. It's used when the package
+	 * referenced by this object is loaded after the reference was created.
+	 * 
+	 * @param pack
+	 *            the new package of this object
+	 */
+	public void setPack(QuestPackage pack);
+	
 	/**
 	 * @return the index of this object, as ordered in the file
 	 */
@@ -71,8 +85,32 @@ public interface ID extends Editable {
 	 * @return the package defined in the ID string, "def" package or null.
 	 */
 	public static QuestPackage parsePackage(QuestPackage def, String id) {
-		if (id.contains(".")) {
-			String packName = id.split("\\.")[0];
+		return parsePackage(def, QualifiedId.parse(id));
+	}
+	
+	/**
+	 * Finds the package of the parsed ID. If no package is defined in the ID,
+	 * it will return the package passed to the method. It will return null if
+	 * defined package does not exist.
+	 * 
+	 * @param def
+	 *            default package to return in case there is none defined
+	 * @param id
+	 *            parsed ID
+	 * @return the package defined in the ID, "def" package or null.
+	 */
+	public static QuestPackage parsePackage(QuestPackage def, QualifiedId id) {
+		String packName = id.getPackage();
+		if (packName != null) {
+			QuestPackage linked = def == null ? null : def.getLinked(packName);
+			if (linked != null) {
+				return linked;
+			}
+			QuestPackage found = BetonQuestEditor.getInstance().getPackages().get(packName);
+			if (found != null && found.getName().get().equals(packName)) {
+				return found;
+			}
+			// the package could have been renamed after loading
 			for (QuestPackage pack : BetonQuestEditor.getInstance().getPackages().values()) {
 				if (pack.getName().get().equals(packName)) {
 					return pack;
@@ -84,6 +122,18 @@ public interface ID extends Editable {
 		}
 	}
 	
+	/**
+	 * Parses the ID string to get name of the package, without checking if
+	 * it exists.
+	 * 
+	 * @param id
+	 *            ID string to parse
+	 * @return the name of the package or null if it's not defined
+	 */
+	public static String parsePackageName(String id) {
+		return QualifiedId.parse(id).getPackage();
+	}
+	
 	/**
 	 * Parses the ID string to get name of the object, without package name if
 	 * it's defined.
@@ -93,11 +143,7 @@ public interface ID extends Editable {
 	 * @return the name of the object
 	 */
 	public static String parseId(String id) {
-		if (id.contains(".")) {
-			return id.split("\\.")[1];
-		} else {
-			return id;
-		}
+		return QualifiedId.parse(id).getName();
 	}
 	
 }
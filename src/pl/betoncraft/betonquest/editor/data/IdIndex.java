@@ -0,0 +1,168 @@
+/**
+ * BetonQuest Editor - advanced quest creating tool for BetonQuest
+ * Copyright (C) 2016  Jakub "Co0sh" Sapalski
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pl.betoncraft.betonquest.editor.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+
+/**
+ * Keeps objects from an ObservableList indexed by their IDs, so they can be
+ * found without scanning the whole list. The index follows additions and
+ * removals of the objects in the list; renames are passed to it by the package
+ * of the objects.
+ *
+ * @author Jakub Sapalski
+ */
+public class IdIndex<T extends ID> {
+
+	private final HashMap<String, T> index = new HashMap<>();
+	// how many times each object is in the list
+	private final IdentityHashMap<T, Integer> counts = new IdentityHashMap<>();
+	// objects with the same ID as the indexed one, in order of addition
+	private final HashMap<String, ArrayList<T>> hidden = new HashMap<>();
+	// indexed IDs in alphabetical order, sorted again after they change
+	private String[] sorted;
+
+	public IdIndex(ObservableList<T> list) {
+		for (T object : list) {
+			add(object);
+		}
+		list.addListener((ListChangeListener<T>) change -> {
+			while (change.next()) {
+				if (change.wasPermutated()) {
+					continue; // order does not matter here
+				}
+				for (T object : change.getRemoved()) {
+					remove(object);
+				}
+				for (T object : change.getAddedSubList()) {
+					add(object);
+				}
+			}
+		});
+	}
+
+	/**
+	 * @param id
+	 *            name of the object, without package or conversation prefix
+	 * @return the object with this name or null if there is none
+	 */
+	public T get(String id) {
+		return index.get(id);
+	}
+	
+	/**
+	 * @param prefix
+	 *            beginning of the names, without package or conversation
+	 *            prefix
+	 * @return objects which names start with the prefix, in alphabetical
+	 *         order of the names
+	 */
+	public List<T> find(String prefix) {
+		if (sorted == null) {
+			sorted = index.keySet().toArray(new String[index.size()]);
+			Arrays.sort(sorted);
+		}
+		int from = Arrays.binarySearch(sorted, prefix);
+		if (from < 0) {
+			from = -from - 1;
+		}
+		ArrayList<T> found = new ArrayList<>();
+		for (int i = from; i < sorted.length && sorted[i].startsWith(prefix); i++) {
+			found.add(index.get(sorted[i]));
+		}
+		return found;
+	}
+	
+	/**
+	 * @param object
+	 *            the object
+	 * @return true if the object is in the indexed list
+	 */
+	public boolean contains(T object) {
+		return counts.containsKey(object);
+	}
+	
+	/**
+	 * Moves the object to its new ID, if it's in the indexed list.
+	 * 
+	 * @param object
+	 *            the renamed object
+	 * @param oldId
+	 *            the ID the object had before
+	 */
+	public void renamed(T object, String oldId) {
+		if (counts.containsKey(object)) {
+			unput(oldId, object);
+			put(object.getIdValue(), object);
+		}
+	}
+
+	private void add(T object) {
+		if (counts.merge(object, 1, Integer::sum) == 1) {
+			put(object.getIdValue(), object);
+		}
+	}
+
+	private void remove(T object) {
+		Integer count = counts.get(object);
+		if (count == null) {
+			return;
+		}
+		if (count > 1) {
+			counts.put(object, count - 1);
+			return; // the same object is still in the list
+		}
+		counts.remove(object);
+		unput(object.getIdValue(), object);
+	}
+
+	private void put(String id, T object) {
+		T existing = index.putIfAbsent(id, object);
+		if (existing == null) {
+			sorted = null;
+		} else if (existing != object) {
+			hidden.computeIfAbsent(id, key -> new ArrayList<>(1)).add(object);
+		}
+	}
+
+	private void unput(String id, T object) {
+		ArrayList<T> others = hidden.get(id);
+		if (index.get(id) == object) {
+			index.remove(id);
+			// another object could be hidden behind the removed one
+			if (others != null) {
+				index.put(id, others.remove(0));
+			} else {
+				sorted = null;
+			}
+		} else if (others != null) {
+			others.remove(object);
+		}
+		if (others != null && others.isEmpty()) {
+			hidden.remove(id);
+		}
+	}
+
+}
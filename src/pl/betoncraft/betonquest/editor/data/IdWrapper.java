@@ -48,10 +48,20 @@ public class IdWrapper<T extends ID> implements ID {
 		return object.getId();
 	}
 
+	@Override
+	public String getIdValue() {
+		return object.getIdValue();
+	}
+
 	@Override
 	public QuestPackage getPack() {
 		return pack;
 	}
+	
+	@Override
+	public void setPack(QuestPackage pack) {
+		this.pack = pack;
+	}
 
 	@Override
 	public int getIndex() {
@@ -27,6 +27,28 @@ import javafx.beans.property.StringProperty;
  */
 public interface Instruction extends ID {
 	
+	/**
+	 * @return the instruction, as a property which can be bound
+	 */
 	public StringProperty getInstruction();
+	
+	/**
+	 * @return the instruction
+	 */
+	public String getInstructionValue();
+	
+	/**
+	 * Sets the instruction, updating its property if it was created.
+	 * 
+	 * @param instruction
+	 *            the new instruction
+	 */
+	public void setInstructionValue(String instruction);
+	
+	/**
+	 * @return the instruction split into its type, arguments and options;
+	 *         it's parsed again only after the instruction changes
+	 */
+	public ParsedInstruction getParsedInstruction();
 
 }
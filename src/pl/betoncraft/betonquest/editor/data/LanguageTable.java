@@ -0,0 +1,91 @@
+/**
+ * BetonQuest Editor - advanced quest creating tool for BetonQuest
+ * Copyright (C) 2016  Jakub "Co0sh" Sapalski
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pl.betoncraft.betonquest.editor.data;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Table of language codes used in the workspace. Every language gets a small
+ * number, so translated texts can keep their Strings in arrays indexed by it
+ * instead of maps. Numbers are never reused; packages are loaded on many
+ * threads, so the table is thread-safe.
+ *
+ * @author Jakub Sapalski
+ */
+public class LanguageTable {
+	
+	// some texts are bound to a missing default language, it gets number 0
+	private static final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+	private static volatile String[] codes = new String[]{null};
+	
+	private LanguageTable() {}
+	
+	/**
+	 * Returns the number of the language, adding it to the table if it's not
+	 * there yet.
+	 * 
+	 * @param lang
+	 *            language code, can be null
+	 * @return the number of the language
+	 */
+	public static int idOf(String lang) {
+		if (lang == null) {
+			return 0;
+		}
+		Integer id = ids.get(lang);
+		if (id != null) {
+			return id;
+		}
+		synchronized (ids) {
+			id = ids.get(lang);
+			if (id == null) {
+				String[] extended = Arrays.copyOf(codes, codes.length + 1);
+				id = codes.length;
+				extended[id] = lang;
+				codes = extended;
+				ids.put(lang, id);
+			}
+			return id;
+		}
+	}
+	
+	/**
+	 * @param lang
+	 *            language code, can be null
+	 * @return the number of the language or -1 if it's not in the table
+	 */
+	public static int find(String lang) {
+		if (lang == null) {
+			return 0;
+		}
+		Integer id = ids.get(lang);
+		return id == null ? -1 : id;
+	}
+	
+	/**
+	 * @param id
+	 *            number of the language
+	 * @return the language code
+	 */
+	public static String codeOf(int id) {
+		return codes[id];
+	}
+
+}
@@ -42,14 +42,9 @@ public interface OptionID extends ID {
 	 *         null.
 	 */
 	public static Conversation parseConversation(Conversation def, String id) {
-		if (id.contains(".")) {
-			String packName = id.split("\\.")[0];
-			for (Conversation conv : def.getPack().getConversations()) {
-				if (conv.getId().get().equals(packName)) {
-					return conv;
-				}
-			}
-			return def.getPack().newByID(packName, name -> new Conversation(def.getPack(), name));
+		String convName = QualifiedId.parseOption(id).getConversation();
+		if (convName != null) {
+			return def.getPack().newByID(convName, Conversation.class, name -> new Conversation(def.getPack(), name));
 		} else {
 			return def;
 		}
@@ -64,11 +59,7 @@ public interface OptionID extends ID {
 	 * @return the name of the object
 	 */
 	public static String parseId(String id) {
-		if (id.contains(".")) {
-			return id.split("\\.")[1];
-		} else {
-			return id;
-		}
+		return QualifiedId.parseOption(id).getName();
 	}
 
 }
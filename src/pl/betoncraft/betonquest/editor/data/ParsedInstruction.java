@@ -0,0 +1,209 @@
+/**
+ * BetonQuest Editor - advanced quest creating tool for BetonQuest
+ * Copyright (C) 2016  Jakub "Co0sh" Sapalski
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pl.betoncraft.betonquest.editor.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Instruction split into its type, positional arguments and
+ * <code>key:value</code> options. The first argument is always positional,
+ * since it's often an item with amount like <code>emerald:5</code>; later
+ * tokens are options if their key consists only of letters, digits,
+ * underscores and dashes. Instructions repeat a lot, so every string is
+ * parsed only once and the same immutable instance is shared by all objects
+ * with that instruction.
+ *
+ * @author Jakub Sapalski
+ */
+public final class ParsedInstruction {
+	
+	// the table is only a cache; if it grows too much it's cleared
+	private static final int LIMIT = 1 << 16;
+	private static final ConcurrentHashMap<String, ParsedInstruction> parsed = new ConcurrentHashMap<>();
+	private static final ParsedInstruction EMPTY = new ParsedInstruction("", Collections.emptyList(), Collections.emptyMap());
+	
+	private final String type;
+	private final List<String> arguments;
+	private final Map<String, String> options;
+	
+	private ParsedInstruction(String type, List<String> arguments, Map<String, String> options) {
+		this.type = type;
+		this.arguments = arguments;
+		this.options = options;
+	}
+	
+	/**
+	 * @param instruction
+	 *            instruction to parse, can be null
+	 * @return the parsed instruction; empty one if the instruction is null or
+	 *         blank
+	 */
+	public static ParsedInstruction parse(String instruction) {
+		if (instruction == null) {
+			return EMPTY;
+		}
+		ParsedInstruction result = parsed.get(instruction);
+		if (result == null) {
+			if (parsed.size() > LIMIT) {
+				parsed.clear();
+			}
+			result = tokenize(instruction);
+			ParsedInstruction existing = parsed.putIfAbsent(instruction, result);
+			if (existing != null) {
+				result = existing;
+			}
+		}
+		return result;
+	}
+	
+	private static ParsedInstruction tokenize(String instruction) {
+		String type = null;
+		ArrayList<String> arguments = new ArrayList<>();
+		LinkedHashMap<String, String> options = new LinkedHashMap<>();
+		int length = instruction.length();
+		int position = 0;
+		while (position < length) {
+			while (position < length && instruction.charAt(position) == ' ') {
+				position++;
+			}
+			int start = position;
+			while (position < length && instruction.charAt(position) != ' ') {
+				position++;
+			}
+			if (start == position) {
+				break;
+			}
+			String token = instruction.substring(start, position);
+			int colon = token.indexOf(':');
+			if (type == null) {
+				type = token;
+			} else if (!arguments.isEmpty() && colon > 0 && isKey(token, colon) && !options.containsKey(token.substring(0, colon))) {
+				options.put(token.substring(0, colon), token.substring(colon + 1));
+			} else {
+				arguments.add(token);
+			}
+		}
+		if (type == null) {
+			return EMPTY;
+		}
+		arguments.trimToSize();
+		return new ParsedInstruction(type,
+				arguments.isEmpty() ? Collections.emptyList() : Collections.unmodifiableList(arguments),
+				options.isEmpty() ? Collections.emptyMap() : Collections.unmodifiableMap(options));
+	}
+	
+	private static boolean isKey(String token, int end) {
+		for (int i = 0; i < end; i++) {
+			char c = token.charAt(i);
+			if (!Character.isLetterOrDigit(c) && c != '_' && c != '-') {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * @return the type of the instruction, for example "tag" or "folder";
+	 *         empty if the instruction is empty
+	 */
+	public String getType() {
+		return type;
+	}
+	
+	/**
+	 * @return positional arguments, without the type and options
+	 */
+	public List<String> getArguments() {
+		return arguments;
+	}
+	
+	/**
+	 * @param index
+	 *            index of the positional argument, starting at 0
+	 * @return the argument or null if there are not so many arguments
+	 */
+	public String getArgument(int index) {
+		return index < arguments.size() ? arguments.get(index) : null;
+	}
+	
+	/**
+	 * @return options of the instruction mapped by their keys, in order;
+	 *         when a key repeats, the first value is an option and the rest
+	 *         are positional arguments
+	 */
+	public Map<String, String> getOptions() {
+		return options;
+	}
+	
+	/**
+	 * @param key
+	 *            key of the option
+	 * @return value of the option or null if it's not defined
+	 */
+	public String getOption(String key) {
+		return options.get(key);
+	}
+	
+	/**
+	 * @return all values of arguments and options, with comma-separated lists
+	 *         split into single values
+	 */
+	public List<String> getValues() {
+		ArrayList<String> values = new ArrayList<>();
+		for (String argument : arguments) {
+			split(argument, values);
+		}
+		for (String value : options.values()) {
+			split(value, values);
+		}
+		return values;
+	}
+	
+	private static void split(String value, List<String> values) {
+		int start = 0;
+		int comma;
+		while ((comma = value.indexOf(',', start)) >= 0) {
+			if (comma > start) {
+				values.add(value.substring(start, comma));
+			}
+			start = comma + 1;
+		}
+		if (start < value.length()) {
+			values.add(value.substring(start));
+		}
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder(type);
+		for (String argument : arguments) {
+			builder.append(' ').append(argument);
+		}
+		for (Map.Entry<String, String> option : options.entrySet()) {
+			builder.append(' ').append(option.getKey()).append(':').append(option.getValue());
+		}
+		return builder.toString();
+	}
+
+}
@@ -0,0 +1,169 @@
+/**
+ * BetonQuest Editor - advanced quest creating tool for BetonQuest
+ * Copyright (C) 2016  Jakub "Co0sh" Sapalski
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pl.betoncraft.betonquest.editor.data;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import pl.betoncraft.betonquest.editor.model.QuestPackage;
+import pl.betoncraft.betonquest.editor.model.QuestPackage.Generator;
+
+/**
+ * Table of references to packages which are not loaded yet. Each such
+ * reference is a proxy object kept in a placeholder package with the same
+ * name, so it can be displayed and referenced like any other object. When the
+ * package is loaded, all its proxies are moved into it at once.
+ *
+ * @author Jakub Sapalski
+ */
+public class PendingReferences {
+	
+	private final HashMap<String, Placeholder> placeholders = new HashMap<>();
+	
+	/**
+	 * Returns the proxy for an object in a package which is not loaded. It
+	 * will be created with the generator if it doesn't exist yet.
+	 * 
+	 * @param id
+	 *            parsed ID with package name
+	 * @param type
+	 *            class of the object
+	 * @param generator
+	 *            creates the object if it doesn't exist
+	 * @return existing or newly created proxy
+	 */
+	public synchronized <T extends ID> T get(QualifiedId id, Class<T> type, Generator<T> generator) {
+		Placeholder placeholder = placeholders.computeIfAbsent(id.getPackage(), Placeholder::new);
+		T existing = placeholder.pack.getIndex(type).get(id.getName());
+		if (existing != null) {
+			return existing;
+		}
+		T proxy = generator.generate(id.toString());
+		placeholder.add(proxy);
+		return proxy;
+	}
+	
+	/**
+	 * Moves all proxies waiting for this package into it. This should happen
+	 * before the package is filled with objects, so the proxies can be
+	 * completed when their definitions are loaded. A proxy for an object which
+	 * is already in the package keeps pointing to that package but is not
+	 * added to it.
+	 * 
+	 * @param pack
+	 *            package which is being loaded
+	 * @return proxies which were moved into the package
+	 */
+	public synchronized List<ID> resolve(QuestPackage pack) {
+		Placeholder placeholder = placeholders.remove(pack.getName().get());
+		if (placeholder == null) {
+			return new ArrayList<>();
+		}
+		placeholder.moveTo(pack);
+		return placeholder.proxies;
+	}
+	
+	/**
+	 * Makes previously resolved proxies pending again, for example when
+	 * loading of their package has failed.
+	 * 
+	 * @param packName
+	 *            name of the package
+	 * @param proxies
+	 *            proxies returned by {@link #resolve(QuestPackage)}
+	 */
+	public synchronized void restore(String packName, List<ID> proxies) {
+		if (proxies.isEmpty()) {
+			return;
+		}
+		Placeholder placeholder = placeholders.computeIfAbsent(packName, Placeholder::new);
+		for (ID proxy : proxies) {
+			placeholder.add(proxy);
+		}
+	}
+	
+	/**
+	 * Moves all proxies from this table to the packages in the workspace, as
+	 * {@link #resolve(QuestPackage)} does. Proxies for packages which are
+	 * not in the workspace are moved to the other table, to wait for their
+	 * packages there.
+	 * 
+	 * @param workspace
+	 *            loaded packages mapped by their names
+	 * @param pending
+	 *            table for references to packages which are not loaded
+	 */
+	public synchronized void moveTo(Map<String, QuestPackage> workspace, PendingReferences pending) {
+		for (Placeholder placeholder : placeholders.values()) {
+			String name = placeholder.pack.getName().get();
+			QuestPackage pack = workspace.get(name);
+			if (pack == null || !pack.getName().get().equals(name)) {
+				pack = null;
+				// the package could have been renamed after loading
+				for (QuestPackage loaded : workspace.values()) {
+					if (loaded.getName().get().equals(name)) {
+						pack = loaded;
+					}
+				}
+			}
+			if (pack == null) {
+				pending.restore(name, placeholder.proxies);
+			} else {
+				placeholder.moveTo(pack);
+			}
+		}
+		placeholders.clear();
+	}
+	
+	/**
+	 * @return names of packages which are referenced but not loaded
+	 */
+	public synchronized List<String> getMissingPackages() {
+		return new ArrayList<>(placeholders.keySet());
+	}
+	
+	private static class Placeholder {
+		
+		private final QuestPackage pack;
+		private final ArrayList<ID> proxies = new ArrayList<>();
+		
+		private Placeholder(String name) {
+			pack = new QuestPackage(name);
+		}
+		
+		private void add(ID proxy) {
+			proxy.setPack(pack);
+			proxy.getList().add(proxy);
+			proxies.add(proxy);
+		}
+		
+		private void moveTo(QuestPackage target) {
+			for (ID proxy : proxies) {
+				proxy.setPack(target);
+				if (target.getIndex(proxy.getClass()).get(proxy.getIdValue()) == null) {
+					proxy.getList().add(proxy);
+				}
+			}
+		}
+		
+	}
+
+}
@@ -0,0 +1,220 @@
+/**
+ * BetonQuest Editor - advanced quest creating tool for BetonQuest
+ * Copyright (C) 2016  Jakub "Co0sh" Sapalski
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pl.betoncraft.betonquest.editor.data;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Parsed form of an ID string, like <code>!package.name</code> or
+ * <code>conversation.option</code>. Every string is parsed only once, later
+ * the same instance is returned from the table. Instances are immutable, so
+ * they can be shared by all threads, used as map keys and rendered back to
+ * the string without building it again.
+ *
+ * @author Jakub Sapalski
+ */
+public final class QualifiedId {
+	
+	// the tables are only a cache; if they grow too much they are cleared
+	private static final int LIMIT = 1 << 16;
+	private static final ConcurrentHashMap<String, QualifiedId> ids = new ConcurrentHashMap<>();
+	private static final ConcurrentHashMap<String, QualifiedId> options = new ConcurrentHashMap<>();
+	private static final ConcurrentHashMap<String, ConcurrentHashMap<String, QualifiedId>> qualifiedIds = new ConcurrentHashMap<>();
+	private static final ConcurrentHashMap<String, ConcurrentHashMap<String, QualifiedId>> qualifiedOptions = new ConcurrentHashMap<>();
+	
+	private final String pack;
+	private final String conversation;
+	private final String name;
+	private final boolean negated;
+	private final String string;
+	private final int hash;
+	
+	private QualifiedId(String pack, String conversation, String name, boolean negated) {
+		this.pack = pack;
+		this.conversation = conversation;
+		this.name = name;
+		this.negated = negated;
+		String prefix = pack != null ? pack : conversation;
+		String string = prefix == null ? name : prefix + '.' + name;
+		this.string = negated ? '!' + string : string;
+		this.hash = Objects.hash(pack, conversation, name, negated);
+	}
+	
+	/**
+	 * Parses the ID of an object, optionally prefixed with the package name
+	 * and negated with any number of exclamation marks.
+	 * 
+	 * @param id
+	 *            ID string to parse
+	 * @return the parsed ID
+	 */
+	public static QualifiedId parse(String id) {
+		QualifiedId parsed = ids.get(id);
+		if (parsed == null) {
+			parsed = cache(ids, id, parse(id, false));
+		}
+		return parsed;
+	}
+	
+	/**
+	 * Parses the ID of a conversation option, optionally prefixed with the
+	 * conversation name.
+	 * 
+	 * @param id
+	 *            ID string to parse
+	 * @return the parsed ID
+	 */
+	public static QualifiedId parseOption(String id) {
+		QualifiedId parsed = options.get(id);
+		if (parsed == null) {
+			parsed = cache(options, id, parse(id, true));
+		}
+		return parsed;
+	}
+	
+	/**
+	 * @param pack
+	 *            name of the package, can be null
+	 * @param name
+	 *            name of the object
+	 * @return the ID of the object in that package
+	 */
+	public static QualifiedId of(String pack, String name) {
+		return of(qualifiedIds, pack, name, false);
+	}
+	
+	/**
+	 * @param conversation
+	 *            name of the conversation, can be null
+	 * @param name
+	 *            name of the option
+	 * @return the ID of the option in that conversation
+	 */
+	public static QualifiedId ofOption(String conversation, String name) {
+		return of(qualifiedOptions, conversation, name, true);
+	}
+	
+	private static QualifiedId parse(String id, boolean option) {
+		int start = 0;
+		while (id.startsWith("!", start)) {
+			start++;
+		}
+		String prefix = null;
+		String name;
+		int dot = id.indexOf('.', start);
+		if (dot < 0) {
+			name = start == 0 ? id : id.substring(start);
+		} else {
+			prefix = id.substring(start, dot);
+			int end = id.indexOf('.', dot + 1);
+			name = id.substring(dot + 1, end < 0 ? id.length() : end);
+		}
+		return option ? new QualifiedId(null, prefix, name, start > 0) : new QualifiedId(prefix, null, name, start > 0);
+	}
+	
+	private static QualifiedId of(ConcurrentHashMap<String, ConcurrentHashMap<String, QualifiedId>> table,
+			String prefix, String name, boolean option) {
+		ConcurrentHashMap<String, QualifiedId> names = table.get(prefix == null ? "" : prefix);
+		if (names == null) {
+			if (table.size() > LIMIT) {
+				table.clear();
+			}
+			names = table.computeIfAbsent(prefix == null ? "" : prefix, key -> new ConcurrentHashMap<>());
+		}
+		QualifiedId id = names.get(name);
+		if (id == null) {
+			id = cache(names, name, option ? new QualifiedId(null, prefix, name, false) : new QualifiedId(prefix, null, name, false));
+		}
+		return id;
+	}
+	
+	private static QualifiedId cache(ConcurrentHashMap<String, QualifiedId> table, String key, QualifiedId id) {
+		if (table.size() > LIMIT) {
+			table.clear();
+		}
+		QualifiedId existing = table.putIfAbsent(key, id);
+		return existing == null ? id : existing;
+	}
+	
+	/**
+	 * @return the name of the package or null if it's not defined
+	 */
+	public String getPackage() {
+		return pack;
+	}
+	
+	/**
+	 * @return the name of the conversation or null if it's not defined
+	 */
+	public String getConversation() {
+		return conversation;
+	}
+	
+	/**
+	 * @return the name of the object, without package or conversation name
+	 */
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * @return whether the ID was prefixed with an exclamation mark
+	 */
+	public boolean isNegated() {
+		return negated;
+	}
+	
+	/**
+	 * @return the same ID without negation
+	 */
+	public QualifiedId getPositive() {
+		if (!negated) {
+			return this;
+		}
+		return conversation != null ? ofOption(conversation, name) : of(pack, name);
+	}
+	
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof QualifiedId)) {
+			return false;
+		}
+		QualifiedId other = (QualifiedId) obj;
+		return hash == other.hash && negated == other.negated && name.equals(other.name)
+				&& Objects.equals(pack, other.pack) && Objects.equals(conversation, other.conversation);
+	}
+	
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+	
+	/**
+	 * @return the ID string, as it's written in files
+	 */
+	@Override
+	public String toString() {
+		return string;
+	}
+
+}
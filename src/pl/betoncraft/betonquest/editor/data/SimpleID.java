@@ -18,23 +18,36 @@
 
 package pl.betoncraft.betonquest.editor.data;
 
+import java.util.Objects;
+
 import javafx.beans.property.StringProperty;
 import pl.betoncraft.betonquest.editor.BetonQuestEditor;
 import pl.betoncraft.betonquest.editor.model.QuestPackage;
 
 /**
- * Basic implementation of ID.
+ * Basic implementation of ID. The ID is kept as a plain String, its property
+ * is created only when something needs to bind to it. Renames are reported to
+ * the package of the object.
  *
  * @author Jakub Sapalski
  */
 public abstract class SimpleID implements ID {
 
-	protected StringProperty id;
+	protected String id;
 	protected QuestPackage pack;
 	protected int index = -1;
+	private StringProperty idProperty;
 
 	@Override
 	public StringProperty getId() {
+		if (idProperty == null) {
+			idProperty = new StringAdapter(id, this::rename);
+		}
+		return idProperty;
+	}
+
+	@Override
+	public String getIdValue() {
 		return id;
 	}
 
@@ -42,6 +55,11 @@ public abstract class SimpleID implements ID {
 	public QuestPackage getPack() {
 		return pack;
 	}
+	
+	@Override
+	public void setPack(QuestPackage pack) {
+		this.pack = pack;
+	}
 
 	@Override
 	public int getIndex() {
@@ -53,9 +71,32 @@ public abstract class SimpleID implements ID {
 		this.index = index;
 	}
 	
+	/**
+	 * Reports a change of anything defined by this object, other than its ID,
+	 * to the package.
+	 */
+	protected void changed() {
+		QuestPackage pack = getPack();
+		if (pack != null) {
+			pack.changed(this);
+		}
+	}
+	
+	private void rename(String newId) {
+		String oldId = id;
+		if (Objects.equals(oldId, newId)) {
+			return;
+		}
+		id = newId;
+		QuestPackage pack = getPack();
+		if (pack != null) {
+			pack.renamed(this, oldId);
+		}
+	}
+	
 	@Override
 	public String toString() {
-		return BetonQuestEditor.getInstance().getDisplayedPackage().equals(pack) ? id.get() : pack.getName().get() + "." + id.get();
+		return BetonQuestEditor.getInstance().getDisplayedPackage().equals(pack) ? id : QualifiedId.of(pack.getName().get(), id).toString();
 	}
 
 }
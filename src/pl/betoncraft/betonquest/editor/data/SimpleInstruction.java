@@ -0,0 +1,77 @@
+/**
+ * BetonQuest Editor - advanced quest creating tool for BetonQuest
+ * Copyright (C) 2016  Jakub "Co0sh" Sapalski
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pl.betoncraft.betonquest.editor.data;
+
+import java.util.Objects;
+
+import javafx.beans.property.StringProperty;
+import pl.betoncraft.betonquest.editor.BetonQuestEditor;
+
+/**
+ * Basic implementation of Instruction. Like the ID, the instruction is kept as
+ * a plain String and its property is created only when it's needed.
+ *
+ * @author Jakub Sapalski
+ */
+public abstract class SimpleInstruction extends SimpleID implements Instruction {
+	
+	protected String instruction;
+	private StringProperty instructionProperty;
+	private ParsedInstruction parsed;
+
+	@Override
+	public StringProperty getInstruction() {
+		if (instructionProperty == null) {
+			instructionProperty = new StringAdapter(instruction, this::update);
+		}
+		return instructionProperty;
+	}
+
+	@Override
+	public String getInstructionValue() {
+		return instruction;
+	}
+
+	@Override
+	public ParsedInstruction getParsedInstruction() {
+		if (parsed == null) {
+			parsed = ParsedInstruction.parse(instruction);
+		}
+		return parsed;
+	}
+
+	@Override
+	public void setInstructionValue(String instruction) {
+		if (instructionProperty != null) {
+			instructionProperty.set(instruction);
+		} else {
+			update(instruction);
+		}
+	}
+	
+	private void update(String instruction) {
+		if (!Objects.equals(this.instruction, instruction)) {
+			BetonQuestEditor editor = BetonQuestEditor.getInstance();
+			this.instruction = editor == null ? instruction : editor.getStringPool().intern(instruction);
+			parsed = null;
+			changed();
+		}
+	}
+
+}
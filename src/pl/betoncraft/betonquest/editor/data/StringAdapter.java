@@ -0,0 +1,53 @@
+/**
+ * BetonQuest Editor - advanced quest creating tool for BetonQuest
+ * Copyright (C) 2016  Jakub "Co0sh" Sapalski
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pl.betoncraft.betonquest.editor.data;
+
+import java.util.function.Consumer;
+
+import javafx.beans.property.SimpleStringProperty;
+
+/**
+ * StringProperty view of a plain String kept by a model object. Model objects
+ * store their values in plain fields and create such adapters only when
+ * something binds to them; every change of the adapter is written back to the
+ * field by the setter.
+ *
+ * @author Jakub Sapalski
+ */
+public class StringAdapter extends SimpleStringProperty {
+	
+	private final Consumer<String> setter;
+	
+	/**
+	 * @param value
+	 *            current value of the field
+	 * @param setter
+	 *            writes new values back to the field
+	 */
+	public StringAdapter(String value, Consumer<String> setter) {
+		super(value);
+		this.setter = setter;
+	}
+	
+	@Override
+	protected void invalidated() {
+		setter.accept(get());
+	}
+
+}
@@ -0,0 +1,105 @@
+/**
+ * BetonQuest Editor - advanced quest creating tool for BetonQuest
+ * Copyright (C) 2016  Jakub "Co0sh" Sapalski
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pl.betoncraft.betonquest.editor.data;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of Strings shared by all packages of the workspace. Names of objects
+ * and instructions repeat a lot, both in a single package and between them,
+ * so the loader keeps only one copy of each of them. Packages are parsed on
+ * many threads, so the pool is thread-safe. Unlike {@link String#intern()},
+ * the pool can be dropped together with the workspace.
+ *
+ * @author Jakub Sapalski
+ */
+public class StringPool {
+	
+	private final ConcurrentHashMap<String, String> strings = new ConcurrentHashMap<>();
+	private final AtomicLong duplicates = new AtomicLong();
+	private final AtomicLong savedBytes = new AtomicLong();
+	
+	/**
+	 * Returns the pooled copy of the string, adding it to the pool if it's
+	 * not there yet.
+	 * 
+	 * @param string
+	 *            string to pool, can be null
+	 * @return the string equal to the argument, shared by the workspace
+	 */
+	public String intern(String string) {
+		if (string == null) {
+			return null;
+		}
+		String pooled = strings.putIfAbsent(string, string);
+		if (pooled == null) {
+			return string;
+		}
+		if (pooled != string) {
+			duplicates.incrementAndGet();
+			savedBytes.addAndGet(sizeOf(string));
+		}
+		return pooled;
+	}
+	
+	/**
+	 * Removes all strings from the pool and resets its statistics. Objects
+	 * which are still loaded keep their strings.
+	 */
+	public void clear() {
+		strings.clear();
+		duplicates.set(0);
+		savedBytes.set(0);
+	}
+	
+	/**
+	 * @return the number of different strings in the pool
+	 */
+	public int size() {
+		return strings.size();
+	}
+	
+	/**
+	 * @return the number of duplicated strings which were replaced with
+	 *         pooled ones
+	 */
+	public long getDuplicates() {
+		return duplicates.get();
+	}
+	
+	/**
+	 * @return estimated number of bytes taken by duplicated strings which
+	 *         were replaced with pooled ones
+	 */
+	public long getSavedBytes() {
+		return savedBytes.get();
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("%d strings, %d duplicates, %d KB saved", size(), getDuplicates(), getSavedBytes() / 1024);
+	}
+	
+	// String object with its char array, both aligned to 8 bytes
+	private static long sizeOf(String string) {
+		return 24 + ((16 + 2 * string.length() + 7) & ~7);
+	}
+
+}
@@ -18,53 +18,263 @@
 
 package pl.betoncraft.betonquest.editor.data;
 
-import java.util.HashMap;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
 
-import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.property.StringProperty;
 
 /**
- * Stores Strings in different languages.
+ * Stores Strings in different languages. Translations are kept in an array
+ * indexed by numbers from the {@link LanguageTable}, a missing translation is
+ * a null. Translations keep the order in which they were added. Properties
+ * are created only for the texts bound to a view. Every change is reported
+ * to the package as a change of the object owning the text.
  *
  * @author Jakub Sapalski
  */
 public class TranslatableText {
 	
-	private HashMap<String, StringProperty> text = new HashMap<>();
-	private StringProperty def = null;
+	private final SimpleID owner;
+	private String def;
+	private boolean hasDef = false;
+	// null if there are no translations
+	private String[] texts;
+	// numbers of languages in the order they were added, null if it's the order of numbers
+	private int[] order;
+	// the property of the default text is first, then translations
+	private StringProperty[] properties;
+	
+	/**
+	 * @param owner
+	 *            the object which is changed when this text changes
+	 */
+	public TranslatableText(SimpleID owner) {
+		this.owner = owner;
+	}
 	
 	public void setDef(String def) {
-		this.def = new SimpleStringProperty(def);
+		this.def = def;
+		hasDef = true;
+		StringProperty property = property(0);
+		if (property != null) {
+			property.set(def);
+		}
+		owner.changed();
 	}
 	
 	public void addLang(String lang, String text) {
-		this.text.put(lang, new SimpleStringProperty(text));
+		int id = LanguageTable.idOf(lang);
+		store(id, text);
+		StringProperty property = property(id + 1);
+		if (property != null) {
+			property.set(text);
+		}
+		owner.changed();
 	}
 	
+	/**
+	 * Returns the property of the default text or, if there is none, of the
+	 * text in that language. A missing translation is added only when the
+	 * property is set.
+	 * 
+	 * @param lang
+	 *            language code
+	 * @return the property of the text
+	 */
 	public StringProperty get(String lang) {
-		if (def != null) {
-			return def;
+		if (hasDef) {
+			return getDef();
 		} else {
-			StringProperty value = text.get(lang);
-			if (value == null) {
-				value = new SimpleStringProperty();
-				text.put(lang, value);
-			}
-			return value;
+			return adapter(LanguageTable.idOf(lang));
 		}
 	}
 	
+	/**
+	 * Removes the default text and all translations.
+	 */
+	public void clear() {
+		def = null;
+		hasDef = false;
+		texts = null;
+		order = null;
+		owner.changed();
+	}
+	
+	/**
+	 * @return the default text or null if the text is translated
+	 */
 	public StringProperty getDef() {
-		return def;
+		if (!hasDef) {
+			return null;
+		}
+		StringProperty property = property(0);
+		if (property == null) {
+			property = new StringAdapter(def, value -> {
+				if (hasDef && !Objects.equals(def, value)) {
+					def = value;
+					owner.changed();
+				}
+			});
+			setProperty(0, property);
+		}
+		return property;
 	}
 	
+	/**
+	 * @return the translation or null if there is no translation in that
+	 *         language
+	 */
 	public StringProperty getLang(String lang) {
-		return text.get(lang);
+		int id = LanguageTable.find(lang);
+		if (id < 0 || getLangValue(id) == null) {
+			return null;
+		}
+		return adapter(id);
+	}
+	
+	/**
+	 * @return true if the text has a default String instead of translations
+	 */
+	public boolean hasDef() {
+		return hasDef;
+	}
+	
+	/**
+	 * @return the default String, without creating its property
+	 */
+	public String getDefValue() {
+		return def;
+	}
+	
+	/**
+	 * @return the String in that language, without creating its property
+	 */
+	public String getLangValue(String lang) {
+		int id = LanguageTable.find(lang);
+		return id < 0 ? null : getLangValue(id);
+	}
+	
+	/**
+	 * @return codes of languages of all translations, in the order they were
+	 *         added
+	 */
+	public List<String> getLanguages() {
+		ArrayList<String> languages = new ArrayList<>();
+		if (order != null) {
+			for (int id : order) {
+				languages.add(LanguageTable.codeOf(id));
+			}
+		} else if (texts != null) {
+			for (int id = 0; id < texts.length; id++) {
+				if (texts[id] != null) {
+					languages.add(LanguageTable.codeOf(id));
+				}
+			}
+		}
+		return languages;
+	}
+	
+	private String getLangValue(int id) {
+		return texts == null || id >= texts.length ? null : texts[id];
+	}
+	
+	private StringProperty adapter(int id) {
+		StringProperty property = property(id + 1);
+		if (property == null) {
+			property = new StringAdapter(getLangValue(id), value -> {
+				if (!Objects.equals(getLangValue(id), value)) {
+					store(id, value);
+					owner.changed();
+				}
+			});
+			setProperty(id + 1, property);
+		}
+		return property;
+	}
+	
+	private void store(int id, String text) {
+		if (texts == null) {
+			if (text == null) {
+				return;
+			}
+			texts = new String[id + 1];
+		} else if (id >= texts.length) {
+			if (text == null) {
+				return;
+			}
+			texts = Arrays.copyOf(texts, id + 1);
+		}
+		if (texts[id] == null && text != null) {
+			added(id);
+		} else if (texts[id] != null && text == null) {
+			removed(id);
+		}
+		texts[id] = text;
+	}
+	
+	/**
+	 * Records the order of languages, unless they are added in the order of
+	 * their numbers, which is the case for almost all texts.
+	 */
+	private void added(int id) {
+		if (order == null) {
+			if (id >= texts.length - 1 || !hasLanguageAfter(id)) {
+				return;
+			}
+			int count = 0;
+			for (String text : texts) {
+				if (text != null) {
+					count++;
+				}
+			}
+			order = new int[count];
+			count = 0;
+			for (int i = 0; i < texts.length; i++) {
+				if (texts[i] != null) {
+					order[count++] = i;
+				}
+			}
+		}
+		order = Arrays.copyOf(order, order.length + 1);
+		order[order.length - 1] = id;
 	}
 	
-	public Set<String> getLanguages() {
-		return text.keySet();
+	private boolean hasLanguageAfter(int id) {
+		for (int i = id + 1; i < texts.length; i++) {
+			if (texts[i] != null) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private void removed(int id) {
+		if (order == null) {
+			return;
+		}
+		int[] reduced = new int[order.length - 1];
+		int count = 0;
+		for (int i : order) {
+			if (i != id) {
+				reduced[count++] = i;
+			}
+		}
+		order = reduced;
+	}
+	
+	private StringProperty property(int index) {
+		return properties == null || index >= properties.length ? null : properties[index];
+	}
+	
+	private void setProperty(int index, StringProperty property) {
+		if (properties == null) {
+			properties = new StringProperty[index + 1];
+		} else if (index >= properties.length) {
+			properties = Arrays.copyOf(properties, index + 1);
+		}
+		properties[index] = property;
 	}
 	
 }
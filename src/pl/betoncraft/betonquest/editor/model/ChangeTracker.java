@@ -0,0 +1,407 @@
+/**
+ * BetonQuest Editor - advanced quest creating tool for BetonQuest
+ * Copyright (C) 2016  Jakub "Co0sh" Sapalski
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pl.betoncraft.betonquest.editor.model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.function.Consumer;
+
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+import pl.betoncraft.betonquest.editor.BetonQuestEditor;
+import pl.betoncraft.betonquest.editor.data.ID;
+
+/**
+ * Tracks which files of the package were changed since it was last loaded or
+ * saved, so only these files need to be written again. Files have the same
+ * logical names as in the source: "main", "events", "conditions",
+ * "objectives", "items", "journal"; conversations are tracked by their
+ * objects. Renaming an object can change every file which references it, so
+ * it marks all files of all packages as changed. Lists of the package are
+ * watched directly, while objects report their own changes through the
+ * package, so they don't need listeners.
+ *
+ * @author Jakub Sapalski
+ */
+public class ChangeTracker {
+	
+	private final QuestPackage pack;
+	private final HashSet<String> files = new HashSet<>();
+	private final HashSet<Conversation> conversations = new HashSet<>();
+	private final HashMap<Conversation, Marker> watchedConversations = new HashMap<>();
+	private final ArrayList<Consumer<Conversation>> loadListeners = new ArrayList<>(1);
+	private final ArrayList<ObjectListener> objectListeners = new ArrayList<>(1);
+	private boolean all = true;
+	private boolean watching = false;
+	private int paused = 0;
+	
+	private final Marker main = new Marker("main", null);
+	private final Marker events = new Marker("events", null);
+	private final Marker conditions = new Marker("conditions", null);
+	private final Marker objectives = new Marker("objectives", null);
+	private final Marker items = new Marker("items", null);
+	private final Marker journal = new Marker("journal", null);
+	private final Marker renamed = new Marker(null, null);
+	
+	public ChangeTracker(QuestPackage pack) {
+		this.pack = pack;
+	}
+	
+	/**
+	 * Marks all files as unchanged, starting to watch the package if it's not
+	 * watched yet. It should be called when the package matches its files,
+	 * after loading or saving it.
+	 */
+	public void reset() {
+		if (!watching) {
+			watching = true;
+			watchPackage();
+		}
+		files.clear();
+		conversations.clear();
+		all = false;
+	}
+	
+	/**
+	 * Marks all files of the package as changed.
+	 */
+	public void markAll() {
+		all = true;
+	}
+	
+	/**
+	 * @param file
+	 *            logical name of the file
+	 * @return true if the file needs to be written again
+	 */
+	public boolean isChanged(String file) {
+		return all || files.contains(file);
+	}
+	
+	/**
+	 * @param conv
+	 *            the conversation
+	 * @return true if the file of this conversation needs to be written again
+	 */
+	public boolean isChanged(Conversation conv) {
+		return all || conversations.contains(conv);
+	}
+	
+	/**
+	 * Adds a listener which is notified when contents of a lazy conversation
+	 * are loaded, so it can start watching them. Loading itself is not
+	 * reported as a change.
+	 * 
+	 * @param listener
+	 *            receives the loaded conversation
+	 */
+	public void addLoadListener(Consumer<Conversation> listener) {
+		loadListeners.add(listener);
+	}
+	
+	/**
+	 * @param listener
+	 *            listener added with {@link #addLoadListener(Consumer)}
+	 */
+	public void removeLoadListener(Consumer<Conversation> listener) {
+		loadListeners.remove(listener);
+	}
+	
+	/**
+	 * Adds a listener which is notified about changes of objects in the
+	 * package, after they are marked. Changes made while a conversation is
+	 * being loaded are not reported.
+	 * 
+	 * @param listener
+	 *            receives changed objects
+	 */
+	public void addObjectListener(ObjectListener listener) {
+		objectListeners.add(listener);
+	}
+	
+	/**
+	 * @param listener
+	 *            listener added with {@link #addObjectListener(ObjectListener)}
+	 */
+	public void removeObjectListener(ObjectListener listener) {
+		objectListeners.remove(listener);
+	}
+	
+	/**
+	 * Marks the files referencing a renamed object.
+	 */
+	void renamed(ID object, String oldId) {
+		if (!watching || paused > 0 || !pack.contains(object)) {
+			return;
+		}
+		if (object instanceof Item) {
+			items.mark();
+		} else if (object instanceof GlobalVariable || object instanceof StaticEvent || object instanceof NpcBinding
+				|| object instanceof QuestCanceler || object instanceof MainPageLine) {
+			main.mark();
+		} else {
+			renamed.mark();
+		}
+		for (ObjectListener listener : new ArrayList<>(objectListeners)) {
+			listener.renamed(object, oldId);
+		}
+	}
+	
+	/**
+	 * Marks the file defining a changed object.
+	 */
+	void changed(ID object) {
+		if (!watching || paused > 0 || !pack.contains(object)) {
+			return;
+		}
+		if (object instanceof Event) {
+			events.mark();
+		} else if (object instanceof Condition) {
+			conditions.mark();
+		} else if (object instanceof Objective) {
+			objectives.mark();
+		} else if (object instanceof Item) {
+			items.mark();
+		} else if (object instanceof JournalEntry) {
+			journal.mark();
+		} else if (object instanceof Conversation) {
+			conversations.add((Conversation) object);
+		} else if (object instanceof ConversationOption) {
+			conversations.add(((ConversationOption) object).getConversation());
+		} else {
+			main.mark();
+		}
+		for (ObjectListener listener : new ArrayList<>(objectListeners)) {
+			listener.changed(object);
+		}
+	}
+	
+	/**
+	 * Loads a lazy conversation without marking anything as changed and
+	 * starts watching its contents.
+	 */
+	void load(Conversation conv, Runnable loader) {
+		paused++;
+		try {
+			loader.run();
+		} finally {
+			paused--;
+		}
+		if (watching) {
+			watchContents(conv, true);
+		}
+		for (Consumer<Conversation> listener : new ArrayList<>(loadListeners)) {
+			listener.accept(conv);
+		}
+	}
+	
+	private void watchPackage() {
+		pack.getName().addListener((ChangeListener<Object>) renamed);
+		listen(pack.getEvents(), events, true);
+		listen(pack.getConditions(), conditions, true);
+		listen(pack.getObjectives(), objectives, true);
+		listen(pack.getItems(), items, true);
+		listen(pack.getJournal(), journal, true);
+		watchList(pack.getConversations(), null, (conv, add) -> {
+			if (add && paused == 0) {
+				conversations.add(conv);
+			}
+			if (conv.isLoaded()) {
+				watchContents(conv, add);
+			}
+		});
+		listen(pack.getVariables(), main, true);
+		watchList(pack.getLocations(), main, (location, add) -> listen(location.getObjective(), main, add));
+		watchList(pack.getStaticEvents(), main, (event, add) -> listen(event.getEvent(), main, add));
+		watchList(pack.getNpcBindings(), main, (binding, add) -> listen(binding.getConversation(), main, add));
+		watchList(pack.getCancelers(), main, (canceler, add) -> {
+			listen(canceler.getEvents(), main, add);
+			listen(canceler.getConditions(), main, add);
+			listen(canceler.getObjectives(), main, add);
+			listen(canceler.getTags(), main, add);
+			listen(canceler.getPoints(), main, add);
+			listen(canceler.getJournal(), main, add);
+			listen(canceler.getLocationProperty(), main, add);
+		});
+		watchList(pack.getMainPage(), main, (line, add) -> {
+			listen(line.getPriority(), main, add);
+			listen(line.getConditions(), main, add);
+		});
+	}
+	
+	private void watchContents(Conversation conv, boolean add) {
+		Marker marker = add ? watchedConversations.get(conv) : watchedConversations.remove(conv);
+		if (add) {
+			if (marker != null) {
+				return;
+			}
+			marker = new Marker(null, conv);
+			watchedConversations.put(conv, marker);
+		} else if (marker == null) {
+			return;
+		}
+		listen(conv.getStop(), marker, add);
+		listen(conv.getStartingOptions(), marker, add);
+		listen(conv.getFinalEvents(), marker, add);
+		listen(conv.getNpcOptions(), marker, add);
+		listen(conv.getPlayerOptions(), marker, add);
+	}
+	
+	private <T> void watchList(ObservableList<T> list, Marker marker, Watcher<? super T> watcher) {
+		for (T object : list) {
+			watcher.watch(object, true);
+		}
+		list.addListener(new ListWatcher<>(marker, watcher));
+	}
+	
+	private void listen(ObservableValue<?> value, Marker marker, boolean add) {
+		if (add) {
+			value.addListener((ChangeListener<Object>) marker);
+		} else {
+			value.removeListener((ChangeListener<Object>) marker);
+		}
+	}
+	
+	private void listen(ObservableList<?> list, Marker marker, boolean add) {
+		if (add) {
+			list.addListener((ListChangeListener<Object>) marker);
+		} else {
+			list.removeListener((ListChangeListener<Object>) marker);
+		}
+	}
+	
+	/**
+	 * Marks a file as changed when anything it listens to changes.
+	 */
+	private class Marker implements ChangeListener<Object>, ListChangeListener<Object> {
+		
+		private final String file;
+		private final Conversation conversation;
+		
+		/**
+		 * Creates a marker of a file or a conversation. If both are null,
+		 * the marker marks all files of all packages.
+		 */
+		private Marker(String file, Conversation conversation) {
+			this.file = file;
+			this.conversation = conversation;
+		}
+		
+		@Override
+		public void changed(ObservableValue<? extends Object> observable, Object oldValue, Object newValue) {
+			mark();
+		}
+		
+		@Override
+		public void onChanged(Change<? extends Object> change) {
+			while (change.next()) {
+				if (!change.wasPermutated()) {
+					mark();
+					return;
+				}
+				// sorting fires a permutation even if nothing moved
+				for (int i = change.getFrom(); i < change.getTo(); i++) {
+					if (change.getPermutation(i) != i) {
+						mark();
+						return;
+					}
+				}
+			}
+		}
+		
+		private void mark() {
+			if (paused > 0) {
+				return;
+			}
+			if (conversation != null) {
+				conversations.add(conversation);
+			} else if (file != null) {
+				files.add(file);
+			} else {
+				for (QuestPackage other : BetonQuestEditor.getInstance().getPackages().values()) {
+					other.getChanges().markAll();
+				}
+				markAll();
+			}
+		}
+		
+	}
+	
+	/**
+	 * Marks the list's file as changed and watches objects added to the list.
+	 */
+	private class ListWatcher<T> implements ListChangeListener<T> {
+		
+		private final Marker marker;
+		private final Watcher<? super T> watcher;
+		
+		private ListWatcher(Marker marker, Watcher<? super T> watcher) {
+			this.marker = marker;
+			this.watcher = watcher;
+		}
+		
+		@Override
+		public void onChanged(Change<? extends T> change) {
+			if (marker != null) {
+				marker.onChanged(change);
+				change.reset();
+			}
+			while (change.next()) {
+				if (change.wasPermutated()) {
+					continue;
+				}
+				for (T object : change.getRemoved()) {
+					watcher.watch(object, false);
+				}
+				for (T object : change.getAddedSubList()) {
+					watcher.watch(object, true);
+				}
+			}
+		}
+		
+	}
+	
+	private interface Watcher<T> {
+		public void watch(T object, boolean add);
+	}
+	
+	/**
+	 * Receives changes of objects in the package.
+	 */
+	public interface ObjectListener {
+		
+		/**
+		 * @param object
+		 *            renamed object
+		 * @param oldId
+		 *            the ID the object had before
+		 */
+		public void renamed(ID object, String oldId);
+		
+		/**
+		 * @param object
+		 *            object in which anything other than the ID has changed
+		 */
+		public void changed(ID object);
+		
+	}
+
+}
@@ -17,31 +17,26 @@
  */
 package pl.betoncraft.betonquest.editor.model;
 
-import javafx.beans.property.SimpleStringProperty;
-import javafx.beans.property.StringProperty;
 import javafx.collections.ObservableList;
 import pl.betoncraft.betonquest.editor.controller.InstructionEditController;
 import pl.betoncraft.betonquest.editor.data.ID;
-import pl.betoncraft.betonquest.editor.data.Instruction;
-import pl.betoncraft.betonquest.editor.data.SimpleID;
+import pl.betoncraft.betonquest.editor.data.SimpleInstruction;
 
 /**
  * Represents a BetonQuest condition. 
  *
  * @author Jakub Sapalski
  */
-public class Condition extends SimpleID implements Instruction {
+public class Condition extends SimpleInstruction {
 
-	private StringProperty instruction = new SimpleStringProperty();
-	
 	public Condition(QuestPackage pack, String id) {
 		this.pack = ID.parsePackage(pack, id);
-		this.id = new SimpleStringProperty(ID.parseId(id));
+		this.id = ID.parseId(id);
 	}
 	
 	public Condition(QuestPackage pack, String id, String instruction) {
 		this(pack, id);
-		this.instruction.set(instruction);
+		this.instruction = instruction;
 	}
 	
 	@Override
@@ -54,10 +49,5 @@ public class Condition extends SimpleID implements Instruction {
 	public ObservableList<Condition> getList() {
 		return pack.getConditions();
 	}
-
-	@Override
-	public StringProperty getInstruction() {
-		return instruction;
-	}
 	
 }
@@ -3,16 +3,20 @@
  */
 package pl.betoncraft.betonquest.editor.model;
 
+import java.util.function.Consumer;
+
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.SimpleBooleanProperty;
-import javafx.beans.property.SimpleStringProperty;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import pl.betoncraft.betonquest.editor.controller.NameEditController;
 import pl.betoncraft.betonquest.editor.data.ID;
+import pl.betoncraft.betonquest.editor.data.IdIndex;
 import pl.betoncraft.betonquest.editor.data.IdWrapper;
+import pl.betoncraft.betonquest.editor.data.OptionID;
 import pl.betoncraft.betonquest.editor.data.SimpleID;
 import pl.betoncraft.betonquest.editor.data.TranslatableText;
+import pl.betoncraft.betonquest.editor.model.exception.ConversationChangedException;
 
 /**
  * Represents a conversation.
@@ -21,21 +25,25 @@ import pl.betoncraft.betonquest.editor.data.TranslatableText;
  */
 public class Conversation extends SimpleID {
 
-	private TranslatableText npc = new TranslatableText();
+	private TranslatableText npc = new TranslatableText(this);
 	private BooleanProperty stop = new SimpleBooleanProperty();
 	private ObservableList<NpcOption> npcOptions = FXCollections.observableArrayList();
 	private ObservableList<PlayerOption> playerOptions = FXCollections.observableArrayList();
+	private IdIndex<NpcOption> npcIndex = new IdIndex<>(npcOptions);
+	private IdIndex<PlayerOption> playerIndex = new IdIndex<>(playerOptions);
 	private ObservableList<IdWrapper<NpcOption>> startingOptions = FXCollections.observableArrayList();
 	private ObservableList<IdWrapper<Event>> finalEvents = FXCollections.observableArrayList();
+	private Runnable lazyLoader;
+	private Consumer<Texts> textReader;
 
 	public Conversation(QuestPackage pack, String id) {
 		this.pack = ID.parsePackage(pack, id);
-		this.id = new SimpleStringProperty(ID.parseId(id));
+		this.id = ID.parseId(id);
 	}
 
 	@Override
 	public boolean edit() {
-		return NameEditController.display(id);
+		return NameEditController.display(getId());
 	}
 
 	@Override
@@ -44,11 +52,87 @@ public class Conversation extends SimpleID {
 		return pack.getConversations();
 	}
 
+	/**
+	 * Sets the loader of conversation contents. Options of the conversation
+	 * should already exist, the loader will fill them when any part of the
+	 * contents is needed.
+	 * 
+	 * @param lazyLoader
+	 *            loads the contents of this conversation
+	 * @param textReader
+	 *            reads texts of this conversation without loading it
+	 */
+	public void setLazyLoader(Runnable lazyLoader, Consumer<Texts> textReader) {
+		this.lazyLoader = lazyLoader;
+		this.textReader = textReader;
+	}
+	
+	/**
+	 * @return true if the contents of this conversation are loaded
+	 */
+	public boolean isLoaded() {
+		return lazyLoader == null;
+	}
+	
+	/**
+	 * Loads the contents of this conversation if they're not loaded yet.
+	 * Loading does not count as a change of the conversation.
+	 * 
+	 * @throws ConversationChangedException
+	 *             when the file of this conversation changed since the
+	 *             package was loaded; the conversation stays unloaded
+	 */
+	public void load() {
+		if (lazyLoader != null) {
+			Runnable loader = lazyLoader;
+			lazyLoader = null;
+			try {
+				pack.getChanges().load(this, loader);
+			} catch (RuntimeException e) {
+				// nothing was read, so the conversation can be loaded again later
+				lazyLoader = loader;
+				throw e;
+			}
+			textReader = null;
+		}
+	}
+	
+	/**
+	 * Reads the NPC name and texts of options from the file of this
+	 * conversation if it's not loaded. Nothing is kept in memory, so the file
+	 * is read again every time.
+	 * 
+	 * @param texts
+	 *            receives the texts
+	 * @throws ConversationChangedException
+	 *             when the file changed since the package was loaded
+	 */
+	public void readTexts(Texts texts) {
+		if (textReader != null) {
+			textReader.accept(texts);
+		}
+	}
+	
+	/**
+	 * Forgets contents of options remembered before the conversation was
+	 * loaded, so they can be remembered again from a new version of its file.
+	 */
+	public void clearIndexes() {
+		for (NpcOption option : npcOptions) {
+			option.clearIndexes();
+		}
+		for (PlayerOption option : playerOptions) {
+			option.clearIndexes();
+		}
+	}
+
 	public BooleanProperty getStop() {
+		load();
 		return stop;
 	}
 
 	public TranslatableText getNPC() {
+		load();
 		return npc;
 	}
 
@@ -61,46 +145,78 @@ public class Conversation extends SimpleID {
 	}
 	
 	public NpcOption getNpcOption(String id) {
-		return getByID(npcOptions, id);
+		return npcIndex.get(id);
 	}
 	
 	public PlayerOption getPlayerOption(String id) {
-		return getByID(playerOptions, id);
+		return playerIndex.get(id);
+	}
+	
+	/**
+	 * @return true if the option is one of options of this conversation
+	 */
+	public boolean contains(ConversationOption option) {
+		return option instanceof NpcOption ? npcIndex.contains((NpcOption) option)
+				: playerIndex.contains((PlayerOption) option);
+	}
+	
+	/**
+	 * Moves a renamed option to its new ID in the index.
+	 */
+	void renamed(ConversationOption option, String oldId) {
+		if (option instanceof NpcOption) {
+			npcIndex.renamed((NpcOption) option, oldId);
+		} else {
+			playerIndex.renamed((PlayerOption) option, oldId);
+		}
 	}
 	
 	public NpcOption newNpcOption(String id) {
-		NpcOption option = getByID(npcOptions, id);
+		Conversation conv = OptionID.parseConversation(this, id);
+		NpcOption option = conv.npcIndex.get(OptionID.parseId(id));
 		if (option == null) {
 			option = new NpcOption(this, id);
-			option.getConversation().getNpcOptions().add(option);
+			conv.npcOptions.add(option);
 		}
 		return option;
 	}
 	
 	public PlayerOption newPlayerOption(String id) {
-		PlayerOption option = getByID(playerOptions, id);
+		Conversation conv = OptionID.parseConversation(this, id);
+		PlayerOption option = conv.playerIndex.get(OptionID.parseId(id));
 		if (option == null) {
 			option = new PlayerOption(this, id);
-			playerOptions.add(option);
+			conv.playerOptions.add(option);
 		}
 		return option;
 	}
 
 	public ObservableList<IdWrapper<NpcOption>> getStartingOptions() {
+		load();
 		return startingOptions;
 	}
 
 	public ObservableList<IdWrapper<Event>> getFinalEvents() {
+		load();
 		return finalEvents;
 	}
 	
-	private <T extends ConversationOption> T getByID(ObservableList<T> list, String id) {
-		for (T object : list) {
-			if (object.getId().get().equals(id)) {
-				return object;
-			}
-		}
-		return null;
+	/**
+	 * Receives texts read from the file of a conversation which is not
+	 * loaded.
+	 */
+	public interface Texts {
+		
+		/**
+		 * @param owner
+		 *            the conversation for its NPC name or one of its options
+		 * @param lang
+		 *            language of the text or null if it's the default one
+		 * @param text
+		 *            the text
+		 */
+		public void accept(ID owner, String lang, String text);
+		
 	}
-
+	
 }
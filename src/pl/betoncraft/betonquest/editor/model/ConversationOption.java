@@ -17,14 +17,18 @@
  */
 package pl.betoncraft.betonquest.editor.model;
 
-import javafx.beans.property.SimpleStringProperty;
+import java.util.ArrayList;
+import java.util.List;
+
 import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
 import pl.betoncraft.betonquest.editor.controller.ConversationController;
 import pl.betoncraft.betonquest.editor.controller.NameEditController;
 import pl.betoncraft.betonquest.editor.data.ConditionWrapper;
 import pl.betoncraft.betonquest.editor.data.IdWrapper;
 import pl.betoncraft.betonquest.editor.data.OptionID;
+import pl.betoncraft.betonquest.editor.data.QualifiedId;
 import pl.betoncraft.betonquest.editor.data.SimpleID;
 import pl.betoncraft.betonquest.editor.data.TranslatableText;
 
@@ -36,19 +40,26 @@ import pl.betoncraft.betonquest.editor.data.TranslatableText;
 public abstract class ConversationOption extends SimpleID implements OptionID {
 
 	private Conversation conversation;
-	private TranslatableText text = new TranslatableText();
-	private ObservableList<IdWrapper<Event>> events = FXCollections.observableArrayList();
-	private ObservableList<ConditionWrapper> conditions = FXCollections.observableArrayList();
-	private ObservableList<IdWrapper<ConversationOption>> pointers = FXCollections.observableArrayList();
+	// contents are created when the conversation is loaded, options of
+	// conversations which are not used don't need them
+	private TranslatableText text;
+	private ArrayList<IdWrapper<Event>> events;
+	private ArrayList<ConditionWrapper> conditions;
+	private ArrayList<IdWrapper<ConversationOption>> pointers;
+	private ArrayList<ConversationOption> indexedPointers;
+	// observable views of the lists, created when a view uses them
+	private ObservableList<IdWrapper<Event>> eventsAdapter;
+	private ObservableList<ConditionWrapper> conditionsAdapter;
+	private ObservableList<IdWrapper<ConversationOption>> pointersAdapter;
 
 	public ConversationOption(Conversation conv, String id) {
 		this.conversation = OptionID.parseConversation(conv, id);
-		this.id = new SimpleStringProperty(OptionID.parseId(id));
+		this.id = OptionID.parseId(id);
 	}
 
 	@Override
 	public boolean edit() {
-		return NameEditController.display(id);
+		return NameEditController.display(getId());
 	}
 	
 	@Override
@@ -62,24 +73,155 @@ public abstract class ConversationOption extends SimpleID implements OptionID {
 	}
 
 	public TranslatableText getText() {
+		create();
 		return text;
 	}
 
 	public ObservableList<IdWrapper<Event>> getEvents() {
-		return events;
+		create();
+		if (eventsAdapter == null) {
+			eventsAdapter = adapt(events);
+		}
+		return eventsAdapter;
 	}
 
 	public ObservableList<ConditionWrapper> getConditions() {
-		return conditions;
+		create();
+		if (conditionsAdapter == null) {
+			conditionsAdapter = adapt(conditions);
+		}
+		return conditionsAdapter;
 	}
 
 	public ObservableList<IdWrapper<ConversationOption>> getPointers() {
-		return pointers;
+		create();
+		if (pointersAdapter == null) {
+			pointersAdapter = adapt(pointers);
+		}
+		return pointersAdapter;
+	}
+	
+	/**
+	 * @return events of this option, without creating the observable list
+	 *         if no view uses it
+	 */
+	public List<IdWrapper<Event>> getEventList() {
+		create();
+		return eventsAdapter != null ? eventsAdapter : events;
+	}
+	
+	/**
+	 * @return conditions of this option, without creating the observable
+	 *         list if no view uses it
+	 */
+	public List<ConditionWrapper> getConditionList() {
+		create();
+		return conditionsAdapter != null ? conditionsAdapter : conditions;
+	}
+	
+	/**
+	 * @return pointers of this option, without creating the observable list
+	 *         if no view uses it
+	 */
+	public List<IdWrapper<ConversationOption>> getPointerList() {
+		create();
+		return pointersAdapter != null ? pointersAdapter : pointers;
+	}
+	
+	/**
+	 * Remembers where this option points before the conversation is loaded,
+	 * so it's possible to check which options point to other ones without
+	 * loading all conversations.
+	 * 
+	 * @param targets
+	 *            options pointed to by this option
+	 */
+	public void indexPointers(List<ConversationOption> targets) {
+		if (indexedPointers == null) {
+			indexedPointers = new ArrayList<>(targets.size());
+		}
+		indexedPointers.addAll(targets);
+	}
+	
+	/**
+	 * @return options pointed to by this option, remembered before the
+	 *         conversation was loaded, or null if there are none
+	 */
+	List<ConversationOption> getIndexedPointers() {
+		return indexedPointers;
+	}
+	
+	/**
+	 * Checks if this option points to another one. It does not load the
+	 * conversation.
+	 * 
+	 * @param option
+	 *            the other option
+	 * @return true if this option points to the other one
+	 */
+	public boolean pointsTo(ConversationOption option) {
+		if (!conversation.isLoaded()) {
+			return indexedPointers != null && indexedPointers.contains(option);
+		}
+		for (IdWrapper<ConversationOption> pointer : getPointerList()) {
+			if (pointer.get().equals(option)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Loads the conversation and creates contents of this option.
+	 */
+	private void create() {
+		if (text == null) {
+			// loading creates contents of options from the file
+			conversation.load();
+		}
+		if (text == null) {
+			text = new TranslatableText(this);
+			events = new ArrayList<>(0);
+			conditions = new ArrayList<>(0);
+			pointers = new ArrayList<>(0);
+			indexedPointers = null;
+		}
+	}
+	
+	/**
+	 * Forgets pointers remembered before the conversation was loaded.
+	 */
+	void clearIndexes() {
+		indexedPointers = null;
+	}
+	
+	/**
+	 * Wraps the list in an observable one, which reports its changes as
+	 * changes of this option.
+	 */
+	private <T> ObservableList<T> adapt(List<T> list) {
+		ObservableList<T> adapter = FXCollections.observableList(list);
+		adapter.addListener((ListChangeListener<T>) change -> {
+			while (change.next()) {
+				if (!change.wasPermutated()) {
+					changed();
+					return;
+				}
+				// sorting fires a permutation even if nothing moved
+				for (int i = change.getFrom(); i < change.getTo(); i++) {
+					if (change.getPermutation(i) != i) {
+						changed();
+						return;
+					}
+				}
+			}
+		});
+		return adapter;
 	}
 	
 	@Override
 	public String toString() {
-		return ConversationController.getDisplayedConversation().equals(conversation) ? id.get() : conversation.getId().get() + "." + id.get();
+		return ConversationController.getDisplayedConversation().equals(conversation) ? id : QualifiedId.ofOption(conversation.getIdValue(), id).toString();
 	}
 
 }
@@ -17,31 +17,26 @@
  */
 package pl.betoncraft.betonquest.editor.model;
 
-import javafx.beans.property.SimpleStringProperty;
-import javafx.beans.property.StringProperty;
 import javafx.collections.ObservableList;
 import pl.betoncraft.betonquest.editor.controller.InstructionEditController;
 import pl.betoncraft.betonquest.editor.data.ID;
-import pl.betoncraft.betonquest.editor.data.Instruction;
-import pl.betoncraft.betonquest.editor.data.SimpleID;
+import pl.betoncraft.betonquest.editor.data.SimpleInstruction;
 
 /**
  * Represents BetonQuest event. 
  *
  * @author Jakub Sapalski
  */
-public class Event extends SimpleID implements Instruction {
-	
-	private StringProperty instruction = new SimpleStringProperty();
+public class Event extends SimpleInstruction {
 	
 	public Event(QuestPackage pack, String id) {
 		this.pack = ID.parsePackage(pack, id);
-		this.id = new SimpleStringProperty(ID.parseId(id));
+		this.id = ID.parseId(id);
 	}
 	
 	public Event(QuestPackage pack, String id, String instruction) {
 		this(pack, id);
-		this.instruction.set(instruction);
+		this.instruction = instruction;
 	}
 	
 	@Override
@@ -54,10 +49,5 @@ public class Event extends SimpleID implements Instruction {
 	public ObservableList<Event> getList() {
 		return pack.getEvents();
 	}
-
-	@Override
-	public StringProperty getInstruction() {
-		return instruction;
-	}
 	
 }
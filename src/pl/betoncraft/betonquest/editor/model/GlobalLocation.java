@@ -46,7 +46,7 @@ public class GlobalLocation implements Editable {
 	
 	@Override
 	public String toString() {
-		return objective.get().getId().get();
+		return objective.get().getIdValue();
 	}
 
 }
@@ -17,31 +17,26 @@
  */
 package pl.betoncraft.betonquest.editor.model;
 
-import javafx.beans.property.SimpleStringProperty;
-import javafx.beans.property.StringProperty;
 import javafx.collections.ObservableList;
 import pl.betoncraft.betonquest.editor.controller.InstructionEditController;
 import pl.betoncraft.betonquest.editor.data.ID;
-import pl.betoncraft.betonquest.editor.data.Instruction;
-import pl.betoncraft.betonquest.editor.data.SimpleID;
+import pl.betoncraft.betonquest.editor.data.SimpleInstruction;
 
 /**
  * Represents a variable defined in main.yml file.
  *
  * @author Jakub Sapalski
  */
-public class GlobalVariable extends SimpleID implements Instruction {
+public class GlobalVariable extends SimpleInstruction {
 
-	private StringProperty value = new SimpleStringProperty();
-	
 	public GlobalVariable(QuestPackage pack, String id) {
 		this.pack = ID.parsePackage(pack, id);
-		this.id = new SimpleStringProperty(ID.parseId(id));
+		this.id = ID.parseId(id);
 	}
 	
 	public GlobalVariable(QuestPackage pack, String id, String value) {
 		this(pack, id);
-		this.value.set(value);
+		this.instruction = value;
 	}
 
 	@Override
@@ -54,10 +49,5 @@ public class GlobalVariable extends SimpleID implements Instruction {
 	public ObservableList<GlobalVariable> getList() {
 		return pack.getVariables();
 	}
-
-	@Override
-	public StringProperty getInstruction() {
-		return value;
-	}
 	
 }
@@ -0,0 +1,308 @@
+/**
+ * BetonQuest Editor - advanced quest creating tool for BetonQuest
+ * Copyright (C) 2016  Jakub "Co0sh" Sapalski
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pl.betoncraft.betonquest.editor.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+import pl.betoncraft.betonquest.editor.BetonQuestEditor;
+import pl.betoncraft.betonquest.editor.data.ID;
+import pl.betoncraft.betonquest.editor.data.Instruction;
+import pl.betoncraft.betonquest.editor.data.ParsedInstruction;
+
+/**
+ * Index of events, conditions, objectives and items of the package by types
+ * of their instructions and by values of their arguments and options, so
+ * questions like "all tag events" or "every objective using this location"
+ * don't need to parse every instruction again. It's built when it's used for
+ * the first time and then kept up to date: lists of the package are watched
+ * directly, while changed instructions are reported by the
+ * {@link ChangeTracker}.
+ *
+ * @author Jakub Sapalski
+ */
+public class InstructionIndex implements ChangeTracker.ObjectListener {
+	
+	private final QuestPackage pack;
+	private final HashMap<Class<?>, HashMap<String, Entry>> types = new HashMap<>();
+	private final HashMap<Instruction, ParsedInstruction> indexed = new HashMap<>();
+	private final ArrayList<Listener> listeners = new ArrayList<>(1);
+	private boolean built = false;
+	private boolean building = false;
+	private boolean watching = false;
+	
+	InstructionIndex(QuestPackage pack) {
+		this.pack = pack;
+	}
+	
+	/**
+	 * @param type
+	 *            class of objects
+	 * @param instructionType
+	 *            type of the instruction, for example "tag"
+	 * @return objects of this package with instructions of that type
+	 */
+	public <T extends Instruction> Set<T> get(Class<T> type, String instructionType) {
+		Entry entry = entry(type, instructionType);
+		return entry == null ? Collections.emptySet() : cast(entry.objects);
+	}
+	
+	/**
+	 * @param type
+	 *            class of objects
+	 * @param instructionType
+	 *            type of the instruction, for example "tag"
+	 * @param value
+	 *            value of an argument or an option, a single one from
+	 *            comma-separated lists
+	 * @return objects of this package with instructions of that type which
+	 *         use the value
+	 */
+	public <T extends Instruction> Set<T> get(Class<T> type, String instructionType, String value) {
+		Entry entry = entry(type, instructionType);
+		if (entry == null) {
+			return Collections.emptySet();
+		}
+		LinkedHashSet<Instruction> set = entry.values.get(value);
+		return set == null ? Collections.emptySet() : cast(set);
+	}
+	
+	/**
+	 * @param type
+	 *            class of objects
+	 * @return types of instructions used by objects of this package
+	 */
+	public Set<String> getTypes(Class<? extends Instruction> type) {
+		build();
+		HashMap<String, Entry> entries = types.get(type);
+		return entries == null ? Collections.emptySet() : Collections.unmodifiableSet(entries.keySet());
+	}
+	
+	/**
+	 * @param type
+	 *            class of objects
+	 * @param instructionType
+	 *            type of the instruction, for example "tag"
+	 * @param value
+	 *            value of an argument or an option
+	 * @return objects of all loaded packages with instructions of that type
+	 *         which use the value
+	 */
+	public static <T extends Instruction> List<T> findAll(Class<T> type, String instructionType, String value) {
+		ArrayList<T> list = new ArrayList<>();
+		for (QuestPackage loaded : BetonQuestEditor.getInstance().getPackages().values()) {
+			list.addAll(loaded.getInstructions().get(type, instructionType, value));
+		}
+		return list;
+	}
+	
+	/**
+	 * Adds a listener which is notified about instructions which changed
+	 * after the index was built, so it can follow the index without querying
+	 * it again.
+	 * 
+	 * @param listener
+	 *            receives changed instructions
+	 */
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+	
+	/**
+	 * @param listener
+	 *            listener added with {@link #addListener(Listener)}
+	 */
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+	
+	/**
+	 * Drops the index, so it's built again when it's used. It must be called
+	 * after instructions were changed without notifying the tracker, for
+	 * example when the package was reloaded from its files.
+	 */
+	public void invalidate() {
+		built = false;
+		types.clear();
+		indexed.clear();
+		for (Listener listener : new ArrayList<>(listeners)) {
+			listener.invalidated();
+		}
+	}
+	
+	@Override
+	public void renamed(ID object, String oldId) {
+		// objects are indexed by their instructions, not by their names
+	}
+	
+	@Override
+	public void changed(ID object) {
+		if (built && object instanceof Instruction && indexed.containsKey(object)) {
+			add((Instruction) object);
+		}
+	}
+	
+	private Entry entry(Class<?> type, String instructionType) {
+		build();
+		HashMap<String, Entry> entries = types.get(type);
+		return entries == null ? null : entries.get(instructionType);
+	}
+	
+	private void build() {
+		if (built) {
+			return;
+		}
+		built = true;
+		building = true;
+		try {
+			if (!watching) {
+				watching = true;
+				watch(pack.getEvents());
+				watch(pack.getConditions());
+				watch(pack.getObjectives());
+				watch(pack.getItems());
+				pack.getChanges().addObjectListener(this);
+			} else {
+				pack.getEvents().forEach(this::add);
+				pack.getConditions().forEach(this::add);
+				pack.getObjectives().forEach(this::add);
+				pack.getItems().forEach(this::add);
+			}
+		} finally {
+			building = false;
+		}
+	}
+	
+	private <T extends Instruction> void watch(ObservableList<T> list) {
+		list.forEach(this::add);
+		list.addListener((ListChangeListener<T>) change -> {
+			if (!built) {
+				return;
+			}
+			while (change.next()) {
+				if (change.wasPermutated()) {
+					continue;
+				}
+				change.getRemoved().forEach(this::remove);
+				change.getAddedSubList().forEach(this::add);
+			}
+		});
+	}
+	
+	/**
+	 * Indexes the object by its current instruction, removing it from the
+	 * place of its previous one.
+	 */
+	private void add(Instruction object) {
+		ParsedInstruction parsed = object.getParsedInstruction();
+		ParsedInstruction previous = indexed.put(object, parsed);
+		if (previous == parsed) {
+			return;
+		}
+		if (previous != null) {
+			unindex(object, previous);
+		}
+		Entry entry = types.computeIfAbsent(object.getClass(), key -> new HashMap<>())
+				.computeIfAbsent(parsed.getType(), key -> new Entry());
+		entry.objects.add(object);
+		for (String value : parsed.getValues()) {
+			entry.values.computeIfAbsent(value, key -> new LinkedHashSet<>()).add(object);
+		}
+		notify(object, previous, parsed);
+	}
+	
+	private void remove(Instruction object) {
+		ParsedInstruction previous = indexed.remove(object);
+		if (previous != null) {
+			unindex(object, previous);
+			notify(object, previous, null);
+		}
+	}
+	
+	private void notify(Instruction object, ParsedInstruction previous, ParsedInstruction current) {
+		if (building) {
+			return;
+		}
+		for (Listener listener : new ArrayList<>(listeners)) {
+			listener.changed(object, previous, current);
+		}
+	}
+	
+	private void unindex(Instruction object, ParsedInstruction parsed) {
+		HashMap<String, Entry> entries = types.get(object.getClass());
+		Entry entry = entries.get(parsed.getType());
+		entry.objects.remove(object);
+		if (entry.objects.isEmpty()) {
+			entries.remove(parsed.getType());
+			return;
+		}
+		for (String value : parsed.getValues()) {
+			LinkedHashSet<Instruction> set = entry.values.get(value);
+			if (set != null) {
+				set.remove(object);
+				if (set.isEmpty()) {
+					entry.values.remove(value);
+				}
+			}
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static <T> Set<T> cast(Set<Instruction> set) {
+		return Collections.unmodifiableSet((Set<T>) set);
+	}
+	
+	/**
+	 * Receives changes of indexed instructions.
+	 */
+	public interface Listener {
+		
+		/**
+		 * @param object
+		 *            object which was added, removed or changed
+		 * @param previous
+		 *            its previously indexed instruction, null if it was added
+		 * @param current
+		 *            its current instruction, null if it was removed
+		 */
+		public void changed(Instruction object, ParsedInstruction previous, ParsedInstruction current);
+		
+		/**
+		 * Called when the index was dropped; the listener should query it
+		 * again.
+		 */
+		public void invalidated();
+		
+	}
+	
+	/**
+	 * Objects with instructions of a single type.
+	 */
+	private static class Entry {
+		private final LinkedHashSet<Instruction> objects = new LinkedHashSet<>();
+		private final HashMap<String, LinkedHashSet<Instruction>> values = new HashMap<>();
+	}
+
+}
@@ -3,7 +3,6 @@
  */
 package pl.betoncraft.betonquest.editor.model;
 
-import javafx.beans.property.SimpleStringProperty;
 import javafx.collections.ObservableList;
 import pl.betoncraft.betonquest.editor.controller.JournalEntryEditController;
 import pl.betoncraft.betonquest.editor.data.ID;
@@ -17,11 +16,11 @@ import pl.betoncraft.betonquest.editor.data.TranslatableText;
  */
 public class JournalEntry extends SimpleID {
 	
-	private TranslatableText text = new TranslatableText();
+	private TranslatableText text = new TranslatableText(this);
 	
 	public JournalEntry(QuestPackage pack, String id) {
 		this.pack = ID.parsePackage(pack, id);
-		this.id = new SimpleStringProperty(ID.parseId(id));
+		this.id = ID.parseId(id);
 	}
 
 	@Override
@@ -20,7 +20,6 @@ package pl.betoncraft.betonquest.editor.model;
 
 import javafx.beans.property.IntegerProperty;
 import javafx.beans.property.SimpleIntegerProperty;
-import javafx.beans.property.SimpleStringProperty;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import pl.betoncraft.betonquest.editor.controller.MainPageLineEditController;
@@ -36,13 +35,13 @@ import pl.betoncraft.betonquest.editor.data.TranslatableText;
  */
 public class MainPageLine extends SimpleID {
 
-	private TranslatableText text = new TranslatableText();
+	private TranslatableText text = new TranslatableText(this);
 	private ObservableList<ConditionWrapper> conditions = FXCollections.observableArrayList();
 	private IntegerProperty priority = new SimpleIntegerProperty();
 	
 	public MainPageLine(QuestPackage pack, String id) {
 		this.pack = ID.parsePackage(pack, id);
-		this.id = new SimpleStringProperty(ID.parseId(id));
+		this.id = ID.parseId(id);
 	}
 
 	@Override
@@ -19,7 +19,6 @@ package pl.betoncraft.betonquest.editor.model;
 
 import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.SimpleObjectProperty;
-import javafx.beans.property.SimpleStringProperty;
 import javafx.collections.ObservableList;
 import pl.betoncraft.betonquest.editor.controller.NpcBindingEditController;
 import pl.betoncraft.betonquest.editor.data.ID;
@@ -36,7 +35,7 @@ public class NpcBinding extends SimpleID {
 	
 	public NpcBinding(QuestPackage pack, String id) {
 		this.pack = ID.parsePackage(pack, id);
-		this.id = new SimpleStringProperty(ID.parseId(id));
+		this.id = ID.parseId(id);
 	}
 	
 	public NpcBinding(QuestPackage pack, String id, Conversation conversation) {
@@ -17,31 +17,26 @@
  */
 package pl.betoncraft.betonquest.editor.model;
 
-import javafx.beans.property.SimpleStringProperty;
-import javafx.beans.property.StringProperty;
 import javafx.collections.ObservableList;
 import pl.betoncraft.betonquest.editor.controller.InstructionEditController;
 import pl.betoncraft.betonquest.editor.data.ID;
-import pl.betoncraft.betonquest.editor.data.Instruction;
-import pl.betoncraft.betonquest.editor.data.SimpleID;
+import pl.betoncraft.betonquest.editor.data.SimpleInstruction;
 
 /**
  * Represents a BetonQuest objective.
  *
  * @author Jakub Sapalski
  */
-public class Objective extends SimpleID implements Instruction {
+public class Objective extends SimpleInstruction {
 
-	private StringProperty instruction = new SimpleStringProperty();
-	
 	public Objective(QuestPackage pack, String id) {
 		this.pack = ID.parsePackage(pack, id);
-		this.id = new SimpleStringProperty(ID.parseId(id));
+		this.id = ID.parseId(id);
 	}
 	
 	public Objective(QuestPackage pack, String id, String instruction) {
 		this(pack, id);
-		this.instruction.set(instruction);
+		this.instruction = instruction;
 	}
 	
 	@Override
@@ -55,9 +50,4 @@ public class Objective extends SimpleID implements Instruction {
 		return pack.getObjectives();
 	}
 
-	@Override
-	public StringProperty getInstruction() {
-		return instruction;
-	}
-
 }
@@ -18,7 +18,6 @@
 
 package pl.betoncraft.betonquest.editor.model;
 
-import javafx.beans.property.SimpleStringProperty;
 import javafx.collections.ObservableList;
 import pl.betoncraft.betonquest.editor.controller.NameEditController;
 import pl.betoncraft.betonquest.editor.data.ID;
@@ -33,7 +32,7 @@ public class PointCategory extends SimpleID {
 	
 	public PointCategory(QuestPackage pack, String id) {
 		this.pack = ID.parsePackage(pack, id);
-		this.id = new SimpleStringProperty(ID.parseId(id));
+		this.id = ID.parseId(id);
 	}
 
 	@Override
@@ -44,7 +43,7 @@ public class PointCategory extends SimpleID {
 
 	@Override
 	public boolean edit() {
-		return NameEditController.display(id);
+		return NameEditController.display(getId());
 	}
 
 }
@@ -21,7 +21,7 @@ import pl.betoncraft.betonquest.editor.data.TranslatableText;
  */
 public class QuestCanceler extends SimpleID {
 
-	private TranslatableText name = new TranslatableText();
+	private TranslatableText name = new TranslatableText(this);
 	private ObservableList<ConditionWrapper> conditions = FXCollections.observableArrayList();
 	private ObservableList<IdWrapper<Event>> events = FXCollections.observableArrayList();
 	private ObservableList<IdWrapper<Objective>> objectives = FXCollections.observableArrayList();
@@ -32,7 +32,7 @@ public class QuestCanceler extends SimpleID {
 	
 	public QuestCanceler(QuestPackage pack, String id) {
 		this.pack = ID.parsePackage(pack, id);
-		this.id = new SimpleStringProperty(ID.parseId(id));
+		this.id = ID.parseId(id);
 	}
 
 	@Override
@@ -54,6 +54,10 @@ public class QuestCanceler extends SimpleID {
 		this.location.set(location);
 	}
 
+	public StringProperty getLocationProperty() {
+		return location;
+	}
+
 	public TranslatableText getName() {
 		return name;
 	}
@@ -0,0 +1,584 @@
+/**
+ * BetonQuest Editor - advanced quest creating tool for BetonQuest
+ * Copyright (C) 2016  Jakub "Co0sh" Sapalski
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pl.betoncraft.betonquest.editor.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javafx.beans.InvalidationListener;
+import javafx.beans.Observable;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+import pl.betoncraft.betonquest.editor.BetonQuestEditor;
+import pl.betoncraft.betonquest.editor.data.Editable;
+import pl.betoncraft.betonquest.editor.data.ID;
+import pl.betoncraft.betonquest.editor.data.IdWrapper;
+import pl.betoncraft.betonquest.editor.data.Instruction;
+import pl.betoncraft.betonquest.editor.data.ParsedInstruction;
+
+/**
+ * Index of references made by objects of the package. For every referenced
+ * object, from this or any other package, it keeps the objects of this
+ * package which reference it, so finding users of an object doesn't need to
+ * scan the package. The index is built when it's used for the first time and
+ * then kept up to date: lists of the package are watched directly, while
+ * options report their changes through the {@link ChangeTracker}.
+ * Conversations which are not loaded yet contribute only their pointers.
+ * <p>
+ * Instructions refer to objects by names, like <code>folder ev1,ev2</code>
+ * or <code>conditions:!c1</code>, and these names don't have to be defined
+ * yet. They are indexed as they are written, with the type of the object,
+ * and matched with objects when the index is queried. Instructions are
+ * followed with the {@link InstructionIndex}.
+ *
+ * @author Jakub Sapalski
+ */
+public class ReferenceIndex implements ChangeTracker.ObjectListener, InstructionIndex.Listener {
+	
+	/**
+	 * Arguments of instructions which contain names of objects.
+	 */
+	static final Rule[] rules = {
+			new Rule(Condition.class, "and", Condition.class, 0),
+			new Rule(Condition.class, "or", Condition.class, 0),
+			new Rule(Event.class, "folder", Event.class, 0),
+			new Rule(Event.class, "journal", JournalEntry.class, 1),
+			new Rule(Event.class, "tag", Tag.class, 1),
+			new Rule(Event.class, "globaltag", Tag.class, 1),
+			new Rule(Condition.class, "tag", Tag.class, 0),
+			new Rule(Condition.class, "globaltag", Tag.class, 0),
+			new Rule(Event.class, "point", PointCategory.class, 0),
+			new Rule(Event.class, "globalpoint", PointCategory.class, 0),
+			new Rule(Event.class, "deletepoint", PointCategory.class, 0),
+			new Rule(Event.class, "deleteglobalpoint", PointCategory.class, 0),
+			new Rule(Condition.class, "point", PointCategory.class, 0),
+			new Rule(Condition.class, "globalpoint", PointCategory.class, 0),
+	};
+	
+	/**
+	 * Options which contain names of objects in instructions of any type.
+	 */
+	private static final Rule[] options = {
+			new Rule("conditions", Condition.class),
+			new Rule("events", Event.class),
+	};
+	
+	private static final List<Class<? extends Instruction>> instructions = Arrays.asList(
+			Event.class, Condition.class, Objective.class, Item.class);
+	
+	private final QuestPackage pack;
+	private final HashMap<ID, LinkedHashSet<Editable>> referrers = new HashMap<>();
+	private final HashMap<Editable, Set<ID>> references = new HashMap<>();
+	// names used in instructions, as "Type:name", and instructions using them
+	private final HashMap<String, LinkedHashSet<Editable>> named = new HashMap<>();
+	private final HashMap<Editable, Set<String>> names = new HashMap<>();
+	private final HashMap<Editable, List<Runnable>> listeners = new HashMap<>();
+	private boolean built = false;
+	private boolean watching = false;
+	
+	ReferenceIndex(QuestPackage pack) {
+		this.pack = pack;
+	}
+	
+	/**
+	 * @param target
+	 *            referenced object
+	 * @return objects of this package which reference the target, in order
+	 *         in which they started referencing it
+	 */
+	public Set<Editable> get(ID target) {
+		build();
+		Set<Editable> set = referrers.get(target);
+		LinkedHashSet<Editable> local = named.get(keyOf(target, false));
+		LinkedHashSet<Editable> qualified = named.get(keyOf(target, true));
+		if (local == null && qualified == null) {
+			return set == null ? Collections.emptySet() : Collections.unmodifiableSet(set);
+		}
+		LinkedHashSet<Editable> all = set == null ? new LinkedHashSet<>() : new LinkedHashSet<>(set);
+		if (local != null) {
+			all.addAll(local);
+		}
+		if (qualified != null) {
+			all.addAll(qualified);
+		}
+		return Collections.unmodifiableSet(all);
+	}
+	
+	/**
+	 * @param target
+	 *            referenced object
+	 * @return true if any object of this package references the target
+	 */
+	public boolean isReferenced(ID target) {
+		build();
+		return referrers.containsKey(target) || named.containsKey(keyOf(target, false))
+				|| named.containsKey(keyOf(target, true));
+	}
+	
+	/**
+	 * @param target
+	 *            referenced object
+	 * @return true if any object of this package other than an instruction
+	 *         references the target
+	 */
+	public boolean isReferencedOutsideInstructions(ID target) {
+		build();
+		return referrers.containsKey(target);
+	}
+	
+	/**
+	 * @param target
+	 *            referenced object
+	 * @return objects of all loaded packages which reference the target
+	 */
+	public static List<Editable> findAll(ID target) {
+		ArrayList<Editable> list = new ArrayList<>();
+		for (QuestPackage loaded : BetonQuestEditor.getInstance().getPackages().values()) {
+			list.addAll(loaded.getReferences().get(target));
+		}
+		return list;
+	}
+	
+	/**
+	 * @param target
+	 *            referenced object
+	 * @return true if any object of any loaded package references the target
+	 */
+	public static boolean isUsed(ID target) {
+		for (QuestPackage loaded : BetonQuestEditor.getInstance().getPackages().values()) {
+			if (loaded.getReferences().isReferenced(target)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * @param target
+	 *            referenced object
+	 * @return true if any object of any loaded package other than an
+	 *         instruction references the target
+	 */
+	public static boolean isUsedOutsideInstructions(ID target) {
+		for (QuestPackage loaded : BetonQuestEditor.getInstance().getPackages().values()) {
+			if (loaded.getReferences().isReferencedOutsideInstructions(target)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Drops the index, so it's built again when it's used. It must be called
+	 * after the package was changed without notifying its listeners, for
+	 * example when it was reloaded from its files.
+	 */
+	public void invalidate() {
+		built = false;
+		referrers.clear();
+		references.clear();
+		named.clear();
+		names.clear();
+	}
+	
+	private void build() {
+		if (built) {
+			return;
+		}
+		built = true;
+		if (!watching) {
+			watching = true;
+			watch(pack.getConversations());
+			watch(pack.getCancelers());
+			watch(pack.getMainPage());
+			watch(pack.getStaticEvents());
+			watch(pack.getNpcBindings());
+			watch(pack.getLocations());
+			pack.getChanges().addObjectListener(this);
+			pack.getChanges().addLoadListener(this::loaded);
+			pack.getInstructions().addListener(this);
+		} else {
+			pack.getConversations().forEach(this::add);
+			pack.getCancelers().forEach(this::add);
+			pack.getMainPage().forEach(this::add);
+			pack.getStaticEvents().forEach(this::add);
+			pack.getNpcBindings().forEach(this::add);
+			pack.getLocations().forEach(this::add);
+		}
+		// querying the instruction index builds it, so it reports later changes
+		InstructionIndex index = pack.getInstructions();
+		for (Class<? extends Instruction> type : instructions) {
+			for (String instructionType : index.getTypes(type)) {
+				for (Instruction object : index.get(type, instructionType)) {
+					replace(object, collect(object.getClass(), object.getParsedInstruction()));
+				}
+			}
+		}
+	}
+	
+	@Override
+	public void renamed(ID object, String oldId) {
+		// references are kept to objects, not to their names
+	}
+	
+	@Override
+	public void changed(ID object) {
+		if (built && object instanceof ConversationOption) {
+			update(object);
+		}
+	}
+	
+	@Override
+	public void changed(Instruction object, ParsedInstruction previous, ParsedInstruction current) {
+		if (built) {
+			replace(object, current == null ? Collections.emptySet() : collect(object.getClass(), current));
+		}
+	}
+	
+	@Override
+	public void invalidated() {
+		invalidate();
+	}
+	
+	/**
+	 * Starts listening to contents of a conversation which was just loaded
+	 * and indexes references of its options.
+	 */
+	private void loaded(Conversation conv) {
+		if (!listeners.containsKey(conv)) {
+			return;
+		}
+		listenContents(conv);
+		if (built) {
+			update(conv);
+			conv.getNpcOptions().forEach(this::update);
+			conv.getPlayerOptions().forEach(this::update);
+		}
+	}
+	
+	private <T extends Editable> void watch(ObservableList<T> list) {
+		list.forEach(this::add);
+		list.addListener((ListChangeListener<T>) change -> {
+			while (change.next()) {
+				if (change.wasPermutated()) {
+					continue;
+				}
+				for (T object : change.getRemoved()) {
+					remove(object);
+				}
+				for (T object : change.getAddedSubList()) {
+					add(object);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Indexes references of the object and listens to its contents, if it's
+	 * not listened to yet.
+	 */
+	private void add(Editable object) {
+		if (!listeners.containsKey(object)) {
+			listeners.put(object, new ArrayList<>(2));
+			if (object instanceof Conversation) {
+				Conversation conv = (Conversation) object;
+				listenOptions(conv, conv.getNpcOptions());
+				listenOptions(conv, conv.getPlayerOptions());
+				if (conv.isLoaded()) {
+					listenContents(conv);
+				}
+			} else if (object instanceof QuestCanceler) {
+				QuestCanceler canceler = (QuestCanceler) object;
+				listen(canceler, canceler.getEvents());
+				listen(canceler, canceler.getConditions());
+				listen(canceler, canceler.getObjectives());
+				listen(canceler, canceler.getTags());
+				listen(canceler, canceler.getPoints());
+				listen(canceler, canceler.getJournal());
+			} else if (object instanceof MainPageLine) {
+				listen(object, ((MainPageLine) object).getConditions());
+			} else if (object instanceof StaticEvent) {
+				listen(object, ((StaticEvent) object).getEvent());
+			} else if (object instanceof NpcBinding) {
+				listen(object, ((NpcBinding) object).getConversation());
+			} else if (object instanceof GlobalLocation) {
+				listen(object, ((GlobalLocation) object).getObjective());
+			}
+		}
+		update(object);
+		if (object instanceof Conversation) {
+			((Conversation) object).getNpcOptions().forEach(this::update);
+			((Conversation) object).getPlayerOptions().forEach(this::update);
+		}
+	}
+	
+	/**
+	 * Stops listening to the object and removes its references.
+	 */
+	private void remove(Editable object) {
+		List<Runnable> removers = listeners.remove(object);
+		if (removers != null) {
+			removers.forEach(Runnable::run);
+		}
+		forget(object);
+		if (object instanceof Conversation) {
+			((Conversation) object).getNpcOptions().forEach(this::forget);
+			((Conversation) object).getPlayerOptions().forEach(this::forget);
+		}
+	}
+	
+	private void listenContents(Conversation conv) {
+		listen(conv, conv.getStartingOptions());
+		listen(conv, conv.getFinalEvents());
+	}
+	
+	private <T extends ConversationOption> void listenOptions(Conversation conv, ObservableList<T> options) {
+		ListChangeListener<T> listener = change -> {
+			if (!built) {
+				return;
+			}
+			while (change.next()) {
+				if (change.wasPermutated()) {
+					continue;
+				}
+				change.getRemoved().forEach(this::forget);
+				change.getAddedSubList().forEach(this::update);
+			}
+		};
+		options.addListener(listener);
+		listeners.get(conv).add(() -> options.removeListener(listener));
+	}
+	
+	private void listen(Editable owner, Observable observable) {
+		InvalidationListener listener = value -> {
+			if (built) {
+				update(owner);
+			}
+		};
+		observable.addListener(listener);
+		listeners.get(owner).add(() -> observable.removeListener(listener));
+	}
+	
+	private void forget(Editable referrer) {
+		replace(referrer, Collections.emptySet());
+	}
+	
+	private void update(Editable referrer) {
+		replace(referrer, collect(referrer));
+	}
+	
+	/**
+	 * Replaces references of the object with the new ones, updating only
+	 * targets which were added or removed.
+	 */
+	private void replace(Editable referrer, Set<ID> now) {
+		Set<ID> before = now.isEmpty() ? references.remove(referrer) : references.put(referrer, now);
+		if (before != null) {
+			for (ID target : before) {
+				if (!now.contains(target)) {
+					LinkedHashSet<Editable> set = referrers.get(target);
+					set.remove(referrer);
+					if (set.isEmpty()) {
+						referrers.remove(target);
+					}
+				}
+			}
+		}
+		for (ID target : now) {
+			if (before == null || !before.contains(target)) {
+				referrers.computeIfAbsent(target, key -> new LinkedHashSet<>()).add(referrer);
+			}
+		}
+	}
+	
+	/**
+	 * Replaces names used by the instruction with the new ones.
+	 */
+	private void replace(Instruction referrer, Set<String> now) {
+		Set<String> before = now.isEmpty() ? names.remove(referrer) : names.put(referrer, now);
+		if (before != null) {
+			for (String name : before) {
+				if (!now.contains(name)) {
+					LinkedHashSet<Editable> set = named.get(name);
+					set.remove(referrer);
+					if (set.isEmpty()) {
+						named.remove(name);
+					}
+				}
+			}
+		}
+		for (String name : now) {
+			if (before == null || !before.contains(name)) {
+				named.computeIfAbsent(name, key -> new LinkedHashSet<>()).add(referrer);
+			}
+		}
+	}
+	
+	/**
+	 * Collects names of objects used by the instruction, as "Type:name".
+	 */
+	private static Set<String> collect(Class<?> type, ParsedInstruction instruction) {
+		HashSet<String> set = new HashSet<>();
+		for (Rule rule : rules) {
+			if (rule.type == type && rule.instructionType.equals(instruction.getType())) {
+				for (String name : rule.extract(instruction)) {
+					set.add(rule.target.getSimpleName() + ':' + name);
+				}
+			}
+		}
+		for (Rule rule : options) {
+			for (String name : rule.extract(instruction)) {
+				set.add(rule.target.getSimpleName() + ':' + name);
+			}
+		}
+		return set;
+	}
+	
+	/**
+	 * @param qualified
+	 *            whether the name should be prefixed with the package name
+	 * @return the key under which instructions of this package index the
+	 *         target, or null if they can't refer to it without the package
+	 *         name
+	 */
+	private String keyOf(ID target, boolean qualified) {
+		String type = target.getClass().getSimpleName() + ':';
+		if (qualified) {
+			return type + target.getPack().getName().get() + '.' + target.getIdValue();
+		}
+		return target.getPack() == pack ? type + target.getIdValue() : null;
+	}
+	
+	/**
+	 * Collects objects referenced by the object, without loading its
+	 * conversation.
+	 */
+	private Set<ID> collect(Editable referrer) {
+		HashSet<ID> set = new HashSet<>();
+		if (referrer instanceof ConversationOption) {
+			ConversationOption option = (ConversationOption) referrer;
+			if (!option.getConversation().isLoaded()) {
+				List<ConversationOption> pointers = option.getIndexedPointers();
+				if (pointers != null) {
+					set.addAll(pointers);
+				}
+			} else {
+				addAll(set, option.getEventList());
+				addAll(set, option.getConditionList());
+				addAll(set, option.getPointerList());
+			}
+		} else if (referrer instanceof Conversation) {
+			Conversation conv = (Conversation) referrer;
+			if (conv.isLoaded()) {
+				addAll(set, conv.getStartingOptions());
+				addAll(set, conv.getFinalEvents());
+			}
+		} else if (referrer instanceof QuestCanceler) {
+			QuestCanceler canceler = (QuestCanceler) referrer;
+			addAll(set, canceler.getEvents());
+			addAll(set, canceler.getConditions());
+			addAll(set, canceler.getObjectives());
+			addAll(set, canceler.getTags());
+			addAll(set, canceler.getPoints());
+			addAll(set, canceler.getJournal());
+		} else if (referrer instanceof MainPageLine) {
+			addAll(set, ((MainPageLine) referrer).getConditions());
+		} else if (referrer instanceof StaticEvent) {
+			add(set, ((StaticEvent) referrer).getEvent().get());
+		} else if (referrer instanceof NpcBinding) {
+			add(set, ((NpcBinding) referrer).getConversation().get());
+		} else if (referrer instanceof GlobalLocation) {
+			add(set, ((GlobalLocation) referrer).getObjective().get());
+		}
+		return set;
+	}
+	
+	private static void addAll(Set<ID> set, List<? extends IdWrapper<?>> list) {
+		for (IdWrapper<?> wrapper : list) {
+			add(set, wrapper.get());
+		}
+	}
+	
+	private static void add(Set<ID> set, ID object) {
+		if (object != null) {
+			set.add(object);
+		}
+	}
+	
+	/**
+	 * Tells where names of objects are in an instruction: in a positional
+	 * argument of instructions of some type or in an option of any
+	 * instruction.
+	 */
+	static class Rule {
+		
+		final Class<? extends Instruction> type;
+		final String instructionType;
+		final Class<ID> target;
+		private final int argument;
+		private final String option;
+		
+		@SuppressWarnings("unchecked")
+		private Rule(Class<? extends Instruction> type, String instructionType, Class<? extends ID> target, int argument) {
+			this.type = type;
+			this.instructionType = instructionType;
+			this.target = (Class<ID>) target;
+			this.argument = argument;
+			this.option = null;
+		}
+		
+		@SuppressWarnings("unchecked")
+		private Rule(String option, Class<? extends ID> target) {
+			this.type = null;
+			this.instructionType = null;
+			this.target = (Class<ID>) target;
+			this.argument = -1;
+			this.option = option;
+		}
+		
+		/**
+		 * @return names from the argument or the option, without negation,
+		 *         skipping ones with variables
+		 */
+		List<String> extract(ParsedInstruction instruction) {
+			ArrayList<String> names = new ArrayList<>(1);
+			String value = option == null ? instruction.getArgument(argument) : instruction.getOption(option);
+			if (value == null) {
+				return names;
+			}
+			for (String name : value.split(",")) {
+				while (name.startsWith("!")) {
+					name = name.substring(1);
+				}
+				if (!name.isEmpty() && name.indexOf('%') < 0) {
+					names.add(name);
+				}
+			}
+			return names;
+		}
+		
+	}
+
+}
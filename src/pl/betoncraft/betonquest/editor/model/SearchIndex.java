@@ -0,0 +1,572 @@
+/**
+ * BetonQuest Editor - advanced quest creating tool for BetonQuest
+ * Copyright (C) 2016  Jakub "Co0sh" Sapalski
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pl.betoncraft.betonquest.editor.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Objects;
+
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+import pl.betoncraft.betonquest.editor.BetonQuestEditor;
+import pl.betoncraft.betonquest.editor.data.ID;
+import pl.betoncraft.betonquest.editor.data.Instruction;
+import pl.betoncraft.betonquest.editor.data.TranslatableText;
+import pl.betoncraft.betonquest.editor.model.exception.ConversationChangedException;
+
+/**
+ * Full-text index of the package: texts of conversation options in every
+ * language, NPC names, journal entries, names of quest cancelers, main page
+ * lines, NPC bindings and instruction strings. Every text is split into
+ * trigrams (three following characters, ignoring case) and the index keeps
+ * for each trigram the texts which contain it, so finding a phrase anywhere
+ * in a text only checks the texts containing all of its trigrams.
+ * <p>
+ * It's built when it's used for the first time, loading builds it in advance.
+ * Then it's kept up to date like other indexes: lists of the package are
+ * watched directly, while changed texts are reported by the
+ * {@link ChangeTracker}. A changed text is added again and its previous
+ * version is only marked as removed; the index is compacted when removed
+ * texts outnumber the current ones. Texts of conversations which are not
+ * loaded yet are read again from their files when they're indexed, so they're
+ * not kept in the conversations.
+ *
+ * @author Jakub Sapalski
+ */
+public class SearchIndex implements ChangeTracker.ObjectListener {
+	
+	private static final int GRAM = 3;
+	private static final int COMPACT_LIMIT = 1024;
+	private static final Result[] NONE = new Result[0];
+	
+	private final QuestPackage pack;
+	// all indexed texts by their numbers, removed ones are null
+	private final ArrayList<Result> texts = new ArrayList<>();
+	private final HashMap<Long, Postings> postings = new HashMap<>();
+	private final HashMap<ID, Result[]> indexed = new HashMap<>();
+	private final HashMap<Conversation, List<Runnable>> listeners = new HashMap<>();
+	private int removed = 0;
+	private boolean built = false;
+	private boolean watching = false;
+	
+	SearchIndex(QuestPackage pack) {
+		this.pack = pack;
+	}
+	
+	/**
+	 * Builds the index if it's not built yet. It doesn't load conversations,
+	 * so it can be called on the thread loading the package, before the
+	 * package is displayed.
+	 */
+	public void build() {
+		if (built) {
+			return;
+		}
+		built = true;
+		if (!watching) {
+			watching = true;
+			watch(pack.getConversations());
+			watch(pack.getEvents());
+			watch(pack.getConditions());
+			watch(pack.getObjectives());
+			watch(pack.getItems());
+			watch(pack.getVariables());
+			watch(pack.getJournal());
+			watch(pack.getCancelers());
+			watch(pack.getMainPage());
+			watch(pack.getNpcBindings());
+			pack.getChanges().addObjectListener(this);
+			pack.getChanges().addLoadListener(this::loaded);
+		} else {
+			pack.getConversations().forEach(this::add);
+			pack.getEvents().forEach(this::add);
+			pack.getConditions().forEach(this::add);
+			pack.getObjectives().forEach(this::add);
+			pack.getItems().forEach(this::add);
+			pack.getVariables().forEach(this::add);
+			pack.getJournal().forEach(this::add);
+			pack.getCancelers().forEach(this::add);
+			pack.getMainPage().forEach(this::add);
+			pack.getNpcBindings().forEach(this::add);
+		}
+		trim();
+	}
+	
+	/**
+	 * Finds texts containing the phrase, ignoring case.
+	 * 
+	 * @param phrase
+	 *            the searched phrase
+	 * @param limit
+	 *            maximum number of results
+	 * @return texts of this package containing the phrase, in order in which
+	 *         they were indexed
+	 */
+	public List<Result> find(String phrase, int limit) {
+		build();
+		ArrayList<Result> results = new ArrayList<>();
+		if (phrase.isEmpty() || limit <= 0) {
+			return results;
+		}
+		if (phrase.length() < GRAM) {
+			// too short to have trigrams, short phrases are rare enough to check all texts
+			for (Result text : texts) {
+				if (text != null && contains(text.text, phrase)) {
+					results.add(text);
+					if (results.size() >= limit) {
+						break;
+					}
+				}
+			}
+			return results;
+		}
+		Postings[] lists = new Postings[phrase.length() - GRAM + 1];
+		for (int i = 0; i < lists.length; i++) {
+			lists[i] = postings.get(key(phrase, i));
+			if (lists[i] == null) {
+				return results;
+			}
+		}
+		// walk the shortest list and look up numbers in the others
+		Arrays.sort(lists, Comparator.comparingInt(list -> list.size));
+		Postings shortest = lists[0];
+		candidates: for (int i = 0; i < shortest.size; i++) {
+			int number = shortest.numbers[i];
+			Result text = texts.get(number);
+			if (text == null) {
+				continue;
+			}
+			for (int j = 1; j < lists.length; j++) {
+				if (Arrays.binarySearch(lists[j].numbers, 0, lists[j].size, number) < 0) {
+					continue candidates;
+				}
+			}
+			// trigrams can be in a different order, so the text is checked
+			if (contains(text.text, phrase)) {
+				results.add(text);
+				if (results.size() >= limit) {
+					break;
+				}
+			}
+		}
+		return results;
+	}
+	
+	/**
+	 * Finds texts containing the phrase in all loaded packages.
+	 * 
+	 * @param phrase
+	 *            the searched phrase
+	 * @param limit
+	 *            maximum number of results
+	 * @return texts containing the phrase, grouped by packages
+	 */
+	public static List<Result> findAll(String phrase, int limit) {
+		ArrayList<Result> list = new ArrayList<>();
+		for (QuestPackage loaded : BetonQuestEditor.getInstance().getPackages().values()) {
+			list.addAll(loaded.getSearch().find(phrase, limit - list.size()));
+			if (list.size() >= limit) {
+				break;
+			}
+		}
+		return list;
+	}
+	
+	/**
+	 * Drops the index, so it's built again when it's used. It must be called
+	 * after texts were changed without notifying the tracker, for example
+	 * when the package was reloaded from its files.
+	 */
+	public void invalidate() {
+		built = false;
+		texts.clear();
+		postings.clear();
+		indexed.clear();
+		removed = 0;
+	}
+	
+	@Override
+	public void renamed(ID object, String oldId) {
+		// NPC bindings are found by their identifiers
+		if (built && object instanceof NpcBinding && indexed.containsKey(object)) {
+			update(object);
+		}
+	}
+	
+	@Override
+	public void changed(ID object) {
+		if (built && indexed.containsKey(object)) {
+			update(object);
+		}
+	}
+	
+	/**
+	 * Replaces texts remembered before the conversation was loaded with the
+	 * loaded ones.
+	 */
+	private void loaded(Conversation conv) {
+		if (built && indexed.containsKey(conv)) {
+			update(conv);
+			conv.getNpcOptions().forEach(this::update);
+			conv.getPlayerOptions().forEach(this::update);
+		}
+	}
+	
+	private <T extends ID> void watch(ObservableList<T> list) {
+		list.forEach(this::add);
+		list.addListener((ListChangeListener<T>) change -> {
+			if (!built) {
+				return;
+			}
+			while (change.next()) {
+				if (change.wasPermutated()) {
+					continue;
+				}
+				change.getRemoved().forEach(this::remove);
+				change.getAddedSubList().forEach(this::add);
+			}
+		});
+	}
+	
+	/**
+	 * Indexes texts of the object and, if it's a conversation, of its options,
+	 * listening to lists of options if they're not listened to yet.
+	 */
+	private void add(ID object) {
+		if (!(object instanceof Conversation)) {
+			update(object);
+		} else {
+			Conversation conv = (Conversation) object;
+			if (!listeners.containsKey(conv)) {
+				ArrayList<Runnable> removers = new ArrayList<>(2);
+				listeners.put(conv, removers);
+				listenOptions(conv.getNpcOptions(), removers);
+				listenOptions(conv.getPlayerOptions(), removers);
+			}
+			if (conv.isLoaded()) {
+				update(conv);
+				conv.getNpcOptions().forEach(this::update);
+				conv.getPlayerOptions().forEach(this::update);
+			} else {
+				// the file is read once for the NPC name and texts of all options
+				HashMap<ID, Result[]> read = read(conv);
+				update(conv, read.getOrDefault(conv, NONE));
+				for (ConversationOption option : conv.getNpcOptions()) {
+					update(option, read.getOrDefault(option, NONE));
+				}
+				for (ConversationOption option : conv.getPlayerOptions()) {
+					update(option, read.getOrDefault(option, NONE));
+				}
+			}
+		}
+	}
+	
+	private void remove(ID object) {
+		forget(object);
+		if (object instanceof Conversation) {
+			Conversation conv = (Conversation) object;
+			List<Runnable> removers = listeners.remove(conv);
+			if (removers != null) {
+				removers.forEach(Runnable::run);
+			}
+			conv.getNpcOptions().forEach(this::forget);
+			conv.getPlayerOptions().forEach(this::forget);
+		}
+	}
+	
+	private <T extends ConversationOption> void listenOptions(ObservableList<T> options, List<Runnable> removers) {
+		ListChangeListener<T> listener = change -> {
+			if (!built) {
+				return;
+			}
+			while (change.next()) {
+				if (change.wasPermutated()) {
+					continue;
+				}
+				change.getRemoved().forEach(this::forget);
+				change.getAddedSubList().forEach(this::update);
+			}
+		};
+		options.addListener(listener);
+		removers.add(() -> options.removeListener(listener));
+	}
+	
+	/**
+	 * Indexes current texts of the object, marking its previous texts as
+	 * removed. Nothing happens if the texts didn't change.
+	 */
+	private void update(ID object) {
+		update(object, collect(object));
+	}
+	
+	private void update(ID object, Result[] now) {
+		Result[] before = indexed.put(object, now);
+		if (before != null) {
+			if (Arrays.equals(before, now)) {
+				indexed.put(object, before);
+				return;
+			}
+			discard(before);
+		}
+		for (Result text : now) {
+			index(text);
+		}
+	}
+	
+	private void forget(ID object) {
+		Result[] before = indexed.remove(object);
+		if (before != null) {
+			discard(before);
+		}
+	}
+	
+	private void discard(Result[] before) {
+		for (Result text : before) {
+			texts.set(text.number, null);
+			removed++;
+		}
+		if (removed > COMPACT_LIMIT && removed > texts.size() / 2) {
+			compact();
+		}
+	}
+	
+	/**
+	 * Gives the text the next number and adds it to lists of its trigrams.
+	 * Numbers only grow, so the lists stay sorted.
+	 */
+	private void index(Result text) {
+		text.number = texts.size();
+		texts.add(text);
+		String string = text.text;
+		for (int i = 0; i + GRAM <= string.length(); i++) {
+			postings.computeIfAbsent(key(string, i), key -> new Postings()).add(text.number);
+		}
+	}
+	
+	/**
+	 * Numbers current texts again, dropping removed ones.
+	 */
+	private void compact() {
+		ArrayList<Result> current = new ArrayList<>(texts.size() - removed);
+		for (Result text : texts) {
+			if (text != null) {
+				current.add(text);
+			}
+		}
+		texts.clear();
+		postings.clear();
+		removed = 0;
+		current.forEach(this::index);
+		trim();
+	}
+	
+	/**
+	 * Drops unused space of trigram lists; they grow again when needed.
+	 */
+	private void trim() {
+		for (Postings list : postings.values()) {
+			if (list.numbers.length > list.size) {
+				list.numbers = Arrays.copyOf(list.numbers, list.size);
+			}
+		}
+	}
+	
+	/**
+	 * Collects texts of the object, without loading its conversation.
+	 */
+	private static Result[] collect(ID object) {
+		ArrayList<Result> list = new ArrayList<>(2);
+		if (object instanceof ConversationOption) {
+			ConversationOption option = (ConversationOption) object;
+			if (option.getConversation().isLoaded()) {
+				add(list, object, "text", option.getText());
+			} else {
+				return read(option.getConversation()).getOrDefault(option, NONE);
+			}
+		} else if (object instanceof Conversation) {
+			Conversation conv = (Conversation) object;
+			if (conv.isLoaded()) {
+				add(list, object, "npc-name", conv.getNPC());
+			} else {
+				return read(conv).getOrDefault(conv, NONE);
+			}
+		} else if (object instanceof Instruction) {
+			add(list, object, "instruction", null, ((Instruction) object).getInstructionValue());
+		} else if (object instanceof JournalEntry) {
+			add(list, object, "entry-text", ((JournalEntry) object).getText());
+		} else if (object instanceof QuestCanceler) {
+			add(list, object, "name", ((QuestCanceler) object).getName());
+		} else if (object instanceof MainPageLine) {
+			add(list, object, "text", ((MainPageLine) object).getText());
+		} else if (object instanceof NpcBinding) {
+			add(list, object, "npc-identifier", null, object.getIdValue());
+		}
+		return list.isEmpty() ? NONE : list.toArray(NONE);
+	}
+	
+	private static void add(List<Result> list, ID object, String location, TranslatableText text) {
+		if (text.hasDef()) {
+			add(list, object, location, null, text.getDefValue());
+		}
+		for (String lang : text.getLanguages()) {
+			add(list, object, location, lang, text.getLangValue(lang));
+		}
+	}
+	
+	/**
+	 * Reads texts of the conversation which is not loaded from its file.
+	 * 
+	 * @return texts of the conversation and its options, by their owners
+	 */
+	private static HashMap<ID, Result[]> read(Conversation conv) {
+		HashMap<ID, ArrayList<Result>> read = new HashMap<>();
+		try {
+			conv.readTexts((owner, lang, text) -> add(read.computeIfAbsent(owner, key -> new ArrayList<>(2)), owner,
+					owner instanceof Conversation ? "npc-name" : "text", lang, text));
+		} catch (ConversationChangedException e) {
+			// the file changed since it was loaded, it's indexed again when the package is reloaded
+			read.clear();
+		}
+		HashMap<ID, Result[]> texts = new HashMap<>();
+		for (Entry<ID, ArrayList<Result>> entry : read.entrySet()) {
+			texts.put(entry.getKey(), entry.getValue().toArray(NONE));
+		}
+		return texts;
+	}
+	
+	private static void add(List<Result> list, ID object, String location, String lang, String text) {
+		if (text != null && !text.isEmpty()) {
+			list.add(new Result(object, location, lang, text));
+		}
+	}
+	
+	/**
+	 * Packs three characters, starting at the index, into a single number.
+	 */
+	private static long key(String string, int index) {
+		return (long) Character.toLowerCase(string.charAt(index)) << 32
+				| (long) Character.toLowerCase(string.charAt(index + 1)) << 16
+				| Character.toLowerCase(string.charAt(index + 2));
+	}
+	
+	private static boolean contains(String text, String phrase) {
+		for (int i = 0; i + phrase.length() <= text.length(); i++) {
+			if (text.regionMatches(true, i, phrase, 0, phrase.length())) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * A single text found in the package.
+	 */
+	public static class Result {
+		
+		private final ID object;
+		private final String location;
+		private final String lang;
+		private final String text;
+		private int number;
+		
+		private Result(ID object, String location, String lang, String text) {
+			this.object = object;
+			this.location = location;
+			this.lang = lang;
+			this.text = text;
+		}
+		
+		/**
+		 * @return the object which has the text
+		 */
+		public ID getObject() {
+			return object;
+		}
+		
+		/**
+		 * @return the package of the object
+		 */
+		public QuestPackage getPackage() {
+			return object.getPack();
+		}
+		
+		/**
+		 * @return translation key of the place where the object has the
+		 *         text, for example "text" or "instruction"
+		 */
+		public String getLocation() {
+			return location;
+		}
+		
+		/**
+		 * @return language of the text or null if it's the default one or
+		 *         it's not translatable
+		 */
+		public String getLanguage() {
+			return lang;
+		}
+		
+		/**
+		 * @return the text
+		 */
+		public String getText() {
+			return text;
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Result)) {
+				return false;
+			}
+			Result other = (Result) obj;
+			return object == other.object && location.equals(other.location)
+					&& Objects.equals(lang, other.lang) && text.equals(other.text);
+		}
+		
+		@Override
+		public int hashCode() {
+			return text.hashCode();
+		}
+		
+	}
+	
+	/**
+	 * Sorted numbers of texts containing a single trigram.
+	 */
+	private static class Postings {
+		private int[] numbers = new int[2];
+		private int size = 0;
+		
+		private void add(int number) {
+			// a text adds its repeated trigrams one after another
+			if (size > 0 && numbers[size - 1] == number) {
+				return;
+			}
+			if (size == numbers.length) {
+				numbers = Arrays.copyOf(numbers, Math.max(2, size * 2));
+			}
+			numbers[size++] = number;
+		}
+	}
+
+}
@@ -19,7 +19,6 @@ package pl.betoncraft.betonquest.editor.model;
 
 import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.SimpleObjectProperty;
-import javafx.beans.property.SimpleStringProperty;
 import javafx.collections.ObservableList;
 import pl.betoncraft.betonquest.editor.controller.StaticEventEditController;
 import pl.betoncraft.betonquest.editor.data.ID;
@@ -36,7 +35,7 @@ public class StaticEvent extends SimpleID {
 	
 	public StaticEvent(QuestPackage pack, String time) {
 		this.pack = ID.parsePackage(pack, time);
-		this.id = new SimpleStringProperty(ID.parseId(time));
+		this.id = ID.parseId(time);
 	}
 
 	@Override
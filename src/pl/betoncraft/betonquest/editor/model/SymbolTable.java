@@ -0,0 +1,324 @@
+/**
+ * BetonQuest Editor - advanced quest creating tool for BetonQuest
+ * Copyright (C) 2016  Jakub "Co0sh" Sapalski
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pl.betoncraft.betonquest.editor.model;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Function;
+
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+import javafx.collections.ObservableListBase;
+import pl.betoncraft.betonquest.editor.data.ID;
+import pl.betoncraft.betonquest.editor.data.IdIndex;
+
+/**
+ * Objects of all loaded packages, by their types. Every type is a live view
+ * composed of the lists of all packages, with the current package first.
+ * Nothing is copied: the views read from lists of packages and pass their
+ * changes on, so they don't need to be rebuilt when a chooser opens. The views
+ * can't be modified directly, objects are added to their packages instead.
+ *
+ * @author Jakub Sapalski
+ */
+public class SymbolTable {
+	
+	private final ArrayList<View<?>> views = new ArrayList<>();
+	private final View<Condition> conditions = add(Condition.class, QuestPackage::getConditions);
+	private final View<Event> events = add(Event.class, QuestPackage::getEvents);
+	private final View<Objective> objectives = add(Objective.class, QuestPackage::getObjectives);
+	private final View<Conversation> conversations = add(Conversation.class, QuestPackage::getConversations);
+	private final View<Item> items = add(Item.class, QuestPackage::getItems);
+	private final View<JournalEntry> journal = add(JournalEntry.class, QuestPackage::getJournal);
+	private final View<Tag> tags = add(Tag.class, QuestPackage::getTags);
+	private final View<PointCategory> points = add(PointCategory.class, QuestPackage::getPoints);
+	private final ArrayList<QuestPackage> packages = new ArrayList<>();
+	private QuestPackage current;
+	
+	private <T extends ID> View<T> add(Class<T> type, Function<QuestPackage, ObservableList<T>> getter) {
+		View<T> view = new View<>(type, getter);
+		views.add(view);
+		return view;
+	}
+	
+	/**
+	 * Sets packages of which the views are composed. Views are changed only
+	 * if the packages or their order are different.
+	 * 
+	 * @param loaded
+	 *            all loaded packages
+	 * @param current
+	 *            the displayed package, its objects are listed first; can be
+	 *            null
+	 */
+	public void setPackages(Collection<QuestPackage> loaded, QuestPackage current) {
+		ArrayList<QuestPackage> ordered = new ArrayList<>(loaded.size());
+		if (current != null) {
+			ordered.add(current);
+		}
+		for (QuestPackage pack : loaded) {
+			if (pack != current) {
+				ordered.add(pack);
+			}
+		}
+		this.current = current;
+		if (ordered.equals(packages)) {
+			return;
+		}
+		packages.clear();
+		packages.addAll(ordered);
+		for (View<?> view : views) {
+			view.compose(packages);
+		}
+	}
+	
+	/**
+	 * @param list
+	 *            any list
+	 * @return true if the list is one of the views of this table
+	 */
+	public boolean isView(ObservableList<?> list) {
+		// views are lists, so equals() would compare their contents
+		for (View<?> view : views) {
+			if (view == list) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Finds objects of the view which names, as they're displayed, start with
+	 * the prefix. Objects of the current package are displayed with their IDs
+	 * and objects of other packages with names of their packages. The names
+	 * are looked up in indexes of the packages, so the objects are not
+	 * scanned.
+	 * 
+	 * @param view
+	 *            one of the views of this table
+	 * @param prefix
+	 *            beginning of displayed names
+	 * @return found objects, the ones from current package first
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends ID> List<T> find(ObservableList<T> view, String prefix) {
+		if (!isView(view)) {
+			throw new IllegalArgumentException("The list is not a view of this table");
+		}
+		Class<T> type = ((View<T>) view).type;
+		ArrayList<T> found = new ArrayList<>();
+		for (QuestPackage pack : packages) {
+			IdIndex<T> index = pack.getIndex(type);
+			if (pack == current) {
+				found.addAll(index.find(prefix));
+				continue;
+			}
+			String qualifier = pack.getName().get() + '.';
+			if (qualifier.startsWith(prefix)) {
+				found.addAll(index.find(""));
+			} else if (prefix.startsWith(qualifier)) {
+				found.addAll(index.find(prefix.substring(qualifier.length())));
+			}
+		}
+		return found;
+	}
+	
+	public ObservableList<Condition> getConditions() {
+		return conditions;
+	}
+	
+	public ObservableList<Event> getEvents() {
+		return events;
+	}
+	
+	public ObservableList<Objective> getObjectives() {
+		return objectives;
+	}
+	
+	public ObservableList<Conversation> getConversations() {
+		return conversations;
+	}
+	
+	public ObservableList<Item> getItems() {
+		return items;
+	}
+	
+	public ObservableList<JournalEntry> getJournal() {
+		return journal;
+	}
+	
+	public ObservableList<Tag> getTags() {
+		return tags;
+	}
+	
+	public ObservableList<PointCategory> getPoints() {
+		return points;
+	}
+	
+	/**
+	 * Read-only list made of lists of objects of all packages, passing their
+	 * changes on.
+	 */
+	private static class View<T> extends ObservableListBase<T> {
+		
+		private final Class<T> type;
+		private final Function<QuestPackage, ObservableList<T>> getter;
+		private final ListChangeListener<T> forwarder = this::forward;
+		private Composite<T> contents = new Composite<>(new ArrayList<>());
+		
+		private View(Class<T> type, Function<QuestPackage, ObservableList<T>> getter) {
+			this.type = type;
+			this.getter = getter;
+		}
+		
+		private void compose(List<QuestPackage> packages) {
+			Composite<T> previous = contents;
+			for (ObservableList<T> segment : previous.segments) {
+				segment.removeListener(forwarder);
+			}
+			ArrayList<ObservableList<T>> segments = new ArrayList<>(packages.size());
+			for (QuestPackage pack : packages) {
+				ObservableList<T> segment = getter.apply(pack);
+				segment.addListener(forwarder);
+				segments.add(segment);
+			}
+			contents = new Composite<>(segments);
+			// lists of packages don't change now, so the previous contents
+			// can be reported as removed without copying them
+			beginChange();
+			if (!previous.isEmpty()) {
+				nextRemove(0, previous);
+			}
+			if (!contents.isEmpty()) {
+				nextAdd(0, contents.size());
+			}
+			endChange();
+		}
+		
+		@Override
+		public T get(int index) {
+			return contents.get(index);
+		}
+		
+		@Override
+		public int size() {
+			return contents.size();
+		}
+		
+		/**
+		 * Passes the change of a package's list on, moved by the offset of
+		 * that list.
+		 */
+		private void forward(ListChangeListener.Change<? extends T> change) {
+			// lists before the changed one have the same sizes as before
+			int offset = contents.offsetOf(change.getList());
+			contents.stale = true;
+			beginChange();
+			while (change.next()) {
+				int from = change.getFrom() + offset;
+				int to = change.getTo() + offset;
+				if (change.wasPermutated()) {
+					int[] permutation = new int[to - from];
+					for (int i = 0; i < permutation.length; i++) {
+						permutation[i] = change.getPermutation(change.getFrom() + i) + offset;
+					}
+					nextPermutation(from, to, permutation);
+				} else if (change.wasUpdated()) {
+					for (int i = from; i < to; i++) {
+						nextUpdate(i);
+					}
+				} else {
+					if (change.wasRemoved()) {
+						nextRemove(from, change.getRemoved());
+					}
+					if (change.wasAdded()) {
+						nextAdd(from, to);
+					}
+				}
+			}
+			endChange();
+		}
+		
+	}
+	
+	/**
+	 * Lists joined together. Positions of the lists are found with a binary
+	 * search over their offsets, which are computed again only after the
+	 * sizes change.
+	 */
+	private static class Composite<T> extends AbstractList<T> {
+		
+		private final List<ObservableList<T>> segments;
+		private final int[] offsets;
+		private boolean stale = true;
+		
+		private Composite(List<ObservableList<T>> segments) {
+			this.segments = segments;
+			this.offsets = new int[segments.size() + 1];
+		}
+		
+		@Override
+		public T get(int index) {
+			int[] offsets = offsets();
+			if (index < 0 || index >= offsets[segments.size()]) {
+				throw new IndexOutOfBoundsException(String.valueOf(index));
+			}
+			// find the last segment starting at or before the index
+			int low = 0, high = segments.size() - 1;
+			while (low < high) {
+				int middle = (low + high + 1) >>> 1;
+				if (offsets[middle] <= index) {
+					low = middle;
+				} else {
+					high = middle - 1;
+				}
+			}
+			return segments.get(low).get(index - offsets[low]);
+		}
+		
+		@Override
+		public int size() {
+			return offsets()[segments.size()];
+		}
+		
+		private int offsetOf(List<?> segment) {
+			int[] offsets = offsets();
+			for (int i = 0; i < segments.size(); i++) {
+				if (segments.get(i) == segment) {
+					return offsets[i];
+				}
+			}
+			throw new IllegalArgumentException("The list is not a part of this view");
+		}
+		
+		private int[] offsets() {
+			if (stale) {
+				for (int i = 0; i < segments.size(); i++) {
+					offsets[i + 1] = offsets[i] + segments.get(i).size();
+				}
+				stale = false;
+			}
+			return offsets;
+		}
+		
+	}
+
+}
@@ -0,0 +1,176 @@
+/**
+ * BetonQuest Editor - advanced quest creating tool for BetonQuest
+ * Copyright (C) 2016  Jakub "Co0sh" Sapalski
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pl.betoncraft.betonquest.editor.model;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import pl.betoncraft.betonquest.editor.BetonQuestEditor;
+import pl.betoncraft.betonquest.editor.data.ID;
+import pl.betoncraft.betonquest.editor.data.Instruction;
+import pl.betoncraft.betonquest.editor.data.ParsedInstruction;
+import pl.betoncraft.betonquest.editor.model.ReferenceIndex.Rule;
+
+/**
+ * Finds tags and point categories used by instructions of the package, like
+ * <code>tag add started</code> or <code>point quest 5</code>, and adds them
+ * to their packages, so they can be chosen like other objects. The instructions
+ * are found with the {@link InstructionIndex}, which also reports later
+ * changes, so an edit only updates the names used by the edited instruction.
+ * Tags and categories created here are removed again when no instruction of
+ * any package uses them and nothing else references them.
+ *
+ * @author Jakub Sapalski
+ */
+public class TagDiscovery implements InstructionIndex.Listener {
+	
+	private static final Rule[] rules = Arrays.stream(ReferenceIndex.rules)
+			.filter(rule -> Tag.class.equals(rule.target) || PointCategory.class.equals(rule.target))
+			.toArray(Rule[]::new);
+	
+	private final QuestPackage pack;
+	private final HashMap<ID, Integer> useCounts = new HashMap<>();
+	private final HashSet<ID> created = new HashSet<>();
+	private boolean discovered = false;
+	private boolean listening = false;
+	
+	TagDiscovery(QuestPackage pack) {
+		this.pack = pack;
+	}
+	
+	/**
+	 * Finds tags and point categories in all instructions of the package, if
+	 * they weren't found yet. Afterwards they are updated with every change
+	 * of an instruction.
+	 */
+	public void discover() {
+		if (discovered) {
+			return;
+		}
+		discovered = true;
+		InstructionIndex index = pack.getInstructions();
+		if (!listening) {
+			listening = true;
+			index.addListener(this);
+		}
+		for (Rule rule : rules) {
+			for (Instruction object : index.get(rule.type, rule.instructionType)) {
+				for (String name : rule.extract(object.getParsedInstruction())) {
+					use(rule, name);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @param object
+	 *            tag or point category
+	 * @return true if any instruction of this package uses the object
+	 */
+	public boolean uses(ID object) {
+		return useCounts.containsKey(object);
+	}
+	
+	@Override
+	public void changed(Instruction object, ParsedInstruction previous, ParsedInstruction current) {
+		if (!discovered) {
+			return;
+		}
+		for (Rule rule : rules) {
+			if (rule.type != object.getClass()) {
+				continue;
+			}
+			if (previous != null && rule.instructionType.equals(previous.getType())) {
+				for (String name : rule.extract(previous)) {
+					release(rule, name);
+				}
+			}
+			if (current != null && rule.instructionType.equals(current.getType())) {
+				for (String name : rule.extract(current)) {
+					use(rule, name);
+				}
+			}
+		}
+	}
+	
+	@Override
+	public void invalidated() {
+		// objects stay where they are, they are counted again when needed
+		discovered = false;
+		useCounts.clear();
+	}
+	
+	private void use(Rule rule, String name) {
+		ID object = find(rule, name);
+		if (object == null) {
+			object = pack.newByID(name, rule.target, id -> create(rule, pack, id));
+			// objects in packages which are not loaded are only proxies
+			if (object.getPack().contains(object)) {
+				created.add(object);
+			}
+		}
+		useCounts.merge(object, 1, Integer::sum);
+	}
+	
+	private void release(Rule rule, String name) {
+		ID object = find(rule, name);
+		if (object == null) {
+			return;
+		}
+		Integer count = useCounts.get(object);
+		if (count == null) {
+			return;
+		}
+		if (count > 1) {
+			useCounts.put(object, count - 1);
+			return;
+		}
+		useCounts.remove(object);
+		for (QuestPackage loaded : BetonQuestEditor.getInstance().getPackages().values()) {
+			if (loaded.getTagDiscovery().uses(object)) {
+				return;
+			}
+		}
+		if (ReferenceIndex.isUsedOutsideInstructions(object)) {
+			return;
+		}
+		for (QuestPackage loaded : BetonQuestEditor.getInstance().getPackages().values()) {
+			if (loaded.getTagDiscovery().created.remove(object)) {
+				object.getList().remove(object);
+			}
+		}
+	}
+	
+	/**
+	 * @return the existing tag or category with that name, or null
+	 */
+	private ID find(Rule rule, String name) {
+		QuestPackage target = ID.parsePackage(pack, name);
+		return target == null ? null : target.getIndex(rule.target).get(ID.parseId(name));
+	}
+	
+	/**
+	 * @return new tag or category for the rule
+	 */
+	private static ID create(Rule rule, QuestPackage pack, String id) {
+		return Tag.class.equals(rule.target) ? new Tag(pack, id) : new PointCategory(pack, id);
+	}
+
+}
@@ -0,0 +1,48 @@
+/**
+ * BetonQuest Editor - advanced quest creating tool for BetonQuest
+ * Copyright (C) 2016  Jakub "Co0sh" Sapalski
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pl.betoncraft.betonquest.editor.model.exception;
+
+import java.io.IOException;
+
+import pl.betoncraft.betonquest.editor.model.Conversation;
+
+/**
+ * Thrown when a conversation which is not loaded yet can't be read, because
+ * its file has changed or is gone since the package was loaded. Reloading
+ * the package reads the conversation again.
+ *
+ * @author Jakub Sapalski
+ */
+public class ConversationChangedException extends RuntimeException {
+
+	private static final long serialVersionUID = 5172045613862090537L;
+	private final Conversation conversation;
+	
+	public ConversationChangedException(Conversation conversation, IOException cause) {
+		super(cause.getMessage(), cause);
+		this.conversation = conversation;
+	}
+	
+	/**
+	 * @return the conversation which could not be read
+	 */
+	public Conversation getConversation() {
+		return conversation;
+	}
+
+}
@@ -0,0 +1,83 @@
+/**
+ * BetonQuest Editor - advanced quest creating tool for BetonQuest
+ * Copyright (C) 2016  Jakub "Co0sh" Sapalski
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pl.betoncraft.betonquest.editor.persistence;
+
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * How entries of a saved zip file are compressed. Entries copied from the
+ * previous zip are kept as they are if they're compressed the same way.
+ *
+ * @author Jakub Sapalski
+ */
+public enum Compression {
+	
+	/**
+	 * Entries are not compressed, which is the fastest.
+	 */
+	STORED(ZipEntry.STORED, 0),
+	
+	/**
+	 * Entries are deflated with the fastest level.
+	 */
+	FAST(ZipEntry.DEFLATED, Deflater.BEST_SPEED),
+	
+	/**
+	 * Entries are deflated with the default level.
+	 */
+	DEFAULT(ZipEntry.DEFLATED, Deflater.DEFAULT_COMPRESSION),
+	
+	/**
+	 * Entries are deflated with the best level. All entries are compressed
+	 * again, as it's not known how the copied ones were compressed.
+	 */
+	MAXIMUM(ZipEntry.DEFLATED, Deflater.BEST_COMPRESSION);
+	
+	private final int method;
+	private final int level;
+	
+	private Compression(int method, int level) {
+		this.method = method;
+		this.level = level;
+	}
+	
+	/**
+	 * @return compression method, as in ZipEntry
+	 */
+	public int getMethod() {
+		return method;
+	}
+	
+	/**
+	 * @return deflate level, as in Deflater
+	 */
+	public int getLevel() {
+		return level;
+	}
+	
+	/**
+	 * @param entry
+	 *            entry of the previous zip file
+	 * @return true if the entry can be copied without compressing it again
+	 */
+	public boolean canCopy(ZipIndex.Entry entry) {
+		return this != MAXIMUM && entry.getMethod() == method;
+	}
+
+}
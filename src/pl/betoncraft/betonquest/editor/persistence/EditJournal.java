@@ -0,0 +1,647 @@
+/**
+ * BetonQuest Editor - advanced quest creating tool for BetonQuest
+ * Copyright (C) 2016  Jakub "Co0sh" Sapalski
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pl.betoncraft.betonquest.editor.persistence;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import javafx.application.Platform;
+import pl.betoncraft.betonquest.editor.model.QuestPackage;
+
+/**
+ * Append-only journal of changes made to loaded packages, so they can be
+ * recovered if the editor is closed without saving them or crashes. Each
+ * package starts with a base record: the location and stamps of the files it
+ * was loaded from or last saved to. It's followed by changes of values in
+ * these files, recorded by a {@link JournalRecorder} whenever the model
+ * changes. Records are buffered in memory and written by a background thread,
+ * which syncs the file at most a few times per second, so recording a change
+ * takes only microseconds on the JavaFX thread.
+ * <p>
+ * When the journal grows too large, or an object is renamed (which can change
+ * references anywhere), it's compacted: rewritten with a base record and
+ * whole changed files of each package. Every record is checksummed, so a
+ * record cut short by a crash is simply ignored when recovering. Changes of
+ * the previous session are kept in a separate file until they are recovered,
+ * so a failed recovery can be tried again.
+ *
+ * @author Jakub Sapalski
+ */
+public class EditJournal {
+	
+	private static final int MAGIC = 0x42514a31; // "BQJ1"
+	private static final int VERSION = 1;
+	private static final long COMPACT_SIZE = 1 << 20;
+	private static final long SYNC_INTERVAL = 200;
+	
+	static final byte BASE = 1;
+	static final byte PUT = 2;
+	static final byte REMOVE = 3;
+	static final byte ORDER = 4;
+	static final byte DROP = 5;
+	
+	private static EditJournal defaultJournal;
+	
+	private final Path file;
+	private final Path previous;
+	private final IdentityHashMap<QuestPackage, JournalRecorder> recorders = new IdentityHashMap<>();
+	private final CRC32 crc = new CRC32();
+	private Buffer collected;
+	private boolean open = false;
+	private boolean compacting = false;
+	
+	// shared with the writer thread
+	private final Object lock = new Object();
+	private Buffer pending = new Buffer();
+	private boolean rewrite = false;
+	private boolean discard = false;
+	private boolean closed = false;
+	private Thread writer;
+	private FileChannel channel;
+	private long size = 0;
+	private long compactSize = COMPACT_SIZE;
+	
+	public EditJournal(Path file) {
+		this.file = file;
+		this.previous = file.resolveSibling(file.getFileName() + ".prev");
+	}
+	
+	/**
+	 * @return the journal in the user's home directory
+	 */
+	public static synchronized EditJournal getDefault() {
+		if (defaultJournal == null) {
+			defaultJournal = new EditJournal(Paths.get(System.getProperty("user.home"), ".betonquest-editor", "journal"));
+		}
+		return defaultJournal;
+	}
+	
+	/**
+	 * Reads changes left in the journal by the previous session and moves
+	 * them aside, to a file next to the journal, so opening the journal
+	 * doesn't clear them. They are kept there until
+	 * {@link #discardRecovered()} is called, so if recovering them fails,
+	 * they're found again on the next start, together with changes of the
+	 * session in which recovering failed. It must be called before the
+	 * journal is opened.
+	 * 
+	 * @return packages from the previous session, in the order they were
+	 *         recorded, or an empty list if none of them has any changes
+	 */
+	public List<PackagePatch> recover() {
+		LinkedHashMap<String, PackagePatch> patches = new LinkedHashMap<>();
+		long previousLength = read(previous, patches);
+		long length = read(file, patches);
+		for (PackagePatch patch : patches.values()) {
+			if (!patch.isEmpty()) {
+				try {
+					keepAside(previousLength, length);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+				return new ArrayList<>(patches.values());
+			}
+		}
+		try {
+			Files.deleteIfExists(previous);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return new ArrayList<>();
+	}
+	
+	/**
+	 * Deletes changes kept aside by {@link #recover()}, after they were
+	 * recovered or the user declined to recover them. If the journal is
+	 * open, they're deleted after records buffered so far, for example of
+	 * recovered packages, are written.
+	 */
+	public void discardRecovered() {
+		synchronized (lock) {
+			if (writer != null && !closed) {
+				discard = true;
+				lock.notifyAll();
+				return;
+			}
+		}
+		try {
+			Files.deleteIfExists(previous);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Reads records from the journal file into patches.
+	 * 
+	 * @return length of the valid part of the file, or 0 if it's not a
+	 *         journal
+	 */
+	private static long read(Path file, Map<String, PackagePatch> patches) {
+		if (!Files.isRegularFile(file)) {
+			return 0;
+		}
+		long valid = 0;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				return 0;
+			}
+			valid = 8;
+			CRC32 check = new CRC32();
+			while (true) {
+				int length = in.readInt();
+				int sum = in.readInt();
+				if (length < 0 || length > COMPACT_SIZE * 64) {
+					break;
+				}
+				byte[] record = new byte[length];
+				in.readFully(record);
+				check.reset();
+				check.update(record, 0, length);
+				if ((int) check.getValue() != sum) {
+					break;
+				}
+				read(new DataInputStream(new ByteArrayInputStream(record)), patches);
+				valid += 8 + length;
+			}
+		} catch (EOFException e) {
+			// the last record was cut short, everything before it is valid
+		} catch (IOException | RuntimeException e) {
+			// the rest of the journal is damaged, keep what was read
+		}
+		return valid;
+	}
+	
+	/**
+	 * Moves the journal aside. If changes of an earlier session are already
+	 * there, valid records of the journal are appended to them, so reading
+	 * the result gives the same patches as reading both files in order.
+	 */
+	private void keepAside(long previousLength, long length) throws IOException {
+		if (length == 0) {
+			return;
+		}
+		if (previousLength == 0) {
+			Files.move(file, previous, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			return;
+		}
+		try (FileChannel out = FileChannel.open(previous, StandardOpenOption.WRITE);
+				FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+			// a record cut short would hide all records appended after it
+			out.truncate(previousLength);
+			out.position(previousLength);
+			long position = 8;
+			while (position < length) {
+				position += in.transferTo(position, length - position, out);
+			}
+			out.force(true);
+		}
+		Files.delete(file);
+	}
+	
+	private static void read(DataInputStream in, Map<String, PackagePatch> patches) throws IOException {
+		byte type = in.readByte();
+		String name = readString(in);
+		if (type == BASE) {
+			String location = readString(in);
+			HashMap<String, String> stamps = new HashMap<>();
+			int count = SnapshotCache.readNumber(in);
+			for (int i = 0; i < count; i++) {
+				stamps.put(readString(in), readString(in));
+			}
+			patches.put(name, new PackagePatch(name, location, stamps));
+			return;
+		}
+		PackagePatch patch = patches.get(name);
+		if (patch == null) {
+			return; // the base was compacted away, this can't be applied
+		}
+		String fileName = readString(in);
+		switch (type) {
+		case PUT:
+			String[] prefix = readPath(in);
+			ArrayList<String[]> paths = new ArrayList<>();
+			ArrayList<String> values = new ArrayList<>();
+			int depth;
+			while ((depth = SnapshotCache.readNumber(in)) > 0) {
+				String[] path = new String[depth - 1];
+				for (int i = 0; i < path.length; i++) {
+					path[i] = readString(in);
+				}
+				paths.add(path);
+				values.add(readString(in));
+			}
+			patch.put(fileName, prefix, paths, values);
+			break;
+		case REMOVE:
+			patch.remove(fileName, readPath(in));
+			break;
+		case ORDER:
+			String[] parent = readPath(in);
+			int count = SnapshotCache.readNumber(in);
+			String[] keys = new String[count];
+			for (int i = 0; i < count; i++) {
+				keys[i] = readString(in);
+			}
+			patch.order(fileName, parent, Arrays.asList(keys));
+			break;
+		case DROP:
+			patch.drop(fileName);
+			break;
+		default:
+			throw new IOException("Unknown record in the journal");
+		}
+	}
+	
+	/**
+	 * Clears the journal and starts writing to it. If it can't be opened,
+	 * changes are not recorded.
+	 * 
+	 * @throws IOException
+	 *             when the journal could not be created
+	 */
+	public void open() throws IOException {
+		Files.createDirectories(file.getParent());
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			size = writeHeader(channel);
+			channel.force(true);
+		} catch (IOException | RuntimeException e) {
+			disable();
+			throw e;
+		}
+		writer = new Thread(this::run, "Journal writer");
+		writer.setDaemon(true);
+		writer.start();
+		open = true;
+	}
+	
+	/**
+	 * Makes sure no changes are recorded, for example after the journal
+	 * could not be opened. Packages can still be edited, but their changes
+	 * won't be recovered after a crash. It must be called before the journal
+	 * is opened or instead of closing it.
+	 */
+	public void disable() {
+		open = false;
+		synchronized (lock) {
+			closed = true;
+			lock.notifyAll();
+		}
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			channel = null;
+		}
+	}
+	
+	/**
+	 * Starts recording changes of the package, or records its new base if
+	 * it's already recorded. It must be called on the JavaFX thread, after
+	 * the package was loaded, reloaded or saved.
+	 * 
+	 * @param pack
+	 *            the package
+	 * @param location
+	 *            location of its files, as in {@link PackageSource#getLocation()}
+	 * @param stamps
+	 *            stamps of its files, mapped by logical names
+	 * @param changed
+	 *            whether all files may differ from the base; otherwise
+	 *            changed files are taken from the package's change tracker
+	 */
+	public void track(QuestPackage pack, String location, Map<String, String> stamps, boolean changed) {
+		if (!open) {
+			return;
+		}
+		JournalRecorder recorder = recorders.get(pack);
+		if (recorder == null) {
+			// a package with the same name was replaced by this one
+			recorders.entrySet().removeIf(entry -> {
+				if (entry.getKey().getName().get().equals(pack.getName().get())) {
+					entry.getValue().stop();
+					return true;
+				}
+				return false;
+			});
+			recorder = new JournalRecorder(this, pack);
+			recorders.put(pack, recorder);
+			recorder.start();
+		}
+		recorder.rebase(location, stamps, changed);
+	}
+	
+	/**
+	 * @return location of a single package saved to the zip file, as
+	 *         {@link PackageSource#fromZip(java.util.zip.ZipFile)} reports it
+	 */
+	public static String locationOf(File zip, QuestPackage pack) {
+		return zip.getAbsolutePath() + '!' + pack.getName().get();
+	}
+	
+	/**
+	 * @return location of a package saved to the directory, as
+	 *         {@link PackageSource#discover(Path)} reports it
+	 */
+	public static String locationOf(Path directory, QuestPackage pack) {
+		return directory.resolve(pack.getName().get()).toAbsolutePath().toString();
+	}
+	
+	/**
+	 * Writes all buffered records and stops the journal. If none of the
+	 * packages has unsaved changes, the journal is deleted.
+	 */
+	public void close() {
+		if (!open) {
+			return;
+		}
+		open = false;
+		boolean clean = true;
+		for (JournalRecorder recorder : recorders.values()) {
+			clean &= recorder.isClean();
+			recorder.stop();
+		}
+		recorders.clear();
+		synchronized (lock) {
+			closed = true;
+			lock.notifyAll();
+		}
+		try {
+			writer.join();
+			channel.close();
+			if (clean) {
+				Files.deleteIfExists(file);
+			}
+		} catch (IOException | InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Records that an object was renamed. References to it can be in any
+	 * file of any package, so all of them are written again.
+	 */
+	void renamed() {
+		for (JournalRecorder recorder : recorders.values()) {
+			recorder.markAll();
+		}
+		compactLater();
+	}
+	
+	/**
+	 * Rewrites the journal with only the current changes of each package,
+	 * after the current event is handled.
+	 */
+	void compactLater() {
+		if (!compacting && open) {
+			compacting = true;
+			Platform.runLater(this::compact);
+		}
+	}
+	
+	private void compact() {
+		compacting = false;
+		if (!open) {
+			return;
+		}
+		collected = new Buffer();
+		Buffer checkpoint;
+		try {
+			for (JournalRecorder recorder : recorders.values()) {
+				recorder.checkpoint();
+			}
+		} finally {
+			checkpoint = collected;
+			collected = null;
+		}
+		synchronized (lock) {
+			// buffered records are replaced, the checkpoint contains their changes
+			pending.reset();
+			pending.write(checkpoint.array(), 0, checkpoint.size());
+			rewrite = true;
+			lock.notifyAll();
+		}
+	}
+	
+	/**
+	 * Adds the record to the journal. It must be called on the JavaFX thread.
+	 */
+	void append(Buffer record) {
+		crc.reset();
+		crc.update(record.array(), 0, record.size());
+		int sum = (int) crc.getValue();
+		if (collected != null) {
+			frame(collected, record, sum);
+			return;
+		}
+		synchronized (lock) {
+			if (closed) {
+				return;
+			}
+			boolean notify = pending.size() == 0;
+			frame(pending, record, sum);
+			if (notify) {
+				lock.notifyAll();
+			}
+		}
+	}
+	
+	private static void frame(Buffer target, Buffer record, int sum) {
+		int length = record.size();
+		target.write(length >>> 24);
+		target.write(length >>> 16);
+		target.write(length >>> 8);
+		target.write(length);
+		target.write(sum >>> 24);
+		target.write(sum >>> 16);
+		target.write(sum >>> 8);
+		target.write(sum);
+		target.write(record.array(), 0, length);
+	}
+	
+	/**
+	 * Writes buffered records, syncing the file after each batch and then
+	 * waiting a while, so records made in the meantime are synced together.
+	 */
+	private void run() {
+		Buffer writing = new Buffer();
+		while (true) {
+			boolean replace;
+			boolean drop;
+			synchronized (lock) {
+				while (pending.size() == 0 && !discard && !closed) {
+					try {
+						lock.wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				if (pending.size() == 0 && !discard) {
+					return;
+				}
+				Buffer swap = pending;
+				pending = writing;
+				writing = swap;
+				replace = rewrite;
+				rewrite = false;
+				drop = discard;
+				discard = false;
+			}
+			try {
+				if (replace) {
+					replace(writing);
+				} else {
+					ByteBuffer data = ByteBuffer.wrap(writing.array(), 0, writing.size());
+					while (data.hasRemaining()) {
+						channel.write(data);
+					}
+					channel.force(false);
+					size += writing.size();
+				}
+				if (drop) {
+					Files.deleteIfExists(previous);
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+				synchronized (lock) {
+					closed = true; // changes can't be recorded anymore
+					pending.reset();
+				}
+				return;
+			}
+			writing.reset();
+			if (size > compactSize) {
+				compactSize = Long.MAX_VALUE; // until compacted
+				Platform.runLater(this::compactLater);
+			}
+			long until = System.currentTimeMillis() + SYNC_INTERVAL;
+			synchronized (lock) {
+				long left;
+				while (!closed && (left = until - System.currentTimeMillis()) > 0) {
+					try {
+						lock.wait(left);
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Replaces the journal with a compacted one. The new journal is written
+	 * next to the old one and moved in place, so a crash leaves one of them.
+	 */
+	private void replace(Buffer checkpoint) throws IOException {
+		Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			long written = writeHeader(out);
+			ByteBuffer data = ByteBuffer.wrap(checkpoint.array(), 0, checkpoint.size());
+			while (data.hasRemaining()) {
+				written += out.write(data);
+			}
+			out.force(true);
+			size = written;
+			// a large checkpoint shouldn't be compacted again right away
+			compactSize = Math.max(COMPACT_SIZE, written * 2);
+		}
+		channel.close();
+		Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+	}
+	
+	private static long writeHeader(FileChannel out) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(8);
+		header.putInt(MAGIC).putInt(VERSION).flip();
+		while (header.hasRemaining()) {
+			out.write(header);
+		}
+		return 8;
+	}
+	
+	static void writeString(DataOutputStream out, String string) throws IOException {
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		SnapshotCache.writeNumber(out, bytes.length);
+		out.write(bytes);
+	}
+	
+	static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[SnapshotCache.readNumber(in)];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+	
+	static void writePath(DataOutputStream out, String[] path) throws IOException {
+		SnapshotCache.writeNumber(out, path.length);
+		for (String key : path) {
+			writeString(out, key);
+		}
+	}
+	
+	private static String[] readPath(DataInputStream in) throws IOException {
+		String[] path = new String[SnapshotCache.readNumber(in)];
+		for (int i = 0; i < path.length; i++) {
+			path[i] = readString(in);
+		}
+		return path;
+	}
+	
+	/**
+	 * Byte array stream which exposes its array, so records can be copied
+	 * without creating new arrays.
+	 */
+	static class Buffer extends ByteArrayOutputStream {
+		
+		Buffer() {
+			super(256);
+		}
+		
+		byte[] array() {
+			return buf;
+		}
+		
+	}
+
+}
@@ -0,0 +1,768 @@
+/**
+ * BetonQuest Editor - advanced quest creating tool for BetonQuest
+ * Copyright (C) 2016  Jakub "Co0sh" Sapalski
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pl.betoncraft.betonquest.editor.persistence;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+import pl.betoncraft.betonquest.editor.data.ID;
+import pl.betoncraft.betonquest.editor.data.Instruction;
+import pl.betoncraft.betonquest.editor.model.ChangeTracker;
+import pl.betoncraft.betonquest.editor.model.Condition;
+import pl.betoncraft.betonquest.editor.model.Conversation;
+import pl.betoncraft.betonquest.editor.model.ConversationOption;
+import pl.betoncraft.betonquest.editor.model.Event;
+import pl.betoncraft.betonquest.editor.model.GlobalVariable;
+import pl.betoncraft.betonquest.editor.model.Item;
+import pl.betoncraft.betonquest.editor.model.JournalEntry;
+import pl.betoncraft.betonquest.editor.model.MainPageLine;
+import pl.betoncraft.betonquest.editor.model.NpcBinding;
+import pl.betoncraft.betonquest.editor.model.NpcOption;
+import pl.betoncraft.betonquest.editor.model.Objective;
+import pl.betoncraft.betonquest.editor.model.QuestCanceler;
+import pl.betoncraft.betonquest.editor.model.QuestPackage;
+import pl.betoncraft.betonquest.editor.model.StaticEvent;
+import pl.betoncraft.betonquest.editor.model.exception.ConversationChangedException;
+
+/**
+ * Records changes of a single package in the {@link EditJournal}. It watches
+ * the same values as the package's {@link ChangeTracker}, but for every
+ * change it records the new value of the changed object, written by
+ * {@link PackageWriter} under its key in the file. Objects report their
+ * changes through the change tracker, lists are watched directly. Sections of
+ * main.yml are small, so they are recorded whole. Renaming an object can change
+ * references in any file, so it makes the journal compact instead. It must
+ * be used only on the JavaFX thread.
+ *
+ * @author Jakub Sapalski
+ */
+class JournalRecorder implements ChangeTracker.ObjectListener {
+	
+	private static final String[] ROOT = new String[0];
+	private static final String[] FILES = new String[]{"main", "events", "conditions", "objectives", "items", "journal"};
+	
+	private final EditJournal journal;
+	private final QuestPackage pack;
+	private final PackageWriter writer;
+	private final EditJournal.Buffer record = new EditJournal.Buffer();
+	private final DataOutputStream out = new DataOutputStream(record);
+	private final IdentityHashMap<Object, Watch> watches = new IdentityHashMap<>();
+	private final IdentityHashMap<ObservableList<?>, ListWatch<?>> lists = new IdentityHashMap<>();
+	private final Section[] sections;
+	private final Consumer<Conversation> loaded = conv -> watchContents(conv, true);
+	
+	private String location;
+	private HashMap<String, String> stamps = new HashMap<>();
+	private final HashSet<String> changed = new HashSet<>();
+	private boolean all = false;
+	
+	JournalRecorder(EditJournal journal, QuestPackage pack) {
+		this.journal = journal;
+		this.pack = pack;
+		this.writer = new PackageWriter(pack);
+		this.sections = new Section[]{
+				new Section("npcs", pack.getNpcBindings(), writer::writeNpcBindings),
+				new Section("variables", pack.getVariables(), writer::writeVariables),
+				new Section("static", pack.getStaticEvents(), writer::writeStaticEvents),
+				new Section("global_locations", pack.getLocations(), gen -> writer.writeList(gen, pack.getLocations(), null)),
+				new Section("cancel", pack.getCancelers(), writer::writeCancelers),
+				new Section("journal_main_page", pack.getMainPage(), writer::writeMainPage),
+		};
+	}
+	
+	/**
+	 * Starts watching the package.
+	 */
+	void start() {
+		watchPackage(true);
+	}
+	
+	/**
+	 * Stops watching the package.
+	 */
+	void stop() {
+		watchPackage(false);
+	}
+	
+	/**
+	 * Sets the files to which recorded changes are relative and records
+	 * a checkpoint with them.
+	 * 
+	 * @param changedAll
+	 *            whether all files may differ from the base; otherwise changed
+	 *            files are taken from the change tracker of the package
+	 */
+	void rebase(String location, Map<String, String> stamps, boolean changedAll) {
+		this.location = location;
+		this.stamps = new HashMap<>(stamps);
+		changed.clear();
+		all = changedAll;
+		if (!all) {
+			ChangeTracker changes = pack.getChanges();
+			for (String file : FILES) {
+				if (changes.isChanged(file)) {
+					changed.add(file);
+				}
+			}
+			for (Conversation conv : pack.getConversations()) {
+				if (changes.isChanged(conv)) {
+					changed.add(fileOf(conv));
+				}
+			}
+		}
+		checkpoint();
+	}
+	
+	/**
+	 * Marks all files as different from the base.
+	 */
+	void markAll() {
+		all = true;
+	}
+	
+	/**
+	 * @return true if no changes were recorded since the base
+	 */
+	boolean isClean() {
+		return !all && changed.isEmpty();
+	}
+	
+	/**
+	 * Records the base and all files which differ from it, replacing
+	 * everything recorded before.
+	 */
+	void checkpoint() {
+		try {
+			begin(EditJournal.BASE);
+			EditJournal.writeString(out, location);
+			SnapshotCache.writeNumber(out, stamps.size());
+			for (Map.Entry<String, String> stamp : stamps.entrySet()) {
+				EditJournal.writeString(out, stamp.getKey());
+				EditJournal.writeString(out, stamp.getValue());
+			}
+			journal.append(record);
+		} catch (IOException e) {
+			throw new IllegalStateException(e); // writing to memory doesn't fail
+		}
+		if (isChanged("main")) {
+			put("main", writer::writeMain);
+		}
+		if (isChanged("events")) {
+			put("events", gen -> writer.writeInstructions(gen, pack.getEvents()));
+		}
+		if (isChanged("conditions")) {
+			put("conditions", gen -> writer.writeInstructions(gen, pack.getConditions()));
+		}
+		if (isChanged("objectives")) {
+			put("objectives", gen -> writer.writeInstructions(gen, pack.getObjectives()));
+		}
+		if (isChanged("items")) {
+			put("items", gen -> writer.writeInstructions(gen, pack.getItems()));
+		}
+		if (isChanged("journal")) {
+			put("journal", writer::writeJournal);
+		}
+		HashSet<String> existing = new HashSet<>();
+		for (Conversation conv : pack.getConversations()) {
+			String file = fileOf(conv);
+			existing.add(file);
+			if (isChanged(file)) {
+				try {
+					conv.load();
+				} catch (ConversationChangedException e) {
+					// the files don't match the base anymore, so the package can't be recovered anyway
+					continue;
+				}
+				put(file, gen -> writer.writeConversation(gen, conv));
+			}
+		}
+		for (String file : stamps.keySet()) {
+			if (file.startsWith("conversations.") && !existing.contains(file)) {
+				drop(file);
+			}
+		}
+	}
+	
+	private boolean isChanged(String file) {
+		return all || changed.contains(file);
+	}
+	
+	private static String fileOf(Conversation conv) {
+		return "conversations." + conv.getIdValue();
+	}
+	
+	private void watchPackage(boolean add) {
+		if (add) {
+			pack.getChanges().addLoadListener(loaded);
+			pack.getChanges().addObjectListener(this);
+		} else {
+			pack.getChanges().removeLoadListener(loaded);
+			pack.getChanges().removeObjectListener(this);
+		}
+		watchList(pack.getEvents(), add, () -> new KeyedList<>(() -> "events", ROOT, this::record));
+		watchList(pack.getConditions(), add, () -> new KeyedList<>(() -> "conditions", ROOT, this::record));
+		watchList(pack.getObjectives(), add, () -> new KeyedList<>(() -> "objectives", ROOT, this::record));
+		watchList(pack.getItems(), add, () -> new KeyedList<>(() -> "items", ROOT, this::record));
+		watchList(pack.getJournal(), add, () -> new KeyedList<>(() -> "journal", ROOT, this::record));
+		watchList(pack.getConversations(), add, () -> new ListWatch<Conversation>((conv, added) -> {
+			if (conv.isLoaded() || !added) {
+				watchContents(conv, added);
+			}
+		}) {
+			@Override
+			void removed(Conversation conv, List<? extends Conversation> list) {
+				drop(fileOf(conv));
+			}
+			
+			@Override
+			void added(Conversation conv) {
+				recordContents(conv);
+			}
+		});
+		Section npcs = sections[0], variables = sections[1], staticEvents = sections[2], locations = sections[3],
+				cancelers = sections[4], mainPage = sections[5];
+		watchList(pack.getNpcBindings(), add, () -> new SectionList<>(npcs,
+				(binding, added) -> listen(binding.getConversation(), npcs.watch, added)));
+		watchList(pack.getVariables(), add, () -> new SectionList<>(variables, null));
+		watchList(pack.getStaticEvents(), add, () -> new SectionList<>(staticEvents,
+				(event, added) -> listen(event.getEvent(), staticEvents.watch, added)));
+		watchList(pack.getLocations(), add, () -> new SectionList<>(locations,
+				(location, added) -> listen(location.getObjective(), locations.watch, added)));
+		watchList(pack.getCancelers(), add, () -> new SectionList<>(cancelers, (canceler, added) -> {
+			listen(canceler.getEvents(), cancelers.watch, added);
+			listen(canceler.getConditions(), cancelers.watch, added);
+			listen(canceler.getObjectives(), cancelers.watch, added);
+			listen(canceler.getTags(), cancelers.watch, added);
+			listen(canceler.getPoints(), cancelers.watch, added);
+			listen(canceler.getJournal(), cancelers.watch, added);
+			listen(canceler.getLocationProperty(), cancelers.watch, added);
+		}));
+		watchList(pack.getMainPage(), add, () -> new SectionList<>(mainPage, (line, added) -> {
+			listen(line.getPriority(), mainPage.watch, added);
+			listen(line.getConditions(), mainPage.watch, added);
+		}));
+	}
+	
+	private void watchContents(Conversation conv, boolean add) {
+		Supplier<String> file = () -> fileOf(conv);
+		// the NPC text is reported as a change of the conversation
+		Watch npc = watch(conv, add,
+				() -> put(file.get(), gen -> writer.writeTranslated(gen, conv.getNPC()), "quester"));
+		if (npc == null) {
+			return;
+		}
+		listen(conv.getStop(), watch(conv.getStop(), add,
+				() -> put(file.get(), gen -> gen.writeString(String.valueOf(conv.getStop().get())), "stop")), add);
+		listen(conv.getStartingOptions(), watch(conv.getStartingOptions(), add,
+				() -> putList(file.get(), conv.getStartingOptions(), conv, "first")), add);
+		listen(conv.getFinalEvents(), watch(conv.getFinalEvents(), add,
+				() -> putList(file.get(), conv.getFinalEvents(), conv, "final")), add);
+		watchList(conv.getNpcOptions(), add,
+				() -> new KeyedList<>(() -> fileOf(conv), new String[]{"NPC_options"}, this::record));
+		watchList(conv.getPlayerOptions(), add,
+				() -> new KeyedList<>(() -> fileOf(conv), new String[]{"player_options"}, this::record));
+	}
+	
+	/**
+	 * Records contents of an added conversation key by key, like their later
+	 * changes, starting from an empty file. A new conversation is already
+	 * loaded, so loading it doesn't read anything.
+	 */
+	private void recordContents(Conversation conv) {
+		conv.load();
+		remove(fileOf(conv));
+		for (Object key : new Object[]{conv, conv.getStop(), conv.getStartingOptions(), conv.getFinalEvents()}) {
+			watches.get(key).recorder.run();
+		}
+		for (ConversationOption option : conv.getNpcOptions()) {
+			record(option);
+		}
+		for (ConversationOption option : conv.getPlayerOptions()) {
+			record(option);
+		}
+	}
+	
+	@Override
+	public void renamed(ID object, String oldId) {
+		if (object instanceof Item) {
+			// items are referenced only in instructions, so they can be renamed in place
+			record(object);
+			remove("items", oldId);
+			order("items", ROOT, pack.getItems());
+		} else if (!recordSection(object)) {
+			journal.renamed();
+		}
+	}
+	
+	@Override
+	public void changed(ID object) {
+		if (!recordSection(object)) {
+			record(object);
+		}
+	}
+	
+	/**
+	 * Records the current value of an object stored under its ID.
+	 */
+	private void record(ID object) {
+		String id = object.getIdValue();
+		if (object instanceof Instruction) {
+			String file = object instanceof Event ? "events" : object instanceof Condition ? "conditions"
+					: object instanceof Objective ? "objectives" : "items";
+			put(file, gen -> gen.writeString(((Instruction) object).getInstructionValue()), id);
+		} else if (object instanceof JournalEntry) {
+			put("journal", gen -> writer.writeTranslated(gen, ((JournalEntry) object).getText()), id);
+		} else if (object instanceof ConversationOption) {
+			ConversationOption option = (ConversationOption) object;
+			Conversation conv = option.getConversation();
+			if (watches.containsKey(conv)) {
+				String section = option instanceof NpcOption ? "NPC_options" : "player_options";
+				put(fileOf(conv), gen -> writer.writeOption(gen, option), section, id);
+			}
+		} else if (object instanceof Conversation) {
+			Watch npc = watches.get(object);
+			if (npc != null) {
+				npc.recorder.run();
+			}
+		}
+	}
+	
+	/**
+	 * Records the section of main.yml in which the object is defined.
+	 * 
+	 * @return false if the object is not defined in main.yml
+	 */
+	private boolean recordSection(ID object) {
+		Section section = object instanceof NpcBinding ? sections[0] : object instanceof GlobalVariable ? sections[1]
+				: object instanceof StaticEvent ? sections[2] : object instanceof QuestCanceler ? sections[4]
+				: object instanceof MainPageLine ? sections[5] : null;
+		if (section == null) {
+			return false;
+		}
+		section.record();
+		return true;
+	}
+	
+	/**
+	 * Creates a watch for the key when adding or returns the existing one
+	 * when removing.
+	 * 
+	 * @return the watch or null if the key is already watched (when adding)
+	 *         or not watched (when removing)
+	 */
+	private Watch watch(Object key, boolean add, Runnable recorder) {
+		if (!add) {
+			return watches.remove(key);
+		}
+		if (watches.containsKey(key)) {
+			return null;
+		}
+		Watch watch = new Watch(recorder);
+		watches.put(key, watch);
+		return watch;
+	}
+	
+	@SuppressWarnings("unchecked")
+	private <T> void watchList(ObservableList<T> list, boolean add, Supplier<ListWatch<T>> creator) {
+		ListWatch<T> listWatch;
+		if (add) {
+			if (lists.containsKey(list)) {
+				return;
+			}
+			listWatch = creator.get();
+			lists.put(list, listWatch);
+			list.addListener(listWatch);
+		} else {
+			listWatch = (ListWatch<T>) lists.remove(list);
+			if (listWatch == null) {
+				return;
+			}
+			list.removeListener(listWatch);
+		}
+		for (T object : list) {
+			listWatch.watcher.watch(object, add);
+		}
+	}
+	
+	private void listen(ObservableValue<?> value, ChangeListener<Object> listener, boolean add) {
+		if (listener == null) {
+			return;
+		}
+		if (add) {
+			value.addListener(listener);
+		} else {
+			value.removeListener(listener);
+		}
+	}
+	
+	private void listen(ObservableList<?> list, Watch watch, boolean add) {
+		if (watch == null) {
+			return;
+		}
+		if (add) {
+			list.addListener((ListChangeListener<Object>) watch);
+		} else {
+			list.removeListener((ListChangeListener<Object>) watch);
+		}
+	}
+	
+	private void put(String file, Value value, String... prefix) {
+		changed.add(file);
+		try {
+			TokenBuffer tokens = new TokenBuffer(null, false);
+			value.write(tokens);
+			begin(EditJournal.PUT);
+			EditJournal.writeString(out, file);
+			EditJournal.writePath(out, prefix);
+			writeLeaves(tokens);
+			journal.append(record);
+		} catch (IOException e) {
+			throw new IllegalStateException(e); // writing to memory doesn't fail
+		}
+	}
+	
+	private void putList(String file, List<?> list, Conversation conv, String key) {
+		if (list.isEmpty()) {
+			remove(file, key);
+		} else {
+			put(file, gen -> writer.writeList(gen, list, conv), key);
+		}
+	}
+	
+	private void remove(String file, String... prefix) {
+		changed.add(file);
+		try {
+			begin(EditJournal.REMOVE);
+			EditJournal.writeString(out, file);
+			EditJournal.writePath(out, prefix);
+			journal.append(record);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	private void order(String file, String[] parent, List<? extends ID> objects) {
+		changed.add(file);
+		try {
+			begin(EditJournal.ORDER);
+			EditJournal.writeString(out, file);
+			EditJournal.writePath(out, parent);
+			SnapshotCache.writeNumber(out, objects.size());
+			for (ID object : objects) {
+				EditJournal.writeString(out, object.getIdValue());
+			}
+			journal.append(record);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	private void drop(String file) {
+		changed.add(file);
+		try {
+			begin(EditJournal.DROP);
+			EditJournal.writeString(out, file);
+			journal.append(record);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	private void begin(byte type) throws IOException {
+		record.reset();
+		out.writeByte(type);
+		EditJournal.writeString(out, pack.getName().get());
+	}
+	
+	/**
+	 * Writes all values from the tokens with their paths of keys, the same
+	 * way {@link YamlReader} would read them from a file. The list ends with
+	 * a zero.
+	 */
+	private void writeLeaves(TokenBuffer tokens) throws IOException {
+		String[] path = new String[8];
+		int depth = 0;
+		int level = 0;
+		try (JsonParser parser = tokens.asParser()) {
+			JsonToken token;
+			while ((token = parser.nextToken()) != null) {
+				switch (token) {
+				case START_OBJECT:
+					if (level++ > 0) {
+						depth++;
+					}
+					break;
+				case END_OBJECT:
+					if (--level > 0) {
+						depth--;
+					}
+					break;
+				case FIELD_NAME:
+					if (depth == path.length) {
+						path = Arrays.copyOf(path, depth * 2);
+					}
+					path[depth] = parser.getCurrentName();
+					break;
+				case VALUE_NULL:
+					break;
+				default:
+					if (token.isScalarValue()) {
+						int length = level > 0 ? depth + 1 : 0;
+						SnapshotCache.writeNumber(out, length + 1);
+						for (int i = 0; i < length; i++) {
+							EditJournal.writeString(out, path[i]);
+						}
+						EditJournal.writeString(out, parser.getText());
+					}
+				}
+			}
+		}
+		SnapshotCache.writeNumber(out, 0);
+	}
+	
+	/**
+	 * Writes a single value.
+	 */
+	private interface Value {
+		public void write(JsonGenerator gen) throws IOException;
+	}
+	
+	/**
+	 * Records the value of an object when anything it listens to changes.
+	 */
+	private static class Watch implements ChangeListener<Object>, ListChangeListener<Object> {
+		
+		private final Runnable recorder;
+		
+		private Watch(Runnable recorder) {
+			this.recorder = recorder;
+		}
+		
+		@Override
+		public void changed(ObservableValue<? extends Object> observable, Object oldValue, Object newValue) {
+			recorder.run();
+		}
+		
+		@Override
+		public void onChanged(Change<? extends Object> change) {
+			if (moved(change)) {
+				recorder.run();
+			}
+		}
+		
+	}
+	
+	/**
+	 * @return true if the change is anything other than a permutation which
+	 *         doesn't move anything, which is what sorting a sorted list fires
+	 */
+	private static boolean moved(ListChangeListener.Change<?> change) {
+		while (change.next()) {
+			if (!change.wasPermutated()) {
+				return true;
+			}
+			for (int i = change.getFrom(); i < change.getTo(); i++) {
+				if (change.getPermutation(i) != i) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * A section of main.yml, recorded whole.
+	 */
+	private class Section {
+		
+		private final String name;
+		private final List<?> list;
+		private final Value value;
+		private final Watch watch;
+		
+		private Section(String name, List<?> list, Value value) {
+			this.name = name;
+			this.list = list;
+			this.value = value;
+			this.watch = new Watch(this::record);
+		}
+		
+		private void record() {
+			if (list.isEmpty()) {
+				remove("main", name);
+			} else {
+				put("main", value, name);
+			}
+		}
+		
+	}
+	
+	/**
+	 * Watches objects added to the list.
+	 */
+	private class ListWatch<T> implements ListChangeListener<T> {
+		
+		private final Watcher<? super T> watcher;
+		
+		/**
+		 * @param watcher
+		 *            watches the objects of the list, may be null
+		 */
+		private ListWatch(Watcher<? super T> watcher) {
+			this.watcher = watcher != null ? watcher : (object, add) -> {};
+		}
+		
+		@Override
+		public void onChanged(Change<? extends T> change) {
+			boolean order = false;
+			ArrayList<T> removed = new ArrayList<>();
+			ArrayList<T> added = new ArrayList<>();
+			while (change.next()) {
+				if (change.wasPermutated()) {
+					for (int i = change.getFrom(); i < change.getTo(); i++) {
+						order |= change.getPermutation(i) != i;
+					}
+					continue;
+				}
+				removed.addAll(change.getRemoved());
+				added.addAll(change.getAddedSubList());
+				order |= change.wasAdded() && change.getTo() < change.getList().size();
+			}
+			if (!removed.isEmpty()) {
+				// objects can be in the list twice for a moment, for example when swapped
+				Set<T> remaining = Collections.newSetFromMap(new IdentityHashMap<>());
+				remaining.addAll(change.getList());
+				for (T object : removed) {
+					if (!remaining.contains(object)) {
+						watcher.watch(object, false);
+					}
+				}
+			}
+			for (T object : added) {
+				watcher.watch(object, true);
+			}
+			// all objects are watched before anything is recorded
+			for (T object : removed) {
+				removed(object, change.getList());
+			}
+			for (T object : added) {
+				added(object);
+			}
+			if (order) {
+				ordered(change.getList());
+			}
+		}
+		
+		void removed(T object, List<? extends T> list) {}
+		
+		void added(T object) {}
+		
+		void ordered(List<? extends T> list) {}
+		
+	}
+	
+	/**
+	 * Records objects of the list under their IDs.
+	 */
+	private class KeyedList<T extends ID> extends ListWatch<T> {
+		
+		private final Supplier<String> file;
+		private final String[] parent;
+		private final Consumer<? super T> recorder;
+		
+		private KeyedList(Supplier<String> file, String[] parent, Consumer<? super T> recorder) {
+			super(null);
+			this.file = file;
+			this.parent = parent;
+			this.recorder = recorder;
+		}
+		
+		@Override
+		void removed(T object, List<? extends T> list) {
+			String id = object.getIdValue();
+			String[] path = Arrays.copyOf(parent, parent.length + 1);
+			path[parent.length] = id;
+			remove(file.get(), path);
+			// another object with the same ID is written in its place
+			for (T other : list) {
+				if (other.getIdValue().equals(id)) {
+					added(other);
+				}
+			}
+		}
+		
+		@Override
+		void added(T object) {
+			recorder.accept(object);
+		}
+		
+		@Override
+		void ordered(List<? extends T> list) {
+			order(file.get(), parent, list);
+		}
+		
+	}
+	
+	/**
+	 * Records the whole section when the list changes.
+	 */
+	private class SectionList<T> extends ListWatch<T> {
+		
+		private final Section section;
+		
+		private SectionList(Section section, Watcher<? super T> watcher) {
+			super(watcher);
+			this.section = section;
+		}
+		
+		@Override
+		public void onChanged(Change<? extends T> change) {
+			super.onChanged(change);
+			change.reset();
+			if (moved(change)) {
+				section.record();
+			}
+		}
+		
+	}
+	
+	private interface Watcher<T> {
+		public void watch(T object, boolean add);
+	}
+
+}
@@ -0,0 +1,131 @@
+/**
+ * BetonQuest Editor - advanced quest creating tool for BetonQuest
+ * Copyright (C) 2016  Jakub "Co0sh" Sapalski
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pl.betoncraft.betonquest.editor.persistence;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+/**
+ * Remembers from which files a package was loaded, so it can later be
+ * reloaded by parsing only the files which changed since then. Only stamps of
+ * the files and keys they defined are kept, not their contents.
+ *
+ * @author Jakub Sapalski
+ */
+public class LoadRecord {
+	
+	private final String location;
+	private final HashMap<String, String> stamps = new HashMap<>();
+	private final HashMap<String, Set<String>> keys = new HashMap<>();
+	
+	/**
+	 * @param source
+	 *            files of the loaded package
+	 * @param files
+	 *            parsed files mapped by their logical names
+	 * @throws IOException
+	 *             when the state of files could not be read
+	 */
+	public LoadRecord(PackageSource source, Map<String, ParsedFile> files) throws IOException {
+		this.location = source.getLocation();
+		for (Entry<String, PackageSource.Resource> entry : source.getFiles().entrySet()) {
+			stamps.put(entry.getKey(), entry.getValue().getStamp());
+		}
+		for (Entry<String, ParsedFile> entry : files.entrySet()) {
+			keys.put(entry.getKey(), PackageLoader.definedKeys(entry.getKey(), entry.getValue()));
+		}
+	}
+	
+	/**
+	 * @return location of the package, as in {@link PackageSource#getLocation()}
+	 */
+	public String getLocation() {
+		return location;
+	}
+	
+	/**
+	 * @return stamps of files from which the package was loaded, mapped by
+	 *         their logical names
+	 */
+	public Map<String, String> getStamps() {
+		return stamps;
+	}
+	
+	/**
+	 * @return keys of objects defined in files from which the package was
+	 *         loaded, mapped by logical names of the files
+	 */
+	public Map<String, Set<String>> getKeys() {
+		return keys;
+	}
+	
+	/**
+	 * Compares current files of the package with the recorded ones.
+	 * 
+	 * @param source
+	 *            current files of the package
+	 * @return logical names of files which were changed, added or removed
+	 * @throws IOException
+	 *             when the state of files could not be read
+	 */
+	public Set<String> findChanges(PackageSource source) throws IOException {
+		HashSet<String> changed = new HashSet<>();
+		for (Entry<String, PackageSource.Resource> entry : source.getFiles().entrySet()) {
+			if (!entry.getValue().getStamp().equals(stamps.get(entry.getKey()))) {
+				changed.add(entry.getKey());
+			}
+		}
+		for (String name : stamps.keySet()) {
+			if (!source.getFiles().containsKey(name)) {
+				changed.add(name);
+			}
+		}
+		return changed;
+	}
+	
+	/**
+	 * Records the new state of changed files after they were reloaded.
+	 * 
+	 * @param source
+	 *            current files of the package
+	 * @param parsed
+	 *            newly parsed files mapped by their logical names
+	 * @param changed
+	 *            logical names of changed files
+	 * @throws IOException
+	 *             when the state of files could not be read
+	 */
+	public void update(PackageSource source, Map<String, ParsedFile> parsed, Set<String> changed) throws IOException {
+		for (String name : changed) {
+			PackageSource.Resource resource = source.getFiles().get(name);
+			if (resource == null || parsed.get(name) == null) {
+				stamps.remove(name);
+				keys.remove(name);
+			} else {
+				stamps.put(name, resource.getStamp());
+				keys.put(name, PackageLoader.definedKeys(name, parsed.get(name)));
+			}
+		}
+	}
+
+}
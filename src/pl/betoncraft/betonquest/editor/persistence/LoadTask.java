@@ -0,0 +1,137 @@
+/**
+ * BetonQuest Editor - advanced quest creating tool for BetonQuest
+ * Copyright (C) 2016  Jakub "Co0sh" Sapalski
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pl.betoncraft.betonquest.editor.persistence;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.zip.ZipFile;
+
+import javafx.concurrent.Task;
+import pl.betoncraft.betonquest.editor.BetonQuestEditor;
+import pl.betoncraft.betonquest.editor.model.QuestPackage;
+import pl.betoncraft.betonquest.editor.model.exception.PackageNotFoundException;
+
+/**
+ * Loads packages from a .zip file or a directory on a background thread. A zip
+ * file with a single package is loaded as before; a zip file with many
+ * packages or a directory (like the BetonQuest plugin folder) is loaded as a
+ * workspace; if it contains more packages with the same name, only the first
+ * one is loaded. Search indexes of loaded packages are built in parallel. Then
+ * the packages are added to loaded packages in the editor by
+ * {@link #publish()}, so searching never sees a partly built index.
+ * Progress is reported after each file and cancelling the task stops loading.
+ *
+ * @author Jakub Sapalski
+ */
+public class LoadTask extends Task<List<QuestPackage>> {
+	
+	private final File file;
+	private final ArrayList<String> duplicates = new ArrayList<>();
+	private WorkspaceLoader loader;
+	
+	public LoadTask(File file) {
+		this.file = file;
+		updateMessage(file.getName());
+	}
+
+	@Override
+	protected List<QuestPackage> call() throws Exception {
+		if (file.isDirectory()) {
+			return load(PackageSource.discover(file.toPath()));
+		}
+		try (ZipFile zip = new ZipFile(file)) {
+			List<PackageSource> sources = PackageSource.discover(zip);
+			// a package in the root of the zip file has no top-level directory, only discover() finds it
+			boolean root = sources.size() == 1 && sources.get(0).getLocation().endsWith("!");
+			if (sources.size() <= 1 && !root) {
+				sources = Collections.singletonList(PackageSource.fromZip(zip));
+			}
+			return load(sources);
+		}
+	}
+	
+	private List<QuestPackage> load(List<PackageSource> sources) throws IOException, PackageNotFoundException {
+		if (sources.isEmpty()) {
+			throw new PackageNotFoundException("There are no packages in " + file.getName());
+		}
+		// packages are identified by names, so only the first of packages with the same name is loaded
+		HashSet<String> names = new HashSet<>();
+		ArrayList<PackageSource> unique = new ArrayList<>(sources.size());
+		for (PackageSource source : sources) {
+			if (names.add(source.getName())) {
+				unique.add(source);
+			} else {
+				duplicates.add(source.getLocation());
+			}
+		}
+		BetonQuestEditor instance = BetonQuestEditor.getInstance();
+		loader = new WorkspaceLoader(unique, instance.getPackages(), instance.getPendingReferences(),
+				(done, total, name) -> {
+					updateProgress(done, total);
+					updateMessage(name);
+				});
+		loader.setLazyConversations(true);
+		loader.setStringPool(instance.getStringPool());
+		List<QuestPackage> packages = loader.load();
+		// the packages are not published yet, so nothing can search them while their indexes are built
+		packages.parallelStream().forEach(pack -> pack.getSearch().build());
+		return packages;
+	}
+	
+	/**
+	 * Adds loaded packages to the editor. It must be called on the JavaFX
+	 * thread after the task has succeeded.
+	 */
+	public void publish() {
+		loader.publish();
+		List<QuestPackage> packages = getValue();
+		for (int i = 0; i < packages.size(); i++) {
+			BetonQuestEditor.getInstance().getLoadRecords().put(packages.get(i), loader.getRecords().get(i));
+		}
+	}
+	
+	/**
+	 * @return locations of packages which were not loaded because another
+	 *         package with the same name was found first
+	 */
+	public List<String> getDuplicates() {
+		return duplicates;
+	}
+	
+	/**
+	 * @return values which could not be loaded
+	 * @see PackageLoader#getErrors()
+	 */
+	public List<String> getErrors() {
+		return loader.getErrors();
+	}
+	
+	/**
+	 * Starts the task on a new daemon thread.
+	 */
+	public void start() {
+		Thread thread = new Thread(this, "Package loader");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+}
@@ -0,0 +1,953 @@
+/**
+ * BetonQuest Editor - advanced quest creating tool for BetonQuest
+ * Copyright (C) 2016  Jakub "Co0sh" Sapalski
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pl.betoncraft.betonquest.editor.persistence;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import pl.betoncraft.betonquest.editor.BetonQuestEditor;
+import pl.betoncraft.betonquest.editor.data.ConditionWrapper;
+import pl.betoncraft.betonquest.editor.data.ID;
+import pl.betoncraft.betonquest.editor.data.IdIndex;
+import pl.betoncraft.betonquest.editor.data.IdWrapper;
+import pl.betoncraft.betonquest.editor.data.Instruction;
+import pl.betoncraft.betonquest.editor.data.QualifiedId;
+import pl.betoncraft.betonquest.editor.data.StringPool;
+import pl.betoncraft.betonquest.editor.data.TranslatableText;
+import pl.betoncraft.betonquest.editor.model.Condition;
+import pl.betoncraft.betonquest.editor.model.Conversation;
+import pl.betoncraft.betonquest.editor.model.ConversationOption;
+import pl.betoncraft.betonquest.editor.model.Event;
+import pl.betoncraft.betonquest.editor.model.GlobalLocation;
+import pl.betoncraft.betonquest.editor.model.GlobalVariable;
+import pl.betoncraft.betonquest.editor.model.Item;
+import pl.betoncraft.betonquest.editor.model.JournalEntry;
+import pl.betoncraft.betonquest.editor.model.MainPageLine;
+import pl.betoncraft.betonquest.editor.model.NpcBinding;
+import pl.betoncraft.betonquest.editor.model.NpcOption;
+import pl.betoncraft.betonquest.editor.model.Objective;
+import pl.betoncraft.betonquest.editor.model.PlayerOption;
+import pl.betoncraft.betonquest.editor.model.PointCategory;
+import pl.betoncraft.betonquest.editor.model.QuestCanceler;
+import pl.betoncraft.betonquest.editor.model.QuestPackage;
+import pl.betoncraft.betonquest.editor.model.QuestPackage.Generator;
+import pl.betoncraft.betonquest.editor.model.StaticEvent;
+import pl.betoncraft.betonquest.editor.model.Tag;
+import pl.betoncraft.betonquest.editor.model.exception.ConversationChangedException;
+
+/**
+ * Loads a package from its source. All files are parsed in parallel first,
+ * then the values are linked into model objects on a single thread, always in
+ * the same order.
+ *
+ * @author Jakub Sapalski
+ */
+public class PackageLoader {
+	
+	private final PackageSource source;
+	private final Progress progress;
+	private final SnapshotCache cache;
+	private StringPool pool;
+	private final HashMap<String, Future<ParsedFile>> parsedFiles = new HashMap<>();
+	private final HashMap<String, ParsedFile> linkedFiles = new HashMap<>();
+	private final HashSet<String> patchedFiles = new HashSet<>();
+	private final HashMap<String, Integer> languages = new HashMap<>();
+	private final ArrayList<String> errors = new ArrayList<>();
+	private final AtomicLong parseTime = new AtomicLong();
+	private long linkTime = 0;
+	private boolean fromSnapshot = false;
+	private boolean patched = false;
+	private boolean lazyConversations = false;
+	private String defLang;
+	private QuestPackage pack;
+	
+	private int journalIndex = 0;
+	private int convIndex = 0;
+	private int loadedFiles = 0;
+	private int fileCount = -1;
+	
+	public PackageLoader(PackageSource source) {
+		this(source, (done, total, name) -> {});
+	}
+	
+	public PackageLoader(PackageSource source, Progress progress) {
+		this(source, progress, SnapshotCache.getDefault());
+	}
+	
+	/**
+	 * @param source
+	 *            files of the package
+	 * @param progress
+	 *            receives progress after each file
+	 * @param cache
+	 *            snapshots of parsed files, can be null to always parse YAML
+	 */
+	public PackageLoader(PackageSource source, Progress progress, SnapshotCache cache) {
+		this.source = source;
+		this.progress = progress;
+		this.cache = cache;
+	}
+	
+	/**
+	 * Creates a loader which only fills contents of lazily loaded
+	 * conversations of the package.
+	 */
+	private PackageLoader(QuestPackage pack) {
+		this(null, null, null);
+		this.pack = pack;
+	}
+	
+	/**
+	 * Makes the loader create only options of each conversation and objects
+	 * referenced by them. The rest of the conversation, like texts and lists
+	 * of events, is read again from its file when the conversation is used
+	 * for the first time, so parsed values are not kept in the meantime.
+	 * Conversations changed by a patch are always loaded at once. It's
+	 * disabled by default.
+	 * 
+	 * @param lazy
+	 *            whether conversations should be loaded lazily
+	 */
+	public void setLazyConversations(boolean lazy) {
+		this.lazyConversations = lazy;
+	}
+	
+	/**
+	 * Makes the loader replace names and values in parsed files with their
+	 * copies from the pool, so Strings repeated in many files and packages
+	 * are kept in memory only once. By default strings are not pooled.
+	 * 
+	 * @param pool
+	 *            pool of the workspace, can be null
+	 */
+	public void setStringPool(StringPool pool) {
+		this.pool = pool;
+	}
+	
+	/**
+	 * Loads the package. It can be called on any thread; interrupting that
+	 * thread cancels loading. The package is not added to the list of loaded
+	 * packages.
+	 * 
+	 * @return the loaded package
+	 * @throws IOException
+	 *             when a file could not be read or loading was interrupted
+	 */
+	public QuestPackage load() throws IOException {
+		parse();
+		QuestPackage pack = new QuestPackage(source.getName());
+		link(pack);
+		return pack;
+	}
+	
+	/**
+	 * Starts parsing all files of the package on the common fork-join pool.
+	 * Files don't depend on each other until they're linked, so they are all
+	 * parsed at once. If the package did not change since its snapshot was
+	 * saved, the files are read from the snapshot instead.
+	 */
+	public void parse() {
+		if (cache != null) {
+			long start = System.nanoTime();
+			Map<String, ParsedFile> snapshot = cache.read(source);
+			parseTime.addAndGet(System.nanoTime() - start);
+			if (snapshot != null) {
+				fromSnapshot = true;
+				for (Entry<String, ParsedFile> entry : snapshot.entrySet()) {
+					if (pool != null) {
+						entry.getValue().intern(pool);
+					}
+					parsedFiles.put(entry.getKey(), CompletableFuture.completedFuture(entry.getValue()));
+				}
+				return;
+			}
+		}
+		parse(source.getFiles().keySet());
+	}
+	
+	/**
+	 * Starts parsing only the specified files of the package.
+	 * 
+	 * @param names
+	 *            logical names of files to parse
+	 */
+	public void parse(Collection<String> names) {
+		for (String name : names) {
+			PackageSource.Resource resource = source.getFiles().get(name);
+			parsedFiles.put(name, ForkJoinPool.commonPool().submit(() -> {
+				long start = System.nanoTime();
+				ParsedFile parsed = ParsedFile.parse(resource.open());
+				if (pool != null) {
+					parsed.intern(pool);
+				}
+				parseTime.addAndGet(System.nanoTime() - start);
+				return parsed;
+			}));
+		}
+	}
+	
+	/**
+	 * Applies changes to parsed files, for example ones recovered from the
+	 * {@link EditJournal}. It must be called after parsing is started and
+	 * before the package is linked. The package will be marked as changed
+	 * and its parsed files won't be stored in the snapshot cache.
+	 * 
+	 * @param patch
+	 *            changes of the package
+	 * @throws IOException
+	 *             when a file could not be read or waiting was interrupted
+	 */
+	public void patch(PackagePatch patch) throws IOException {
+		Map<String, ParsedFile> original = getParsedFiles();
+		Map<String, ParsedFile> files = patch.apply(original);
+		parsedFiles.clear();
+		for (Entry<String, ParsedFile> entry : files.entrySet()) {
+			parsedFiles.put(entry.getKey(), CompletableFuture.completedFuture(entry.getValue()));
+			if (original.get(entry.getKey()) != entry.getValue()) {
+				patchedFiles.add(entry.getKey());
+			}
+		}
+		HashSet<String> names = new HashSet<>(source.getFiles().keySet());
+		names.addAll(files.keySet());
+		fileCount = names.size();
+		patched = true;
+	}
+	
+	/**
+	 * Waits until all started files are parsed.
+	 * 
+	 * @return parsed files mapped by their logical names
+	 * @throws IOException
+	 *             when a file could not be read or waiting was interrupted
+	 */
+	public Map<String, ParsedFile> getParsedFiles() throws IOException {
+		HashMap<String, ParsedFile> files = new HashMap<>();
+		for (String name : parsedFiles.keySet()) {
+			files.put(name, get(name));
+		}
+		return files;
+	}
+	
+	/**
+	 * Fills the package with objects from parsed files, waiting for the
+	 * parsing to finish if needed.
+	 * 
+	 * @param pack
+	 *            empty package to fill
+	 * @throws IOException
+	 *             when a file could not be read or loading was interrupted
+	 */
+	public void link(QuestPackage pack) throws IOException {
+		long start = System.nanoTime();
+		this.pack = pack;
+		try {
+			// the order is important, it decides the indexes of created objects
+			read("journal", this::loadJournal);
+			read("items", new InstructionLoader<>(Item.class, name -> new Item(pack, name)));
+			read("conditions", new InstructionLoader<>(Condition.class, name -> new Condition(pack, name)));
+			read("events", new InstructionLoader<>(Event.class, name -> new Event(pack, name)));
+			read("objectives", new InstructionLoader<>(Objective.class, name -> new Objective(pack, name)));
+			ArrayList<String> names = new ArrayList<>(source.getFiles().keySet());
+			if (patched) {
+				// conversations can be added or removed by the patch
+				names.retainAll(parsedFiles.keySet());
+				for (String name : parsedFiles.keySet()) {
+					if (!source.getFiles().containsKey(name)) {
+						names.add(name);
+					}
+				}
+			}
+			for (String name : names) {
+				if (name.startsWith("conversations.")) {
+					Conversation conv = linkConversation(name.substring(14));
+					if (lazyConversations && !patchedFiles.contains(name)) {
+						// only options and references now, the rest when the conversation is used
+						read(name, new ConversationLoader(conv, true));
+						setLazyLoader(conv, source.getFiles().get(name).detach());
+					} else {
+						read(name, new ConversationLoader(conv, false));
+					}
+				}
+			}
+			read("main", this::loadMain);
+		} finally {
+			cancel();
+		}
+		// check which language is used most widely and set it as default
+		if (defLang == null) {
+			int max = 0;
+			for (Entry<String, Integer> entry : languages.entrySet()) {
+				if (entry.getValue() > max) {
+					max = entry.getValue();
+					defLang = entry.getKey();
+				}
+			}
+		}
+		pack.setDefLang(defLang);
+		pack.setSaveBase(source.getZipBase());
+		pack.getChanges().reset();
+		if (patched) {
+			pack.getChanges().markAll();
+		}
+		linkTime = System.nanoTime() - start;
+		if (cache != null && !fromSnapshot && !patched) {
+			ForkJoinPool.commonPool().execute(() -> cache.write(source, linkedFiles));
+		}
+	}
+	
+	/**
+	 * Patches an already loaded package with changed files, keeping all
+	 * objects which are still defined, so views and references to them stay
+	 * valid. Objects defined only in the previous version of a changed file
+	 * are removed, unless something still references them; then they are
+	 * left undefined, like after loading the package again. Objects defined
+	 * in main.yml are replaced. It must be called on the thread which owns
+	 * the package, after the changed files were parsed.
+	 * 
+	 * @param pack
+	 *            the package to patch
+	 * @param previous
+	 *            keys defined in files from which the package was loaded,
+	 *            as in {@link #definedKeys(String, ParsedFile)}, mapped by
+	 *            logical names of these files
+	 * @param changed
+	 *            logical names of files which were changed, added or removed
+	 * @throws IOException
+	 *             when a file could not be read
+	 */
+	public void relink(QuestPackage pack, Map<String, Set<String>> previous, Set<String> changed) throws IOException {
+		long start = System.nanoTime();
+		this.pack = pack;
+		ArrayList<ID> undefined = new ArrayList<>();
+		try {
+			if (changed.contains("journal")) {
+				for (JournalEntry entry : reset(pack.getIndex(JournalEntry.class), previous.get("journal"), undefined)) {
+					entry.getText().clear();
+				}
+				read("journal", this::loadJournal);
+			}
+			relinkInstructions(previous, changed, "items", new InstructionLoader<>(Item.class, name -> new Item(pack, name)), undefined);
+			relinkInstructions(previous, changed, "conditions", new InstructionLoader<>(Condition.class, name -> new Condition(pack, name)), undefined);
+			relinkInstructions(previous, changed, "events", new InstructionLoader<>(Event.class, name -> new Event(pack, name)), undefined);
+			relinkInstructions(previous, changed, "objectives", new InstructionLoader<>(Objective.class, name -> new Objective(pack, name)), undefined);
+			for (Conversation conv : pack.getConversations()) {
+				convIndex = Math.max(convIndex, conv.getIndex() + 1);
+			}
+			for (String name : changed) {
+				if (name.startsWith("conversations.")) {
+					relinkConversation(previous.get(name), name, undefined);
+				}
+			}
+			if (changed.contains("main")) {
+				pack.getVariables().clear();
+				pack.getLocations().clear();
+				pack.getStaticEvents().clear();
+				pack.getNpcBindings().clear();
+				pack.getCancelers().clear();
+				pack.getMainPage().clear();
+				read("main", this::loadMain);
+				if (defLang != null) {
+					pack.setDefLang(defLang);
+				}
+			}
+		} finally {
+			cancel();
+		}
+		// lists of options, instructions and texts were filled without notifying anyone
+		pack.getReferences().invalidate();
+		pack.getInstructions().invalidate();
+		pack.getSearch().invalidate();
+		// remove objects which are neither defined nor referenced anymore
+		Set<ID> referenced = Collections.newSetFromMap(new IdentityHashMap<>());
+		for (QuestPackage loaded : BetonQuestEditor.getInstance().getPackages().values()) {
+			loaded.collectReferences(referenced);
+		}
+		pack.collectReferences(referenced);
+		for (ID object : undefined) {
+			if (object.getIndex() < 0 && !referenced.contains(object)) {
+				object.getList().remove(object);
+			}
+		}
+		linkTime = System.nanoTime() - start;
+	}
+	
+	private <T extends ID & Instruction> void relinkInstructions(Map<String, Set<String>> previous, Set<String> changed,
+			String name, InstructionLoader<T> loader, List<ID> undefined) throws IOException {
+		if (!changed.contains(name)) {
+			return;
+		}
+		for (T object : reset(pack.getIndex(loader.type), previous.get(name), undefined)) {
+			object.setInstructionValue(null);
+		}
+		read(name, loader);
+	}
+	
+	private void relinkConversation(Set<String> previous, String name, List<ID> undefined) throws IOException {
+		Conversation conv = pack.getIndex(Conversation.class).get(name.substring(14));
+		// contents which were never loaded can't be loaded from the changed file
+		boolean lazy = conv == null ? lazyConversations : !conv.isLoaded();
+		if (conv != null && previous != null) {
+			if (lazy) {
+				conv.clearIndexes();
+			} else {
+				conv.getNPC().clear();
+				conv.getStop().set(false);
+				conv.getStartingOptions().clear();
+				conv.getFinalEvents().clear();
+			}
+			resetOptions(conv.getNpcOptions(), "NPC_options.", previous, !lazy, undefined);
+			resetOptions(conv.getPlayerOptions(), "player_options.", previous, !lazy, undefined);
+		}
+		if (!source.getFiles().containsKey(name)) {
+			if (conv != null) {
+				if (lazy) {
+					conv.setLazyLoader(() -> {}, texts -> {});
+				}
+				conv.setIndex(-1);
+				undefined.add(conv);
+			}
+			return;
+		}
+		conv = linkConversation(name.substring(14));
+		if (lazy) {
+			read(name, new ConversationLoader(conv, true));
+			setLazyLoader(conv, source.getFiles().get(name).detach());
+		} else {
+			read(name, new ConversationLoader(conv, false));
+		}
+	}
+	
+	private void resetOptions(List<? extends ConversationOption> options, String prefix, Set<String> previous,
+			boolean contents, List<ID> undefined) {
+		for (ConversationOption option : options) {
+			if (previous.contains(prefix + option.getIdValue())) {
+				if (contents) {
+					option.getText().clear();
+					option.getEventList().clear();
+					option.getConditionList().clear();
+					option.getPointerList().clear();
+				}
+				option.setIndex(-1);
+				undefined.add(option);
+			}
+		}
+	}
+	
+	/**
+	 * Lists keys of objects defined in the parsed file, which is all
+	 * {@link #relink(QuestPackage, Map, Set)} needs to know about the previous
+	 * version of a changed file. Conversation options are prefixed with the
+	 * name of their list, main.yml defines nothing as it's replaced as a
+	 * whole.
+	 * 
+	 * @param name
+	 *            logical name of the file
+	 * @param file
+	 *            the parsed file
+	 * @return keys of objects defined in the file
+	 */
+	static Set<String> definedKeys(String name, ParsedFile file) {
+		HashSet<String> keys = new HashSet<>();
+		if (name.equals("main")) {
+			return keys;
+		}
+		file.replay((path, depth, value) -> {
+			if (name.equals("journal")) {
+				keys.add(path[0]);
+			} else if (!name.startsWith("conversations.")) {
+				keys.add(YamlReader.join(path, 0, depth));
+			} else if (depth > 1 && (path[0].equals("NPC_options") || path[0].equals("player_options"))) {
+				keys.add(path[0] + '.' + path[1]);
+			}
+		});
+		return keys;
+	}
+	
+	/**
+	 * Resets indexes of objects defined in the previous version of the file,
+	 * so they are indexed again when the new version is read. Objects which
+	 * are not defined again will keep -1 as their index.
+	 * 
+	 * @param previous
+	 *            keys defined in the previous version, or null if there was
+	 *            no previous version
+	 * @return objects defined in the previous version
+	 */
+	private <T extends ID> List<T> reset(IdIndex<T> index, Set<String> previous, List<ID> undefined) {
+		if (previous == null) {
+			return new ArrayList<>();
+		}
+		ArrayList<T> objects = new ArrayList<>(previous.size());
+		for (String key : previous) {
+			T object = index.get(key);
+			if (object != null) {
+				object.setIndex(-1);
+				objects.add(object);
+			}
+		}
+		undefined.addAll(objects);
+		return objects;
+	}
+	
+	/**
+	 * Cancels parsing of files which were not linked yet.
+	 */
+	public void cancel() {
+		for (Future<ParsedFile> task : parsedFiles.values()) {
+			task.cancel(false);
+		}
+	}
+	
+	/**
+	 * @return the number of files in the package, including ones added by
+	 *         the patch
+	 */
+	public int getFileCount() {
+		return fileCount < 0 ? source.getFiles().size() : fileCount;
+	}
+	
+	/**
+	 * @return values which could not be loaded, one line per value with its
+	 *         package and path
+	 */
+	public List<String> getErrors() {
+		return errors;
+	}
+	
+	/**
+	 * @return true if the files were read from the snapshot instead of being
+	 *         parsed
+	 */
+	public boolean isFromSnapshot() {
+		return fromSnapshot;
+	}
+	
+	/**
+	 * @return total time spent parsing the files of this package on all
+	 *         threads, in nanoseconds
+	 */
+	public long getParseTime() {
+		return parseTime.get();
+	}
+	
+	/**
+	 * @return time spent linking parsed files into the package, in
+	 *         nanoseconds
+	 */
+	public long getLinkTime() {
+		return linkTime;
+	}
+	
+	/**
+	 * Waits for the file to be parsed and passes its values to the handler.
+	 */
+	private ParsedFile read(String name, YamlReader.Handler handler) throws IOException {
+		if (Thread.interrupted()) {
+			throw new InterruptedIOException("Loading was cancelled");
+		}
+		ParsedFile parsed = get(name);
+		linkedFiles.put(name, parsed);
+		parsed.replay(handler);
+		// files added by a patch have no resource in the source
+		PackageSource.Resource resource = source.getFiles().get(name);
+		progress.update(++loadedFiles, getFileCount(), resource == null ? name : resource.getName());
+		return parsed;
+	}
+	
+	/**
+	 * Remembers a value which could not be loaded, so it can be shown to the
+	 * user after loading.
+	 */
+	private void error(String[] path, int depth, String value) {
+		errors.add(pack.getName().get() + ": " + YamlReader.join(path, 0, depth) + ": " + value);
+	}
+	
+	private ParsedFile get(String name) throws IOException {
+		try {
+			return parsedFiles.get(name).get();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+	
+	/**
+	 * Receives information about loading progress.
+	 */
+	public interface Progress {
+		
+		/**
+		 * Called after each file is loaded, on the loading thread.
+		 * 
+		 * @param done
+		 *            number of files loaded so far
+		 * @param total
+		 *            number of files in the package
+		 * @param name
+		 *            name of the file which was just loaded
+		 */
+		public void update(int done, int total, String name);
+		
+	}
+	
+	/**
+	 * Handles journal.yml file.
+	 */
+	private void loadJournal(String[] path, int depth, String value) {
+		JournalEntry journalEntry = pack.newByID(path[0], JournalEntry.class, name -> new JournalEntry(pack, name));
+		if (journalEntry.getIndex() < 0) journalEntry.setIndex(journalIndex++);
+		translate(journalEntry.getText(), path, depth, 1, value);
+	}
+	
+	/**
+	 * Handles items.yml, conditions.yml, events.yml and objectives.yml files.
+	 */
+	private class InstructionLoader<T extends ID & Instruction> implements YamlReader.Handler {
+		
+		private final Class<T> type;
+		private final Generator<T> generator;
+		private int index = 0;
+		
+		private InstructionLoader(Class<T> type, Generator<T> generator) {
+			this.type = type;
+			this.generator = generator;
+		}
+
+		@Override
+		public void handle(String[] path, int depth, String value) {
+			T object = pack.newByID(YamlReader.join(path, 0, depth), type, generator);
+			object.setInstructionValue(value);
+			if (object.getIndex() < 0) object.setIndex(index++);
+		}
+		
+	}
+	
+	/**
+	 * Handles main.yml file.
+	 */
+	private void loadMain(String[] path, int depth, String value) {
+		String key = path[0];
+		// handling variables
+		if (key.equals("variables") && depth > 1) {
+			pack.getVariables().add(new GlobalVariable(pack, YamlReader.join(path, 1, depth), value));
+		}
+		// handling global locations
+		else if (key.equals("global_locations")) {
+			for (String globLoc : value.split(",")) {
+				pack.getLocations().add(new GlobalLocation(pack.newByID(globLoc, Objective.class, name -> new Objective(pack, name))));
+			}
+		}
+		// handling static events, saved as "static" like BetonQuest reads them
+		else if ((key.equals("static") || key.equals("static_events")) && depth > 1) {
+			StaticEvent staticEvent = new StaticEvent(pack, YamlReader.join(path, 1, depth));
+			staticEvent.getEvent().set(pack.newByID(value, Event.class, name -> new Event(pack, name)));
+			pack.getStaticEvents().add(staticEvent);
+		}
+		// handling NPC-conversation bindings
+		else if (key.equals("npcs") && depth > 1) {
+			pack.getNpcBindings().add(new NpcBinding(pack, YamlReader.join(path, 1, depth),
+					pack.newByID(value, Conversation.class, name -> new Conversation(pack, name))));
+		}
+		// handling quest cancelers
+		else if (key.equals("cancel") && depth > 1) {
+			// getting the right canceler or creating new one
+			QuestCanceler canceler = pack.newByID(path[1], QuestCanceler.class, name -> new QuestCanceler(pack, name));
+			// handling canceler properties
+			if (depth > 2) {
+				switch (path[2]) {
+				case "name":
+					translate(canceler.getName(), path, depth, 3, value);
+					break;
+				case "events":
+					canceler.getEvents().addAll(wrap(value, name -> pack.newByID(name, Event.class, id -> new Event(pack, id))));
+					break;
+				case "conditions":
+					canceler.getConditions().addAll(wrapConditions(value));
+					break;
+				case "objectives":
+					canceler.getObjectives().addAll(wrap(value, name -> pack.newByID(name, Objective.class, id -> new Objective(pack, id))));
+					break;
+				case "tags":
+					canceler.getTags().addAll(wrap(value, name -> pack.newByID(name, Tag.class, id -> new Tag(pack, id))));
+					break;
+				case "points":
+					canceler.getPoints().addAll(wrap(value, name -> pack.newByID(name, PointCategory.class, id -> new PointCategory(pack, id))));
+					break;
+				case "journal":
+					canceler.getJournal().addAll(wrap(value, name -> pack.newByID(name, JournalEntry.class, id -> new JournalEntry(pack, id))));
+					break;
+				case "loc":
+					canceler.setLocation(value);
+					break;
+				}
+			}
+		}
+		// handling journal main page
+		else if (key.equals("journal_main_page") && depth > 1) {
+			MainPageLine line = pack.newByID(path[1], MainPageLine.class, name -> new MainPageLine(pack, name));
+			if (depth > 2) {
+				switch (path[2]) {
+				case "text":
+					translate(line.getText(), path, depth, 3, value);
+					break;
+				case "priority":
+					try {
+						line.getPriority().set(Integer.parseInt(value));
+					} catch (NumberFormatException e) {
+						error(path, depth, value);
+					}
+					break;
+				case "conditions":
+					line.getConditions().addAll(wrapConditions(value));
+					break;
+				}
+			}
+		}
+		// handling default language
+		else if (key.equalsIgnoreCase("default_language") && depth == 1) {
+			defLang = value;
+		}
+	}
+	
+	/**
+	 * Handles a single file from conversations directory.
+	 */
+	private class ConversationLoader implements YamlReader.Handler {
+		
+		private final Conversation conv;
+		private final boolean scan;
+		private int playerIndex = 0;
+		private int npcIndex = 0;
+		
+		/**
+		 * @param scan
+		 *            if true, only options and referenced objects are created,
+		 *            without the contents of the conversation
+		 */
+		private ConversationLoader(Conversation conv, boolean scan) {
+			this.conv = conv;
+			this.scan = scan;
+		}
+
+		@Override
+		public void handle(String[] path, int depth, String value) {
+			String key = path[0];
+			// reading NPC name, optionally in multiple languages
+			if (key.equals("quester")) {
+				if (depth > 1) {
+					String lang = YamlReader.join(path, 1, depth);
+					countLanguage(lang);
+					if (!scan) conv.getNPC().addLang(lang, value);
+				} else if (!scan) {
+					conv.getNPC().setDef(value);
+				}
+			}
+			// reading the stop option
+			else if (key.equals("stop") && depth == 1) {
+				if (!scan) conv.getStop().set(value.equalsIgnoreCase("true"));
+			}
+			// reading starting options
+			else if (key.equals("first") && depth == 1) {
+				ArrayList<IdWrapper<NpcOption>> options = wrap(value, conv::newNpcOption);
+				if (!scan) conv.getStartingOptions().addAll(options);
+			}
+			// reading final events
+			else if (key.equals("final") && depth == 1) {
+				ArrayList<IdWrapper<Event>> events = wrap(value, name -> pack.newByID(name, Event.class, id -> new Event(pack, id)));
+				if (!scan) conv.getFinalEvents().addAll(events);
+			}
+			// reading NPC options
+			else if (key.equals("NPC_options") && depth > 1) {
+				NpcOption option = conv.newNpcOption(path[1]);
+				if (option.getIndex() < 0) option.setIndex(npcIndex++);
+				loadOption(option, path, depth, value, conv::newPlayerOption);
+			}
+			// reading player options
+			else if (key.equals("player_options") && depth > 1) {
+				PlayerOption option = conv.newPlayerOption(path[1]);
+				if (option.getIndex() < 0) option.setIndex(playerIndex++);
+				loadOption(option, path, depth, value, conv::newNpcOption);
+			}
+		}
+		
+		private void loadOption(ConversationOption option, String[] path, int depth, String value,
+				Function<String, ConversationOption> pointerResolver) {
+			if (depth < 3) {
+				return;
+			}
+			// getting specific values
+			switch (path[2]) {
+			case "text":
+				if (scan) {
+					// texts are read again from the file when they're searched
+					if (depth > 3) countLanguage(path[3]);
+				} else {
+					translate(option.getText(), path, depth, 3, value);
+				}
+				break;
+			case "event":
+			case "events":
+				ArrayList<IdWrapper<Event>> events = wrap(value, name -> pack.newByID(name, Event.class, id -> new Event(pack, id)));
+				if (!scan) option.getEventList().addAll(events);
+				break;
+			case "condition":
+			case "conditions":
+				ArrayList<ConditionWrapper> conditions = wrapConditions(value);
+				if (!scan) option.getConditionList().addAll(conditions);
+				break;
+			case "pointer":
+			case "pointers":
+				ArrayList<IdWrapper<ConversationOption>> pointers = wrap(value, pointerResolver);
+				if (scan) {
+					ArrayList<ConversationOption> targets = new ArrayList<>(pointers.size());
+					for (IdWrapper<ConversationOption> pointer : pointers) {
+						targets.add(pointer.get());
+					}
+					option.indexPointers(targets);
+				} else {
+					option.getPointerList().addAll(pointers);
+				}
+				break;
+			}
+		}
+		
+	}
+	
+	/**
+	 * Sets the loader of conversation contents and the reader of its texts.
+	 * They keep only the conversation, the location of its file, which is
+	 * read again when the conversation is used or searched, and the string
+	 * pool of the workspace.
+	 */
+	private void setLazyLoader(Conversation conv, PackageSource.Resource resource) {
+		StringPool pool = this.pool;
+		conv.setLazyLoader(() -> {
+			parse(conv, resource, pool).replay(new PackageLoader(conv.getPack()).new ConversationLoader(conv, false));
+		}, texts -> {
+			parse(conv, resource, pool).replay((path, depth, value) -> {
+				if (path[0].equals("quester")) {
+					texts.accept(conv, depth > 1 ? YamlReader.join(path, 1, depth) : null, value);
+				} else if (depth > 2 && path[2].equals("text")) {
+					ConversationOption option = path[0].equals("NPC_options") ? conv.getNpcOption(path[1])
+							: path[0].equals("player_options") ? conv.getPlayerOption(path[1]) : null;
+					if (option != null) {
+						texts.accept(option, depth > 3 ? path[3] : null, value);
+					}
+				}
+			});
+		});
+	}
+	
+	/**
+	 * Parses the file of the conversation again. The file can only be read
+	 * if it didn't change since the package was loaded.
+	 * 
+	 * @throws ConversationChangedException
+	 *             when the file changed or could not be read
+	 */
+	private static ParsedFile parse(Conversation conv, PackageSource.Resource resource, StringPool pool) {
+		try {
+			ParsedFile parsed = ParsedFile.parse(resource.open());
+			if (pool != null) {
+				parsed.intern(pool);
+			}
+			return parsed;
+		} catch (IOException e) {
+			throw new ConversationChangedException(conv, e);
+		}
+	}
+	
+	/**
+	 * Creates the conversation or finds the existing one and indexes it.
+	 */
+	private Conversation linkConversation(String convName) {
+		Conversation conv = pack.newByID(convName, Conversation.class, name -> new Conversation(pack, name));
+		if (conv.getIndex() < 0) conv.setIndex(convIndex++);
+		return conv;
+	}
+	
+	/**
+	 * Sets the default text or adds a translation, if the language is present
+	 * at "langIndex" in the path.
+	 */
+	private void translate(TranslatableText text, String[] path, int depth, int langIndex, String value) {
+		if (depth > langIndex) {
+			String lang = path[langIndex];
+			countLanguage(lang);
+			text.addLang(lang, value);
+		} else {
+			text.setDef(value);
+		}
+	}
+	
+	private void countLanguage(String lang) {
+		Integer count = languages.get(lang);
+		languages.put(lang, count == null ? 1 : count + 1);
+	}
+	
+	/**
+	 * Resolves a comma-separated list of IDs and wraps them in order.
+	 */
+	private <T extends ID> ArrayList<IdWrapper<T>> wrap(String value, Function<String, T> resolver) {
+		String[] names = value.split(",");
+		ArrayList<IdWrapper<T>> list = new ArrayList<>(names.length);
+		for (int i = 0; i < names.length; i++) {
+			IdWrapper<T> wrapper = new IdWrapper<>(pack, resolver.apply(names[i].trim()));
+			wrapper.setIndex(i);
+			list.add(wrapper);
+		}
+		return list;
+	}
+	
+	/**
+	 * Resolves a comma-separated list of optionally negated condition IDs.
+	 */
+	private ArrayList<ConditionWrapper> wrapConditions(String value) {
+		String[] names = value.split(",");
+		ArrayList<ConditionWrapper> list = new ArrayList<>(names.length);
+		for (int i = 0; i < names.length; i++) {
+			QualifiedId name = QualifiedId.parse(names[i].trim());
+			ConditionWrapper condition = new ConditionWrapper(pack, pack.newByID(name, Condition.class, id -> new Condition(pack, id)));
+			condition.setNegated(name.isNegated());
+			condition.setIndex(i);
+			list.add(condition);
+		}
+		return list;
+	}
+
+}
@@ -0,0 +1,350 @@
+/**
+ * BetonQuest Editor - advanced quest creating tool for BetonQuest
+ * Copyright (C) 2016  Jakub "Co0sh" Sapalski
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pl.betoncraft.betonquest.editor.persistence;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Changes of a package recovered from the {@link EditJournal}, relative to
+ * the files it was loaded from or last saved to. They are applied to parsed
+ * files of the package before linking, so a recovered package is loaded like
+ * any other one. Values are addressed by their paths of keys in a file, the
+ * same way {@link YamlReader} passes them.
+ *
+ * @author Jakub Sapalski
+ */
+public class PackagePatch {
+	
+	private final String name;
+	private final String location;
+	private final HashMap<String, String> stamps;
+	private final ArrayList<Operation> operations = new ArrayList<>();
+	
+	/**
+	 * @param name
+	 *            name of the package
+	 * @param location
+	 *            location of the files, as in {@link PackageSource#getLocation()}
+	 * @param stamps
+	 *            stamps of the files, mapped by their logical names
+	 */
+	PackagePatch(String name, String location, Map<String, String> stamps) {
+		this.name = name;
+		this.location = location;
+		this.stamps = new HashMap<>(stamps);
+	}
+	
+	/**
+	 * @return name of the package
+	 */
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * @return location of the files to which the changes apply
+	 */
+	public String getLocation() {
+		return location;
+	}
+	
+	/**
+	 * @return true if there are no changes in the package
+	 */
+	public boolean isEmpty() {
+		return operations.isEmpty();
+	}
+	
+	/**
+	 * Checks if the files are still the same as when the changes were
+	 * recorded. Changes can't be applied to files modified since then.
+	 * 
+	 * @param source
+	 *            current files of the package
+	 * @return true if the changes can be applied to these files
+	 * @throws IOException
+	 *             when the state of files could not be read
+	 */
+	public boolean matches(PackageSource source) throws IOException {
+		if (!source.getLocation().equals(location) || !source.getFiles().keySet().equals(stamps.keySet())) {
+			return false;
+		}
+		for (Entry<String, PackageSource.Resource> entry : source.getFiles().entrySet()) {
+			if (!entry.getValue().getStamp().equals(stamps.get(entry.getKey()))) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Replaces everything under the prefix with the values. An empty prefix
+	 * replaces the whole file, creating it if needed.
+	 */
+	void put(String file, String[] prefix, List<String[]> paths, List<String> values) {
+		Operation operation = new Operation(EditJournal.PUT, file, prefix);
+		operation.paths = paths;
+		operation.values = values;
+		operations.add(operation);
+	}
+	
+	/**
+	 * Removes everything under the prefix.
+	 */
+	void remove(String file, String[] prefix) {
+		operations.add(new Operation(EditJournal.REMOVE, file, prefix));
+	}
+	
+	/**
+	 * Reorders keys directly under the parent. Keys which are not listed are
+	 * moved after the listed ones.
+	 */
+	void order(String file, String[] parent, List<String> keys) {
+		Operation operation = new Operation(EditJournal.ORDER, file, parent);
+		operation.values = keys;
+		operations.add(operation);
+	}
+	
+	/**
+	 * Deletes the whole file.
+	 */
+	void drop(String file) {
+		operations.add(new Operation(EditJournal.DROP, file, new String[0]));
+	}
+	
+	/**
+	 * Applies the changes to parsed files of the package.
+	 * 
+	 * @param files
+	 *            parsed files mapped by their logical names
+	 * @return new map of files, with changed ones replaced
+	 */
+	public Map<String, ParsedFile> apply(Map<String, ParsedFile> files) {
+		HashMap<String, Tree> trees = new HashMap<>(); // null tree is a deleted file
+		for (Operation operation : operations) {
+			if (operation.type == EditJournal.DROP) {
+				trees.put(operation.file, null);
+				continue;
+			}
+			Tree tree = trees.get(operation.file);
+			if (tree == null) {
+				tree = new Tree(trees.containsKey(operation.file) ? null : files.get(operation.file));
+				trees.put(operation.file, tree);
+			}
+			tree.apply(operation);
+		}
+		HashMap<String, ParsedFile> patched = new HashMap<>(files);
+		for (Entry<String, Tree> entry : trees.entrySet()) {
+			if (entry.getValue() == null) {
+				patched.remove(entry.getKey());
+			} else {
+				patched.put(entry.getKey(), entry.getValue().toParsedFile());
+			}
+		}
+		return patched;
+	}
+	
+	private static class Operation {
+		
+		private final byte type;
+		private final String file;
+		private final String[] path;
+		private List<String[]> paths = Collections.emptyList();
+		private List<String> values = Collections.emptyList();
+		
+		private Operation(byte type, String file, String[] path) {
+			this.type = type;
+			this.file = file;
+			this.path = path;
+		}
+		
+	}
+	
+	/**
+	 * Values of a single file, grouped by their top-level keys. Changes are
+	 * almost always made to a single top-level key, so only its group needs
+	 * to be searched.
+	 */
+	private static class Tree {
+		
+		private LinkedHashMap<String, ArrayList<Leaf>> groups = new LinkedHashMap<>();
+		
+		private Tree(ParsedFile file) {
+			if (file != null) {
+				file.replay((path, depth, value) -> add(new Leaf(Arrays.copyOf(path, depth), value)));
+			}
+		}
+		
+		private void add(Leaf leaf) {
+			groups.computeIfAbsent(leaf.path[0], key -> new ArrayList<>()).add(leaf);
+		}
+		
+		private void apply(Operation operation) {
+			String[] prefix = operation.path;
+			switch (operation.type) {
+			case EditJournal.PUT:
+				ArrayList<Leaf> leaves = new ArrayList<>(operation.values.size());
+				for (int i = 0; i < operation.values.size(); i++) {
+					String[] relative = operation.paths.get(i);
+					String[] path = Arrays.copyOf(prefix, prefix.length + relative.length);
+					System.arraycopy(relative, 0, path, prefix.length, relative.length);
+					if (path.length > 0) {
+						leaves.add(new Leaf(path, operation.values.get(i)));
+					}
+				}
+				if (prefix.length == 0) {
+					groups.clear();
+					for (Leaf leaf : leaves) {
+						add(leaf);
+					}
+				} else if (prefix.length == 1) {
+					if (leaves.isEmpty()) {
+						groups.remove(prefix[0]);
+					} else {
+						groups.put(prefix[0], leaves); // an existing key keeps its position
+					}
+				} else {
+					ArrayList<Leaf> group = groups.computeIfAbsent(prefix[0], key -> new ArrayList<>());
+					int position = remove(group, prefix);
+					group.addAll(position < 0 ? group.size() : position, leaves);
+					if (group.isEmpty()) {
+						groups.remove(prefix[0]);
+					}
+				}
+				break;
+			case EditJournal.REMOVE:
+				if (prefix.length == 0) {
+					groups.clear();
+				} else if (prefix.length == 1) {
+					groups.remove(prefix[0]);
+				} else {
+					ArrayList<Leaf> group = groups.get(prefix[0]);
+					if (group != null) {
+						remove(group, prefix);
+						if (group.isEmpty()) {
+							groups.remove(prefix[0]);
+						}
+					}
+				}
+				break;
+			case EditJournal.ORDER:
+				HashMap<String, Integer> ranks = new HashMap<>();
+				for (String key : operation.values) {
+					ranks.putIfAbsent(key, ranks.size());
+				}
+				if (prefix.length == 0) {
+					ArrayList<Entry<String, ArrayList<Leaf>>> entries = new ArrayList<>(groups.entrySet());
+					entries.sort((a, b) -> Integer.compare(ranks.getOrDefault(a.getKey(), ranks.size()),
+							ranks.getOrDefault(b.getKey(), ranks.size())));
+					groups = new LinkedHashMap<>();
+					for (Entry<String, ArrayList<Leaf>> entry : entries) {
+						groups.put(entry.getKey(), entry.getValue());
+					}
+				} else {
+					ArrayList<Leaf> group = groups.get(prefix[0]);
+					if (group == null) {
+						break;
+					}
+					ArrayList<Integer> positions = new ArrayList<>();
+					ArrayList<Leaf> children = new ArrayList<>();
+					for (int i = 0; i < group.size(); i++) {
+						Leaf leaf = group.get(i);
+						if (leaf.path.length > prefix.length && leaf.startsWith(prefix)) {
+							positions.add(i);
+							children.add(leaf);
+						}
+					}
+					int depth = prefix.length;
+					children.sort((a, b) -> Integer.compare(ranks.getOrDefault(a.path[depth], ranks.size()),
+							ranks.getOrDefault(b.path[depth], ranks.size())));
+					for (int i = 0; i < positions.size(); i++) {
+						group.set(positions.get(i), children.get(i));
+					}
+				}
+				break;
+			default:
+				// other operations don't change the contents
+			}
+		}
+		
+		/**
+		 * Removes leaves under the prefix from the group.
+		 * 
+		 * @return position of the first removed leaf or -1 if there was none
+		 */
+		private static int remove(ArrayList<Leaf> group, String[] prefix) {
+			int first = -1;
+			int index = 0;
+			for (Iterator<Leaf> iterator = group.iterator(); iterator.hasNext(); index++) {
+				if (iterator.next().startsWith(prefix)) {
+					iterator.remove();
+					if (first < 0) {
+						first = index;
+					}
+					index--;
+				}
+			}
+			return first;
+		}
+		
+		private ParsedFile toParsedFile() {
+			ParsedFile file = new ParsedFile();
+			for (ArrayList<Leaf> group : groups.values()) {
+				for (Leaf leaf : group) {
+					file.handle(leaf.path, leaf.path.length, leaf.value);
+				}
+			}
+			return file;
+		}
+		
+	}
+	
+	private static class Leaf {
+		
+		private final String[] path;
+		private final String value;
+		
+		private Leaf(String[] path, String value) {
+			this.path = path;
+			this.value = value;
+		}
+		
+		private boolean startsWith(String[] prefix) {
+			if (path.length < prefix.length) {
+				return false;
+			}
+			for (int i = 0; i < prefix.length; i++) {
+				if (!path[i].equals(prefix[i])) {
+					return false;
+				}
+			}
+			return true;
+		}
+		
+	}
+
+}
@@ -0,0 +1,406 @@
+/**
+ * BetonQuest Editor - advanced quest creating tool for BetonQuest
+ * Copyright (C) 2016  Jakub "Co0sh" Sapalski
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pl.betoncraft.betonquest.editor.persistence;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+/**
+ * Contents of a package at the moment of saving. It doesn't reference the
+ * model, so it can be written to a zip file or a directory on another thread
+ * while the package is being edited.
+ *
+ * @author Jakub Sapalski
+ */
+public class PackageSnapshot {
+	
+	private final List<Output> outputs;
+	private final ZipIndex index;
+	
+	/**
+	 * @param outputs
+	 *            files of the package, in order
+	 * @param index
+	 *            open index of the zip from which unchanged files are copied,
+	 *            it's closed once the snapshot is written; can be null
+	 */
+	PackageSnapshot(List<Output> outputs, ZipIndex index) {
+		this.outputs = outputs;
+		this.index = index;
+	}
+	
+	/**
+	 * Writes the snapshot to the zip file with the default compression.
+	 * 
+	 * @param zip
+	 *            target zip file
+	 * @return the new base of the package
+	 * @see #write(File, Compression)
+	 */
+	public ZipBase write(File zip) throws IOException {
+		return write(zip, Compression.DEFAULT);
+	}
+	
+	/**
+	 * Writes the snapshot to the zip file. Entries are compressed in
+	 * parallel and then written in order. The zip is first written next to
+	 * the target and synced to the disk, then moved over it, so the target
+	 * contains either the old or the new package, never a part of it. The
+	 * snapshot can be written only once.
+	 * 
+	 * @param zip
+	 *            target zip file
+	 * @param compression
+	 *            how entries are compressed
+	 * @return the new base of the package
+	 */
+	public ZipBase write(File zip, Compression compression) throws IOException {
+		Path target = zip.toPath().toAbsolutePath();
+		Path temp = null;
+		List<Future<ZipWriter.Data>> data = new ArrayList<>(outputs.size());
+		HashMap<String, ZipIndex.Entry> written = new HashMap<>();
+		try {
+			for (Output output : outputs) {
+				if (output.original != null && compression.canCopy(output.original)) {
+					data.add(null);
+					continue;
+				}
+				data.add(ForkJoinPool.commonPool().submit(() -> {
+					if (output.tokens == null) {
+						byte[] bytes = index.extract(output.original);
+						return ZipWriter.compress(bytes, bytes.length, compression);
+					}
+					Buffer buffer = new Buffer();
+					PackageWriter.replay(output.tokens, buffer);
+					return ZipWriter.compress(buffer.array(), buffer.size(), compression);
+				}));
+			}
+			temp = createTemp(target);
+			try (FileOutputStream stream = new FileOutputStream(temp.toFile());
+					ZipWriter writer = new ZipWriter(stream, compression)) {
+				for (int i = 0; i < outputs.size(); i++) {
+					Output output = outputs.get(i);
+					if (data.get(i) == null) {
+						written.put(output.file, writer.copy(output.entry, index, output.original));
+					} else {
+						written.put(output.file, writer.write(output.entry, PackageWriter.get(data.get(i))));
+					}
+				}
+				writer.finish();
+				stream.getChannel().force(true);
+			}
+			// the index is usually open on the target itself, which can't be replaced while it's open on Windows
+			if (index != null) {
+				index.close();
+			}
+			move(temp, target);
+		} catch (IOException | RuntimeException e) {
+			if (temp != null) {
+				Files.deleteIfExists(temp);
+			}
+			throw e;
+		} finally {
+			for (Future<ZipWriter.Data> future : data) {
+				if (future != null) {
+					future.cancel(false);
+				}
+			}
+			// closing it again after success does nothing
+			if (index != null) {
+				index.close();
+			}
+		}
+		sync(target.getParent());
+		return new ZipBase(target.toFile(), written);
+	}
+	
+	/**
+	 * Writes the snapshot to the directory, with the same layout as in a zip
+	 * file, so the package ends up in its own subdirectory. Each file is
+	 * compared with the one already in the directory by a hash of its
+	 * contents, and only files which differ are written, each one atomically.
+	 * Unchanged files are not touched, so their modification times stay the
+	 * same. Conversation files which are no longer in the package are
+	 * deleted. The snapshot can be written only once.
+	 * 
+	 * @param directory
+	 *            target directory, for example plugins/BetonQuest
+	 * @return stamps of written files, as in
+	 *         {@link PackageSource.Resource#getStamp()}, mapped by their
+	 *         logical names
+	 */
+	public Map<String, String> write(Path directory) throws IOException {
+		List<Future<Buffer>> data = new ArrayList<>(outputs.size());
+		HashMap<String, String> stamps = new HashMap<>();
+		HashSet<Path> files = new HashSet<>();
+		HashSet<Path> changed = new HashSet<>();
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+		try {
+			render(data);
+			for (int i = 0; i < outputs.size(); i++) {
+				Output output = outputs.get(i);
+				byte[] bytes;
+				int length;
+				if (output.original != null) {
+					bytes = index.extract(output.original);
+					length = bytes.length;
+				} else {
+					Buffer buffer = PackageWriter.get(data.get(i));
+					bytes = buffer.array();
+					length = buffer.size();
+				}
+				Path path = directory.resolve(output.entry).toAbsolutePath();
+				if (!hasContents(path, bytes, length, digest)) {
+					replace(path, bytes, length);
+					changed.add(path.getParent());
+				}
+				files.add(path);
+				stamps.put(output.file, PackageSource.stampOf(path));
+			}
+			// a package starts with main.yml
+			Path conversations = directory.resolve(outputs.get(0).entry).toAbsolutePath().resolveSibling("conversations");
+			if (Files.isDirectory(conversations)) {
+				try (DirectoryStream<Path> stream = Files.newDirectoryStream(conversations, "*.yml")) {
+					for (Path path : stream) {
+						if (!files.contains(path)) {
+							Files.delete(path);
+							changed.add(conversations);
+						}
+					}
+				}
+			}
+		} finally {
+			for (Future<Buffer> future : data) {
+				if (future != null) {
+					future.cancel(false);
+				}
+			}
+			if (index != null) {
+				index.close();
+			}
+		}
+		for (Path dir : changed) {
+			sync(dir);
+		}
+		return stamps;
+	}
+	
+	/**
+	 * Starts writing recorded files in parallel.
+	 */
+	private void render(List<Future<Buffer>> data) {
+		for (Output output : outputs) {
+			TokenBuffer tokens = output.tokens;
+			data.add(tokens == null ? null : ForkJoinPool.commonPool().submit(() -> {
+				Buffer buffer = new Buffer();
+				PackageWriter.replay(tokens, buffer);
+				return buffer;
+			}));
+		}
+	}
+	
+	/**
+	 * Checks if the file exists and has the same contents, comparing hashes.
+	 */
+	private static boolean hasContents(Path path, byte[] bytes, int length, MessageDigest digest) throws IOException {
+		if (!Files.isRegularFile(path) || Files.size(path) != length) {
+			return false;
+		}
+		digest.reset();
+		digest.update(bytes, 0, length);
+		byte[] expected = digest.digest();
+		digest.reset();
+		try (InputStream in = Files.newInputStream(path)) {
+			byte[] buffer = new byte[8192];
+			int count;
+			while ((count = in.read(buffer)) > 0) {
+				digest.update(buffer, 0, count);
+			}
+		}
+		return MessageDigest.isEqual(expected, digest.digest());
+	}
+	
+	/**
+	 * Writes the file next to the target, syncs it and moves it over the
+	 * target.
+	 */
+	private static void replace(Path target, byte[] bytes, int length) throws IOException {
+		Files.createDirectories(target.getParent());
+		Path temp = createTemp(target);
+		try {
+			try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+				ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, length);
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+				channel.force(true);
+			}
+			move(temp, target);
+		} catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(temp);
+			throw e;
+		}
+	}
+	
+	/**
+	 * Creates an empty file next to the target, which will be moved over it.
+	 * The file gets the default permissions of new files, not the private
+	 * ones of temporary files, and if the target exists its permissions,
+	 * group and owner are copied, so other users which could read the target
+	 * can still read it after it's replaced.
+	 */
+	private static Path createTemp(Path target) throws IOException {
+		String prefix = target.getFileName().toString() + '.';
+		Path temp;
+		while (true) {
+			temp = target.resolveSibling(prefix + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+			try {
+				Files.createFile(temp);
+				break;
+			} catch (FileAlreadyExistsException e) {
+				// try another name
+			}
+		}
+		try {
+			PosixFileAttributeView view = Files.getFileAttributeView(target, PosixFileAttributeView.class);
+			if (view != null && Files.exists(target)) {
+				PosixFileAttributes attributes = view.readAttributes();
+				PosixFileAttributeView tempView = Files.getFileAttributeView(temp, PosixFileAttributeView.class);
+				try {
+					tempView.setGroup(attributes.group());
+					tempView.setOwner(attributes.owner());
+				} catch (IOException e) {
+					// only privileged users can give files away, the permissions are still copied
+				}
+				tempView.setPermissions(attributes.permissions());
+			}
+		} catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(temp);
+			throw e;
+		}
+		return temp;
+	}
+	
+	private static void move(Path temp, Path target) throws IOException {
+		try {
+			Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+	
+	/**
+	 * Syncs the directory, so the rename survives a crash. Not every system
+	 * can open directories, so this is only an attempt.
+	 */
+	private static void sync(Path dir) {
+		try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+			channel.force(true);
+		} catch (IOException e) {
+			// the rename is still done, it's just not synced yet
+		}
+	}
+	
+	/**
+	 * A single file in the snapshot. It's either copied raw from the
+	 * original zip or written from recorded YAML tokens.
+	 */
+	static class Output {
+		
+		private final String file;
+		private final String entry;
+		private ZipIndex.Entry original;
+		private TokenBuffer tokens;
+		
+		/**
+		 * @param file
+		 *            logical name of the file
+		 * @param entry
+		 *            name of the entry in the zip
+		 */
+		Output(String file, String entry) {
+			this.file = file;
+			this.entry = entry;
+		}
+		
+		String getFile() {
+			return file;
+		}
+		
+		ZipIndex.Entry getOriginal() {
+			return original;
+		}
+		
+		void setOriginal(ZipIndex.Entry original) {
+			this.original = original;
+		}
+		
+		void setTokens(TokenBuffer tokens) {
+			this.tokens = tokens;
+		}
+		
+	}
+	
+	/**
+	 * Byte array stream which exposes its array, so it doesn't need to be
+	 * copied before compressing.
+	 */
+	private static class Buffer extends ByteArrayOutputStream {
+		
+		private Buffer() {
+			super(4096);
+		}
+		
+		private byte[] array() {
+			return buf;
+		}
+		
+	}
+
+}
@@ -0,0 +1,533 @@
+/**
+ * BetonQuest Editor - advanced quest creating tool for BetonQuest
+ * Copyright (C) 2016  Jakub "Co0sh" Sapalski
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pl.betoncraft.betonquest.editor.persistence;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import pl.betoncraft.betonquest.editor.model.exception.PackageNotFoundException;
+
+/**
+ * Files of a single package, found in a .zip file or in a directory. Each
+ * file has a logical name: "main", "events", "conditions", "objectives",
+ * "journal", "items" or "conversations.name".
+ *
+ * @author Jakub Sapalski
+ */
+public class PackageSource {
+	
+	private static final String[] required = new String[]{"main", "events", "conditions", "objectives", "journal", "items"};
+	
+	private final String name;
+	private final String location;
+	private final HashMap<String, Resource> files;
+	
+	private PackageSource(String name, String location) {
+		this(name, location, new HashMap<>());
+	}
+	
+	private PackageSource(String name, String location, HashMap<String, Resource> files) {
+		this.name = name;
+		this.location = location;
+		this.files = files;
+	}
+	
+	/**
+	 * @return the name of the package
+	 */
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * @return absolute location of the package root, unique for each package
+	 */
+	public String getLocation() {
+		return location;
+	}
+	
+	/**
+	 * Describes the current state of all files in the package. It changes
+	 * when any file is added, removed or modified.
+	 * 
+	 * @return the fingerprint of package files
+	 */
+	public String getFingerprint() throws IOException {
+		StringBuilder builder = new StringBuilder();
+		for (Entry<String, Resource> entry : files.entrySet()) {
+			builder.append(entry.getKey()).append('=').append(entry.getValue().getName()).append(':')
+					.append(entry.getValue().getStamp()).append('\n');
+		}
+		return builder.toString();
+	}
+	
+	/**
+	 * @return files of the package, mapped by their logical names
+	 */
+	public HashMap<String, Resource> getFiles() {
+		return files;
+	}
+	
+	/**
+	 * @return the zip file containing all files of this package, or null if
+	 *         the package is not stored in a zip file
+	 */
+	public ZipBase getZipBase() {
+		File zip = null;
+		HashMap<String, ZipIndex.Entry> entries = new HashMap<>();
+		for (Entry<String, Resource> file : files.entrySet()) {
+			if (!(file.getValue() instanceof ZipResource)) {
+				return null;
+			}
+			ZipResource resource = (ZipResource) file.getValue();
+			zip = new File(resource.file.getName());
+			entries.put(file.getKey(), new ZipIndex.Entry(resource.entry.getName(), resource.entry.getMethod(),
+					resource.entry.getCrc(), resource.entry.getCompressedSize(), resource.entry.getSize(), -1));
+		}
+		return zip == null ? null : new ZipBase(zip, entries);
+	}
+	
+	/**
+	 * @return true if all files required by a package are present
+	 */
+	public boolean isComplete() {
+		for (String file : required) {
+			if (!files.containsKey(file)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Finds the files of a single package in the zip file. The package name
+	 * is taken from the top-level directory.
+	 * 
+	 * @param file
+	 *            zip file with the package
+	 * @return the source of the package
+	 * @throws PackageNotFoundException
+	 *             when the zip file does not contain required files
+	 */
+	public static PackageSource fromZip(ZipFile file) throws IOException, PackageNotFoundException {
+		HashMap<String, Resource> files = new HashMap<>();
+		Enumeration<? extends ZipEntry> entries = file.entries();
+		String packName = null;
+		while (entries.hasMoreElements()) {
+			ZipEntry entry = entries.nextElement();
+			String entryName = entry.getName();
+			// get the correct path separator (both can be used)
+			int index = entryName.indexOf('/');
+			char separator = '/';
+			if (index < 0) {
+				index = entryName.indexOf('\\');
+				separator = '\\';
+			}
+			if (index < 0) {
+				continue;
+			}
+			packName = entryName.substring(0, index);
+			if (!entryName.endsWith(".yml"))
+				continue;
+			if (entryName.contains("conversations" + separator)) {
+				String convName = entryName.substring(entryName.lastIndexOf(separator) + 1, entryName.length() - 4);
+				files.put("conversations." + convName, new ZipResource(file, entry));
+			} else {
+				for (String name : required) {
+					if (entryName.endsWith(name + ".yml")) {
+						files.put(name, new ZipResource(file, entry));
+						break;
+					}
+				}
+			}
+		}
+		PackageSource source = new PackageSource(packName, locationOf(file) + '!' + packName, files);
+		// check if everything is loaded
+		if (!source.isComplete()) {
+			file.close();
+			throw new PackageNotFoundException("Package does not contain required files");
+		}
+		return source;
+	}
+	
+	/**
+	 * Finds all packages in the zip file. Every directory with main.yml
+	 * file directly inside is a package root, the name of that directory is
+	 * the name of the package. A package in the root of the zip file is named
+	 * after the zip file. Packages with the same name in different
+	 * directories are all returned.
+	 * 
+	 * @param file
+	 *            zip file with packages
+	 * @return sources of all complete packages, sorted by their paths
+	 */
+	public static List<PackageSource> discover(ZipFile file) {
+		TreeMap<String, PackageSource> roots = new TreeMap<>();
+		ArrayList<ZipEntry> ymlEntries = new ArrayList<>();
+		Enumeration<? extends ZipEntry> entries = file.entries();
+		while (entries.hasMoreElements()) {
+			ZipEntry entry = entries.nextElement();
+			String entryName = entry.getName().replace('\\', '/');
+			if (entry.isDirectory() || !entryName.endsWith(".yml")) {
+				continue;
+			}
+			ymlEntries.add(entry);
+			if (entryName.equals("main.yml") || entryName.endsWith("/main.yml")) {
+				String root = entryName.substring(0, entryName.length() - 8);
+				String name = root.isEmpty() ? nameOf(file) : nameOf(root);
+				roots.put(root, new PackageSource(name, locationOf(file) + '!' + root));
+			}
+		}
+		for (ZipEntry entry : ymlEntries) {
+			String entryName = entry.getName().replace('\\', '/');
+			int index = entryName.lastIndexOf('/');
+			String dir = entryName.substring(0, index + 1);
+			String fileName = entryName.substring(index + 1, entryName.length() - 4);
+			add(roots, dir, fileName, new ZipResource(file, entry));
+		}
+		return complete(roots);
+	}
+	
+	/**
+	 * Finds all packages in the directory and its subdirectories. Every
+	 * directory with main.yml file directly inside is a package root, the name
+	 * of that directory is the name of the package. Packages with the same
+	 * name in different directories are all returned.
+	 * 
+	 * @param directory
+	 *            the directory with packages, for example plugins/BetonQuest
+	 * @return sources of all complete packages, sorted by their paths
+	 */
+	public static List<PackageSource> discover(Path directory) throws IOException {
+		TreeMap<String, PackageSource> roots = new TreeMap<>();
+		ArrayList<Path> ymlFiles = new ArrayList<>();
+		try (Stream<Path> stream = Files.walk(directory)) {
+			stream.filter(path -> Files.isRegularFile(path) && path.getFileName().toString().endsWith(".yml"))
+					.forEach(ymlFiles::add);
+		}
+		for (Path path : ymlFiles) {
+			if (path.getFileName().toString().equals("main.yml")) {
+				Path root = path.getParent().toAbsolutePath().normalize();
+				roots.put(pathOf(directory, path.getParent()), new PackageSource(root.getFileName().toString(),
+						root.toString()));
+			}
+		}
+		for (Path path : ymlFiles) {
+			String fileName = path.getFileName().toString();
+			add(roots, pathOf(directory, path.getParent()), fileName.substring(0, fileName.length() - 4), new PathResource(path));
+		}
+		return complete(roots);
+	}
+	
+	/**
+	 * Adds the file to the package which has its root in "dir" or, if it's a
+	 * conversation, in the parent of "dir".
+	 */
+	private static void add(TreeMap<String, PackageSource> roots, String dir, String fileName, Resource resource) {
+		PackageSource source = roots.get(dir);
+		if (source != null) {
+			for (String name : required) {
+				if (name.equals(fileName)) {
+					source.files.put(name, resource);
+					return;
+				}
+			}
+		} else if (dir.endsWith("conversations/")) {
+			source = roots.get(dir.substring(0, dir.length() - 14));
+			if (source != null) {
+				source.files.put("conversations." + fileName, resource);
+			}
+		}
+	}
+	
+	private static List<PackageSource> complete(TreeMap<String, PackageSource> roots) {
+		ArrayList<PackageSource> list = new ArrayList<>(roots.size());
+		for (PackageSource source : roots.values()) {
+			if (source.isComplete()) {
+				list.add(source);
+			}
+		}
+		return list;
+	}
+	
+	/**
+	 * @return path of the directory relative to the base, with "/" at the end
+	 */
+	private static String pathOf(Path base, Path dir) {
+		String path = base.relativize(dir).toString().replace('\\', '/');
+		return path.isEmpty() ? "" : path + '/';
+	}
+	
+	/**
+	 * Finds the package at the location in the zip file. Packages discovered
+	 * in the zip file are checked first, then the zip file as a single package.
+	 * 
+	 * @param file
+	 *            zip file with packages
+	 * @param location
+	 *            location of the package, as in {@link #getLocation()}
+	 * @return the source of the package or null if it's not there
+	 */
+	public static PackageSource find(ZipFile file, String location) throws IOException {
+		PackageSource source = find(discover(file), location);
+		if (source == null) {
+			try {
+				PackageSource single = fromZip(file);
+				source = single.getLocation().equals(location) ? single : null;
+			} catch (PackageNotFoundException e) {
+				return null;
+			}
+		}
+		return source;
+	}
+	
+	/**
+	 * Finds the package at the location in the directory.
+	 * 
+	 * @param directory
+	 *            the directory with packages
+	 * @param location
+	 *            location of the package, as in {@link #getLocation()}
+	 * @return the source of the package or null if it's not there
+	 */
+	public static PackageSource find(Path directory, String location) throws IOException {
+		return find(discover(directory), location);
+	}
+	
+	private static PackageSource find(List<PackageSource> sources, String location) {
+		for (PackageSource source : sources) {
+			if (source.getLocation().equals(location)) {
+				return source;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * @return stamp of a file in a zip file, as in {@link Resource#getStamp()}
+	 */
+	static String stampOf(long crc, long size) {
+		return Long.toHexString(crc) + '/' + size;
+	}
+	
+	/**
+	 * @return stamp of a file in a directory, as in {@link Resource#getStamp()}
+	 */
+	static String stampOf(Path path) throws IOException {
+		return Files.getLastModifiedTime(path).toMillis() + "/" + Files.size(path);
+	}
+	
+	private static String locationOf(ZipFile file) {
+		return new File(file.getName()).getAbsolutePath();
+	}
+	
+	private static String nameOf(String root) {
+		String path = root.endsWith("/") ? root.substring(0, root.length() - 1) : root;
+		return path.substring(path.lastIndexOf('/') + 1);
+	}
+	
+	/**
+	 * @return name of the zip file without the extension
+	 */
+	private static String nameOf(ZipFile file) {
+		String name = new File(file.getName()).getName();
+		int dot = name.lastIndexOf('.');
+		return dot > 0 ? name.substring(0, dot) : name;
+	}
+	
+	/**
+	 * A single file of the package.
+	 */
+	public interface Resource {
+		
+		/**
+		 * @return new stream with contents of this file
+		 */
+		public InputStream open() throws IOException;
+		
+		/**
+		 * @return name of the file, used for display
+		 */
+		public String getName();
+		
+		/**
+		 * @return a value which changes whenever contents of this file
+		 *         change, like its checksum or modification time
+		 */
+		public String getStamp() throws IOException;
+		
+		/**
+		 * @return the same file which can be read after the zip file of this
+		 *         resource is closed; it can only be read while its stamp is
+		 *         the same as now
+		 */
+		public Resource detach() throws IOException;
+		
+	}
+	
+	private static class ZipResource implements Resource {
+		
+		private final ZipFile file;
+		private final ZipEntry entry;
+		
+		private ZipResource(ZipFile file, ZipEntry entry) {
+			this.file = file;
+			this.entry = entry;
+		}
+
+		@Override
+		public InputStream open() throws IOException {
+			return file.getInputStream(entry);
+		}
+
+		@Override
+		public String getName() {
+			return entry.getName();
+		}
+		
+		@Override
+		public String getStamp() {
+			return stampOf(entry.getCrc(), entry.getSize());
+		}
+		
+		@Override
+		public Resource detach() {
+			return new DetachedResource(Paths.get(file.getName()), entry.getName(), getStamp());
+		}
+		
+	}
+	
+	private static class PathResource implements Resource {
+		
+		private final Path path;
+		
+		private PathResource(Path path) {
+			this.path = path;
+		}
+
+		@Override
+		public InputStream open() throws IOException {
+			return Files.newInputStream(path);
+		}
+
+		@Override
+		public String getName() {
+			return path.toString();
+		}
+		
+		@Override
+		public String getStamp() throws IOException {
+			return stampOf(path);
+		}
+		
+		@Override
+		public Resource detach() throws IOException {
+			return new DetachedResource(path, null, getStamp());
+		}
+		
+	}
+	
+	/**
+	 * A file which is opened again each time it's read, keeping only its
+	 * location. Reading fails if the file has changed since it was detached.
+	 */
+	private static class DetachedResource implements Resource {
+		
+		private final Path path;
+		private final String entryName;
+		private final String stamp;
+		
+		/**
+		 * @param entryName
+		 *            name of the entry in the zip file, or null if the path is
+		 *            the file itself
+		 */
+		private DetachedResource(Path path, String entryName, String stamp) {
+			this.path = path;
+			this.entryName = entryName;
+			this.stamp = stamp;
+		}
+		
+		@Override
+		public InputStream open() throws IOException {
+			if (entryName == null) {
+				check(stampOf(path));
+				return Files.newInputStream(path);
+			}
+			ZipFile zip = new ZipFile(path.toFile());
+			try {
+				ZipEntry entry = zip.getEntry(entryName);
+				if (entry == null) {
+					throw new FileNotFoundException(getName());
+				}
+				check(stampOf(entry.getCrc(), entry.getSize()));
+				return new FilterInputStream(zip.getInputStream(entry)) {
+					@Override
+					public void close() throws IOException {
+						try {
+							super.close();
+						} finally {
+							zip.close();
+						}
+					}
+				};
+			} catch (IOException | RuntimeException e) {
+				zip.close();
+				throw e;
+			}
+		}
+		
+		private void check(String current) throws IOException {
+			if (!stamp.equals(current)) {
+				throw new IOException(getName() + " has changed since it was loaded");
+			}
+		}
+		
+		@Override
+		public String getName() {
+			return entryName == null ? path.toString() : entryName;
+		}
+		
+		@Override
+		public String getStamp() {
+			return stamp;
+		}
+		
+		@Override
+		public Resource detach() {
+			return this;
+		}
+		
+	}
+
+}
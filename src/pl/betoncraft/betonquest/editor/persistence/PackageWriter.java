@@ -0,0 +1,444 @@
+/**
+ * BetonQuest Editor - advanced quest creating tool for BetonQuest
+ * Copyright (C) 2016  Jakub "Co0sh" Sapalski
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pl.betoncraft.betonquest.editor.persistence;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+
+import pl.betoncraft.betonquest.editor.data.ConditionWrapper;
+import pl.betoncraft.betonquest.editor.data.ID;
+import pl.betoncraft.betonquest.editor.data.IdWrapper;
+import pl.betoncraft.betonquest.editor.data.Instruction;
+import pl.betoncraft.betonquest.editor.data.QualifiedId;
+import pl.betoncraft.betonquest.editor.data.TranslatableText;
+import pl.betoncraft.betonquest.editor.model.ChangeTracker;
+import pl.betoncraft.betonquest.editor.model.Conversation;
+import pl.betoncraft.betonquest.editor.model.ConversationOption;
+import pl.betoncraft.betonquest.editor.model.GlobalVariable;
+import pl.betoncraft.betonquest.editor.model.JournalEntry;
+import pl.betoncraft.betonquest.editor.model.MainPageLine;
+import pl.betoncraft.betonquest.editor.model.NpcBinding;
+import pl.betoncraft.betonquest.editor.model.QuestCanceler;
+import pl.betoncraft.betonquest.editor.model.QuestPackage;
+import pl.betoncraft.betonquest.editor.model.StaticEvent;
+
+/**
+ * Writes the package as YAML files. Values are streamed straight to a
+ * generator while the model is walked, so no tree of nodes is built in
+ * memory; for snapshots they're recorded as compact token streams and turned
+ * into YAML later. Keys appearing more than once are written like a YAML map
+ * would keep them: at the first position, with the last value.
+ *
+ * @author Jakub Sapalski
+ */
+public class PackageWriter {
+	
+	private static final YAMLFactory factory = new YAMLFactory();
+	
+	private final QuestPackage pack;
+	private final StringBuilder builder = new StringBuilder();
+	
+	public PackageWriter(QuestPackage pack) {
+		this.pack = pack;
+	}
+	
+	/**
+	 * Takes a snapshot of the package, which can be written to a zip file on
+	 * another thread while the package is being edited. It must be called on
+	 * the thread which owns the package. Files which were not changed since
+	 * the package was loaded or saved will be copied from that zip file
+	 * without compressing them again. All other files are recorded in
+	 * parallel, as streams of YAML tokens. Tracked changes are reset, so
+	 * the next snapshot will contain changes made after this one.
+	 * 
+	 * @return the snapshot of the package
+	 * @throws IOException
+	 *             when the files could not be recorded
+	 */
+	public PackageSnapshot snapshot() throws IOException {
+		ChangeTracker changes = pack.getChanges();
+		ZipBase base = pack.getSaveBase();
+		String prefix = pack.getName().get() + File.separator;
+		List<Recording> files = new ArrayList<>();
+		files.add(new Recording("main", prefix + "main.yml", changes.isChanged("main"), null,
+				(writer, gen) -> writer.writeMain(gen)));
+		for (Conversation conv : pack.getConversations()) {
+			files.add(new Recording("conversations." + conv.getIdValue(),
+					prefix + "conversations" + File.separator + conv.getIdValue() + ".yml", changes.isChanged(conv),
+					conv, (writer, gen) -> writer.writeConversation(gen, conv)));
+		}
+		files.add(new Recording("events", prefix + "events.yml", changes.isChanged("events"), null,
+				(writer, gen) -> writer.writeInstructions(gen, pack.getEvents())));
+		files.add(new Recording("conditions", prefix + "conditions.yml", changes.isChanged("conditions"), null,
+				(writer, gen) -> writer.writeInstructions(gen, pack.getConditions())));
+		files.add(new Recording("objectives", prefix + "objectives.yml", changes.isChanged("objectives"), null,
+				(writer, gen) -> writer.writeInstructions(gen, pack.getObjectives())));
+		files.add(new Recording("items", prefix + "items.yml", changes.isChanged("items"), null,
+				(writer, gen) -> writer.writeInstructions(gen, pack.getItems())));
+		files.add(new Recording("journal", prefix + "journal.yml", changes.isChanged("journal"), null,
+				(writer, gen) -> writer.writeJournal(gen)));
+		ZipIndex index = null;
+		if (base != null) {
+			try {
+				index = ZipIndex.open(base.getZip());
+			} catch (IOException e) {
+				// the previous zip is gone or damaged, all files are written again
+			}
+		}
+		List<PackageSnapshot.Output> outputs = new ArrayList<>(files.size());
+		try {
+			for (Recording file : files) {
+				if (index != null && !file.changed) {
+					file.output.setOriginal(base.find(index, file.output.getFile()));
+				}
+			}
+			// loading a conversation can add objects to the package, so it
+			// must not happen while other files are being recorded
+			for (Recording file : files) {
+				if (file.output.getOriginal() == null && file.conversation != null) {
+					file.conversation.load();
+				}
+			}
+			for (Recording file : files) {
+				if (file.output.getOriginal() == null) {
+					file.tokens = submit(file.part);
+				}
+			}
+			for (Recording file : files) {
+				if (file.tokens != null) {
+					file.output.setTokens(get(file.tokens));
+				}
+				outputs.add(file.output);
+			}
+		} catch (IOException | RuntimeException e) {
+			for (Recording file : files) {
+				if (file.tokens != null) {
+					file.tokens.cancel(false);
+				}
+			}
+			if (index != null) {
+				index.close();
+			}
+			throw e;
+		}
+		changes.reset();
+		return new PackageSnapshot(outputs, index);
+	}
+	
+	/**
+	 * Writes recorded YAML tokens to the stream. The stream is flushed but
+	 * not closed.
+	 */
+	static void replay(TokenBuffer tokens, OutputStream out) throws IOException {
+		JsonGenerator gen = factory.createGenerator(out);
+		tokens.serialize(gen);
+		gen.flush();
+	}
+	
+	/**
+	 * Starts recording a file on another thread. Each file gets its own
+	 * writer, as writers reuse their buffers.
+	 */
+	private Future<TokenBuffer> submit(Part part) {
+		return ForkJoinPool.commonPool().submit(() -> {
+			TokenBuffer tokens = new TokenBuffer(null, false);
+			part.write(new PackageWriter(pack), tokens);
+			return tokens;
+		});
+	}
+	
+	static <T> T get(Future<T> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+	
+	void writeMain(JsonGenerator gen) throws IOException {
+		gen.writeStartObject();
+		if (!pack.getNpcBindings().isEmpty()) {
+			gen.writeFieldName("npcs");
+			writeNpcBindings(gen);
+		}
+		if (!pack.getVariables().isEmpty()) {
+			gen.writeFieldName("variables");
+			writeVariables(gen);
+		}
+		if (!pack.getStaticEvents().isEmpty()) {
+			gen.writeFieldName("static");
+			writeStaticEvents(gen);
+		}
+		writeList(gen, "global_locations", pack.getLocations(), null);
+		if (!pack.getCancelers().isEmpty()) {
+			gen.writeFieldName("cancel");
+			writeCancelers(gen);
+		}
+		if (!pack.getMainPage().isEmpty()) {
+			gen.writeFieldName("journal_main_page");
+			writeMainPage(gen);
+		}
+		gen.writeEndObject();
+	}
+	
+	void writeNpcBindings(JsonGenerator gen) throws IOException {
+		gen.writeStartObject();
+		for (NpcBinding binding : unique(pack.getNpcBindings())) {
+			gen.writeStringField(binding.getIdValue(), binding.getConversation().get().getIdValue());
+		}
+		gen.writeEndObject();
+	}
+	
+	void writeVariables(JsonGenerator gen) throws IOException {
+		gen.writeStartObject();
+		for (GlobalVariable var : unique(pack.getVariables())) {
+			gen.writeStringField(var.getIdValue(), var.getInstructionValue());
+		}
+		gen.writeEndObject();
+	}
+	
+	void writeStaticEvents(JsonGenerator gen) throws IOException {
+		gen.writeStartObject();
+		for (StaticEvent event : unique(pack.getStaticEvents())) {
+			gen.writeStringField(event.getIdValue(), event.getEvent().get().getIdValue());
+		}
+		gen.writeEndObject();
+	}
+	
+	void writeCancelers(JsonGenerator gen) throws IOException {
+		gen.writeStartObject();
+		for (QuestCanceler canceler : unique(pack.getCancelers())) {
+			gen.writeObjectFieldStart(canceler.getIdValue());
+			writeTranslated(gen, "name", canceler.getName());
+			writeList(gen, "events", canceler.getEvents(), null);
+			writeList(gen, "conditions", canceler.getConditions(), null);
+			writeList(gen, "objectives", canceler.getObjectives(), null);
+			writeList(gen, "tags", canceler.getTags(), null);
+			writeList(gen, "points", canceler.getPoints(), null);
+			writeList(gen, "journal", canceler.getJournal(), null);
+			if (canceler.getLocation() != null) {
+				gen.writeStringField("loc", canceler.getLocation());
+			}
+			gen.writeEndObject();
+		}
+		gen.writeEndObject();
+	}
+	
+	void writeMainPage(JsonGenerator gen) throws IOException {
+		gen.writeStartObject();
+		for (MainPageLine line : unique(pack.getMainPage())) {
+			gen.writeObjectFieldStart(line.getIdValue());
+			writeTranslated(gen, "text", line.getText());
+			gen.writeNumberField("priority", line.getPriority().get());
+			writeList(gen, "conditions", line.getConditions(), null);
+			gen.writeEndObject();
+		}
+		gen.writeEndObject();
+	}
+	
+	<T extends Instruction> void writeInstructions(JsonGenerator gen, List<T> list) throws IOException {
+		gen.writeStartObject();
+		for (T object : unique(list)) {
+			gen.writeStringField(object.getIdValue(), object.getInstructionValue());
+		}
+		gen.writeEndObject();
+	}
+	
+	void writeJournal(JsonGenerator gen) throws IOException {
+		gen.writeStartObject();
+		for (JournalEntry entry : unique(pack.getJournal())) {
+			writeTranslated(gen, entry.getIdValue(), entry.getText());
+		}
+		gen.writeEndObject();
+	}
+	
+	void writeConversation(JsonGenerator gen, Conversation conv) throws IOException {
+		gen.writeStartObject();
+		writeTranslated(gen, "quester", conv.getNPC());
+		gen.writeStringField("stop", String.valueOf(conv.getStop().get()));
+		writeList(gen, "first", conv.getStartingOptions(), conv);
+		writeList(gen, "final", conv.getFinalEvents(), conv);
+		writeOptions(gen, "NPC_options", conv.getNpcOptions());
+		writeOptions(gen, "player_options", conv.getPlayerOptions());
+		gen.writeEndObject();
+	}
+	
+	private void writeOptions(JsonGenerator gen, String name, List<? extends ConversationOption> options)
+			throws IOException {
+		if (options.isEmpty()) {
+			return;
+		}
+		gen.writeObjectFieldStart(name);
+		for (ConversationOption option : unique(options)) {
+			gen.writeFieldName(option.getIdValue());
+			writeOption(gen, option);
+		}
+		gen.writeEndObject();
+	}
+	
+	void writeOption(JsonGenerator gen, ConversationOption option) throws IOException {
+		gen.writeStartObject();
+		writeTranslated(gen, "text", option.getText());
+		writeList(gen, "events", option.getEventList(), option.getConversation());
+		writeList(gen, "conditions", option.getConditionList(), option.getConversation());
+		writeList(gen, "pointers", option.getPointerList(), option.getConversation());
+		gen.writeEndObject();
+	}
+	
+	private void writeTranslated(JsonGenerator gen, String name, TranslatableText text) throws IOException {
+		gen.writeFieldName(name);
+		writeTranslated(gen, text);
+	}
+	
+	void writeTranslated(JsonGenerator gen, TranslatableText text) throws IOException {
+		if (text.hasDef()) {
+			gen.writeString(text.getDefValue());
+			return;
+		}
+		gen.writeStartObject();
+		for (String lang : text.getLanguages()) {
+			if (lang == null) { // TODO find out why there's a null language
+				continue;
+			}
+			gen.writeStringField(lang, text.getLangValue(lang));
+		}
+		gen.writeEndObject();
+	}
+	
+	/**
+	 * Writes the list as a single comma-separated value. Empty lists are
+	 * skipped.
+	 */
+	private void writeList(JsonGenerator gen, String name, List<?> list, Conversation conv) throws IOException {
+		if (list.isEmpty()) {
+			return;
+		}
+		gen.writeFieldName(name);
+		writeList(gen, list, conv);
+	}
+	
+	/**
+	 * Writes the list as a single comma-separated value.
+	 * 
+	 * @param conv
+	 *            conversation in which the list is written, or null if it's
+	 *            not in a conversation
+	 */
+	void writeList(JsonGenerator gen, List<?> list, Conversation conv) throws IOException {
+		builder.setLength(0);
+		for (int i = 0; i < list.size(); i++) {
+			if (i > 0) {
+				builder.append(',');
+			}
+			Object item = list.get(i);
+			if (item instanceof IdWrapper) {
+				IdWrapper<?> wrapper = (IdWrapper<?>) item;
+				if (wrapper instanceof ConditionWrapper && ((ConditionWrapper) wrapper).getNegated()) {
+					builder.append('!');
+				}
+				builder.append(nameOf(wrapper.get(), conv));
+			} else {
+				builder.append(item.toString());
+			}
+		}
+		gen.writeString(builder.toString());
+	}
+	
+	/**
+	 * Names the object as it's referenced from the conversation, or from the
+	 * package if the conversation is null. Names are taken from the objects
+	 * themselves, not from what is displayed, so files can be written on
+	 * any thread.
+	 */
+	private String nameOf(ID object, Conversation conv) {
+		if (object instanceof ConversationOption) {
+			Conversation owner = ((ConversationOption) object).getConversation();
+			return owner == conv ? object.getIdValue()
+					: QualifiedId.ofOption(owner.getIdValue(), object.getIdValue()).toString();
+		}
+		return object.getPack() == pack ? object.getIdValue()
+				: QualifiedId.of(object.getPack().getName().get(), object.getIdValue()).toString();
+	}
+	
+	/**
+	 * Returns the list with every ID present once, at the position of its
+	 * first occurrence but with the last object using it. The list itself is
+	 * returned if there are no duplicates, which is almost always the case.
+	 */
+	private static <T extends ID> List<T> unique(List<T> list) {
+		Set<String> ids = new HashSet<>();
+		for (T object : list) {
+			if (!ids.add(object.getIdValue())) {
+				Map<String, T> map = new LinkedHashMap<>();
+				for (T other : list) {
+					map.put(other.getIdValue(), other);
+				}
+				return new ArrayList<>(map.values());
+			}
+		}
+		return list;
+	}
+	
+	/**
+	 * Writes a single file of the package.
+	 */
+	private interface Part {
+		public void write(PackageWriter writer, JsonGenerator gen) throws IOException;
+	}
+	
+	/**
+	 * A file of the package which is being recorded.
+	 */
+	private static class Recording {
+		
+		private final PackageSnapshot.Output output;
+		private final boolean changed;
+		private final Conversation conversation;
+		private final Part part;
+		private Future<TokenBuffer> tokens;
+		
+		private Recording(String file, String entry, boolean changed, Conversation conversation, Part part) {
+			this.output = new PackageSnapshot.Output(file, entry);
+			this.changed = changed;
+			this.conversation = conversation;
+			this.part = part;
+		}
+		
+	}
+
+}
@@ -0,0 +1,130 @@
+/**
+ * BetonQuest Editor - advanced quest creating tool for BetonQuest
+ * Copyright (C) 2016  Jakub "Co0sh" Sapalski
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pl.betoncraft.betonquest.editor.persistence;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import pl.betoncraft.betonquest.editor.data.StringPool;
+
+/**
+ * Values read from a single YAML file, stored so they can be passed to the
+ * real handler later. Files can be parsed this way on any thread and linked
+ * into the model afterwards, in a fixed order.
+ *
+ * @author Jakub Sapalski
+ */
+public class ParsedFile implements YamlReader.Handler {
+	
+	private final ArrayList<String> data = new ArrayList<>(); // keys of each value, followed by the value
+	private int[] depths = new int[64];
+	private int count = 0;
+	
+	/**
+	 * Parses the stream. The stream is closed afterwards.
+	 * 
+	 * @param in
+	 *            stream with YAML data
+	 * @return the parsed file
+	 * @throws IOException
+	 *             when the stream could not be read or the YAML is invalid
+	 */
+	public static ParsedFile parse(InputStream in) throws IOException {
+		ParsedFile file = new ParsedFile();
+		YamlReader.read(in, file);
+		return file;
+	}
+
+	/**
+	 * Writes stored values to the snapshot.
+	 */
+	void write(DataOutputStream out, SnapshotCache.StringTable strings) throws IOException {
+		SnapshotCache.writeNumber(out, count);
+		for (int i = 0; i < count; i++) {
+			SnapshotCache.writeNumber(out, depths[i]);
+		}
+		for (String string : data) {
+			strings.write(out, string);
+		}
+	}
+	
+	/**
+	 * Reads values written by {@link #write(DataOutputStream, SnapshotCache.StringTable)}.
+	 */
+	static ParsedFile read(DataInputStream in, SnapshotCache.StringTable strings) throws IOException {
+		ParsedFile file = new ParsedFile();
+		file.count = SnapshotCache.readNumber(in);
+		file.depths = new int[Math.max(file.count, 1)];
+		int size = 0;
+		for (int i = 0; i < file.count; i++) {
+			file.depths[i] = SnapshotCache.readNumber(in);
+			size += file.depths[i] + 1;
+		}
+		file.data.ensureCapacity(size);
+		for (int i = 0; i < size; i++) {
+			file.data.add(strings.read(in));
+		}
+		return file;
+	}
+
+	/**
+	 * Replaces stored keys and values with their copies from the pool.
+	 */
+	void intern(StringPool pool) {
+		data.replaceAll(pool::intern);
+	}
+
+	@Override
+	public void handle(String[] path, int depth, String value) {
+		if (count == depths.length) {
+			depths = Arrays.copyOf(depths, count * 2);
+		}
+		depths[count++] = depth;
+		for (int i = 0; i < depth; i++) {
+			data.add(path[i]);
+		}
+		data.add(value);
+	}
+	
+	/**
+	 * Passes all stored values to the handler, in the same order as they were
+	 * read.
+	 * 
+	 * @param handler
+	 *            receives the values
+	 */
+	public void replay(YamlReader.Handler handler) {
+		String[] path = new String[8];
+		int position = 0;
+		for (int i = 0; i < count; i++) {
+			int depth = depths[i];
+			if (depth > path.length) {
+				path = Arrays.copyOf(path, depth * 2);
+			}
+			for (int j = 0; j < depth; j++) {
+				path[j] = data.get(position++);
+			}
+			handler.handle(path, depth, data.get(position++));
+		}
+	}
+
+}
@@ -0,0 +1,135 @@
+/**
+ * BetonQuest Editor - advanced quest creating tool for BetonQuest
+ * Copyright (C) 2016  Jakub "Co0sh" Sapalski
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pl.betoncraft.betonquest.editor.persistence;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.ZipFile;
+
+import javafx.concurrent.Task;
+import pl.betoncraft.betonquest.editor.BetonQuestEditor;
+import pl.betoncraft.betonquest.editor.model.QuestPackage;
+
+/**
+ * Loads packages with changes recovered from the {@link EditJournal} on a
+ * background thread. Each package is loaded from the location it was last
+ * loaded from or saved to, and recovered changes are applied to its files
+ * before linking. Packages whose files changed since then are skipped, as
+ * the changes can't be applied to them safely. Search indexes are built
+ * before the packages are added to the editor by {@link #publish()}.
+ *
+ * @author Jakub Sapalski
+ */
+public class RecoverTask extends Task<List<QuestPackage>> {
+	
+	private final List<PackagePatch> patches;
+	private final ArrayList<String> skipped = new ArrayList<>();
+	private WorkspaceLoader loader;
+	
+	public RecoverTask(List<PackagePatch> patches) {
+		this.patches = patches;
+	}
+
+	@Override
+	protected List<QuestPackage> call() throws Exception {
+		ArrayList<ZipFile> zips = new ArrayList<>();
+		try {
+			ArrayList<PackageSource> sources = new ArrayList<>();
+			HashMap<String, PackagePatch> matching = new HashMap<>();
+			for (PackagePatch patch : patches) {
+				PackageSource source = find(patch.getLocation(), zips);
+				if (source == null || !patch.matches(source)) {
+					skipped.add(patch.getName() + " (" + patch.getLocation() + ")");
+					continue;
+				}
+				sources.add(source);
+				matching.put(source.getLocation(), patch);
+			}
+			BetonQuestEditor instance = BetonQuestEditor.getInstance();
+			loader = new WorkspaceLoader(sources, instance.getPackages(), instance.getPendingReferences(),
+					(done, total, name) -> {
+						updateProgress(done, total);
+						updateMessage(name);
+					});
+			loader.setLazyConversations(true);
+			loader.setStringPool(instance.getStringPool());
+			loader.setPatches(matching);
+			List<QuestPackage> packages = loader.load();
+			packages.parallelStream().forEach(pack -> pack.getSearch().build());
+			return packages;
+		} finally {
+			for (ZipFile zip : zips) {
+				zip.close();
+			}
+		}
+	}
+	
+	/**
+	 * Adds recovered packages to the editor. It must be called on the JavaFX
+	 * thread after the task has succeeded.
+	 */
+	public void publish() {
+		loader.publish();
+		List<QuestPackage> packages = getValue();
+		for (int i = 0; i < packages.size(); i++) {
+			BetonQuestEditor.getInstance().getLoadRecords().put(packages.get(i), loader.getRecords().get(i));
+		}
+	}
+	
+	/**
+	 * @return names and locations of packages whose changes could not be
+	 *         recovered, because their files have changed
+	 */
+	public List<String> getSkipped() {
+		return skipped;
+	}
+	
+	/**
+	 * Finds the package at the location. Zip files are opened separately for
+	 * each package and must stay open until packages are loaded.
+	 */
+	private static PackageSource find(String location, List<ZipFile> zips) throws IOException {
+		Path directory = Paths.get(location);
+		if (Files.isDirectory(directory)) {
+			return PackageSource.find(directory, location);
+		}
+		int separator = location.lastIndexOf('!');
+		Path file = Paths.get(location.substring(0, Math.max(separator, 0)));
+		if (separator < 0 || !Files.isRegularFile(file)) {
+			return null;
+		}
+		ZipFile zip = new ZipFile(file.toFile());
+		zips.add(zip);
+		return PackageSource.find(zip, location);
+	}
+	
+	/**
+	 * Starts the task on a new daemon thread.
+	 */
+	public void start() {
+		Thread thread = new Thread(this, "Package recoverer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+}
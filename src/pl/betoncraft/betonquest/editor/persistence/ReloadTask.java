@@ -0,0 +1,128 @@
+/**
+ * BetonQuest Editor - advanced quest creating tool for BetonQuest
+ * Copyright (C) 2016  Jakub "Co0sh" Sapalski
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pl.betoncraft.betonquest.editor.persistence;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipFile;
+
+import javafx.concurrent.Task;
+import pl.betoncraft.betonquest.editor.BetonQuestEditor;
+import pl.betoncraft.betonquest.editor.model.QuestPackage;
+import pl.betoncraft.betonquest.editor.model.exception.PackageNotFoundException;
+
+/**
+ * Reloads a package from the location it was loaded from. Only files which
+ * changed since the last load are parsed, on a background thread. The loaded
+ * package is then patched in place by {@link #apply()}, which must be called
+ * on the JavaFX thread, so views and references to its objects stay valid.
+ *
+ * @author Jakub Sapalski
+ */
+public class ReloadTask extends Task<Set<String>> {
+	
+	private final QuestPackage pack;
+	private final LoadRecord record;
+	private PackageSource source;
+	private PackageLoader loader;
+	private Map<String, ParsedFile> parsed;
+	private Set<String> changed;
+	
+	public ReloadTask(QuestPackage pack, LoadRecord record) {
+		this.pack = pack;
+		this.record = record;
+		updateMessage(pack.getName().get());
+	}
+
+	@Override
+	protected Set<String> call() throws Exception {
+		String location = record.getLocation();
+		Path directory = Paths.get(location);
+		if (Files.isDirectory(directory)) {
+			source = PackageSource.find(directory, location);
+			return prepare();
+		}
+		int separator = location.lastIndexOf('!');
+		try (ZipFile zip = new ZipFile(location.substring(0, separator))) {
+			source = PackageSource.find(zip, location);
+			return prepare();
+		}
+	}
+	
+	/**
+	 * Patches the package with the changed files. It must be called on the
+	 * JavaFX thread after the task has succeeded.
+	 * 
+	 * @throws IOException
+	 *             when a file could not be read
+	 */
+	public void apply() throws IOException {
+		if (changed.isEmpty()) {
+			return;
+		}
+		loader.relink(pack, record.getKeys(), changed);
+		record.update(source, parsed, changed);
+	}
+	
+	/**
+	 * @return values of changed files which could not be loaded; they're
+	 *         known after {@link #apply()}
+	 * @see PackageLoader#getErrors()
+	 */
+	public List<String> getErrors() {
+		return loader.getErrors();
+	}
+	
+	/**
+	 * Finds changed files and parses them.
+	 */
+	private Set<String> prepare() throws IOException, PackageNotFoundException {
+		if (source == null) {
+			throw new PackageNotFoundException("Package " + pack.getName().get() + " was not found in " + record.getLocation());
+		}
+		changed = record.findChanges(source);
+		List<String> existing = new ArrayList<>();
+		for (String name : changed) {
+			if (source.getFiles().containsKey(name)) {
+				existing.add(name);
+			}
+		}
+		loader = new PackageLoader(source, (done, total, name) -> {}, null);
+		loader.setStringPool(BetonQuestEditor.getInstance().getStringPool());
+		loader.parse(existing);
+		parsed = loader.getParsedFiles();
+		return changed;
+	}
+	
+	/**
+	 * Starts the task on a new daemon thread.
+	 */
+	public void start() {
+		Thread thread = new Thread(this, "Package reloader");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+}
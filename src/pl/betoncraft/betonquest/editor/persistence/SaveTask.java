@@ -0,0 +1,101 @@
+/**
+ * BetonQuest Editor - advanced quest creating tool for BetonQuest
+ * Copyright (C) 2016  Jakub "Co0sh" Sapalski
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pl.betoncraft.betonquest.editor.persistence;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import javafx.concurrent.Task;
+import pl.betoncraft.betonquest.editor.model.QuestPackage;
+
+/**
+ * Saves a package to a zip file or a directory in the background. The
+ * package is captured in a snapshot when the task is created, which must
+ * happen on the JavaFX thread; it can be edited freely while the files are
+ * being written. The resulting {@link ZipBase} should be set on the package
+ * once the task has succeeded. It's null when the package was saved to a
+ * directory, as unchanged files can't be copied from there.
+ *
+ * @author Jakub Sapalski
+ */
+public class SaveTask extends Task<ZipBase> {
+	
+	private final PackageSnapshot snapshot;
+	private final File target;
+	private final Compression compression;
+	private final boolean directory;
+	private final String location;
+	private Map<String, String> stamps;
+	
+	/**
+	 * @param pack
+	 *            the package to save
+	 * @param target
+	 *            zip file or directory in which the package directory will
+	 *            be written, like plugins/BetonQuest
+	 * @param compression
+	 *            how entries of the zip file are compressed
+	 * @throws IOException
+	 *             when the package could not be recorded
+	 */
+	public SaveTask(QuestPackage pack, File target, Compression compression) throws IOException {
+		this.snapshot = new PackageWriter(pack).snapshot();
+		this.target = target;
+		this.compression = compression;
+		this.directory = target.isDirectory();
+		this.location = directory ? EditJournal.locationOf(target.toPath(), pack) : EditJournal.locationOf(target, pack);
+		updateMessage(pack.getName().get());
+	}
+
+	@Override
+	protected ZipBase call() throws Exception {
+		if (directory) {
+			stamps = snapshot.write(target.toPath());
+			return null;
+		}
+		ZipBase base = snapshot.write(target, compression);
+		stamps = base.getStamps();
+		return base;
+	}
+	
+	/**
+	 * @return location of saved files, as in {@link PackageSource#getLocation()}
+	 */
+	public String getLocation() {
+		return location;
+	}
+	
+	/**
+	 * @return stamps of saved files, mapped by their logical names; available
+	 *         once the task has succeeded
+	 */
+	public Map<String, String> getStamps() {
+		return stamps;
+	}
+	
+	/**
+	 * Starts the task on a new daemon thread.
+	 */
+	public void start() {
+		Thread thread = new Thread(this, "Package saver");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+}
@@ -0,0 +1,209 @@
+/**
+ * BetonQuest Editor - advanced quest creating tool for BetonQuest
+ * Copyright (C) 2016  Jakub "Co0sh" Sapalski
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pl.betoncraft.betonquest.editor.persistence;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Stores parsed files of packages in a local directory, so a package which
+ * did not change since it was last opened can be loaded without parsing YAML.
+ * There is one snapshot for each package location; it's used only if the
+ * fingerprint of package files matches the one saved in the snapshot.
+ * Problems with the cache are never fatal, the package is simply parsed
+ * again.
+ *
+ * @author Jakub Sapalski
+ */
+public class SnapshotCache {
+	
+	private static final int MAGIC = 0x42515331; // "BQS1"
+	private static final int VERSION = 1;
+	
+	private static SnapshotCache defaultCache;
+	
+	private final Path directory;
+	
+	public SnapshotCache(Path directory) {
+		this.directory = directory;
+	}
+	
+	/**
+	 * @return the cache in the user's home directory
+	 */
+	public static synchronized SnapshotCache getDefault() {
+		if (defaultCache == null) {
+			defaultCache = new SnapshotCache(Paths.get(System.getProperty("user.home"), ".betonquest-editor", "cache"));
+		}
+		return defaultCache;
+	}
+	
+	/**
+	 * Reads the snapshot of the package.
+	 * 
+	 * @param source
+	 *            the package
+	 * @return parsed files mapped by their logical names or null if there is
+	 *         no valid snapshot for the current state of the package
+	 */
+	public Map<String, ParsedFile> read(PackageSource source) {
+		Path file = fileOf(source);
+		if (!Files.isRegularFile(file)) {
+			return null;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				return null;
+			}
+			StringTable strings = new StringTable();
+			if (!source.getLocation().equals(strings.read(in)) || !source.getFingerprint().equals(strings.read(in))) {
+				return null;
+			}
+			int count = readNumber(in);
+			HashMap<String, ParsedFile> files = new HashMap<>();
+			for (int i = 0; i < count; i++) {
+				String name = strings.read(in);
+				files.put(name, ParsedFile.read(in, strings));
+			}
+			return files.keySet().equals(source.getFiles().keySet()) ? files : null;
+		} catch (IOException | RuntimeException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Saves the snapshot of the package, replacing the previous one. The file
+	 * is written next to the old one and moved in place, so a snapshot is
+	 * never partially written.
+	 * 
+	 * @param source
+	 *            the package
+	 * @param files
+	 *            parsed files mapped by their logical names
+	 */
+	public void write(PackageSource source, Map<String, ParsedFile> files) {
+		Path file = fileOf(source);
+		Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		try {
+			Files.createDirectories(directory);
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				StringTable strings = new StringTable();
+				strings.write(out, source.getLocation());
+				strings.write(out, source.getFingerprint());
+				writeNumber(out, files.size());
+				for (Entry<String, ParsedFile> entry : files.entrySet()) {
+					strings.write(out, entry.getKey());
+					entry.getValue().write(out, strings);
+				}
+			}
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException | RuntimeException e) {
+			try {
+				Files.deleteIfExists(temp);
+			} catch (IOException ignored) {}
+		}
+	}
+	
+	private Path fileOf(PackageSource source) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			StringBuilder name = new StringBuilder();
+			for (byte b : digest.digest(source.getLocation().getBytes(StandardCharsets.UTF_8))) {
+				name.append(String.format("%02x", b));
+			}
+			return directory.resolve(name.append(".bin").toString());
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e); // every Java platform supports SHA-1
+		}
+	}
+	
+	static void writeNumber(DataOutputStream out, int number) throws IOException {
+		while ((number & ~0x7F) != 0) {
+			out.write((number & 0x7F) | 0x80);
+			number >>>= 7;
+		}
+		out.write(number);
+	}
+	
+	static int readNumber(DataInputStream in) throws IOException {
+		int number = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			int b = in.readUnsignedByte();
+			number |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return number;
+			}
+		}
+		throw new IOException("Malformed number in the snapshot");
+	}
+	
+	/**
+	 * Writes each distinct string only once; later occurrences are written
+	 * as references to the first one. Keys repeat a lot in package files, so
+	 * this makes snapshots much smaller and faster to read.
+	 */
+	static class StringTable {
+		
+		private final HashMap<String, Integer> written = new HashMap<>();
+		private final ArrayList<String> read = new ArrayList<>();
+		
+		void write(DataOutputStream out, String string) throws IOException {
+			Integer index = written.get(string);
+			if (index != null) {
+				writeNumber(out, index + 1);
+				return;
+			}
+			written.put(string, written.size());
+			byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+			writeNumber(out, 0);
+			writeNumber(out, bytes.length);
+			out.write(bytes);
+		}
+		
+		String read(DataInputStream in) throws IOException {
+			int index = readNumber(in);
+			if (index > 0) {
+				return read.get(index - 1);
+			}
+			byte[] bytes = new byte[readNumber(in)];
+			in.readFully(bytes);
+			String string = new String(bytes, StandardCharsets.UTF_8);
+			read.add(string);
+			return string;
+		}
+		
+	}
+
+}
@@ -0,0 +1,216 @@
+/**
+ * BetonQuest Editor - advanced quest creating tool for BetonQuest
+ * Copyright (C) 2016  Jakub "Co0sh" Sapalski
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pl.betoncraft.betonquest.editor.persistence;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import pl.betoncraft.betonquest.editor.data.ID;
+import pl.betoncraft.betonquest.editor.data.PendingReferences;
+import pl.betoncraft.betonquest.editor.data.StringPool;
+import pl.betoncraft.betonquest.editor.model.QuestPackage;
+
+/**
+ * Loads many packages at once, for example the whole BetonQuest plugin
+ * directory. Files of all packages are parsed in parallel, then the packages
+ * are linked together on the loading thread. Loaded packages can be
+ * displayed, so they are changed only when the new packages are published on
+ * the JavaFX thread: then the new packages are added to the workspace and
+ * objects they referenced in loaded packages are added there.
+ *
+ * @author Jakub Sapalski
+ */
+public class WorkspaceLoader {
+	
+	private final List<PackageSource> sources;
+	private final Map<String, QuestPackage> workspace;
+	private final PendingReferences pending;
+	private final PackageLoader.Progress progress;
+	private final ArrayList<String> timings = new ArrayList<>();
+	private final ArrayList<LoadRecord> records = new ArrayList<>();
+	private final ArrayList<String> errors = new ArrayList<>();
+	private final ArrayList<QuestPackage> packages = new ArrayList<>();
+	private final HashMap<String, QuestPackage> linked = new HashMap<>();
+	private final PendingReferences deferred = new PendingReferences();
+	private int loadedFiles = 0;
+	private boolean lazyConversations = false;
+	private Map<String, PackagePatch> patches = Collections.emptyMap();
+	private StringPool pool;
+	
+	/**
+	 * @param sources
+	 *            packages to load
+	 * @param workspace
+	 *            map of loaded packages, to which new packages will be added
+	 *            when they're published
+	 * @param pending
+	 *            references to packages which were not loaded yet
+	 * @param progress
+	 *            receives progress of all packages together
+	 */
+	public WorkspaceLoader(List<PackageSource> sources, Map<String, QuestPackage> workspace, PendingReferences pending,
+			PackageLoader.Progress progress) {
+		this.sources = sources;
+		this.workspace = workspace;
+		this.pending = pending;
+		this.progress = progress;
+	}
+	
+	/**
+	 * @param lazy
+	 *            whether contents of conversations should be loaded when
+	 *            they're used for the first time
+	 * @see PackageLoader#setLazyConversations(boolean)
+	 */
+	public void setLazyConversations(boolean lazy) {
+		this.lazyConversations = lazy;
+	}
+	
+	/**
+	 * @param patches
+	 *            changes applied to parsed files of packages before they are
+	 *            linked, mapped by locations of packages
+	 * @see PackageLoader#patch(PackagePatch)
+	 */
+	public void setPatches(Map<String, PackagePatch> patches) {
+		this.patches = patches;
+	}
+	
+	/**
+	 * @param pool
+	 *            pool of the workspace, in which names and values of all
+	 *            packages are kept
+	 * @see PackageLoader#setStringPool(StringPool)
+	 */
+	public void setStringPool(StringPool pool) {
+		this.pool = pool;
+	}
+	
+	/**
+	 * Loads all packages without adding them to the workspace. The packages
+	 * are linked together, so references between them are resolved no matter
+	 * in which order they are linked, and references waiting for them are
+	 * moved into them. Packages which are already loaded are not changed, as
+	 * they can be displayed; call {@link #publish()} to add the new packages
+	 * to the workspace. If loading fails, the workspace is left as it was.
+	 * 
+	 * @return loaded packages, in the order of sources
+	 * @throws IOException
+	 *             when a file could not be read or loading was interrupted
+	 */
+	public List<QuestPackage> load() throws IOException {
+		int total = 0;
+		for (PackageSource source : sources) {
+			total += source.getFiles().size();
+		}
+		int totalFiles = total;
+		ArrayList<PackageLoader> loaders = new ArrayList<>(sources.size());
+		ArrayList<List<ID>> resolved = new ArrayList<>();
+		for (PackageSource source : sources) {
+			PackageLoader loader = new PackageLoader(source, (done, all, name) -> progress.update(++loadedFiles, totalFiles, name));
+			loader.setLazyConversations(lazyConversations);
+			loader.setStringPool(pool);
+			loader.parse();
+			loaders.add(loader);
+		}
+		try {
+			for (int i = 0; i < sources.size(); i++) {
+				PackagePatch patch = patches.get(sources.get(i).getLocation());
+				if (patch != null) {
+					loaders.get(i).patch(patch);
+				}
+			}
+			// all packages must exist before any cross-package reference is resolved
+			for (PackageSource source : sources) {
+				QuestPackage pack = new QuestPackage(source.getName());
+				packages.add(pack);
+				linked.put(pack.getName().get(), pack);
+			}
+			// proxies waiting for new packages are completed when their definitions are linked
+			for (QuestPackage pack : packages) {
+				resolved.add(pending.resolve(pack));
+				pack.startLinking(linked, deferred);
+			}
+			for (int i = 0; i < loaders.size(); i++) {
+				loaders.get(i).link(packages.get(i));
+			}
+		} catch (IOException | RuntimeException e) {
+			for (PackageLoader loader : loaders) {
+				loader.cancel();
+			}
+			for (int i = 0; i < resolved.size(); i++) {
+				pending.restore(packages.get(i).getName().get(), resolved.get(i));
+			}
+			throw e;
+		} finally {
+			for (QuestPackage pack : packages) {
+				pack.finishLinking();
+			}
+		}
+		for (int i = 0; i < loaders.size(); i++) {
+			PackageLoader loader = loaders.get(i);
+			records.add(new LoadRecord(sources.get(i), loader.getParsedFiles()));
+			errors.addAll(loader.getErrors());
+			timings.add(String.format("%s: %d files, %s in %d ms, linked in %d ms", packages.get(i).getName().get(),
+					loader.getFileCount(), loader.isFromSnapshot() ? "read from snapshot" : "parsed",
+					loader.getParseTime() / 1000000, loader.getLinkTime() / 1000000));
+		}
+		return packages;
+	}
+	
+	/**
+	 * Adds loaded packages to the workspace, replacing packages with the
+	 * same names, and adds objects which the new packages referenced in
+	 * already loaded packages to them. It must be called on the JavaFX thread
+	 * after {@link #load()} has succeeded.
+	 */
+	public void publish() {
+		for (QuestPackage pack : packages) {
+			workspace.put(pack.getName().get(), pack);
+		}
+		deferred.moveTo(workspace, pending);
+	}
+	
+	/**
+	 * @return records of loaded packages, in the same order as packages
+	 */
+	public List<LoadRecord> getRecords() {
+		return records;
+	}
+	
+	/**
+	 * @return values which could not be loaded, from all packages
+	 * @see PackageLoader#getErrors()
+	 */
+	public List<String> getErrors() {
+		return errors;
+	}
+	
+	/**
+	 * @return loading times of each package, one line per package; parsing
+	 *         time is summed over all threads
+	 */
+	public List<String> getTimings() {
+		return timings;
+	}
+
+}
@@ -0,0 +1,152 @@
+/**
+ * BetonQuest Editor - advanced quest creating tool for BetonQuest
+ * Copyright (C) 2016  Jakub "Co0sh" Sapalski
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pl.betoncraft.betonquest.editor.persistence;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import com.fasterxml.jackson.dataformat.yaml.YAMLParser;
+
+/**
+ * Reads YAML files token by token and passes every scalar value to a handler,
+ * together with the path of keys leading to it. The path is kept on a stack,
+ * so no intermediate maps or dotted strings are created.
+ *
+ * @author Jakub Sapalski
+ */
+public class YamlReader {
+	
+	private static final YAMLFactory factory = new YAMLFactory();
+	
+	/**
+	 * Reads the stream and passes all values to the handler. The stream is
+	 * closed afterwards.
+	 * 
+	 * @param in
+	 *            stream with YAML data
+	 * @param handler
+	 *            receives values found in the stream
+	 * @throws IOException
+	 *             when the stream could not be read or the YAML is invalid
+	 */
+	public static void read(InputStream in, Handler handler) throws IOException {
+		String[] path = new String[8];
+		int depth = 0; // number of keys leading to the current object
+		int level = 0; // number of currently open objects
+		try (YAMLParser parser = factory.createParser(in)) {
+			JsonToken token;
+			while ((token = parser.nextToken()) != null) {
+				switch (token) {
+				case START_OBJECT:
+					if (level++ > 0) {
+						depth++;
+					}
+					break;
+				case END_OBJECT:
+					if (--level > 0) {
+						depth--;
+					}
+					break;
+				case FIELD_NAME:
+					if (depth == path.length) {
+						path = Arrays.copyOf(path, depth * 2);
+					}
+					path[depth] = parser.getCurrentName();
+					break;
+				case START_ARRAY:
+					// lists are not used in packages, keep only the last value like a key would
+					String last = readArray(parser);
+					if (last != null && level > 0) {
+						handler.handle(path, depth + 1, last);
+					}
+					break;
+				case VALUE_STRING:
+				case VALUE_NUMBER_INT:
+				case VALUE_NUMBER_FLOAT:
+				case VALUE_FALSE:
+				case VALUE_TRUE:
+					if (level > 0) {
+						handler.handle(path, depth + 1, parser.getText());
+					}
+					break;
+				default:
+					// do nothing
+				}
+			}
+		}
+	}
+	
+	private static String readArray(YAMLParser parser) throws IOException {
+		String last = null;
+		JsonToken token;
+		while ((token = parser.nextToken()) != JsonToken.END_ARRAY && token != null) {
+			if (token.isScalarValue() && token != JsonToken.VALUE_NULL) {
+				last = parser.getText();
+			} else if (token.isStructStart()) {
+				parser.skipChildren();
+			}
+		}
+		return last;
+	}
+	
+	/**
+	 * Joins a part of the path with dots.
+	 * 
+	 * @param path
+	 *            the path of keys
+	 * @param from
+	 *            index of the first key to join
+	 * @param depth
+	 *            number of keys in the path
+	 * @return the keys joined with dots
+	 */
+	public static String join(String[] path, int from, int depth) {
+		if (depth - from == 1) {
+			return path[from];
+		}
+		StringBuilder builder = new StringBuilder(path[from]);
+		for (int i = from + 1; i < depth; i++) {
+			builder.append('.').append(path[i]);
+		}
+		return builder.toString();
+	}
+	
+	/**
+	 * Receives values read from the YAML file.
+	 */
+	public interface Handler {
+		
+		/**
+		 * Handles a single value.
+		 * 
+		 * @param path
+		 *            keys leading to the value; only first "depth" elements
+		 *            are valid and the array must not be stored
+		 * @param depth
+		 *            number of keys leading to the value
+		 * @param value
+		 *            the value as a String
+		 */
+		public void handle(String[] path, int depth, String value);
+		
+	}
+
+}
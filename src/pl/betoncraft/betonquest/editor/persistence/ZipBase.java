@@ -0,0 +1,87 @@
+/**
+ * BetonQuest Editor - advanced quest creating tool for BetonQuest
+ * Copyright (C) 2016  Jakub "Co0sh" Sapalski
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pl.betoncraft.betonquest.editor.persistence;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Zip file with files of a package, as they were when the package was loaded
+ * from it or saved to it. Files which did not change since then can be
+ * copied from this zip without writing them again, as long as the zip still
+ * contains the same data.
+ *
+ * @author Jakub Sapalski
+ */
+public class ZipBase {
+	
+	private final File zip;
+	private final HashMap<String, ZipIndex.Entry> files;
+	
+	/**
+	 * @param zip
+	 *            the zip file
+	 * @param files
+	 *            entries of package files, mapped by logical names of files
+	 */
+	public ZipBase(File zip, Map<String, ZipIndex.Entry> files) {
+		this.zip = zip;
+		this.files = new HashMap<>(files);
+	}
+	
+	/**
+	 * @return the zip file
+	 */
+	public File getZip() {
+		return zip;
+	}
+	
+	/**
+	 * @return stamps of package files, as in
+	 *         {@link PackageSource.Resource#getStamp()}, mapped by logical
+	 *         names of files
+	 */
+	public Map<String, String> getStamps() {
+		HashMap<String, String> stamps = new HashMap<>();
+		for (Map.Entry<String, ZipIndex.Entry> entry : files.entrySet()) {
+			stamps.put(entry.getKey(), PackageSource.stampOf(entry.getValue().getCrc(), entry.getValue().getSize()));
+		}
+		return stamps;
+	}
+	
+	/**
+	 * Finds the entry with the package file, if the zip still contains the
+	 * same data as before.
+	 * 
+	 * @param index
+	 *            current index of the zip file
+	 * @param file
+	 *            logical name of the file
+	 * @return the entry with the file or null if it's not there anymore
+	 */
+	public ZipIndex.Entry find(ZipIndex index, String file) {
+		ZipIndex.Entry known = files.get(file);
+		if (known == null) {
+			return null;
+		}
+		ZipIndex.Entry current = index.get(known.getName());
+		return current != null && current.hasSameData(known) ? current : null;
+	}
+
+}
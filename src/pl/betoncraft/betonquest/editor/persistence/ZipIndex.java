@@ -0,0 +1,295 @@
+/**
+ * BetonQuest Editor - advanced quest creating tool for BetonQuest
+ * Copyright (C) 2016  Jakub "Co0sh" Sapalski
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pl.betoncraft.betonquest.editor.persistence;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Central directory of an existing zip file. Compressed data of its entries
+ * can be copied to another zip file without inflating it, or extracted.
+ *
+ * @author Jakub Sapalski
+ */
+public class ZipIndex implements Closeable {
+	
+	static final int LOCAL_HEADER = 0x04034b50;
+	static final int CENTRAL_HEADER = 0x02014b50;
+	static final int END_HEADER = 0x06054b50;
+	
+	private final RandomAccessFile file;
+	private final HashMap<String, Entry> entries = new HashMap<>();
+	
+	private ZipIndex(RandomAccessFile file) {
+		this.file = file;
+	}
+	
+	/**
+	 * Reads the central directory of the zip file. The file stays open until
+	 * the index is closed.
+	 * 
+	 * @param zip
+	 *            the zip file
+	 * @return the index of the zip file
+	 * @throws IOException
+	 *             when the file could not be read or is not a supported zip
+	 */
+	public static ZipIndex open(File zip) throws IOException {
+		ZipIndex index = new ZipIndex(new RandomAccessFile(zip, "r"));
+		try {
+			index.read();
+		} catch (IOException | RuntimeException e) {
+			index.close();
+			throw e instanceof IOException ? (IOException) e : new ZipException(zip + " is damaged");
+		}
+		return index;
+	}
+	
+	/**
+	 * @param name
+	 *            full name of the entry
+	 * @return the entry or null if there is no such entry
+	 */
+	public Entry get(String name) {
+		return entries.get(name);
+	}
+	
+	/**
+	 * Copies compressed data of the entry to the stream.
+	 * 
+	 * @param entry
+	 *            entry of this zip file
+	 * @param out
+	 *            stream to write data to
+	 * @throws IOException
+	 *             when the data could not be read or written
+	 */
+	public synchronized void copy(Entry entry, OutputStream out) throws IOException {
+		long position = dataOffset(entry);
+		byte[] buffer = new byte[(int) Math.min(entry.compressedSize, 65536)];
+		long left = entry.compressedSize;
+		file.seek(position);
+		while (left > 0) {
+			int count = (int) Math.min(left, buffer.length);
+			file.readFully(buffer, 0, count);
+			out.write(buffer, 0, count);
+			left -= count;
+		}
+	}
+	
+	/**
+	 * Reads and inflates data of the entry.
+	 * 
+	 * @param entry
+	 *            entry of this zip file
+	 * @return uncompressed data of the entry
+	 * @throws IOException
+	 *             when the data could not be read or is damaged
+	 */
+	public synchronized byte[] extract(Entry entry) throws IOException {
+		if (entry.size > Integer.MAX_VALUE || entry.compressedSize > Integer.MAX_VALUE) {
+			throw new ZipException(entry.name + " is too big");
+		}
+		byte[] compressed = new byte[(int) entry.compressedSize];
+		file.seek(dataOffset(entry));
+		file.readFully(compressed);
+		byte[] data;
+		if (entry.method == ZipEntry.STORED) {
+			data = compressed;
+		} else if (entry.method == ZipEntry.DEFLATED) {
+			data = new byte[(int) entry.size];
+			Inflater inflater = new Inflater(true);
+			try {
+				inflater.setInput(compressed);
+				int length = 0;
+				while (length < data.length && !inflater.finished()) {
+					int count = inflater.inflate(data, length, data.length - length);
+					if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+						break;
+					}
+					length += count;
+				}
+				if (length != data.length) {
+					throw new ZipException("Invalid data of " + entry.name);
+				}
+			} catch (DataFormatException e) {
+				throw new ZipException("Invalid data of " + entry.name);
+			} finally {
+				inflater.end();
+			}
+		} else {
+			throw new ZipException("Unsupported compression method of " + entry.name);
+		}
+		CRC32 crc = new CRC32();
+		crc.update(data);
+		if (crc.getValue() != entry.crc) {
+			throw new ZipException("Invalid checksum of " + entry.name);
+		}
+		return data;
+	}
+	
+	@Override
+	public synchronized void close() throws IOException {
+		file.close();
+	}
+	
+	private void read() throws IOException {
+		// the end record is at the end of the file, followed by a comment
+		long length = file.length();
+		int tail = (int) Math.min(length, 22 + 65535);
+		ByteBuffer end = read(length - tail, tail);
+		int position = tail - 22;
+		while (position >= 0 && end.getInt(position) != END_HEADER) {
+			position--;
+		}
+		if (position < 0) {
+			throw new ZipException("Not a zip file");
+		}
+		int count = end.getShort(position + 10) & 0xFFFF;
+		long size = end.getInt(position + 12) & 0xFFFFFFFFL;
+		long offset = end.getInt(position + 16) & 0xFFFFFFFFL;
+		if (count == 0xFFFF || offset == 0xFFFFFFFFL) {
+			throw new ZipException("Zip64 files are not supported");
+		}
+		ByteBuffer directory = read(offset, (int) size);
+		position = 0;
+		for (int i = 0; i < count; i++) {
+			if (directory.getInt(position) != CENTRAL_HEADER) {
+				throw new ZipException("Invalid central directory");
+			}
+			int flags = directory.getShort(position + 8) & 0xFFFF;
+			int method = directory.getShort(position + 10) & 0xFFFF;
+			long crc = directory.getInt(position + 16) & 0xFFFFFFFFL;
+			long compressedSize = directory.getInt(position + 20) & 0xFFFFFFFFL;
+			long uncompressedSize = directory.getInt(position + 24) & 0xFFFFFFFFL;
+			int nameLength = directory.getShort(position + 28) & 0xFFFF;
+			int extraLength = directory.getShort(position + 30) & 0xFFFF;
+			int commentLength = directory.getShort(position + 32) & 0xFFFF;
+			long localOffset = directory.getInt(position + 42) & 0xFFFFFFFFL;
+			String name = new String(directory.array(), position + 46, nameLength, StandardCharsets.UTF_8);
+			// encrypted entries can't be copied, they're left out
+			if ((flags & 1) == 0) {
+				entries.put(name, new Entry(name, method, crc, compressedSize, uncompressedSize, localOffset));
+			}
+			position += 46 + nameLength + extraLength + commentLength;
+		}
+	}
+	
+	/**
+	 * @return position of compressed data of the entry, after its local header
+	 */
+	private long dataOffset(Entry entry) throws IOException {
+		ByteBuffer header = read(entry.offset, 30);
+		if (header.getInt(0) != LOCAL_HEADER) {
+			throw new ZipException("Invalid header of " + entry.name);
+		}
+		return entry.offset + 30 + (header.getShort(26) & 0xFFFF) + (header.getShort(28) & 0xFFFF);
+	}
+	
+	private ByteBuffer read(long position, int length) throws IOException {
+		byte[] bytes = new byte[length];
+		file.seek(position);
+		file.readFully(bytes);
+		return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+	}
+	
+	/**
+	 * A single entry of a zip file.
+	 */
+	public static class Entry {
+		
+		private final String name;
+		private final int method;
+		private final long crc;
+		private final long compressedSize;
+		private final long size;
+		private final long offset;
+		
+		/**
+		 * @param name
+		 *            full name of the entry
+		 * @param method
+		 *            compression method, as in ZipEntry
+		 * @param crc
+		 *            CRC-32 of uncompressed data
+		 * @param compressedSize
+		 *            size of compressed data
+		 * @param size
+		 *            size of uncompressed data
+		 * @param offset
+		 *            position of the local header in the file, or -1 if
+		 *            unknown
+		 */
+		public Entry(String name, int method, long crc, long compressedSize, long size, long offset) {
+			this.name = name;
+			this.method = method;
+			this.crc = crc;
+			this.compressedSize = compressedSize;
+			this.size = size;
+			this.offset = offset;
+		}
+		
+		public String getName() {
+			return name;
+		}
+		
+		public int getMethod() {
+			return method;
+		}
+		
+		public long getCrc() {
+			return crc;
+		}
+		
+		public long getCompressedSize() {
+			return compressedSize;
+		}
+		
+		public long getSize() {
+			return size;
+		}
+		
+		public long getOffset() {
+			return offset;
+		}
+		
+		/**
+		 * @param other
+		 *            another entry
+		 * @return true if both entries contain the same compressed data
+		 */
+		public boolean hasSameData(Entry other) {
+			return method == other.method && crc == other.crc && compressedSize == other.compressedSize
+					&& size == other.size;
+		}
+		
+	}
+
+}
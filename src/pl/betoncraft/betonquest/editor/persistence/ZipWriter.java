@@ -0,0 +1,291 @@
+/**
+ * BetonQuest Editor - advanced quest creating tool for BetonQuest
+ * Copyright (C) 2016  Jakub "Co0sh" Sapalski
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pl.betoncraft.betonquest.editor.persistence;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Writes zip files. Unlike ZipOutputStream it can also copy compressed
+ * entries from another zip file without inflating them again, and write
+ * entries compressed beforehand on other threads. Entries are written with
+ * their sizes in the local header, so whole data of an entry must be known
+ * before it's written.
+ *
+ * @author Jakub Sapalski
+ */
+public class ZipWriter implements Closeable {
+	
+	private static final int UTF8_FLAG = 0x800;
+	
+	private final OutputStream out;
+	private final Compression compression;
+	private final ArrayList<ZipIndex.Entry> entries = new ArrayList<>();
+	private final HashSet<String> names = new HashSet<>();
+	private final int time;
+	private final int date;
+	private long written = 0;
+	private boolean finished = false;
+	
+	/**
+	 * @param out
+	 *            stream to which the zip file is written, it's closed when
+	 *            the writer is closed
+	 */
+	public ZipWriter(OutputStream out) {
+		this(out, Compression.DEFAULT);
+	}
+	
+	/**
+	 * @param out
+	 *            stream to which the zip file is written, it's closed when
+	 *            the writer is closed
+	 * @param compression
+	 *            how data passed to {@link #write(String, byte[], int)} is
+	 *            compressed
+	 */
+	public ZipWriter(OutputStream out, Compression compression) {
+		this.out = new BufferedOutputStream(out, 65536);
+		this.compression = compression;
+		LocalDateTime now = LocalDateTime.now();
+		time = (now.getHour() << 11) | (now.getMinute() << 5) | (now.getSecond() >> 1);
+		date = ((now.getYear() - 1980) << 9) | (now.getMonthValue() << 5) | now.getDayOfMonth();
+	}
+	
+	/**
+	 * Compresses the data and writes it as a new entry.
+	 * 
+	 * @param name
+	 *            full name of the entry
+	 * @param data
+	 *            uncompressed data
+	 * @param length
+	 *            number of bytes of data to write
+	 * @return the written entry
+	 */
+	public ZipIndex.Entry write(String name, byte[] data, int length) throws IOException {
+		return write(name, compress(data, length, compression));
+	}
+	
+	/**
+	 * Writes already compressed data as a new entry.
+	 * 
+	 * @param name
+	 *            full name of the entry
+	 * @param data
+	 *            compressed data, as returned by
+	 *            {@link #compress(byte[], int, Compression)}
+	 * @return the written entry
+	 */
+	public ZipIndex.Entry write(String name, Data data) throws IOException {
+		ZipIndex.Entry entry = new ZipIndex.Entry(name, data.method, data.crc, data.length, data.size, written);
+		writeHeader(entry);
+		out.write(data.bytes, 0, data.length);
+		written += data.length;
+		entries.add(entry);
+		return entry;
+	}
+	
+	/**
+	 * Compresses data of an entry. It doesn't depend on any writer, so
+	 * entries can be compressed on many threads and then written in order.
+	 * 
+	 * @param data
+	 *            uncompressed data, it must not be changed until the
+	 *            entry is written
+	 * @param length
+	 *            number of bytes of data to compress
+	 * @param compression
+	 *            how to compress the data
+	 * @return compressed data with its checksum
+	 */
+	public static Data compress(byte[] data, int length, Compression compression) {
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, length);
+		if (compression.getMethod() == ZipEntry.STORED) {
+			return new Data(ZipEntry.STORED, crc.getValue(), data, length, length);
+		}
+		Deflater deflater = new Deflater(compression.getLevel(), true);
+		try {
+			deflater.setInput(data, 0, length);
+			deflater.finish();
+			byte[] compressed = new byte[Math.max(length / 2, 64)];
+			int size = 0;
+			while (!deflater.finished()) {
+				if (size == compressed.length) {
+					compressed = Arrays.copyOf(compressed, compressed.length * 2);
+				}
+				size += deflater.deflate(compressed, size, compressed.length - size);
+			}
+			return new Data(ZipEntry.DEFLATED, crc.getValue(), compressed, size, length);
+		} finally {
+			deflater.end();
+		}
+	}
+	
+	/**
+	 * Copies the compressed entry from another zip file as a new entry.
+	 * 
+	 * @param name
+	 *            full name of the new entry
+	 * @param source
+	 *            the other zip file
+	 * @param original
+	 *            the entry in the other zip file
+	 * @return the written entry
+	 */
+	public ZipIndex.Entry copy(String name, ZipIndex source, ZipIndex.Entry original) throws IOException {
+		ZipIndex.Entry entry = new ZipIndex.Entry(name, original.getMethod(), original.getCrc(),
+				original.getCompressedSize(), original.getSize(), written);
+		writeHeader(entry);
+		source.copy(original, out);
+		written += entry.getCompressedSize();
+		entries.add(entry);
+		return entry;
+	}
+	
+	/**
+	 * @return entries written so far
+	 */
+	public List<ZipIndex.Entry> getEntries() {
+		return entries;
+	}
+	
+	/**
+	 * Writes the central directory and flushes the stream, without closing
+	 * it. No entries can be added afterwards.
+	 */
+	public void finish() throws IOException {
+		if (finished) {
+			return;
+		}
+		finished = true;
+		if (entries.size() > 0xFFFF || written > 0xFFFFFFFFL) {
+			throw new ZipException("Zip file is too large");
+		}
+		long start = written;
+		for (ZipIndex.Entry entry : entries) {
+			byte[] name = entry.getName().getBytes(StandardCharsets.UTF_8);
+			ByteBuffer header = ByteBuffer.allocate(46).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(ZipIndex.CENTRAL_HEADER);
+			header.putShort(version(entry));
+			fill(header, entry, name.length);
+			header.putShort((short) 0); // comment length
+			header.putShort((short) 0); // disk number
+			header.putShort((short) 0); // internal attributes
+			header.putInt(0); // external attributes
+			header.putInt((int) entry.getOffset());
+			out.write(header.array());
+			out.write(name);
+			written += 46 + name.length;
+		}
+		ByteBuffer end = ByteBuffer.allocate(22).order(ByteOrder.LITTLE_ENDIAN);
+		end.putInt(ZipIndex.END_HEADER);
+		end.putShort((short) 0); // number of this disk
+		end.putShort((short) 0); // disk with central directory
+		end.putShort((short) entries.size());
+		end.putShort((short) entries.size());
+		end.putInt((int) (written - start));
+		end.putInt((int) start);
+		end.putShort((short) 0); // comment length
+		out.write(end.array());
+		out.flush();
+	}
+	
+	/**
+	 * Finishes the zip file if it wasn't finished yet and closes the stream.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			finish();
+		} finally {
+			out.close();
+		}
+	}
+	
+	private void writeHeader(ZipIndex.Entry entry) throws IOException {
+		if (!names.add(entry.getName())) {
+			throw new ZipException("duplicate entry: " + entry.getName());
+		}
+		byte[] name = entry.getName().getBytes(StandardCharsets.UTF_8);
+		ByteBuffer header = ByteBuffer.allocate(30).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(ZipIndex.LOCAL_HEADER);
+		fill(header, entry, name.length);
+		out.write(header.array());
+		out.write(name);
+		written += 30 + name.length;
+	}
+	
+	/**
+	 * Puts fields shared by local and central headers, from the version
+	 * needed to extract to the extra field length.
+	 */
+	private void fill(ByteBuffer header, ZipIndex.Entry entry, int nameLength) {
+		header.putShort(version(entry));
+		header.putShort((short) UTF8_FLAG);
+		header.putShort((short) entry.getMethod());
+		header.putShort((short) time);
+		header.putShort((short) date);
+		header.putInt((int) entry.getCrc());
+		header.putInt((int) entry.getCompressedSize());
+		header.putInt((int) entry.getSize());
+		header.putShort((short) nameLength);
+		header.putShort((short) 0); // extra field length
+	}
+	
+	private static short version(ZipIndex.Entry entry) {
+		return (short) (entry.getMethod() == ZipEntry.STORED ? 10 : 20);
+	}
+	
+	/**
+	 * Compressed data of an entry.
+	 */
+	public static class Data {
+		
+		private final int method;
+		private final long crc;
+		private final byte[] bytes;
+		private final int length;
+		private final long size;
+		
+		private Data(int method, long crc, byte[] bytes, int length, long size) {
+			this.method = method;
+			this.crc = crc;
+			this.bytes = bytes;
+			this.length = length;
+			this.size = size;
+		}
+		
+	}
+
+}
@@ -0,0 +1,105 @@
+/**
+ * BetonQuest Editor - advanced quest creating tool for BetonQuest
+ * Copyright (C) 2016  Jakub "Co0sh" Sapalski
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pl.betoncraft.betonquest.editor.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import javafx.collections.FXCollections;
+
+/**
+ * Finds objects of all packages by beginnings of their displayed names.
+ *
+ * @author Jakub Sapalski
+ */
+public class SymbolTableTest {
+	
+	private QuestPackage current;
+	private QuestPackage other;
+	private SymbolTable symbols;
+	
+	@Before
+	public void setUp() {
+		current = new QuestPackage("quest");
+		other = new QuestPackage("other");
+		add(current, "has_tag", "has_item", "night");
+		add(other, "has_tag", "day");
+		symbols = new SymbolTable();
+		symbols.setPackages(Arrays.asList(other, current), current);
+	}
+	
+	@Test
+	public void currentPackageIsFoundByIds() {
+		// objects of other packages are displayed with names of their packages
+		assertEquals(Arrays.asList("quest.has_item", "quest.has_tag"), names("has_"));
+	}
+	
+	@Test
+	public void otherPackagesAreFoundByQualifiedNames() {
+		assertEquals(Arrays.asList("other.day", "other.has_tag"), names("oth"));
+		assertEquals(Arrays.asList("other.day", "other.has_tag"), names("other."));
+		assertEquals(Collections.singletonList("other.day"), names("other.d"));
+		assertTrue(names("other.x").isEmpty());
+	}
+	
+	@Test
+	public void addedAndRemovedObjectsAreFound() {
+		assertEquals(Collections.singletonList("quest.night"), names("n"));
+		current.getConditions().add(new Condition(current, "noon"));
+		assertEquals(Arrays.asList("quest.night", "quest.noon"), names("n"));
+		current.getConditions().remove(current.getIndex(Condition.class).get("night"));
+		assertEquals(Collections.singletonList("quest.noon"), names("n"));
+	}
+	
+	@Test
+	public void renamedObjectsAreFound() {
+		current.getIndex(Condition.class).get("night").getId().set("evening");
+		assertTrue(names("n").isEmpty());
+		assertEquals(Collections.singletonList("quest.evening"), names("ev"));
+	}
+	
+	@Test
+	public void onlyViewsCanBeSearched() {
+		assertTrue(symbols.isView(symbols.getConditions()));
+		assertFalse(symbols.isView(FXCollections.observableArrayList(current.getConditions())));
+	}
+	
+	private static void add(QuestPackage pack, String... names) {
+		for (String name : names) {
+			pack.getConditions().add(new Condition(pack, name));
+		}
+	}
+	
+	private List<String> names(String prefix) {
+		ArrayList<String> names = new ArrayList<>();
+		for (Condition condition : symbols.find(symbols.getConditions(), prefix)) {
+			names.add(condition.getPack().getName().get() + '.' + condition.getIdValue());
+		}
+		return names;
+	}
+	
+}
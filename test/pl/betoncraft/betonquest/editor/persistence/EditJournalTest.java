@@ -0,0 +1,175 @@
+/**
+ * BetonQuest Editor - advanced quest creating tool for BetonQuest
+ * Copyright (C) 2016  Jakub "Co0sh" Sapalski
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pl.betoncraft.betonquest.editor.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import pl.betoncraft.betonquest.editor.data.IdWrapper;
+import pl.betoncraft.betonquest.editor.model.Conversation;
+import pl.betoncraft.betonquest.editor.model.NpcOption;
+import pl.betoncraft.betonquest.editor.model.PlayerOption;
+import pl.betoncraft.betonquest.editor.model.QuestPackage;
+
+/**
+ * Records edits in the journal, stops without saving them, as if the editor
+ * crashed, and recovers them into the package loaded from the same files.
+ *
+ * @author Jakub Sapalski
+ */
+public class EditJournalTest {
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	private PackageSource source;
+	private QuestPackage pack;
+	private Path file;
+	private EditJournal journal;
+	
+	@Before
+	public void setUp() throws Exception {
+		Fixtures.editor();
+		Path directory = folder.newFolder("server").toPath();
+		Fixtures.copy(directory);
+		source = Fixtures.find(directory);
+		pack = Fixtures.load(source);
+		file = folder.getRoot().toPath().resolve("journal");
+		journal = new EditJournal(file);
+		journal.open();
+		journal.track(pack, source.getLocation(), Fixtures.stamps(source), false);
+	}
+	
+	@Test
+	public void addedConversationIsRecovered() throws Exception {
+		Conversation conv = new Conversation(pack, "newconv");
+		conv.getNPC().setDef("Stranger");
+		NpcOption start = conv.newNpcOption("start");
+		start.getText().setDef("Who are you?");
+		conv.getStartingOptions().add(new IdWrapper<>(pack, start));
+		pack.getConversations().add(conv);
+		// edits made after adding it are recorded too
+		PlayerOption answer = conv.newPlayerOption("answer");
+		answer.getText().setDef("Nobody");
+		start.getPointers().add(new IdWrapper<>(pack, answer));
+		conv.getStop().set(true);
+		Map<String, String> expected = crash();
+		QuestPackage recovered = recover();
+		Conversation loaded = recovered.getIndex(Conversation.class).get("newconv");
+		assertNotNull(loaded);
+		assertEquals("Stranger", loaded.getNPC().getDefValue());
+		assertEquals(expected, Fixtures.render(recovered, folder.newFolder("recovered").toPath()));
+	}
+	
+	@Test
+	public void removedConversationIsRecovered() throws Exception {
+		pack.getConversations().remove(pack.getIndex(Conversation.class).get("guard"));
+		Map<String, String> expected = crash();
+		QuestPackage recovered = recover();
+		assertNull(recovered.getIndex(Conversation.class).get("guard"));
+		assertFalse(expected.containsKey("conversations.guard"));
+		assertEquals(expected, Fixtures.render(recovered, folder.newFolder("recovered").toPath()));
+	}
+	
+	@Test
+	public void negatedConditionsAreRecovered() throws Exception {
+		RoundTripTest.negate(pack.getMainPage().get(0).getConditions(), true);
+		RoundTripTest.negate(pack.getConversations().get(0).getNpcOption("greet").getConditions(), false);
+		RoundTripTest.negate(pack.getCancelers().get(0).getConditions(), false);
+		Map<String, String> expected = crash();
+		QuestPackage recovered = recover();
+		assertTrue(recovered.getMainPage().get(0).getConditions().get(0).getNegated());
+		assertFalse(recovered.getConversations().get(0).getNpcOption("greet").getConditions().get(0).getNegated());
+		assertFalse(recovered.getCancelers().get(0).getConditions().get(0).getNegated());
+		assertEquals(expected, Fixtures.render(recovered, folder.newFolder("recovered").toPath()));
+	}
+	
+	@Test
+	public void truncatedRecordIsIgnored() throws Exception {
+		editTwice();
+		try (RandomAccessFile journalFile = new RandomAccessFile(file.toFile(), "rw")) {
+			journalFile.setLength(journalFile.length() - 3);
+		}
+		checkOnlyFirstEdit(recover());
+	}
+	
+	@Test
+	public void corruptRecordIsIgnored() throws Exception {
+		editTwice();
+		try (RandomAccessFile journalFile = new RandomAccessFile(file.toFile(), "rw")) {
+			long last = journalFile.length() - 1;
+			journalFile.seek(last);
+			int value = journalFile.read();
+			journalFile.seek(last);
+			journalFile.write(value ^ 0xff);
+		}
+		checkOnlyFirstEdit(recover());
+	}
+	
+	/**
+	 * Makes two edits, each recorded in its own record, and stops the
+	 * journal. The second edit is in the last record of the journal.
+	 */
+	private void editTwice() {
+		pack.getEvents().get(0).setInstructionValue("tag add first");
+		pack.getJournal().get(1).getText().setDef("Second edit");
+		journal.close();
+	}
+	
+	private void checkOnlyFirstEdit(QuestPackage recovered) {
+		assertEquals("tag add first", recovered.getEvents().get(0).getInstructionValue());
+		assertEquals("Plain text entry", recovered.getJournal().get(1).getText().getDefValue());
+	}
+	
+	/**
+	 * Stops the journal without saving the package.
+	 * 
+	 * @return files of the package as they would be saved
+	 */
+	private Map<String, String> crash() throws Exception {
+		journal.close();
+		return Fixtures.render(pack, folder.newFolder("expected").toPath());
+	}
+	
+	/**
+	 * Reads the journal as on the next start and loads the package with
+	 * recovered changes.
+	 */
+	private QuestPackage recover() throws Exception {
+		List<PackagePatch> patches = new EditJournal(file).recover();
+		assertEquals(1, patches.size());
+		PackagePatch patch = patches.get(0);
+		assertTrue(patch.matches(source));
+		Fixtures.editor();
+		return Fixtures.load(source, patch);
+	}
+	
+}
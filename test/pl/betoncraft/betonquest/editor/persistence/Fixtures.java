@@ -0,0 +1,210 @@
+/**
+ * BetonQuest Editor - advanced quest creating tool for BetonQuest
+ * Copyright (C) 2016  Jakub "Co0sh" Sapalski
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pl.betoncraft.betonquest.editor.persistence;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import pl.betoncraft.betonquest.editor.BetonQuestEditor;
+import pl.betoncraft.betonquest.editor.model.QuestPackage;
+
+/**
+ * Package used by persistence tests and helpers for loading and writing it.
+ * The package is in the "quest" directory next to this class; it's copied
+ * to a temporary directory by each test, so the original is never changed.
+ *
+ * @author Jakub Sapalski
+ */
+class Fixtures {
+	
+	static final String NAME = "quest";
+	
+	/**
+	 * Creates a new editor and makes it the current instance, so packages of
+	 * one test are not visible in another. The JavaFX application is not
+	 * started, so the model can only be used on the calling thread.
+	 */
+	static BetonQuestEditor editor() throws ReflectiveOperationException {
+		BetonQuestEditor editor = new BetonQuestEditor();
+		Field instance = BetonQuestEditor.class.getDeclaredField("instance");
+		instance.setAccessible(true);
+		instance.set(null, editor);
+		return editor;
+	}
+	
+	/**
+	 * Copies the package to the directory, into its own subdirectory, as in
+	 * the plugins/BetonQuest directory of a server.
+	 * 
+	 * @return the root of the copied package
+	 */
+	static Path copy(Path directory) throws IOException {
+		Path original;
+		try {
+			original = Paths.get(Fixtures.class.getResource(NAME).toURI());
+		} catch (URISyntaxException e) {
+			throw new IOException(e);
+		}
+		Path root = directory.resolve(NAME);
+		for (Path path : list(original)) {
+			Path target = root.resolve(original.relativize(path).toString());
+			Files.createDirectories(target.getParent());
+			Files.copy(path, target);
+		}
+		return root;
+	}
+	
+	/**
+	 * Packs the package copied to the directory into a zip file, with the
+	 * package in a top-level directory named after it.
+	 */
+	static File zip(Path directory, File zip) throws IOException {
+		return zip(directory, zip, Deflater.DEFAULT_COMPRESSION);
+	}
+	
+	/**
+	 * Packs the package like {@link #zip(Path, File)}, deflating entries with
+	 * the level.
+	 */
+	static File zip(Path directory, File zip, int level) throws IOException {
+		Path root = directory.resolve(NAME);
+		try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip))) {
+			out.setLevel(level);
+			for (Path path : list(root)) {
+				out.putNextEntry(new ZipEntry(NAME + '/' + root.relativize(path).toString().replace('\\', '/')));
+				Files.copy(path, out);
+				out.closeEntry();
+			}
+		}
+		return zip;
+	}
+	
+	/**
+	 * Loads the package without the snapshot cache, adds it to the current
+	 * editor and sorts it, as the editor does before displaying it.
+	 */
+	static QuestPackage load(PackageSource source) throws IOException {
+		return add(new PackageLoader(source, (done, total, name) -> {}, null).load());
+	}
+	
+	/**
+	 * Adds the loaded package to the current editor and sorts it.
+	 */
+	static QuestPackage add(QuestPackage pack) {
+		BetonQuestEditor.getInstance().getPackages().put(pack.getName().get(), pack);
+		pack.sort();
+		return pack;
+	}
+	
+	/**
+	 * Loads the package with changes recovered from the journal and adds it
+	 * to the current editor.
+	 */
+	static QuestPackage load(PackageSource source, PackagePatch patch) throws IOException {
+		PackageLoader loader = new PackageLoader(source, (done, total, name) -> {}, null);
+		loader.parse();
+		loader.patch(patch);
+		QuestPackage pack = new QuestPackage(source.getName());
+		loader.link(pack);
+		return add(pack);
+	}
+	
+	/**
+	 * @return stamps of the files mapped by their logical names
+	 */
+	static Map<String, String> stamps(PackageSource source) throws IOException {
+		HashMap<String, String> stamps = new HashMap<>();
+		for (Entry<String, PackageSource.Resource> entry : source.getFiles().entrySet()) {
+			stamps.put(entry.getKey(), entry.getValue().getStamp());
+		}
+		return stamps;
+	}
+	
+	/**
+	 * Finds the only package in the directory.
+	 */
+	static PackageSource find(Path directory) throws IOException {
+		List<PackageSource> sources = PackageSource.discover(directory);
+		if (sources.size() != 1) {
+			throw new IOException("Expected a single package, found " + sources.size());
+		}
+		return sources.get(0);
+	}
+	
+	/**
+	 * Writes all files of the package to the directory, as they would be
+	 * saved, and reads them back.
+	 * 
+	 * @return contents of the files mapped by their logical names
+	 */
+	static Map<String, String> render(QuestPackage pack, Path directory) throws IOException {
+		pack.getChanges().markAll();
+		new PackageWriter(pack).snapshot().write(directory);
+		return contents(find(directory));
+	}
+	
+	/**
+	 * @return contents of the files mapped by their logical names
+	 */
+	static Map<String, String> contents(PackageSource source) throws IOException {
+		TreeMap<String, String> contents = new TreeMap<>();
+		for (Entry<String, PackageSource.Resource> entry : source.getFiles().entrySet()) {
+			try (InputStream in = entry.getValue().open()) {
+				contents.put(entry.getKey(), new String(read(in), StandardCharsets.UTF_8));
+			}
+		}
+		return contents;
+	}
+	
+	static byte[] read(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int count;
+		while ((count = in.read(buffer)) > 0) {
+			out.write(buffer, 0, count);
+		}
+		return out.toByteArray();
+	}
+	
+	private static List<Path> list(Path directory) throws IOException {
+		try (Stream<Path> stream = Files.walk(directory)) {
+			return stream.filter(Files::isRegularFile).sorted().collect(Collectors.toCollection(ArrayList::new));
+		}
+	}
+	
+}
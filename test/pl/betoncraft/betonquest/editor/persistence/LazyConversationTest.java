@@ -0,0 +1,115 @@
+/**
+ * BetonQuest Editor - advanced quest creating tool for BetonQuest
+ * Copyright (C) 2016  Jakub "Co0sh" Sapalski
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pl.betoncraft.betonquest.editor.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import pl.betoncraft.betonquest.editor.model.Conversation;
+import pl.betoncraft.betonquest.editor.model.QuestPackage;
+import pl.betoncraft.betonquest.editor.model.SearchIndex.Result;
+import pl.betoncraft.betonquest.editor.model.exception.ConversationChangedException;
+
+/**
+ * Loads the package with conversations which are loaded when they're used
+ * for the first time.
+ *
+ * @author Jakub Sapalski
+ */
+public class LazyConversationTest {
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	private Path directory;
+	private QuestPackage pack;
+	
+	@Before
+	public void setUp() throws Exception {
+		Fixtures.editor();
+		directory = folder.newFolder("server").toPath();
+		Fixtures.copy(directory);
+		PackageLoader loader = new PackageLoader(Fixtures.find(directory), (done, total, name) -> {}, null);
+		loader.setLazyConversations(true);
+		pack = Fixtures.add(loader.load());
+		pack.getSearch().build();
+	}
+	
+	@Test
+	public void textsAreSearchedWithoutLoading() {
+		Conversation conv = pack.getIndex(Conversation.class).get("innkeeper");
+		assertFalse(conv.isLoaded());
+		List<Result> options = pack.getSearch().find("traveler", 10);
+		assertEquals(1, options.size());
+		assertEquals(conv.getNpcOption("greet"), options.get(0).getObject());
+		List<Result> npcs = pack.getSearch().find("Karczmarz", 10);
+		assertEquals(1, npcs.size());
+		assertEquals(conv, npcs.get(0).getObject());
+		assertEquals("pl", npcs.get(0).getLanguage());
+		assertFalse(conv.isLoaded());
+	}
+	
+	@Test
+	public void loadedTextsReplaceReadOnes() {
+		Conversation conv = pack.getIndex(Conversation.class).get("innkeeper");
+		conv.getNpcOption("greet").getText().addLang("en", "Hello wanderer, have you seen the new mill?");
+		assertTrue(conv.isLoaded());
+		assertTrue(pack.getSearch().find("traveler", 10).isEmpty());
+		assertEquals(1, pack.getSearch().find("new mill", 10).size());
+	}
+	
+	@Test
+	public void changedFileIsReported() throws Exception {
+		Conversation conv = pack.getIndex(Conversation.class).get("innkeeper");
+		Path file = directory.resolve(Fixtures.NAME).resolve("conversations").resolve("innkeeper.yml");
+		byte[] contents = Files.readAllBytes(file);
+		FileTime modified = Files.getLastModifiedTime(file);
+		Files.write(file, ("# changed\n" + new String(contents, StandardCharsets.UTF_8)).getBytes(StandardCharsets.UTF_8));
+		try {
+			conv.load();
+			fail("the changed file was read");
+		} catch (ConversationChangedException e) {
+			assertSame(conv, e.getConversation());
+		}
+		assertFalse(conv.isLoaded());
+		// the texts are not found until the package is reloaded
+		pack.getSearch().invalidate();
+		assertTrue(pack.getSearch().find("traveler", 10).isEmpty());
+		// nothing was loaded, so the conversation can still be loaded from the original file
+		Files.write(file, contents);
+		Files.setLastModifiedTime(file, modified);
+		conv.load();
+		assertTrue(conv.isLoaded());
+		assertEquals(1, pack.getSearch().find("traveler", 10).size());
+	}
+	
+}
@@ -0,0 +1,73 @@
+/**
+ * BetonQuest Editor - advanced quest creating tool for BetonQuest
+ * Copyright (C) 2016  Jakub "Co0sh" Sapalski
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pl.betoncraft.betonquest.editor.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Loads the package with values which can't be loaded.
+ *
+ * @author Jakub Sapalski
+ */
+public class PackageLoaderTest {
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	private Path directory;
+	
+	@Before
+	public void setUp() throws Exception {
+		Fixtures.editor();
+		directory = folder.newFolder("server").toPath();
+		Fixtures.copy(directory);
+	}
+	
+	@Test
+	public void validPackageHasNoErrors() throws Exception {
+		PackageLoader loader = loader();
+		loader.load();
+		assertTrue(loader.getErrors().isEmpty());
+	}
+	
+	@Test
+	public void priorityWhichIsNotNumberIsReported() throws Exception {
+		Path main = directory.resolve(Fixtures.NAME).resolve("main.yml");
+		String contents = new String(Files.readAllBytes(main), StandardCharsets.UTF_8);
+		Files.write(main, contents.replace("priority: 1", "priority: first").getBytes(StandardCharsets.UTF_8));
+		PackageLoader loader = loader();
+		loader.load();
+		assertEquals(Collections.singletonList("quest: journal_main_page.title.priority: first"), loader.getErrors());
+	}
+	
+	private PackageLoader loader() throws Exception {
+		return new PackageLoader(Fixtures.find(directory), (done, total, name) -> {}, null);
+	}
+	
+}
@@ -0,0 +1,200 @@
+/**
+ * BetonQuest Editor - advanced quest creating tool for BetonQuest
+ * Copyright (C) 2016  Jakub "Co0sh" Sapalski
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pl.betoncraft.betonquest.editor.persistence;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import pl.betoncraft.betonquest.editor.model.Event;
+import pl.betoncraft.betonquest.editor.model.QuestPackage;
+
+/**
+ * Saves the package over the zip it was loaded from. Entries of the original
+ * zip are deflated without compression, so an entry copied as it was can be
+ * told apart from one compressed again.
+ *
+ * @author Jakub Sapalski
+ */
+public class PackageSnapshotTest {
+	
+	private static final String EVENTS = Fixtures.NAME + "/events.yml";
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	private File zip;
+	private File original;
+	private QuestPackage pack;
+	
+	@Before
+	public void setUp() throws Exception {
+		Fixtures.editor();
+		Path directory = folder.newFolder("original").toPath();
+		Fixtures.copy(directory);
+		zip = Fixtures.zip(directory, folder.newFile("quest.zip"), Deflater.NO_COMPRESSION);
+		original = folder.newFile("copy.zip");
+		Files.copy(zip.toPath(), original.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		try (ZipFile file = new ZipFile(zip)) {
+			pack = Fixtures.load(PackageSource.fromZip(file));
+		}
+		pack.getIndex(Event.class).get("give").setInstructionValue("give emerald:6");
+	}
+	
+	@Test
+	public void unchangedEntriesAreCopiedRaw() throws Exception {
+		new PackageWriter(pack).snapshot().write(zip, Compression.DEFAULT);
+		Map<String, byte[]> before = raw(original);
+		Map<String, byte[]> after = raw(zip);
+		assertEquals(before.keySet(), after.keySet());
+		for (String name : before.keySet()) {
+			if (name.equals(EVENTS)) {
+				assertFalse(name, Arrays.equals(before.get(name), after.get(name)));
+			} else {
+				assertArrayEquals(name, before.get(name), after.get(name));
+			}
+		}
+		checkContents();
+	}
+	
+	@Test
+	public void maximumCompressionCompressesEveryEntry() throws Exception {
+		new PackageWriter(pack).snapshot().write(zip, Compression.MAXIMUM);
+		Map<String, byte[]> before = raw(original);
+		Map<String, byte[]> after = raw(zip);
+		assertEquals(before.keySet(), after.keySet());
+		for (String name : before.keySet()) {
+			assertTrue(name, after.get(name).length < before.get(name).length);
+		}
+		checkContents();
+	}
+	
+	@Test
+	public void changedMethodCompressesEveryEntry() throws Exception {
+		new PackageWriter(pack).snapshot().write(zip, Compression.STORED);
+		try (ZipFile zipFile = new ZipFile(zip)) {
+			for (Enumeration<? extends ZipEntry> entries = zipFile.entries(); entries.hasMoreElements();) {
+				ZipEntry entry = entries.nextElement();
+				assertEquals(entry.getName(), ZipEntry.STORED, entry.getMethod());
+			}
+		}
+		checkContents();
+	}
+	
+	@Test
+	public void replacedZipKeepsPermissions() throws Exception {
+		Assume.assumeNotNull(Files.getFileAttributeView(zip.toPath(), PosixFileAttributeView.class));
+		Set<PosixFilePermission> permissions = PosixFilePermissions.fromString("rw-rw-r--");
+		Files.setPosixFilePermissions(zip.toPath(), permissions);
+		new PackageWriter(pack).snapshot().write(zip, Compression.DEFAULT);
+		assertEquals(permissions, Files.getPosixFilePermissions(zip.toPath()));
+		checkContents();
+	}
+	
+	/**
+	 * Checks that the saved zip can be read, that every entry matches its
+	 * checksum and that only the edited file has changed.
+	 */
+	private void checkContents() throws IOException {
+		Map<String, byte[]> before = contents(original);
+		Map<String, byte[]> after = contents(zip);
+		assertEquals(before.keySet(), after.keySet());
+		for (String name : before.keySet()) {
+			if (name.equals(EVENTS)) {
+				assertTrue(new String(after.get(name), StandardCharsets.UTF_8).contains("give emerald:6"));
+			} else {
+				assertArrayEquals(name, before.get(name), after.get(name));
+			}
+		}
+		// reading the entries in order also checks local headers and checksums
+		try (ZipInputStream in = new ZipInputStream(new FileInputStream(zip))) {
+			int count = 0;
+			while (in.getNextEntry() != null) {
+				Fixtures.read(in);
+				count++;
+			}
+			assertEquals(after.size(), count);
+		}
+	}
+	
+	/**
+	 * @return uncompressed contents of the entries, mapped by their names
+	 */
+	private static Map<String, byte[]> contents(File file) throws IOException {
+		HashMap<String, byte[]> contents = new HashMap<>();
+		try (ZipFile zipFile = new ZipFile(file)) {
+			for (Enumeration<? extends ZipEntry> entries = zipFile.entries(); entries.hasMoreElements();) {
+				ZipEntry entry = entries.nextElement();
+				try (InputStream in = zipFile.getInputStream(entry)) {
+					contents.put(entry.getName(), Fixtures.read(in));
+				}
+			}
+		}
+		return contents;
+	}
+	
+	/**
+	 * @return compressed data of the entries, as stored in the file, mapped
+	 *         by their names
+	 */
+	private static Map<String, byte[]> raw(File file) throws IOException {
+		HashMap<String, byte[]> raw = new HashMap<>();
+		try (ZipFile zipFile = new ZipFile(file); ZipIndex index = ZipIndex.open(file)) {
+			for (Enumeration<? extends ZipEntry> entries = zipFile.entries(); entries.hasMoreElements();) {
+				String name = entries.nextElement().getName();
+				ZipIndex.Entry entry = index.get(name);
+				assertNotNull(name, entry);
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				index.copy(entry, out);
+				raw.put(name, out.toByteArray());
+			}
+		}
+		return raw;
+	}
+	
+}
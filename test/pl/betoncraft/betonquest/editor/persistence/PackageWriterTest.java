@@ -0,0 +1,327 @@
+/**
+ * BetonQuest Editor - advanced quest creating tool for BetonQuest
+ * Copyright (C) 2016  Jakub "Co0sh" Sapalski
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pl.betoncraft.betonquest.editor.persistence;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import com.fasterxml.jackson.dataformat.yaml.YAMLMapper;
+
+import pl.betoncraft.betonquest.editor.data.ConditionWrapper;
+import pl.betoncraft.betonquest.editor.data.ID;
+import pl.betoncraft.betonquest.editor.data.IdWrapper;
+import pl.betoncraft.betonquest.editor.data.Instruction;
+import pl.betoncraft.betonquest.editor.data.TranslatableText;
+import pl.betoncraft.betonquest.editor.model.Condition;
+import pl.betoncraft.betonquest.editor.model.Conversation;
+import pl.betoncraft.betonquest.editor.model.ConversationOption;
+import pl.betoncraft.betonquest.editor.model.Event;
+import pl.betoncraft.betonquest.editor.model.GlobalLocation;
+import pl.betoncraft.betonquest.editor.model.GlobalVariable;
+import pl.betoncraft.betonquest.editor.model.JournalEntry;
+import pl.betoncraft.betonquest.editor.model.MainPageLine;
+import pl.betoncraft.betonquest.editor.model.NpcBinding;
+import pl.betoncraft.betonquest.editor.model.NpcOption;
+import pl.betoncraft.betonquest.editor.model.PlayerOption;
+import pl.betoncraft.betonquest.editor.model.QuestCanceler;
+import pl.betoncraft.betonquest.editor.model.QuestPackage;
+import pl.betoncraft.betonquest.editor.model.StaticEvent;
+
+/**
+ * Compares files written by the streaming writer with files written by the
+ * writer it replaced, which built a tree of nodes for each file. The old
+ * writer is kept here as it was, except that objects are named as they were
+ * displayed with the saved package and conversation shown in the editor, and
+ * empty lists, on which it failed, are left out.
+ *
+ * @author Jakub Sapalski
+ */
+public class PackageWriterTest {
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	private QuestPackage pack;
+	
+	@Before
+	public void setUp() throws Exception {
+		Fixtures.editor();
+		Path directory = folder.newFolder("server").toPath();
+		Fixtures.copy(directory);
+		pack = Fixtures.load(Fixtures.find(directory));
+	}
+	
+	@Test
+	public void outputMatchesTreeWriter() throws Exception {
+		compare();
+	}
+	
+	@Test
+	public void repeatedKeysMatchTreeWriter() throws Exception {
+		// repeated IDs keep the position of the first object and the value of the last one
+		pack.getEvents().add(1, new Event(pack, "start", "tag add restarted"));
+		pack.getEvents().add(new Event(pack, "reset", "tag delete finished"));
+		pack.getConditions().add(new Condition(pack, "ready", "point rep 10"));
+		GlobalVariable variable = new GlobalVariable(pack, "loc", "1;2;3;world");
+		pack.getVariables().add(variable);
+		NpcBinding binding = new NpcBinding(pack, "1", pack.getIndex(Conversation.class).get("guard"));
+		pack.getNpcBindings().add(binding);
+		JournalEntry entry = new JournalEntry(pack, "start_entry");
+		entry.getText().setDef("Started again");
+		pack.getJournal().add(entry);
+		QuestCanceler canceler = new QuestCanceler(pack, "quest");
+		canceler.getName().setDef("Other quest");
+		canceler.getTags().add(new IdWrapper<>(pack, pack.getTags().get(0)));
+		pack.getCancelers().add(canceler);
+		MainPageLine line = new MainPageLine(pack, "title");
+		line.getText().setDef("Welcome again");
+		line.getPriority().set(2);
+		Condition condition = pack.getIndex(Condition.class).get("has_tag");
+		ConditionWrapper negated = new ConditionWrapper(pack, condition);
+		negated.setNegated(true);
+		line.getConditions().add(negated);
+		pack.getMainPage().add(line);
+		Conversation conv = pack.getIndex(Conversation.class).get("innkeeper");
+		NpcOption busy = new NpcOption(conv, "busy");
+		busy.getText().setDef("Still busy.");
+		conv.getNpcOptions().add(0, busy);
+		PlayerOption yes = new PlayerOption(conv, "yes");
+		yes.getText().addLang("en", "Sure");
+		conv.getPlayerOptions().add(yes);
+		compare();
+	}
+	
+	/**
+	 * Writes every file of the package with both writers and compares the
+	 * bytes.
+	 */
+	private void compare() throws IOException {
+		Map<String, byte[]> expected = new TreeMap<>();
+		expected.put("main", printMain());
+		for (Conversation conv : pack.getConversations()) {
+			expected.put("conversations." + conv.getIdValue(), printConversation(conv));
+		}
+		expected.put("events", printInstructions(pack.getEvents()));
+		expected.put("conditions", printInstructions(pack.getConditions()));
+		expected.put("objectives", printInstructions(pack.getObjectives()));
+		expected.put("items", printInstructions(pack.getItems()));
+		expected.put("journal", printJournal());
+		Map<String, byte[]> written = write();
+		assertEquals(expected.keySet(), written.keySet());
+		for (String name : expected.keySet()) {
+			assertEquals(name, new String(expected.get(name), "UTF-8"), new String(written.get(name), "UTF-8"));
+			assertArrayEquals(name, expected.get(name), written.get(name));
+		}
+	}
+	
+	/**
+	 * @return files saved by the streaming writer, mapped by their logical
+	 *         names
+	 */
+	private Map<String, byte[]> write() throws IOException {
+		pack.getChanges().markAll();
+		Path directory = folder.newFolder("saved").toPath();
+		new PackageWriter(pack).snapshot().write(directory);
+		Map<String, byte[]> files = new TreeMap<>();
+		for (Entry<String, PackageSource.Resource> file : Fixtures.find(directory).getFiles().entrySet()) {
+			try (InputStream in = file.getValue().open()) {
+				files.put(file.getKey(), Fixtures.read(in));
+			}
+		}
+		return files;
+	}
+	
+	private byte[] printMain() throws IOException {
+		YAMLMapper mapper = new YAMLMapper();
+		ObjectNode root = mapper.createObjectNode();
+		if (!pack.getNpcBindings().isEmpty()) {
+			ObjectNode npcs = mapper.createObjectNode();
+			for (NpcBinding binding : pack.getNpcBindings()) {
+				npcs.put(binding.getIdValue(), binding.getConversation().get().getIdValue());
+			}
+			root.set("npcs", npcs);
+		}
+		if (!pack.getVariables().isEmpty()) {
+			ObjectNode variables = mapper.createObjectNode();
+			for (GlobalVariable var : pack.getVariables()) {
+				variables.put(var.getIdValue(), var.getInstructionValue());
+			}
+			root.set("variables", variables);
+		}
+		if (!pack.getStaticEvents().isEmpty()) {
+			ObjectNode staticEvents = mapper.createObjectNode();
+			for (StaticEvent event : pack.getStaticEvents()) {
+				staticEvents.put(event.getIdValue(), event.getEvent().get().getIdValue());
+			}
+			root.set("static", staticEvents);
+		}
+		if (!pack.getLocations().isEmpty()) {
+			StringBuilder builder = new StringBuilder();
+			for (GlobalLocation loc : pack.getLocations()) {
+				builder.append(loc.toString() + ",");
+			}
+			root.put("global_locations", builder.toString().substring(0, builder.length() - 1));
+		}
+		if (!pack.getCancelers().isEmpty()) {
+			ObjectNode cancelers = mapper.createObjectNode();
+			for (QuestCanceler canceler : pack.getCancelers()) {
+				ObjectNode cancelerNode = mapper.createObjectNode();
+				addTranslatedNode(mapper, cancelerNode, "name", canceler.getName());
+				putList(cancelerNode, "events", canceler.getEvents(), null);
+				putList(cancelerNode, "conditions", canceler.getConditions(), null);
+				putList(cancelerNode, "objectives", canceler.getObjectives(), null);
+				putList(cancelerNode, "tags", canceler.getTags(), null);
+				putList(cancelerNode, "points", canceler.getPoints(), null);
+				putList(cancelerNode, "journal", canceler.getJournal(), null);
+				if (canceler.getLocation() != null) {
+					cancelerNode.put("loc", canceler.getLocation());
+				}
+				cancelers.set(canceler.getIdValue(), cancelerNode);
+			}
+			root.set("cancel", cancelers);
+		}
+		if (!pack.getMainPage().isEmpty()) {
+			ObjectNode lines = mapper.createObjectNode();
+			for (MainPageLine line : pack.getMainPage()) {
+				ObjectNode node = mapper.createObjectNode();
+				addTranslatedNode(mapper, node, "text", line.getText());
+				node.put("priority", line.getPriority().get());
+				putList(node, "conditions", line.getConditions(), null);
+				lines.set(line.getIdValue(), node);
+			}
+			root.set("journal_main_page", lines);
+		}
+		return print(mapper, root);
+	}
+	
+	private byte[] printInstructions(List<? extends Instruction> list) throws IOException {
+		YAMLMapper mapper = new YAMLMapper();
+		ObjectNode root = mapper.createObjectNode();
+		for (Instruction object : list) {
+			root.put(object.getIdValue(), object.getInstructionValue());
+		}
+		return print(mapper, root);
+	}
+	
+	private byte[] printJournal() throws IOException {
+		YAMLMapper mapper = new YAMLMapper();
+		ObjectNode root = mapper.createObjectNode();
+		for (JournalEntry entry : pack.getJournal()) {
+			addTranslatedNode(mapper, root, entry.getIdValue(), entry.getText());
+		}
+		return print(mapper, root);
+	}
+	
+	private byte[] printConversation(Conversation conv) throws IOException {
+		YAMLMapper mapper = new YAMLMapper();
+		ObjectNode root = mapper.createObjectNode();
+		addTranslatedNode(mapper, root, "quester", conv.getNPC());
+		root.put("stop", String.valueOf(conv.getStop().get()));
+		putList(root, "first", conv.getStartingOptions(), conv);
+		putList(root, "final", conv.getFinalEvents(), conv);
+		putOptions(mapper, root, "NPC_options", conv.getNpcOptions(), conv);
+		putOptions(mapper, root, "player_options", conv.getPlayerOptions(), conv);
+		return print(mapper, root);
+	}
+	
+	private void putOptions(YAMLMapper mapper, ObjectNode root, String name, List<? extends ConversationOption> options,
+			Conversation conv) {
+		if (options.isEmpty()) {
+			return;
+		}
+		ObjectNode optionsNode = mapper.createObjectNode();
+		for (ConversationOption option : options) {
+			ObjectNode optionNode = mapper.createObjectNode();
+			addTranslatedNode(mapper, optionNode, "text", option.getText());
+			putList(optionNode, "events", option.getEvents(), conv);
+			putList(optionNode, "conditions", option.getConditions(), conv);
+			putList(optionNode, "pointers", option.getPointers(), conv);
+			optionsNode.set(option.getIdValue(), optionNode);
+		}
+		root.set(name, optionsNode);
+	}
+	
+	private void addTranslatedNode(YAMLMapper mapper, ObjectNode root, String name, TranslatableText text) {
+		if (text.hasDef()) {
+			root.put(name, text.getDefValue());
+		} else {
+			ObjectNode node = mapper.createObjectNode();
+			for (String lang : text.getLanguages()) {
+				if (lang == null) {
+					continue;
+				}
+				node.put(lang, text.getLangValue(lang));
+			}
+			root.set(name, node);
+		}
+	}
+	
+	/**
+	 * Puts the list as a comma-separated value, if it's not empty.
+	 * 
+	 * @param displayed
+	 *            conversation displayed while the list is written, or null
+	 */
+	private void putList(ObjectNode node, String name, List<? extends IdWrapper<?>> list, Conversation displayed) {
+		if (list.isEmpty()) {
+			return;
+		}
+		StringBuilder builder = new StringBuilder();
+		for (IdWrapper<?> wrapper : list) {
+			if (wrapper instanceof ConditionWrapper && ((ConditionWrapper) wrapper).getNegated()) {
+				builder.append('!');
+			}
+			builder.append(name(wrapper.get(), displayed) + ',');
+		}
+		node.put(name, builder.substring(0, builder.length() - 1));
+	}
+	
+	/**
+	 * Names the object as it was displayed while this package was shown.
+	 */
+	private String name(ID object, Conversation displayed) {
+		if (object instanceof ConversationOption) {
+			Conversation conv = ((ConversationOption) object).getConversation();
+			return conv == displayed ? object.getIdValue() : conv.getIdValue() + "." + object.getIdValue();
+		}
+		return object.getPack() == pack ? object.getIdValue() : object.getPack().getName().get() + "." + object.getIdValue();
+	}
+	
+	private static byte[] print(YAMLMapper mapper, ObjectNode root) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new YAMLFactory().createGenerator(out).setCodec(mapper).writeObject(root);
+		return out.toByteArray();
+	}
+	
+}
@@ -0,0 +1,152 @@
+/**
+ * BetonQuest Editor - advanced quest creating tool for BetonQuest
+ * Copyright (C) 2016  Jakub "Co0sh" Sapalski
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pl.betoncraft.betonquest.editor.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipFile;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import pl.betoncraft.betonquest.editor.data.ConditionWrapper;
+import pl.betoncraft.betonquest.editor.data.IdWrapper;
+import pl.betoncraft.betonquest.editor.model.Conversation;
+import pl.betoncraft.betonquest.editor.model.NpcOption;
+import pl.betoncraft.betonquest.editor.model.QuestPackage;
+
+/**
+ * Loads the package, edits it, saves it and loads it again, checking that
+ * nothing but the edits changed.
+ *
+ * @author Jakub Sapalski
+ */
+public class RoundTripTest {
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	@Before
+	public void setUp() throws Exception {
+		Fixtures.editor();
+	}
+	
+	@Test
+	public void zipPackageKeepsEverythingButEdits() throws Exception {
+		Path original = folder.newFolder("original").toPath();
+		Fixtures.copy(original);
+		File zip = Fixtures.zip(original, folder.newFile("quest.zip"));
+		QuestPackage pack;
+		try (ZipFile file = new ZipFile(zip)) {
+			pack = Fixtures.load(PackageSource.fromZip(file));
+		}
+		Map<String, String> expected = edit(pack, folder.newFolder("expected").toPath());
+		new PackageWriter(pack).snapshot().write(zip);
+		Fixtures.editor();
+		try (ZipFile file = new ZipFile(zip)) {
+			PackageSource source = PackageSource.fromZip(file);
+			QuestPackage loaded = Fixtures.load(source);
+			check(loaded);
+			assertEquals(expected, Fixtures.contents(source));
+			assertEquals(expected, Fixtures.render(loaded, folder.newFolder("again").toPath()));
+		}
+	}
+	
+	@Test
+	public void directoryPackageKeepsEverythingButEdits() throws Exception {
+		Path directory = folder.newFolder("server").toPath();
+		Fixtures.copy(directory);
+		QuestPackage pack = Fixtures.load(Fixtures.find(directory));
+		Map<String, String> expected = edit(pack, folder.newFolder("expected").toPath());
+		new PackageWriter(pack).snapshot().write(directory);
+		Fixtures.editor();
+		PackageSource source = Fixtures.find(directory);
+		QuestPackage loaded = Fixtures.load(source);
+		check(loaded);
+		assertEquals(expected, Fixtures.contents(source));
+		assertEquals(expected, Fixtures.render(loaded, folder.newFolder("again").toPath()));
+	}
+	
+	@Test
+	public void negatedConditionsAreSaved() throws Exception {
+		Path original = folder.newFolder("original").toPath();
+		Fixtures.copy(original);
+		File zip = Fixtures.zip(original, folder.newFile("quest.zip"));
+		QuestPackage pack;
+		try (ZipFile file = new ZipFile(zip)) {
+			pack = Fixtures.load(PackageSource.fromZip(file));
+		}
+		negate(pack.getMainPage().get(0).getConditions(), true);
+		negate(pack.getConversations().get(0).getNpcOption("greet").getConditions(), false);
+		// only changed files are written, the rest is copied from the zip
+		new PackageWriter(pack).snapshot().write(zip);
+		Fixtures.editor();
+		try (ZipFile file = new ZipFile(zip)) {
+			QuestPackage loaded = Fixtures.load(PackageSource.fromZip(file));
+			assertTrue(loaded.getMainPage().get(0).getConditions().get(0).getNegated());
+			assertFalse(loaded.getConversations().get(0).getNpcOption("greet").getConditions().get(0).getNegated());
+		}
+	}
+	
+	/**
+	 * Negates the first condition like the list cell does, replacing it in
+	 * the list to notify about the change.
+	 */
+	static void negate(List<ConditionWrapper> conditions, boolean negated) {
+		ConditionWrapper condition = conditions.get(0);
+		assertEquals(!negated, condition.getNegated());
+		condition.setNegated(negated);
+		conditions.set(0, condition);
+	}
+	
+	/**
+	 * Changes an instruction, a journal entry and a conversation.
+	 * 
+	 * @return files of the edited package, rendered to the directory
+	 */
+	private static Map<String, String> edit(QuestPackage pack, Path directory) throws Exception {
+		pack.getEvents().get(0).setInstructionValue("tag add edited");
+		pack.getJournal().get(1).getText().setDef("Edited entry");
+		Conversation conv = pack.getConversations().get(0);
+		NpcOption option = conv.newNpcOption("edited");
+		option.getText().setDef("Added option");
+		conv.getStartingOptions().add(new IdWrapper<>(pack, option));
+		Map<String, String> expected = Fixtures.render(pack, directory);
+		// rendering resets tracked changes, everything is written again
+		pack.getChanges().markAll();
+		return expected;
+	}
+	
+	private static void check(QuestPackage pack) {
+		assertEquals("tag add edited", pack.getEvents().get(0).getInstructionValue());
+		assertEquals("Edited entry", pack.getJournal().get(1).getText().getDefValue());
+		NpcOption option = pack.getConversations().get(0).getNpcOption("edited");
+		assertNotNull(option);
+		assertEquals("Added option", option.getText().getDefValue());
+	}
+	
+}
@@ -0,0 +1,110 @@
+/**
+ * BetonQuest Editor - advanced quest creating tool for BetonQuest
+ * Copyright (C) 2016  Jakub "Co0sh" Sapalski
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pl.betoncraft.betonquest.editor.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import pl.betoncraft.betonquest.editor.model.Conversation;
+import pl.betoncraft.betonquest.editor.model.Event;
+import pl.betoncraft.betonquest.editor.model.QuestPackage;
+
+/**
+ * Checks that a package is read from its snapshot only while its files have
+ * the same stamps as when the snapshot was written.
+ *
+ * @author Jakub Sapalski
+ */
+public class SnapshotCacheTest {
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	private Path directory;
+	private SnapshotCache cache;
+	
+	@Before
+	public void setUp() throws Exception {
+		Fixtures.editor();
+		directory = folder.newFolder("server").toPath();
+		Fixtures.copy(directory);
+		cache = new SnapshotCache(folder.newFolder("cache").toPath());
+		PackageLoader loader = loader();
+		loader.load();
+		assertFalse(loader.isFromSnapshot());
+		// the snapshot is written in the background after linking
+		assertTrue(ForkJoinPool.commonPool().awaitQuiescence(10, TimeUnit.SECONDS));
+	}
+	
+	@Test
+	public void unchangedPackageIsReadFromSnapshot() throws Exception {
+		assertNotNull(cache.read(Fixtures.find(directory)));
+		PackageLoader loader = loader();
+		QuestPackage pack = loader.load();
+		assertTrue(loader.isFromSnapshot());
+		assertEquals("give emerald:5", instruction(pack, "give"));
+	}
+	
+	@Test
+	public void changedStampInvalidatesSnapshot() throws Exception {
+		Path events = directory.resolve(Fixtures.NAME).resolve("events.yml");
+		String contents = new String(Files.readAllBytes(events), StandardCharsets.UTF_8);
+		// the same size, so only the modification time changes the stamp
+		Files.write(events, contents.replace("emerald:5", "emerald:6").getBytes(StandardCharsets.UTF_8));
+		Files.setLastModifiedTime(events, FileTime.fromMillis(Files.getLastModifiedTime(events).toMillis() + 2000));
+		assertNull(cache.read(Fixtures.find(directory)));
+		PackageLoader loader = loader();
+		QuestPackage pack = loader.load();
+		assertFalse(loader.isFromSnapshot());
+		assertEquals("give emerald:6", instruction(pack, "give"));
+	}
+	
+	@Test
+	public void removedFileInvalidatesSnapshot() throws Exception {
+		Files.delete(directory.resolve(Fixtures.NAME).resolve("conversations").resolve("guard.yml"));
+		assertNull(cache.read(Fixtures.find(directory)));
+		PackageLoader loader = loader();
+		QuestPackage pack = loader.load();
+		assertFalse(loader.isFromSnapshot());
+		assertNull(pack.getIndex(Conversation.class).get("guard"));
+	}
+	
+	private PackageLoader loader() throws Exception {
+		return new PackageLoader(Fixtures.find(directory), (done, total, name) -> {}, cache);
+	}
+	
+	private static String instruction(QuestPackage pack, String name) {
+		return pack.getIndex(Event.class).get(name).getInstructionValue();
+	}
+	
+}